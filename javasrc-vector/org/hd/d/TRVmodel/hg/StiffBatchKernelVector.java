@@ -0,0 +1,71 @@
+package org.hd.d.TRVmodel.hg;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**Vector API (SIMD) path for StiffBatchKernel with the HG linear CoP.
+ * This class links to the incubating jdk.incubator.vector module,
+ * so lives in its own optional source root, compiled with that module added,
+ * and is only loaded (reflectively) by StiffBatchKernel once it has found that module present.
+ * <p>
+ * The per-hour arithmetic is that of HourlyDemandFormulas, done lane-wise.
+ */
+final class StiffBatchKernelVector implements StiffBatchKernel.VectorPath
+	{
+	/**Create an instance; package-visible for reflective construction. */
+	StiffBatchKernelVector() { }
+
+	/**Preferred (widest) double species on this hardware. */
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override public int lanes() { return(SPECIES.length()); }
+
+	@Override public void accumulate(final StiffBatchKernel k, final StiffBatchKernel.Accumulator a,
+			final double[] temperatures, final int start, final int len, final double base)
+		{
+		final double radW = HGTRVHPMModel.RADIATOR_POWER_WITH_HOME_AT_NORMAL_ROOM_TEMPERATURE_W;
+		final double normalC = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C;
+		final double dTK = HGTRVHPMModel.RADIATOR_MWATDT_AT_NORMAL_ROOM_TEMPERATURE_K;
+		final double exp = HGTRVHPMModel.RADIATOR_EXP_POWER_TO_DT;
+		// Flow temperature offset for the CoP, folding in the correction.
+		final double copOffsetK = k.coPCorrectionK - HGTRVHPMModel.CoPLt;
+
+		DoubleVector heatNSB = DoubleVector.zero(SPECIES);
+		DoubleVector elNSB = DoubleVector.zero(SPECIES);
+		DoubleVector heatSB = DoubleVector.zero(SPECIES);
+		DoubleVector elSB = DoubleVector.zero(SPECIES);
+		int raises = 0;
+
+		final int bound = start + SPECIES.loopBound(len);
+		for(int i = start; i < bound; i += SPECIES.length())
+			{
+			final DoubleVector t = DoubleVector.fromArray(SPECIES, temperatures, i);
+			final VectorMask<Double> heating = t.compare(VectorOperators.LT, base);
+			// Clamp so that masked-off lanes stay finite.
+			// As HourlyDemandFormulas heatLossW(), meanWaterC() and cop() with the HG linear CoP.
+			final DoubleVector c = t.min(base);
+			final DoubleVector hhlNSB = c.neg().add(normalC).mul(k.homeHeatLossPerK);
+			final DoubleVector hhlSB = c.neg().add(HGTRVHPMModel.MEAN_HOME_TEMPERATURE_WITH_SETBACK_C).mul(k.homeHeatLossPerK);
+			final DoubleVector radWnsb = hhlNSB.div(k.numRooms);
+			final DoubleVector mwNSB = radWnsb.div(radW).lanewise(VectorOperators.POW, exp).mul(dTK).add(normalC);
+			final DoubleVector mwSB = radWnsb.add(k.internalHeatLossPerA).div(radW).lanewise(VectorOperators.POW, exp).mul(dTK).add(normalC);
+			final DoubleVector eNSB = hhlNSB.div(mwNSB.add(copOffsetK).mul(HourlyDemandFormulas.HG_LINEAR_COP_SLOPE).add(HGTRVHPMModel.CoPL));
+			final DoubleVector eSB = hhlSB.div(mwSB.add(copOffsetK).mul(HourlyDemandFormulas.HG_LINEAR_COP_SLOPE).add(HGTRVHPMModel.CoPL));
+			heatNSB = heatNSB.add(hhlNSB, heating);
+			elNSB = elNSB.add(eNSB, heating);
+			heatSB = heatSB.add(hhlSB, heating);
+			elSB = elSB.add(eSB, heating);
+			raises += eSB.compare(VectorOperators.GT, eNSB).and(heating).trueCount();
+			}
+
+		a.heatDemandNSB += heatNSB.reduceLanes(VectorOperators.ADD);
+		a.heatPumpElectricityNSB += elNSB.reduceLanes(VectorOperators.ADD);
+		a.heatDemandSB += heatSB.reduceLanes(VectorOperators.ADD);
+		a.heatPumpElectricitySB += elSB.reduceLanes(VectorOperators.ADD);
+		a.hoursSetbackRaisesDemand += raises;
+
+		for(int i = bound; i < start + len; ++i) { if(temperatures[i] < base) { k.accumulateHeatingHour(a, temperatures[i]); } }
+		}
+	}
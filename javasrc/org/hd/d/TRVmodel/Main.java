@@ -16,12 +16,23 @@ Licensed under the Apache License, Version 2.0 (the "License");
 
 package org.hd.d.TRVmodel;
 
+import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
 
+import org.hd.d.TRVmodel.data.SyntheticHourlyTemperatureGenerator;
+import org.hd.d.TRVmodel.hg.ResultCube;
+import org.hd.d.TRVmodel.hg.ScalingBenchmark;
 import org.hd.d.TRVmodel.hg.ShowComputations;
+import org.hd.d.TRVmodel.stats.PhaseTimings;
 
 /**Main (command-line) entry-point for the data handler.
  */
@@ -34,6 +45,9 @@ public final class Main
     private static void printOptions()
         {
         System.err.println("Commands/options");
+        System.err.println("  [-timings[=FILE.json]] COMMAND ...");
+        System.err.println("    Report time, allocation and throughput per phase of COMMAND");
+        System.err.println("    to stderr, or as JSON to FILE.json.");
         System.err.println("  -help");
         System.err.println("    This summary/help.");
         System.err.println("  -hg");
@@ -44,6 +58,12 @@ public final class Main
         System.err.println("  -LaTeXtable XXX");
         System.err.println("    Write LaTeX table XXX to out.html for debugging.");
         System.err.println("    XXX can be one of: summary, summarySoft, sagSoft");
+        System.err.println("  -synthdata DIR STATIONS YEARS [csv|csv.gz|hts]");
+        System.err.println("    Write STATIONS synthetic stations of YEARS years from 2010 to existing DIR.");
+        System.err.println("    Models are fitted from the 201X data; output is gzipped CSV by default.");
+        System.err.println("  -bench OUT.csv [SIZES]");
+        System.err.println("    Run the dataset-size scaling benchmark, writing CSV results to OUT.csv.");
+        System.err.println("    SIZES is eg 1x1,7x10 as STATIONSxYEARS; see ScalingBenchmark.DEFAULT_SIZES.");
        }
 
     /**Default name of output file for HTML table generation; non-null. */
@@ -52,13 +72,82 @@ public final class Main
     /**Default name of output file for LaTeX table generation; non-null. */
     public static final File DEFAULT_OUTPUT_NAME_LaTeX = new File("out.tex");
 
+    /**Open a buffered UTF-8 writer directly on a file channel, truncating any existing file; never null. */
+    private static Writer openOutput(final File f) throws IOException
+	    {
+    	return(new BufferedWriter(Channels.newWriter(
+			FileChannel.open(f.toPath(), StandardOpenOption.WRITE, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING),
+			StandardCharsets.UTF_8), 1 << 16));
+	    }
+
+    /**Renders output to a destination. */
+    @FunctionalInterface
+    private interface Renderer { void render(Appendable out) throws IOException; }
+
+    /**Render straight into w and flush it, timed as the "render" and "write" phases.
+     * Output is streamed to w, without holding the whole document in memory,
+     * except when timing is enabled: then it is rendered to memory first
+     * so that rendering and writing are timed separately.
+     */
+    private static void renderTimed(final Writer w, final Renderer renderer) throws IOException
+	    {
+    	final StringWriter rendered = PhaseTimings.isEnabled() ? new StringWriter() : null;
+    	final PhaseTimings.Span render = PhaseTimings.start("render");
+    	try { renderer.render((null != rendered) ? rendered : w); }
+    	finally { render.close(); }
+    	final PhaseTimings.Span s = PhaseTimings.start("write");
+    	try
+	    	{
+    		if(null != rendered) { w.append(rendered.getBuffer()); }
+    		w.flush();
+	    	}
+    	finally { s.close(); }
+	    }
+
+    /**Option prefix to enable phase timings. */
+    private static final String TIMINGS_OPTION = "-timings";
+
+    /**If non-null, file to write phase timings to as JSON, else write them to stderr. */
+    private static File timingsJSON;
+
+    /**Span of the whole command, if timing. */
+    private static PhaseTimings.Span commandSpan;
+
+    /**Exit with the given status, first reporting phase timings if enabled. */
+    private static void exit(final int status)
+	    {
+    	if(PhaseTimings.isEnabled())
+	    	{
+    		commandSpan.close();
+    		try
+	    		{
+	    		if(null == timingsJSON) { PhaseTimings.writeReport(System.err); }
+	    		else { try(Writer w = openOutput(timingsJSON)) { PhaseTimings.writeJSON(w); } }
+	    		}
+    		catch(final IOException e) { e.printStackTrace(); }
+	    	}
+    	System.exit(status);
+	    }
+
     /**Accepts command-line arguments.
      * See {@link #printOptions()}.
      *
-     * @param args  command-line arguments, per {@link #printOptions()}
+     * @param rawArgs  command-line arguments, per {@link #printOptions()}
      */
-    public static void main(final String[] args)
+    public static void main(final String[] rawArgs)
         {
+    	// Strip and act on any leading timings option.
+    	final boolean timings = (rawArgs.length > 0) &&
+			(TIMINGS_OPTION.equals(rawArgs[0]) || rawArgs[0].startsWith(TIMINGS_OPTION + "="));
+    	final String[] args = timings ? Arrays.copyOfRange(rawArgs, 1, rawArgs.length) : rawArgs;
+    	if(timings)
+	    	{
+    		if(rawArgs[0].length() > TIMINGS_OPTION.length())
+    			{ timingsJSON = new File(rawArgs[0].substring(TIMINGS_OPTION.length() + 1)); }
+    		PhaseTimings.enable();
+    		commandSpan = PhaseTimings.start("command");
+	    	}
+
         if((args.length < 1) || "-help".equals(args[0]))
             {
             printOptions();
@@ -73,53 +162,88 @@ public final class Main
         	if("-hg".equals(args[0]))
     			{
         		ShowComputations.showCalcs();
-        		System.exit(0);
+        		exit(0);
     			}
 
         	if("-htmltable".equals(args[0]) && (args.length > 1))
     			{
-        		final String tableHTML;
-
         		switch(args[1])
         		{
-        		case "summary": tableHTML = ShowComputations.generateHTMLMainSummaryTable(true); break;
-        		case "summarySoft": tableHTML = ShowComputations.generateHTMLMainSummaryTable(false); break;
-        		case "sagSoft": tableHTML = ShowComputations.generateHTMLSagTable(); break;
+        		case "summary": case "summarySoft": case "sagSoft": break;
         		default:
         			System.err.println("unknown table: " + args[1]);
-            		System.exit(1);
+            		exit(1);
             		return; // Should be unreachable.
         		}
 
+        		final ResultCube cube = ResultCube.shared201X();
+
         		// Write HTML bare, as UTF-8 (though should only be 7-bit ASCII).
         		// Expects to overwrite any existing file.
-        		try (Writer w = new FileWriter(DEFAULT_OUTPUT_NAME_HTML, StandardCharsets.UTF_8))
-	        		{ w.write(tableHTML); }
+        		try (Writer w = openOutput(DEFAULT_OUTPUT_NAME_HTML))
+	        		{
+	        		renderTimed(w, out -> {
+		        		switch(args[1])
+		        		{
+		        		case "summary": ShowComputations.writeHTMLMainSummaryTable(out, cube, true); break;
+		        		case "summarySoft": ShowComputations.writeHTMLMainSummaryTable(out, cube, false); break;
+		        		case "sagSoft": ShowComputations.writeHTMLSagTable(out, cube); break;
+		        		}
+		        		});
+	        		}
 
-        		System.exit(0);
+        		exit(0);
     			}
 
         	if("-LaTeXtable".equals(args[0]) && (args.length > 1))
     			{
-        		final String tableLaTeX;
-
         		switch(args[1])
         		{
-        		case "summary": tableLaTeX = ShowComputations.generateLaTeXMainSummaryTable(true); break;
-        		case "summarySoft": tableLaTeX = ShowComputations.generateLaTeXMainSummaryTable(false); break;
-//        		case "sagSoft": tableHTML = ShowComputations.generateHTMLSagTable(); break;
+        		case "summary": case "summarySoft": break;
         		default:
         			System.err.println("unknown table: " + args[1]);
-            		System.exit(1);
+            		exit(1);
             		return; // Should be unreachable.
         		}
 
-        		// Write HTML bare, as UTF-8 (though should only be 7-bit ASCII).
+        		final ResultCube cube = ResultCube.shared201X();
+
+        		// Write LaTeX bare, as UTF-8 (though should only be 7-bit ASCII).
         		// Expects to overwrite any existing file.
-        		try (Writer w = new FileWriter(DEFAULT_OUTPUT_NAME_LaTeX, StandardCharsets.UTF_8))
-	        		{ w.write(tableLaTeX); }
+        		try (Writer w = openOutput(DEFAULT_OUTPUT_NAME_LaTeX))
+	        		{
+	        		renderTimed(w, out -> ShowComputations.writeLaTeXMainSummaryTable(out, cube, "summary".equals(args[1])));
+	        		}
+
+        		exit(0);
+    			}
+
+        	if("-synthdata".equals(args[0]) && (args.length > 3))
+    			{
+        		final SyntheticHourlyTemperatureGenerator.Format format;
+        		switch((args.length > 4) ? args[4] : "csv.gz")
+        		{
+        		case "csv": format = SyntheticHourlyTemperatureGenerator.Format.CSV; break;
+        		case "csv.gz": format = SyntheticHourlyTemperatureGenerator.Format.CSV_GZ; break;
+        		case "hts": format = SyntheticHourlyTemperatureGenerator.Format.BINARY; break;
+        		default:
+        			System.err.println("unknown format: " + args[4]);
+            		exit(1);
+            		return; // Should be unreachable.
+        		}
+        		SyntheticHourlyTemperatureGenerator.writeDataset(new File(args[1]).toPath(),
+    				SyntheticHourlyTemperatureGenerator.fit201X(),
+    				Integer.parseInt(args[2]), 2010, Integer.parseInt(args[3]), 42, format);
+        		exit(0);
+    			}
 
-        		System.exit(0);
+        	if("-bench".equals(args[0]) && (args.length > 1))
+    			{
+        		final List<ScalingBenchmark.Size> sizes = ScalingBenchmark.Size.parseList(
+    				(args.length > 2) ? args[2] : ScalingBenchmark.DEFAULT_SIZES);
+        		try (Writer w = openOutput(new File(args[1])))
+	        		{ ScalingBenchmark.run(sizes, w); }
+        		exit(0);
     			}
 
             }
@@ -127,12 +251,12 @@ public final class Main
             {
             System.err.println("FAILED command: " + command);
             e.printStackTrace();
-            System.exit(1);
+            exit(1);
             }
 
         // Unrecognised/unhandled command.
         System.err.println("Unrecognised or unhandled command: " + command);
         printOptions();
-        System.exit(1);
+        exit(1);
         }
     }
@@ -0,0 +1,493 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+/**Simple self-describing columnar binary file of fixed-width primitive columns, eg for bulk model output.
+ * Much faster than CSV to write, and to scan since nothing is parsed:
+ * the reader memory-maps the file and exposes each column of each block as a primitive buffer.
+ * <p>
+ * Layout, all little-endian, with every section starting on an 8-byte boundary:
+ * <ul>
+ * <li>Header: MAGIC (8 bytes), column count (int), then for each column
+ *     its type (byte), UTF-8 name length (short) and name; padded.</li>
+ * <li>Blocks of rows, as written by the writer: for each column in order,
+ *     that block's values packed end to end; each column padded.</li>
+ * <li>Footer: block count (int), column count (int), then for each block
+ *     its file offset (long) and row count (int, then 4 bytes padding),
+ *     then for each block and column the minimum and maximum value (as doubles, ignoring NaN).</li>
+ * <li>Trailer: footer offset (long), CRC32 of header and footer (int, then 4 bytes padding), MAGIC (8 bytes).</li>
+ * </ul>
+ * The footer is only written on close, so an incomplete file (eg from a crash) is rejected on open.
+ */
+public final class ColumnarFile
+	{
+	/**Prevent creation of an instance. */
+	private ColumnarFile() { }
+
+	/**File magic and format version, at start and end of file. */
+	public static final long MAGIC = 0x5452564343310001L; // "TRVCC1" + format 1.
+
+	/**Default rows per block. */
+	public static final int DEFAULT_BLOCK_ROWS = 1 << 16;
+
+	/**Trailer length (bytes). */
+	private static final int TRAILER_BYTES = 24;
+
+	/**Column value types, all fixed width. */
+	public enum Type
+		{
+		/**64-bit IEEE float. */
+		DOUBLE(8),
+		/**64-bit signed integer, eg a UTC epoch hour. */
+		LONG(8),
+		/**32-bit signed integer, eg an index or flag. */
+		INT(4);
+
+		/**Width of each value (bytes). */
+		private final int width;
+		Type(final int width) { this.width = width; }
+		/**Width of each value (bytes). */
+		public int width() { return(width); }
+		}
+
+	/**One column of the schema.
+	 * @param name  column name; non-empty and unique in the schema
+	 * @param type  value type; never null
+	 */
+	public record Column(String name, Type type)
+		{
+		/**Construct instance. */
+		public Column
+			{
+			Objects.requireNonNull(type);
+			if((null == name) || name.isEmpty()) { throw new IllegalArgumentException(); }
+			if(name.getBytes(StandardCharsets.UTF_8).length > Short.MAX_VALUE) { throw new IllegalArgumentException(); }
+			}
+		}
+
+	/**Round up to a multiple of 8. */
+	private static long align8(final long n) { return((n + 7) & ~7L); }
+
+	/**Encode the header for a schema, rejecting duplicate names; never null. */
+	private static ByteBuffer header(final List<Column> columns)
+		{
+		if(columns.isEmpty()) { throw new IllegalArgumentException("no columns"); }
+		final Set<String> names = new HashSet<>();
+		int len = 8 + 4;
+		for(final Column c : columns)
+			{
+			if(!names.add(c.name())) { throw new IllegalArgumentException("duplicate column " + c.name()); }
+			len += 1 + 2 + c.name().getBytes(StandardCharsets.UTF_8).length;
+			}
+		final ByteBuffer h = ByteBuffer.allocate((int) align8(len)).order(ByteOrder.LITTLE_ENDIAN);
+		h.putLong(MAGIC).putInt(columns.size());
+		for(final Column c : columns)
+			{
+			final byte[] name = c.name().getBytes(StandardCharsets.UTF_8);
+			h.put((byte) c.type().ordinal()).putShort((short) name.length).put(name);
+			}
+		h.clear();
+		return(h);
+		}
+
+	/**Write all of a buffer at the channel's position. */
+	private static void writeFully(final FileChannel channel, final ByteBuffer b) throws IOException
+		{ while(b.hasRemaining()) { channel.write(b); } }
+
+	/**Appends rows to a new columnar file, in blocks; not thread-safe.
+	 * Set each column's value for the current row with put(), then call endRow();
+	 * any column not set in a row is zero.
+	 * Close to write the final block and footer; the file is not valid until then.
+	 */
+	public static final class Writer implements Closeable
+		{
+		/**Schema; never null, immutable. */
+		private final List<Column> columns;
+		/**Rows per block. */
+		private final int blockRows;
+		/**Output channel. */
+		private final FileChannel channel;
+		/**CRC of header and footer. */
+		private final CRC32 crc = new CRC32();
+		/**Current block's values by column, little-endian. */
+		private final ByteBuffer[] values;
+		/**Offset and row count of each block written. */
+		private final List<long[]> blocks = new ArrayList<>();
+		/**Minimum and maximum of each column of each block written, block-major. */
+		private double[] minMax = new double[0];
+		/**Rows in the current block. */
+		private int rows;
+		/**Total rows written. */
+		private long totalRows;
+		/**True once closed. */
+		private boolean closed;
+
+		/**Create (or replace) a columnar file.
+		 * @param file  file to write; never null
+		 * @param columns  schema; never null nor empty, names unique
+		 * @param blockRows  rows per block, strictly positive
+		 * @throws IOException  if the file cannot be created
+		 */
+		public Writer(final Path file, final List<Column> columns, final int blockRows) throws IOException
+			{
+			Objects.requireNonNull(file);
+			this.columns = List.copyOf(columns);
+			if(blockRows < 1) { throw new IllegalArgumentException(); }
+			for(final Column c : this.columns)
+				{ if((long) blockRows * c.type().width() > Integer.MAX_VALUE - 8) { throw new IllegalArgumentException("block too large"); } }
+			this.blockRows = blockRows;
+			final ByteBuffer h = header(this.columns);
+			values = new ByteBuffer[this.columns.size()];
+			for(int c = 0; c < values.length; ++c)
+				{ values[c] = ByteBuffer.allocate(blockRows * this.columns.get(c).type().width()).order(ByteOrder.LITTLE_ENDIAN); }
+			channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+			try
+				{
+				crc.update(h.duplicate());
+				writeFully(channel, h);
+				}
+			catch(final IOException e)
+				{
+				channel.close();
+				throw e;
+				}
+			}
+
+		/**Create (or replace) a columnar file with the default block size.
+		 * @param file  file to write; never null
+		 * @param columns  schema; never null nor empty, names unique
+		 * @throws IOException  if the file cannot be created
+		 */
+		public Writer(final Path file, final List<Column> columns) throws IOException
+			{ this(file, columns, DEFAULT_BLOCK_ROWS); }
+
+		/**Schema; never null, immutable. */
+		public List<Column> columns() { return(columns); }
+
+		/**Rows completed so far. */
+		public long rows() { return(totalRows + rows); }
+
+		/**Check the column type and that the writer is open. */
+		private void check(final int column, final Type type)
+			{
+			if(closed) { throw new IllegalStateException("closed"); }
+			if(columns.get(column).type() != type) { throw new IllegalArgumentException("column " + column + " is not " + type); }
+			}
+
+		/**Set a DOUBLE column in the current row. */
+		public void putDouble(final int column, final double value)
+			{ check(column, Type.DOUBLE); values[column].putDouble(rows << 3, value); }
+
+		/**Set a LONG column in the current row. */
+		public void putLong(final int column, final long value)
+			{ check(column, Type.LONG); values[column].putLong(rows << 3, value); }
+
+		/**Set an INT column in the current row. */
+		public void putInt(final int column, final int value)
+			{ check(column, Type.INT); values[column].putInt(rows << 2, value); }
+
+		/**Complete the current row, writing a block when full.
+		 * @throws IOException  if a block cannot be written
+		 */
+		public void endRow() throws IOException
+			{
+			if(closed) { throw new IllegalStateException("closed"); }
+			if(++rows == blockRows) { writeBlock(); }
+			}
+
+		/**Write the current block, if not empty, and reset it. */
+		private void writeBlock() throws IOException
+			{
+			if(0 == rows) { return; }
+			final long offset = channel.position();
+			final int ncols = columns.size();
+			final double[] mm = Arrays.copyOf(minMax, minMax.length + (2 * ncols));
+			for(int c = 0; c < ncols; ++c)
+				{
+				final ByteBuffer v = values[c];
+				double min = Double.NaN, max = Double.NaN;
+				for(int r = 0; r < rows; ++r)
+					{
+					final double d = switch(columns.get(c).type())
+						{
+						case DOUBLE -> v.getDouble(r << 3);
+						case LONG -> v.getLong(r << 3);
+						case INT -> v.getInt(r << 2);
+						};
+					if(Double.isNaN(d)) { continue; }
+					if(!(d >= min)) { min = d; }
+					if(!(d <= max)) { max = d; }
+					}
+				mm[minMax.length + (2 * c)] = min;
+				mm[minMax.length + (2 * c) + 1] = max;
+				final int len = rows * columns.get(c).type().width();
+				writeFully(channel, v.duplicate().limit(len).position(0));
+				writeFully(channel, ByteBuffer.allocate((int) (align8(len) - len)));
+				// Clear for the next block.
+				Arrays.fill(v.array(), 0, len, (byte) 0);
+				}
+			minMax = mm;
+			blocks.add(new long[]{offset, rows});
+			totalRows += rows;
+			rows = 0;
+			}
+
+		/**Write any final block, then the footer, and close the file.
+		 * @throws IOException  if the file cannot be completed
+		 */
+		@Override public void close() throws IOException
+			{
+			if(closed) { return; }
+			closed = true;
+			try(channel)
+				{
+				writeBlock();
+				final long footerOffset = channel.position();
+				final ByteBuffer f = ByteBuffer.allocate(8 + (16 * blocks.size()) + (8 * minMax.length)).order(ByteOrder.LITTLE_ENDIAN);
+				f.putInt(blocks.size()).putInt(columns.size());
+				for(final long[] b : blocks) { f.putLong(b[0]).putInt((int) b[1]).putInt(0); }
+				for(final double d : minMax) { f.putDouble(d); }
+				f.flip();
+				crc.update(f.duplicate());
+				writeFully(channel, f);
+				final ByteBuffer t = ByteBuffer.allocate(TRAILER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+				t.putLong(footerOffset).putInt((int) crc.getValue()).putInt(0).putLong(MAGIC).flip();
+				writeFully(channel, t);
+				}
+			}
+		}
+
+	/**Read-only memory-mapped view of a complete columnar file; immutable and thread-safe.
+	 * The data region is mapped once, in windows of up to DataFileInput.MAP_WINDOW_BYTES
+	 * that each hold whole columns, and each column of each block is a slice of one window;
+	 * only a single column larger than that gets a window of its own size.
+	 * Each buffer returned is a fresh view, so callers may use them independently.
+	 * The mappings stay valid after the reader is discarded, until the buffers are garbage collected.
+	 */
+	public static final class Reader
+		{
+		/**Schema; never null, immutable. */
+		private final List<Column> columns;
+		/**Rows in each block. */
+		private final int[] blockRows;
+		/**Slice of a mapped window for each column of each block, block-major. */
+		private final ByteBuffer[] mapped;
+		/**Minimum and maximum of each column of each block, block-major. */
+		private final double[] minMax;
+		/**Total rows. */
+		private final long rows;
+
+		/**Open and map a columnar file.
+		 * @param file  file to read; never null
+		 * @throws IOException  if the file cannot be read, or is not a complete and valid columnar file
+		 */
+		public Reader(final Path file) throws IOException
+			{
+			Objects.requireNonNull(file);
+			try(final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ))
+				{
+				final long size = fc.size();
+				if(size < 16 + TRAILER_BYTES) { throw new IOException("not a columnar file: " + file); }
+				final ByteBuffer t = read(fc, size - TRAILER_BYTES, TRAILER_BYTES);
+				final ByteBuffer h0 = read(fc, 0, 12);
+				if((MAGIC != h0.getLong(0)) || (MAGIC != t.getLong(16))) { throw new IOException("not a columnar file: " + file); }
+				final int ncols = h0.getInt(8);
+				final long footerOffset = t.getLong(0);
+				if((ncols < 1) || (footerOffset < 16) || (footerOffset > size - TRAILER_BYTES - 8))
+					{ throw new IOException("corrupt columnar file: " + file); }
+
+				// Schema.
+				final ByteBuffer h = read(fc, 0, (int) Math.min(footerOffset, Math.min(Integer.MAX_VALUE - 8, 12 + (ncols * (3L + Short.MAX_VALUE)))));
+				h.position(12);
+				final List<Column> cols = new ArrayList<>(ncols);
+				try
+					{
+					for(int c = 0; c < ncols; ++c)
+						{
+						final int type = h.get();
+						if((type < 0) || (type >= Type.values().length)) { throw new IOException("corrupt columnar file: " + file); }
+						final byte[] name = new byte[h.getShort()];
+						h.get(name);
+						cols.add(new Column(new String(name, StandardCharsets.UTF_8), Type.values()[type]));
+						}
+					}
+				catch(final RuntimeException e) { throw new IOException("corrupt columnar file: " + file, e); }
+				columns = List.copyOf(cols);
+				final int headerBytes = (int) align8(h.position());
+
+				// Footer.
+				final int footerBytes = (int) Math.min(Integer.MAX_VALUE - 8, size - TRAILER_BYTES - footerOffset);
+				final ByteBuffer f = read(fc, footerOffset, footerBytes);
+				final int nblocks = f.getInt(0);
+				if((ncols != f.getInt(4)) || (nblocks < 0) ||
+						(footerBytes != 8 + (16L * nblocks) + (16L * nblocks * ncols)))
+					{ throw new IOException("corrupt columnar file: " + file); }
+				final CRC32 crc = new CRC32();
+				crc.update(h.duplicate().position(0).limit(headerBytes));
+				crc.update(f.duplicate());
+				if((int) crc.getValue() != t.getInt(8)) { throw new IOException("corrupt columnar file (CRC): " + file); }
+
+				// Blocks: the extent of each column in each block.
+				blockRows = new int[nblocks];
+				final long[] start = new long[nblocks * ncols];
+				final int[] length = new int[nblocks * ncols];
+				minMax = new double[2 * nblocks * ncols];
+				long total = 0;
+				for(int b = 0; b < nblocks; ++b)
+					{
+					long pos = f.getLong(8 + (16 * b));
+					final int n = f.getInt(16 + (16 * b));
+					if((n < 1) || (pos < headerBytes)) { throw new IOException("corrupt columnar file: " + file); }
+					blockRows[b] = n;
+					total += n;
+					for(int c = 0; c < ncols; ++c)
+						{
+						final long len = (long) n * cols.get(c).type().width();
+						if((len > Integer.MAX_VALUE) || (pos + len > footerOffset)) { throw new IOException("corrupt columnar file: " + file); }
+						start[(b * ncols) + c] = pos;
+						length[(b * ncols) + c] = (int) len;
+						pos += align8(len);
+						}
+					}
+
+				// Map each run of columns fitting in one window once, and slice it.
+				mapped = new ByteBuffer[nblocks * ncols];
+				for(int i = 0; i < mapped.length; )
+					{
+					final long windowStart = start[i];
+					long windowEnd = windowStart + length[i];
+					int j = i + 1;
+					while((j < mapped.length) && (start[j] >= windowStart) &&
+							(start[j] + length[j] - windowStart <= DataFileInput.MAP_WINDOW_BYTES))
+						{ windowEnd = Math.max(windowEnd, start[j] + length[j]); ++j; }
+					final ByteBuffer window = fc.map(FileChannel.MapMode.READ_ONLY, windowStart, windowEnd - windowStart);
+					for( ; i < j; ++i) { mapped[i] = window.slice((int) (start[i] - windowStart), length[i]); }
+					}
+				f.position(8 + (16 * nblocks));
+				for(int i = 0; i < minMax.length; ++i) { minMax[i] = f.getDouble(); }
+				rows = total;
+				}
+			}
+
+		/**Read a little-endian region of a channel fully; never null. */
+		private static ByteBuffer read(final FileChannel fc, final long pos, final int len) throws IOException
+			{
+			final ByteBuffer b = ByteBuffer.allocate(len).order(ByteOrder.LITTLE_ENDIAN);
+			while(b.hasRemaining()) { if(fc.read(b, pos + b.position()) < 0) { throw new IOException("unexpected EOF"); } }
+			b.flip();
+			return(b);
+			}
+
+		/**Schema; never null, immutable. */
+		public List<Column> columns() { return(columns); }
+
+		/**Index of the named column, or -1 if none. */
+		public int columnIndex(final String name)
+			{
+			for(int c = 0; c < columns.size(); ++c) { if(columns.get(c).name().equals(name)) { return(c); } }
+			return(-1);
+			}
+
+		/**Total rows. */
+		public long rows() { return(rows); }
+
+		/**Number of blocks. */
+		public int blocks() { return(blockRows.length); }
+
+		/**Rows in the given block; strictly positive. */
+		public int blockRows(final int block) { return(blockRows[block]); }
+
+		/**Slice of one column of one block, checking its type. */
+		private ByteBuffer column(final int block, final int column, final Type type)
+			{
+			Objects.checkIndex(block, blockRows.length);
+			if(columns.get(column).type() != type) { throw new IllegalArgumentException("column " + column + " is not " + type); }
+			return(mapped[(block * columns.size()) + column].duplicate().order(ByteOrder.LITTLE_ENDIAN));
+			}
+
+		/**Values of a DOUBLE column in the given block, as a fresh read-only view; never null. */
+		public DoubleBuffer doubles(final int block, final int column)
+			{ return(column(block, column, Type.DOUBLE).asDoubleBuffer()); }
+
+		/**Values of a LONG column in the given block, as a fresh read-only view; never null. */
+		public LongBuffer longs(final int block, final int column)
+			{ return(column(block, column, Type.LONG).asLongBuffer()); }
+
+		/**Values of an INT column in the given block, as a fresh read-only view; never null. */
+		public IntBuffer ints(final int block, final int column)
+			{ return(column(block, column, Type.INT).asIntBuffer()); }
+
+		/**Minimum value of a column in the given block, as a double ignoring NaN; NaN if none.
+		 * Eg to skip blocks that cannot match a query.
+		 */
+		public double min(final int block, final int column)
+			{
+			Objects.checkIndex(column, columns.size());
+			return(minMax[2 * ((block * columns.size()) + column)]);
+			}
+
+		/**Maximum value of a column in the given block, as a double ignoring NaN; NaN if none. */
+		public double max(final int block, final int column)
+			{
+			Objects.checkIndex(column, columns.size());
+			return(minMax[(2 * ((block * columns.size()) + column)) + 1]);
+			}
+
+		/**Minimum value of a column over all blocks, as a double ignoring NaN; NaN if none. */
+		public double min(final int column)
+			{
+			double m = Double.NaN;
+			for(int b = 0; b < blockRows.length; ++b)
+				{
+				final double v = min(b, column);
+				if(!Double.isNaN(v) && !(v >= m)) { m = v; }
+				}
+			return(m);
+			}
+
+		/**Maximum value of a column over all blocks, as a double ignoring NaN; NaN if none. */
+		public double max(final int column)
+			{
+			double m = Double.NaN;
+			for(int b = 0; b < blockRows.length; ++b)
+				{
+				final double v = max(b, column);
+				if(!Double.isNaN(v) && !(v <= m)) { m = v; }
+				}
+			return(m);
+			}
+		}
+	}
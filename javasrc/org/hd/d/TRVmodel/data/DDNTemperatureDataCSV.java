@@ -16,10 +16,8 @@ Licensed under the Apache License, Version 2.0 (the "License");
 
 package org.hd.d.TRVmodel.data;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.Reader;
@@ -31,7 +29,6 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 import java.util.regex.Pattern;
-import java.util.zip.GZIPInputStream;
 
 /**Wraps degreedays.net hourly temperature CSV data to make it clear what it is; data cannot be null.
  * Note that neither rows nor fields can be null, but may be empty.
@@ -70,9 +67,21 @@ public record DDNTemperatureDataCSV(List<List<String>> data)
 	 */
 	public static final Pattern delimCSV = Pattern.compile(",");
 
+	/**Index of (local) Datetime field (YYYY-MM-DD HH:MM) in each data row; non-negative. */
+	public static final int INDEX_OF_DATETIME = 0;
+
+	/**Index of Timezone field (eg GMT or GMT+1) in each data row; positive. */
+	public static final int INDEX_OF_TIMEZONE = 1;
+
+	/**Index of (local) date field (YYYY-MM-DD) in each data row; positive. */
+	public static final int INDEX_OF_DATE = 2;
+
 	/**Index of key temperature field (C) in each data row; positive. */
 	public static final int INDEX_OF_TEMPERATURE = 4;
 
+	/**Index of "% Estimated" field [0,100] in each data row; positive. */
+	public static final int INDEX_OF_ESTIMATED = 5;
+
 	/**Default path to temperature data directory from project root; non-null. */
     public static final File DEFAULT_PATH_TO_TEMPERATURE_DATA = new File("data/temperature");
 
@@ -90,7 +99,9 @@ public record DDNTemperatureDataCSV(List<List<String>> data)
     /**Expected number of records in each of the 201X data files. */
     public static final int RECORD_COUNT_201X_TEMPERATURE_DATA = 87648;
 
-    /**Data descriptors for 201X temperature dataset; non-null. */
+    /**Data descriptors for 201X temperature dataset; non-null.
+     * Households are unknown (0): callers weighting across stations supply their own weights.
+     */
     public static final List<HourlyTemperatureDataDescriptor> DESCRIPTORS_201X_DATASET =
 		Collections.unmodifiableList(Arrays.asList(new HourlyTemperatureDataDescriptor[] {
 			new HourlyTemperatureDataDescriptor("EGAA", "Belfast", RECORD_COUNT_201X_TEMPERATURE_DATA),
@@ -119,6 +130,23 @@ public record DDNTemperatureDataCSV(List<List<String>> data)
      */
     public static DDNTemperatureDataCSV parseDDNTemperatureDataCSV(final Reader r)
         throws IOException
+        { return(parseDDNTemperatureDataCSV(r, null)); }
+
+	/**Parse degreedays.net hourly temperature CSV file/stream, optionally validating as it goes; never null but may be empty.
+     * As for parseDDNTemperatureDataCSV(Reader) but each data row
+     * is also passed to the validator (if any) in the same scan.
+     *
+     * @param r  stream to read from, not closed by this routine; never null
+     * @param validator  if not null, is fed each data row in order,
+     *     and may abort the parse by throwing IOException
+     * @return a non-null but possibly-empty in-order immutable List of rows,
+     *    each of which is a non-null but possibly-empty in-order List of fields
+     * @throws IOException  if there is an I/O problem or the temperature data is malformed
+     *     or is rejected by the validator
+     */
+    public static DDNTemperatureDataCSV parseDDNTemperatureDataCSV(final Reader r,
+    		final DDNTemperatureDataValidator validator)
+        throws IOException
         {
         if(null == r) { throw new IllegalArgumentException(); }
 
@@ -143,6 +171,9 @@ public record DDNTemperatureDataCSV(List<List<String>> data)
             if(fields[0].isEmpty())
                 { throw new IOException("unexpected empty date"); }
 
+            // Validate (and possibly reject) while the raw fields are to hand.
+            if(null != validator) { validator.acceptRow(fields); }
+
             // Memory micro-optimisation.
             // Where possible, share duplicate values from the previous row.
             if(OPTIMISE_MEMORY_IN_CSV_PARSE && !result.isEmpty())
@@ -175,12 +206,24 @@ public record DDNTemperatureDataCSV(List<List<String>> data)
 	 */
 	public static DDNTemperatureDataCSV loadDDNTemperatureDataCSV(final File gzippedCSV)
 	    throws IOException
+	    { return(loadDDNTemperatureDataCSV(gzippedCSV, null)); }
+
+	/**Load from GZIPped file degreedays.net hourly temperature data, optionally validating as it goes; never null but may be empty.
+	 * Plain (uncompressed) CSV files are also accepted, and multi-member gzip files are inflated in parallel.
+	 *
+	 * @param gzippedCSV  gzipped CSV degree-days file to read from; never null
+	 * @param validator  if not null, is fed each data row in order during the load
+	 * @return (hourly) temperature data; non-null
+	 * @throws IOException  if file not present or unreadable/unparseable,
+	 *     or rejected by the validator
+	 */
+	public static DDNTemperatureDataCSV loadDDNTemperatureDataCSV(final File gzippedCSV,
+			final DDNTemperatureDataValidator validator)
+	    throws IOException
 	    {
 		if(null == gzippedCSV) { throw new IllegalArgumentException(); }
 		try(final Reader r = new InputStreamReader(
-				new GZIPInputStream(
-					new BufferedInputStream(
-						new FileInputStream(gzippedCSV))), TEMPDATACSV_CHARSET))
-		    { return(parseDDNTemperatureDataCSV(r)); }
+				DataFileInput.open(gzippedCSV.toPath()), TEMPDATACSV_CHARSET))
+		    { return(parseDDNTemperatureDataCSV(r, validator)); }
 	    }
 	}
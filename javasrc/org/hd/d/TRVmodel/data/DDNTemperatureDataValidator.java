@@ -0,0 +1,221 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+import java.io.IOException;
+
+/**Structural validation of degreedays.net hourly temperature rows, one row at a time, during load.
+ * This is fed each data row by the parser as it is read,
+ * so that no separate validation pass over the data is needed.
+ * <p>
+ * Checks made:
+ * <ul>
+ * <li>each row has all the expected fields, and well-formed Datetime and Timezone fields</li>
+ * <li>UTC hourly timestamps are strictly increasing by one hour,
+ *     recording gaps (and the number of hours missing), duplicates and out-of-order rows</li>
+ * <li>timezone changes, eg to and from summer time</li>
+ * <li>temperatures are parseable and in a plausible range</li>
+ * <li>the "% Estimated" column is parseable and in range [0,100],
+ *     recording how many rows are estimated at all and the worst estimate</li>
+ * </ul>
+ * <p>
+ * If constructed to reject bad data, then the first row failing a structural check
+ * causes an IOException (with the reason) to abort the load.
+ * Timezone changes and estimated rows are normal, so are only reported.
+ * <p>
+ * Not thread-safe: use one instance per load.
+ */
+public final class DDNTemperatureDataValidator
+	{
+	/**Lowest plausible hourly temperature (C); well below UK and most populated-area records. */
+	public static final double MIN_PLAUSIBLE_TEMPERATURE_C = -60;
+	/**Highest plausible hourly temperature (C); well above UK and most populated-area records. */
+	public static final double MAX_PLAUSIBLE_TEMPERATURE_C = 60;
+
+	/**Minimum number of fields in a data row. */
+	public static final int MIN_FIELDS = DDNTemperatureDataCSV.INDEX_OF_ESTIMATED + 1;
+
+	/**If true, throw an IOException at the first row failing a structural check. */
+	private final boolean rejectBad;
+
+	/**Create a validator.
+	 * @param rejectBad  if true, reject (throw IOException for) the first bad row,
+	 *     else simply count and report problems
+	 */
+	public DDNTemperatureDataValidator(final boolean rejectBad)
+		{ this.rejectBad = rejectBad; }
+
+	// Running state and counts.
+	private int rows;
+	private int malformedRows;
+	private long firstEpochHourUTC = Long.MIN_VALUE;
+	private long lastEpochHourUTC = Long.MIN_VALUE;
+	private int gaps;
+	private int missingHours;
+	private int duplicateHours;
+	private int outOfOrderHours;
+	private int timezoneChanges;
+	private int lastTimezoneOffsetHours = Integer.MIN_VALUE;
+	private int implausibleTemperatures;
+	private int estimatedRows;
+	private int maxEstimatedPercent;
+
+	/**Compact summary of the validation of one dataset.
+	 * @param rows  total data rows seen
+	 * @param malformedRows  rows with missing fields or unparseable Datetime/Timezone/temperature/estimate
+	 * @param firstEpochHourUTC  UTC epoch hour of the first well-formed row, or Long.MIN_VALUE if none
+	 * @param lastEpochHourUTC  UTC epoch hour of the last well-formed row, or Long.MIN_VALUE if none
+	 * @param gaps  number of places where one or more hours are missing
+	 * @param missingHours  total hours missing in all gaps
+	 * @param duplicateHours  rows repeating the UTC hour of the previous row
+	 * @param outOfOrderHours  rows earlier than the previous row
+	 * @param timezoneChanges  number of changes of Timezone field between rows, eg for summer time
+	 * @param implausibleTemperatures  rows with temperature outside the plausible range
+	 * @param estimatedRows  rows with a non-zero "% Estimated" value
+	 * @param maxEstimatedPercent  the highest "% Estimated" value seen [0,100]
+	 */
+	public record ValidationReport(
+			int rows,
+			int malformedRows,
+			long firstEpochHourUTC,
+			long lastEpochHourUTC,
+			int gaps,
+			int missingHours,
+			int duplicateHours,
+			int outOfOrderHours,
+			int timezoneChanges,
+			int implausibleTemperatures,
+			int estimatedRows,
+			int maxEstimatedPercent)
+		{
+		/**True if no structural problems were found (ignoring timezone changes and estimates). */
+		public boolean isClean()
+			{
+			return((0 == malformedRows) && (0 == gaps) && (0 == duplicateHours) &&
+				(0 == outOfOrderHours) && (0 == implausibleTemperatures));
+			}
+
+		/**Number of hours spanned from first to last row inclusive, or 0 if no well-formed rows. */
+		public long spanHours()
+			{
+			if(Long.MIN_VALUE == firstEpochHourUTC) { return(0); }
+			return(1 + lastEpochHourUTC - firstEpochHourUTC);
+			}
+		}
+
+	/**Get a report on all rows seen so far; never null. */
+	public ValidationReport report()
+		{
+		return(new ValidationReport(rows, malformedRows,
+			firstEpochHourUTC, lastEpochHourUTC,
+			gaps, missingHours, duplicateHours, outOfOrderHours,
+			timezoneChanges, implausibleTemperatures,
+			estimatedRows, maxEstimatedPercent));
+		}
+
+	/**Record a problem, and throw if rejecting bad data. */
+	private void bad(final String reason, final String[] fields) throws IOException
+		{
+		if(rejectBad)
+			{ throw new IOException("bad temperature data at row " + rows + ": " + reason + ": " + String.join(",", fields)); }
+		}
+
+	/**Check one data row, in file order.
+	 * @param fields  the comma-separated fields of a data row; never null
+	 * @throws IOException  if rejecting bad data and this row fails a structural check
+	 */
+	public void acceptRow(final String[] fields) throws IOException
+		{
+		++rows;
+
+		if(fields.length < MIN_FIELDS)
+			{
+			++malformedRows;
+			bad("too few fields", fields);
+			return;
+			}
+
+		final long localEpochHour;
+		final int timezoneOffsetHours;
+		final double temperature;
+		final int estimatedPercent;
+		try
+			{
+			localEpochHour = DDNTimestamps.parseLocalEpochHour(fields[DDNTemperatureDataCSV.INDEX_OF_DATETIME]);
+			timezoneOffsetHours = DDNTimestamps.parseTimezoneOffsetHours(fields[DDNTemperatureDataCSV.INDEX_OF_TIMEZONE]);
+			temperature = Double.parseDouble(fields[DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE]);
+			estimatedPercent = Integer.parseInt(fields[DDNTemperatureDataCSV.INDEX_OF_ESTIMATED]);
+			}
+		catch(final IllegalArgumentException e) // Includes NumberFormatException.
+			{
+			++malformedRows;
+			bad("malformed field", fields);
+			return;
+			}
+
+		// Timezone changes.
+		if((Integer.MIN_VALUE != lastTimezoneOffsetHours) && (timezoneOffsetHours != lastTimezoneOffsetHours))
+			{ ++timezoneChanges; }
+		lastTimezoneOffsetHours = timezoneOffsetHours;
+
+		// Time sequence, in UTC.
+		final long epochHourUTC = localEpochHour - timezoneOffsetHours;
+		if(Long.MIN_VALUE == firstEpochHourUTC)
+			{ firstEpochHourUTC = epochHourUTC; }
+		else
+			{
+			final long delta = epochHourUTC - lastEpochHourUTC;
+			if(delta > 1)
+				{
+				++gaps;
+				missingHours += (int) Math.min(Integer.MAX_VALUE - missingHours, delta - 1);
+				bad("gap of " + (delta - 1) + "h", fields);
+				}
+			else if(0 == delta)
+				{
+				++duplicateHours;
+				bad("duplicate hour", fields);
+				}
+			else if(delta < 0)
+				{
+				++outOfOrderHours;
+				bad("out of order", fields);
+				}
+			}
+		// Only move forward so that one bad row does not cause a cascade of reports.
+		if(epochHourUTC > lastEpochHourUTC) { lastEpochHourUTC = epochHourUTC; }
+
+		// Temperature range sanity.
+		if(!(temperature >= MIN_PLAUSIBLE_TEMPERATURE_C) || !(temperature <= MAX_PLAUSIBLE_TEMPERATURE_C))
+			{
+			++implausibleTemperatures;
+			bad("implausible temperature", fields);
+			}
+
+		// Estimate.
+		if((estimatedPercent < 0) || (estimatedPercent > 100))
+			{
+			++malformedRows;
+			bad("bad estimate percentage", fields);
+			}
+		else if(0 != estimatedPercent)
+			{
+			++estimatedRows;
+			if(estimatedPercent > maxEstimatedPercent) { maxEstimatedPercent = estimatedPercent; }
+			}
+		}
+	}
@@ -0,0 +1,129 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+/**Allocation-free decoding of degreedays.net hourly timestamps to and from integer epoch hours.
+ * An epoch hour is the number of whole hours since 1970-01-01 00:00 (in UTC or local time).
+ * <p>
+ * The degreedays.net Datetime field is local (wall-clock) time,
+ * eg "2018-07-01 13:00" with a separate Timezone field such as "GMT+1",
+ * so the UTC epoch hour is the local epoch hour less the timezone offset.
+ * With UTC hours a complete series is strictly increasing in steps of exactly one,
+ * whereas local time skips an hour in spring and repeats one in autumn.
+ */
+public final class DDNTimestamps
+	{
+	/**Prevent creation of an instance. */
+	private DDNTimestamps() { }
+
+	/**Length of the Datetime field "YYYY-MM-DD HH:MM". */
+	public static final int DATETIME_LENGTH = 16;
+
+	/**Days since 1970-01-01 for the given proleptic Gregorian calendar date.
+	 * Uses H Hinnant's days_from_civil algorithm, all integer arithmetic.
+	 *
+	 * @param year  calendar year, eg 2018
+	 * @param month  month [1,12]
+	 * @param day  day of month [1,31]
+	 * @return days since the epoch, negative before 1970
+	 */
+	public static long epochDay(final int year, final int month, final int day)
+		{
+		final long y = (month <= 2) ? (year - 1) : year;
+		final long era = ((y >= 0) ? y : (y - 399)) / 400;
+		final long yoe = y - (era * 400);
+		final long doy = (((153 * (month + ((month > 2) ? -3 : 9))) + 2) / 5) + (day - 1);
+		final long doe = (yoe * 365) + (yoe / 4) - (yoe / 100) + doy;
+		return((era * 146097) + doe - 719468);
+		}
+
+	/**Decode a packed civil date from days since 1970-01-01.
+	 * Uses H Hinnant's civil_from_days algorithm, all integer arithmetic.
+	 *
+	 * @param epochDay  days since the epoch
+	 * @return (year * 10000) + (month * 100) + day, eg 20180131
+	 */
+	public static int civilFromEpochDay(final long epochDay)
+		{
+		final long z = epochDay + 719468;
+		final long era = ((z >= 0) ? z : (z - 146096)) / 146097;
+		final long doe = z - (era * 146097);
+		final long yoe = (doe - (doe / 1460) + (doe / 36524) - (doe / 146096)) / 365;
+		final long doy = doe - ((365 * yoe) + (yoe / 4) - (yoe / 100));
+		final long mp = ((5 * doy) + 2) / 153;
+		final int day = (int) (doy - (((153 * mp) + 2) / 5) + 1);
+		final int month = (int) ((mp < 10) ? (mp + 3) : (mp - 9));
+		final int year = (int) ((yoe + (era * 400)) + ((month <= 2) ? 1 : 0));
+		return((year * 10000) + (month * 100) + day);
+		}
+
+	/**Decode a single decimal digit; throws IllegalArgumentException if not a digit. */
+	private static int digit(final CharSequence s, final int i)
+		{
+		final int d = s.charAt(i) - '0';
+		if((d < 0) || (d > 9)) { throw new IllegalArgumentException("bad digit in: " + s); }
+		return(d);
+		}
+
+	/**Parse the local epoch hour from a Datetime field such as "2018-01-01 23:00".
+	 * The minutes must be zero.
+	 *
+	 * @param datetime  the Datetime field; never null
+	 * @return local epoch hour
+	 * @throws IllegalArgumentException  if the field is malformed
+	 */
+	public static long parseLocalEpochHour(final CharSequence datetime)
+		{
+		if((DATETIME_LENGTH != datetime.length()) ||
+				('-' != datetime.charAt(4)) || ('-' != datetime.charAt(7)) ||
+				(' ' != datetime.charAt(10)) || (':' != datetime.charAt(13)))
+			{ throw new IllegalArgumentException("bad datetime: " + datetime); }
+		final int year = (digit(datetime, 0) * 1000) + (digit(datetime, 1) * 100) +
+			(digit(datetime, 2) * 10) + digit(datetime, 3);
+		final int month = (digit(datetime, 5) * 10) + digit(datetime, 6);
+		final int day = (digit(datetime, 8) * 10) + digit(datetime, 9);
+		final int hour = (digit(datetime, 11) * 10) + digit(datetime, 12);
+		final int minute = (digit(datetime, 14) * 10) + digit(datetime, 15);
+		if((month < 1) || (month > 12) || (day < 1) || (day > 31) || (hour > 23) || (0 != minute))
+			{ throw new IllegalArgumentException("bad datetime: " + datetime); }
+		return((epochDay(year, month, day) * 24) + hour);
+		}
+
+	/**Parse the whole-hour offset from UTC from a Timezone field such as "GMT", "GMT+1" or "UTC-5".
+	 * @param timezone  the Timezone field; never null
+	 * @return offset in hours to add to UTC to get local time, in range [-23,23]
+	 * @throws IllegalArgumentException  if the field is malformed
+	 */
+	public static int parseTimezoneOffsetHours(final CharSequence timezone)
+		{
+		final int len = timezone.length();
+		final boolean isGMT = (len >= 3) &&
+			('G' == timezone.charAt(0)) && ('M' == timezone.charAt(1)) && ('T' == timezone.charAt(2));
+		final boolean isUTC = (len >= 3) &&
+			('U' == timezone.charAt(0)) && ('T' == timezone.charAt(1)) && ('C' == timezone.charAt(2));
+		if(!isGMT && !isUTC)
+			{ throw new IllegalArgumentException("bad timezone: " + timezone); }
+		if(3 == len) { return(0); }
+		final char sign = timezone.charAt(3);
+		if((('+' != sign) && ('-' != sign)) || (len < 5) || (len > 6))
+			{ throw new IllegalArgumentException("bad timezone: " + timezone); }
+		int hours = 0;
+		for(int i = 4; i < len; ++i) { hours = (hours * 10) + digit(timezone, i); }
+		if(hours > 23) { throw new IllegalArgumentException("bad timezone: " + timezone); }
+		return(('-' == sign) ? -hours : hours);
+		}
+	}
@@ -0,0 +1,454 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**Fast byte input for (possibly gzipped) data files such as degreedays.net temperature CSVs.
+ * Gzip is recognised by its magic number rather than by file name,
+ * so plain uncompressed CSV files are also accepted.
+ * <ul>
+ * <li>Plain files are memory-mapped and read directly from the mapping.</li>
+ * <li>Gzip files are memory-mapped and each member of a multi-member
+ *     (eg concatenated) gzip file is inflated in parallel on a small shared pool,
+ *     straight from the mapping into large output chunks,
+ *     with the caller's reads (eg parsing) pipelined behind the inflation.
+ *     Each member's CRC and length are checked as for GZIPInputStream.
+ *     A member that gets too far ahead of the reader pauses, keeping its inflater state
+ *     but releasing its pool thread, and is resumed once the reader takes a chunk from it;
+ *     so memory held is bounded in bytes, and no pool thread waits on a (possibly abandoned) reader.</li>
+ * </ul>
+ * <p>
+ * Member boundaries are not known until the preceding member has been inflated,
+ * so every plausible gzip header in the file is inflated speculatively,
+ * with only those found to lie exactly on the chain of member boundaries being used;
+ * false candidates (an unlucky byte pattern in compressed data) typically fail within a few bytes.
+ * A single-member file is necessarily inflated by one thread,
+ * though still pipelined with the reader.
+ * <p>
+ * Gzip files too big to map in one go fall back to a conventional GZIPInputStream.
+ */
+public final class DataFileInput
+	{
+	/**Prevent creation of an instance. */
+	private DataFileInput() { }
+
+	/**Size of each inflated output chunk; large to keep per-chunk overheads small. */
+	public static final int CHUNK_BYTES = 1 << 20;
+
+	/**Maximum size of each mapped window for plain files. */
+	public static final int MAP_WINDOW_BYTES = 1 << 30;
+
+	/**Minimum size of a gzip member (10-byte header, empty deflate stream, 8-byte trailer). */
+	private static final int MIN_GZIP_MEMBER_BYTES = 20;
+
+	/**Maximum number of gzip members being inflated ahead of the reader, to bound memory use. */
+	private static final int MAX_MEMBERS_AHEAD = 2 * Math.max(2, Runtime.getRuntime().availableProcessors());
+
+	/**Maximum inflated chunks each member holds awaiting the reader before pausing, to bound memory use.
+	 * Each open gzip stream thus holds at most about
+	 * MAX_MEMBERS_AHEAD * (MAX_CHUNKS_BUFFERED + 1) * CHUNK_BYTES of inflated data,
+	 * however large its members.
+	 */
+	private static final int MAX_CHUNKS_BUFFERED = 2;
+
+	/**Lazily-created shared pool of daemon threads for inflation. */
+	private static final class InflaterPool
+		{
+		static final ExecutorService POOL = Executors.newFixedThreadPool(
+			Math.max(1, Runtime.getRuntime().availableProcessors()),
+			r -> { final Thread t = new Thread(r, "DataFileInput-inflater"); t.setDaemon(true); return(t); });
+		}
+
+	/**Open a data file, inflating it if gzipped; never null.
+	 * The caller must close the returned stream.
+	 *
+	 * @param file  file to read; never null
+	 * @return stream of the (uncompressed) file content; never null
+	 * @throws IOException  if the file cannot be opened
+	 */
+	public static InputStream open(final Path file)
+		throws IOException
+		{
+		if(null == file) { throw new IllegalArgumentException(); }
+		try(final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ))
+			{
+			final long size = fc.size();
+			// Mappings remain valid after the channel is closed.
+			final List<ByteBuffer> windows = new ArrayList<>();
+			for(long pos = 0; pos < size; pos += MAP_WINDOW_BYTES)
+				{ windows.add(fc.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(MAP_WINDOW_BYTES, size - pos))); }
+			final boolean isGzip = (size >= MIN_GZIP_MEMBER_BYTES) &&
+				(0x1f == (windows.get(0).get(0) & 0xff)) && (0x8b == (windows.get(0).get(1) & 0xff));
+			if(!isGzip) { return(new MappedInputStream(windows)); }
+			if(1 != windows.size())
+				{ return(new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16), 1 << 16)); }
+			return(new ParallelGunzipInputStream(windows.get(0)));
+			}
+		}
+
+
+	/**Input stream over a sequence of mapped windows of a file. */
+	private static final class MappedInputStream extends InputStream
+		{
+		private final List<ByteBuffer> windows;
+		private int w;
+		MappedInputStream(final List<ByteBuffer> windows) { this.windows = windows; }
+
+		/**Current window with bytes remaining, or null at end of file. */
+		private ByteBuffer current()
+			{
+			while(w < windows.size())
+				{
+				final ByteBuffer b = windows.get(w);
+				if(b.hasRemaining()) { return(b); }
+				windows.set(w++, null); // Release the mapping once consumed.
+				}
+			return(null);
+			}
+
+		@Override public int read()
+			{
+			final ByteBuffer b = current();
+			return((null == b) ? -1 : (b.get() & 0xff));
+			}
+
+		@Override public int read(final byte[] buf, final int off, final int len)
+			{
+			if(0 == len) { return(0); }
+			final ByteBuffer b = current();
+			if(null == b) { return(-1); }
+			final int n = Math.min(len, b.remaining());
+			b.get(buf, off, n);
+			return(n);
+			}
+
+		@Override public int available()
+			{
+			final ByteBuffer b = current();
+			return((null == b) ? 0 : b.remaining());
+			}
+		}
+
+
+	/**Parse a gzip member header at the given offset.
+	 * @return offset of the start of the deflate data
+	 * @throws ZipException  if the header is not valid
+	 */
+	private static int parseGzipHeader(final ByteBuffer file, final int start)
+		throws ZipException
+		{
+		final int limit = file.limit();
+		if(start + MIN_GZIP_MEMBER_BYTES > limit) { throw new ZipException("truncated gzip header"); }
+		if((0x1f != (file.get(start) & 0xff)) || (0x8b != (file.get(start + 1) & 0xff)) || (8 != file.get(start + 2)))
+			{ throw new ZipException("not a gzip header"); }
+		final int flags = file.get(start + 3) & 0xff;
+		if(0 != (flags & 0xe0)) { throw new ZipException("reserved gzip flags set"); }
+		int p = start + 10;
+		if(0 != (flags & 4)) // FEXTRA
+			{
+			if(p + 2 > limit) { throw new ZipException("truncated gzip header"); }
+			p += 2 + ((file.get(p) & 0xff) | ((file.get(p + 1) & 0xff) << 8));
+			}
+		for(int f = 8; f <= 16; f <<= 1) // FNAME then FCOMMENT, zero terminated.
+			{
+			if(0 == (flags & f)) { continue; }
+			while((p < limit) && (0 != file.get(p))) { ++p; }
+			++p;
+			}
+		if(0 != (flags & 2)) { p += 2; } // FHCRC
+		if(p > limit) { throw new ZipException("truncated gzip header"); }
+		return(p);
+		}
+
+	/**One gzip member (or speculative candidate) being inflated in the background.
+	 * Output chunks are published as they are produced so that the reader can consume them at once.
+	 * Inflation pauses while MAX_CHUNKS_BUFFERED chunks are awaiting the reader,
+	 * and is resubmitted to the pool when the reader takes one.
+	 */
+	private static final class Member implements Runnable
+		{
+		private final ByteBuffer file;
+		private final int start;
+		/**Inflated chunks, each full except possibly the last; guarded by this. */
+		private final List<byte[]> chunks = new ArrayList<>();
+		/**Chunks published but not yet handed to the reader; guarded by this. */
+		private int buffered;
+		/**True while paused awaiting the reader, ie not running nor queued; guarded by this. */
+		private boolean paused;
+		/**True when inflation has finished (successfully or not); guarded by this. */
+		private boolean done;
+		/**Error if inflation failed; guarded by this. */
+		private IOException error;
+		/**Offset just past the trailer when done without error; guarded by this. */
+		private int end;
+		/**Set to stop work early if the result will never be needed. */
+		private volatile boolean cancelled;
+
+		// Inflation state, kept across pauses; only touched by the (single) running task.
+		private Inflater inf;
+		private ByteBuffer in;
+		private final CRC32 crc = new CRC32();
+		private long total;
+		private byte[] out;
+		private int outLen;
+
+		Member(final ByteBuffer file, final int start) { this.file = file; this.start = start; }
+
+		/**Stop work; a paused member is finished at once since it will not run again. */
+		synchronized void cancel()
+			{
+			cancelled = true;
+			if(paused)
+				{
+				paused = false;
+				finish(-1, new IOException("cancelled"));
+				}
+			}
+
+		private synchronized void publish(final byte[] chunk) { chunks.add(chunk); ++buffered; notifyAll(); }
+
+		/**Pause if the reader is too far behind; true if paused, in which case the task must return at once. */
+		private synchronized boolean pauseIfAhead()
+			{
+			if(buffered < MAX_CHUNKS_BUFFERED) { return(false); }
+			paused = true;
+			return(true);
+			}
+
+		private synchronized void finish(final int endOffset, final IOException e)
+			{
+			end = endOffset;
+			error = e;
+			done = true;
+			out = null;
+			if(null != inf) { inf.end(); }
+			notifyAll();
+			}
+
+		@Override public void run()
+			{
+			try
+				{
+				if(null == inf)
+					{
+					inf = new Inflater(true);
+					in = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+					in.position(parseGzipHeader(file, start));
+					inf.setInput(in);
+					out = new byte[CHUNK_BYTES];
+					}
+				while(!inf.finished())
+					{
+					if(cancelled) { finish(-1, new IOException("cancelled")); return; }
+					if((0 == outLen) && pauseIfAhead()) { return; }
+					final int n = inf.inflate(out, outLen, out.length - outLen);
+					outLen += n;
+					if(outLen == out.length)
+						{
+						crc.update(out, 0, outLen);
+						total += outLen;
+						publish(out);
+						out = new byte[CHUNK_BYTES];
+						outLen = 0;
+						}
+					else if(0 == n)
+						{
+						if(inf.needsDictionary()) { throw new ZipException("gzip member needs dictionary"); }
+						if(inf.needsInput()) { throw new EOFException("truncated gzip member"); }
+						}
+					}
+				if(outLen > 0)
+					{
+					crc.update(out, 0, outLen);
+					total += outLen;
+					publish(Arrays.copyOf(out, outLen));
+					}
+				final int trailer = in.position();
+				if(trailer + 8 > in.limit()) { throw new EOFException("truncated gzip trailer"); }
+				if((int) crc.getValue() != in.getInt(trailer)) { throw new ZipException("gzip CRC mismatch"); }
+				if((int) total != in.getInt(trailer + 4)) { throw new ZipException("gzip length mismatch"); }
+				finish(trailer + 8, null);
+				}
+			catch(final DataFormatException e) { finish(-1, new ZipException(e.getMessage())); }
+			catch(final IOException e) { finish(-1, e); }
+			catch(final RuntimeException e) { finish(-1, new IOException(e)); }
+			}
+
+		/**Wait for the given chunk, returning null if the member has finished without it.
+		 * @throws IOException  if the member failed, or the wait was interrupted
+		 */
+		synchronized byte[] awaitChunk(final int index) throws IOException
+			{
+			try { while((index >= chunks.size()) && !done) { wait(); } }
+			catch(final InterruptedException e)
+				{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+				}
+			if(index < chunks.size())
+				{
+				final byte[] c = chunks.get(index);
+				chunks.set(index, null); // Release once handed over.
+				--buffered;
+				if(paused && !cancelled)
+					{
+					paused = false;
+					InflaterPool.POOL.execute(this);
+					}
+				return(c);
+				}
+			if(null != error) { throw error; }
+			return(null);
+			}
+
+		/**Offset just past this member; only valid after awaitChunk() has returned null. */
+		synchronized int end() { return(end); }
+		}
+
+	/**Input stream inflating the members of a mapped gzip file in parallel, in order. */
+	private static final class ParallelGunzipInputStream extends InputStream
+		{
+		private final ByteBuffer file;
+		/**Offsets of all plausible member headers, in increasing order; the first is 0. */
+		private final int[] candidates;
+		/**Submitted members by start offset. */
+		private final Map<Integer, Member> members = new HashMap<>();
+		/**Index in candidates of the next to submit. */
+		private int nextToSubmit;
+
+		private Member current;
+		private int currentCandidateIndex;
+		private int chunkIndex;
+		private byte[] chunk;
+		private int chunkPos;
+		private boolean eof;
+
+		ParallelGunzipInputStream(final ByteBuffer file)
+			throws ZipException
+			{
+			this.file = file;
+			candidates = findCandidates(file);
+			if((0 == candidates.length) || (0 != candidates[0])) { throw new ZipException("not a gzip header"); }
+			submitUpTo(0);
+			current = members.get(0);
+			}
+
+		/**Find all offsets at which a plausible gzip member header starts. */
+		private static int[] findCandidates(final ByteBuffer file)
+			{
+			int[] c = new int[16];
+			int n = 0;
+			final int last = file.limit() - MIN_GZIP_MEMBER_BYTES;
+			for(int i = 0; i <= last; ++i)
+				{
+				if((0x1f != file.get(i)) || ((byte) 0x8b != file.get(i + 1)) ||
+					(8 != file.get(i + 2)) || (0 != (file.get(i + 3) & 0xe0))) { continue; }
+				if(n == c.length) { c = Arrays.copyOf(c, 2 * n); }
+				c[n++] = i;
+				}
+			return(Arrays.copyOf(c, n));
+			}
+
+		/**Submit candidates for inflation up to a bounded distance past the given candidate index. */
+		private void submitUpTo(final int candidateIndex)
+			{
+			final int limit = Math.min(candidates.length, candidateIndex + MAX_MEMBERS_AHEAD);
+			while(nextToSubmit < limit)
+				{
+				final Member m = new Member(file, candidates[nextToSubmit++]);
+				members.put(m.start, m);
+				InflaterPool.POOL.execute(m);
+				}
+			}
+
+		/**Advance to the next chunk, moving on to the next member as needed; false at end of data. */
+		private boolean nextChunk() throws IOException
+			{
+			while(!eof)
+				{
+				final byte[] c = current.awaitChunk(chunkIndex);
+				if(null != c) { ++chunkIndex; chunk = c; chunkPos = 0; return(true); }
+				// Current member complete: the next starts immediately after it.
+				final int next = current.end();
+				members.remove(current.start);
+				int ci = Arrays.binarySearch(candidates, currentCandidateIndex, candidates.length, next);
+				// Cancel any false candidates passed over.
+				for(int i = currentCandidateIndex + 1; i < ((ci >= 0) ? ci : (-ci - 1)); ++i)
+					{
+					final Member skipped = members.remove(candidates[i]);
+					if(null != skipped) { skipped.cancel(); }
+					}
+				if(ci < 0) { eof = true; break; } // End of file, or trailing non-gzip bytes (ignored as by GZIPInputStream).
+				submitUpTo(ci);
+				current = members.get(next);
+				currentCandidateIndex = ci;
+				chunkIndex = 0;
+				}
+			return(false);
+			}
+
+		@Override public int read() throws IOException
+			{
+			if(((null == chunk) || (chunkPos == chunk.length)) && !nextChunk()) { return(-1); }
+			return(chunk[chunkPos++] & 0xff);
+			}
+
+		@Override public int read(final byte[] buf, final int off, final int len) throws IOException
+			{
+			if(0 == len) { return(0); }
+			if(((null == chunk) || (chunkPos == chunk.length)) && !nextChunk()) { return(-1); }
+			final int n = Math.min(len, chunk.length - chunkPos);
+			System.arraycopy(chunk, chunkPos, buf, off, n);
+			chunkPos += n;
+			return(n);
+			}
+
+		@Override public int available()
+			{ return((null == chunk) ? 0 : (chunk.length - chunkPos)); }
+
+		@Override public void close()
+			{
+			eof = true;
+			chunk = null;
+			for(final Member m : members.values()) { m.cancel(); }
+			members.clear();
+			}
+		}
+	}
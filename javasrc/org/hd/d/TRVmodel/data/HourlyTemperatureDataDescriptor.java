@@ -22,14 +22,17 @@ import java.util.Objects;
  * Contains the weather station (airport) code (non-null),
  * the name of the nearest major city/town (non-null)
  * and the expected number of records (non-negative) as a simple guard against corruption.
+ * It may also carry the approximate number of households that the station represents,
+ * eg to weight results when aggregating across stations.
  * <p>
  * Can be used to describe the source of DDNTemperatureDataCSV items.
  *
  * @param station  location of weather station, eg at ICAO airport; never null (nor empty)
  * @param conurbation  nearby large town or city; never null (nor empty)
  * @param records  expected record count
+ * @param households  approximate households represented, finite and non-negative; 0 if unknown
  */
-public record HourlyTemperatureDataDescriptor(String station, String conurbation, int records)
+public record HourlyTemperatureDataDescriptor(String station, String conurbation, int records, double households)
 	{
 	/**Construct instance. */
 	public HourlyTemperatureDataDescriptor
@@ -37,5 +40,14 @@ public record HourlyTemperatureDataDescriptor(String station, String conurbation
 		Objects.requireNonNull(station);
 		Objects.requireNonNull(conurbation);
 		if(records < 0) { throw new IllegalArgumentException(); }
+		if(!Double.isFinite(households) || (households < 0)) { throw new IllegalArgumentException(); }
 		}
+
+	/**Construct instance with households unknown.
+	 * @param station  location of weather station, eg at ICAO airport; never null (nor empty)
+	 * @param conurbation  nearby large town or city; never null (nor empty)
+	 * @param records  expected record count
+	 */
+	public HourlyTemperatureDataDescriptor(final String station, final String conurbation, final int records)
+		{ this(station, conurbation, records, 0); }
 	}
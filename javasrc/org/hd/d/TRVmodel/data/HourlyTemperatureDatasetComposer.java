@@ -0,0 +1,231 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**Composes per-station hourly temperature series from all the degreedays.net files under a directory tree.
+ * Files are recognised by name as STATIONID_CelsiusTemps_ANYTHING.csv (optionally .gz),
+ * eg EGLL_CelsiusTemps_201X_extract.csv.gz and EGLL_CelsiusTemps_2018_extract.csv.gz,
+ * or as STATIONID_CelsiusTemps_ANYTHING.hts in the HourlyTemperatureSeries binary form,
+ * so that year, decade and extract files for one station can simply be dropped in.
+ * <p>
+ * The directory tree is scanned once (in parallel, one task per directory) on construction;
+ * symbolic links to directories are not followed, so a link loop cannot make the scan run forever;
+ * each station's series is then assembled on demand by loading all its files in parallel
+ * and merging them hour by hour into one time-ordered series,
+ * so that a later file may fill gaps within an earlier one;
+ * where files overlap, the sample from the file starting earliest wins.
+ * <p>
+ * Thread-safe.
+ */
+public final class HourlyTemperatureDatasetComposer
+	{
+	/**Pattern for recognised data file names; group 1 is the station ID. */
+	public static final Pattern DATA_FILE_NAME_PATTERN =
+		Pattern.compile("^([A-Za-z0-9]+)_CelsiusTemps_.*(\\.csv(\\.gz)?|" + Pattern.quote(HourlyTemperatureSeries.BINARY_FILE_SUFFIX) + ")$");
+
+	/**Immutable map from station ID to its data files (sorted by path); never null. */
+	private final SortedMap<String, List<Path>> filesByStation;
+
+	/**Scan the given directory tree for data files.
+	 * @param root  root of the directory tree to scan; never null
+	 * @throws IOException  if the tree cannot be scanned
+	 */
+	public HourlyTemperatureDatasetComposer(final Path root)
+		throws IOException
+		{ filesByStation = scan(root); }
+
+	/**Station IDs found in the scan, in order; never null, immutable. */
+	public Set<String> stations() { return(filesByStation.keySet()); }
+
+	/**Data files found for the given station, in path order; never null, may be empty, immutable. */
+	public List<Path> files(final String station)
+		{ return(filesByStation.getOrDefault(Objects.requireNonNull(station), Collections.emptyList())); }
+
+	/**Compose the complete series for one station from all its files; never null.
+	 * @param station  station ID, eg "EGLL"; never null
+	 * @return time-ordered series with overlapping hours de-duplicated; never null
+	 * @throws IOException  if no files are present for the station or any is unreadable/unparseable
+	 */
+	public HourlyTemperatureSeries compose(final String station)
+		throws IOException
+		{
+		final List<Path> files = files(station);
+		if(files.isEmpty()) { throw new IOException("no data for station: " + station); }
+		return(compose(files));
+		}
+
+
+	/**Recursive directory-scan task: lists one directory, forking a sub-task per sub-directory but not per link to one. */
+	private static final class ScanTask extends RecursiveTask<List<Path>>
+		{
+		private static final long serialVersionUID = 1L;
+		/**Directory to list; Path is not Serializable, and tasks are never serialised. */
+		private final transient Path dir;
+		ScanTask(final Path dir) { this.dir = dir; }
+
+		@Override
+		protected List<Path> compute()
+			{
+			final List<Path> found = new ArrayList<>();
+			final List<ScanTask> subTasks = new ArrayList<>();
+			try(final DirectoryStream<Path> ds = Files.newDirectoryStream(dir))
+				{
+				for(final Path p : ds)
+					{
+					if(Files.isDirectory(p, LinkOption.NOFOLLOW_LINKS))
+						{
+						final ScanTask t = new ScanTask(p);
+						t.fork();
+						subTasks.add(t);
+						}
+					else if(DATA_FILE_NAME_PATTERN.matcher(p.getFileName().toString()).matches())
+						{ found.add(p); }
+					}
+				}
+			catch(final IOException e) { throw new UncheckedIOException(e); }
+			for(final ScanTask t : subTasks) { found.addAll(t.join()); }
+			return(found);
+			}
+		}
+
+	/**Scan a directory tree (in parallel) for data files, grouped by station ID; never null.
+	 * @param root  root of the directory tree to scan; never null
+	 * @return immutable map from station ID to its (path-sorted, immutable) data files; never null
+	 * @throws IOException  if the tree cannot be scanned
+	 */
+	public static SortedMap<String, List<Path>> scan(final Path root)
+		throws IOException
+		{
+		if(!Files.isDirectory(Objects.requireNonNull(root))) { throw new IOException("not a directory: " + root); }
+		final List<Path> all;
+		try { all = ForkJoinPool.commonPool().invoke(new ScanTask(root)); }
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+
+		final SortedMap<String, List<Path>> byStation = new TreeMap<>();
+		for(final Path p : all)
+			{
+			final Matcher m = DATA_FILE_NAME_PATTERN.matcher(p.getFileName().toString());
+			if(!m.matches()) { continue; }
+			byStation.computeIfAbsent(m.group(1), k -> new ArrayList<>()).add(p);
+			}
+		for(final Map.Entry<String, List<Path>> e : byStation.entrySet())
+			{
+			final List<Path> l = e.getValue();
+			Collections.sort(l);
+			e.setValue(Collections.unmodifiableList(l));
+			}
+		return(Collections.unmodifiableSortedMap(byStation));
+		}
+
+	/**Load one data file, binary or CSV (gzipped or plain), into a series; never null.
+	 * @param file  file to load; never null
+	 * @throws IOException  if the file is unreadable/unparseable
+	 */
+	public static HourlyTemperatureSeries load(final Path file)
+		throws IOException
+		{
+		if(file.getFileName().toString().endsWith(HourlyTemperatureSeries.BINARY_FILE_SUFFIX))
+			{ return(HourlyTemperatureSeries.loadBinary(file)); }
+		return(HourlyTemperatureSeries.load(file.toFile()));
+		}
+
+	/**Load (in parallel) and concatenate a set of data files into one time-ordered series; never null.
+	 * @param files  files to load and combine, in any order; never null nor empty
+	 * @return time-ordered series with overlapping hours de-duplicated; never null
+	 * @throws IOException  if any file is unreadable/unparseable
+	 */
+	public static HourlyTemperatureSeries compose(final List<Path> files)
+		throws IOException
+		{
+		if(files.isEmpty()) { throw new IllegalArgumentException(); }
+		final List<HourlyTemperatureSeries> parts;
+		try
+			{
+			parts = files.parallelStream().map(p -> {
+				try { return(load(p)); }
+				catch(final IOException e) { throw new UncheckedIOException(p.toString(), e); }
+				}).toList();
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		return(concatenate(parts));
+		}
+
+	/**Merge series hour by hour into one time-ordered series, keeping one sample per hour; never null.
+	 * Where parts overlap the sample from the part starting earliest is kept
+	 * (or, for parts starting in the same hour, the earliest in the list),
+	 * and hours missing from one part may be filled from any other.
+	 * <p>
+	 * This is a k-way merge, scanning the current row of every part for each output row,
+	 * which is cheap for the handful of files typical per station.
+	 *
+	 * @param parts  series to combine, in any order; never null nor empty
+	 * @return combined series; never null
+	 */
+	public static HourlyTemperatureSeries concatenate(final List<HourlyTemperatureSeries> parts)
+		{
+		if(parts.isEmpty()) { throw new IllegalArgumentException(); }
+		if(1 == parts.size()) { return(parts.get(0)); }
+		// Stable sort, so ties keep list order.
+		final List<HourlyTemperatureSeries> ordered = new ArrayList<>(parts);
+		ordered.sort(Comparator.comparingLong(HourlyTemperatureSeries::baseEpochHourUTC));
+		final int k = ordered.size();
+		final int[] cursor = new int[k];
+		final HourlyTemperatureSeries.Appender a = new HourlyTemperatureSeries.Appender();
+		for( ; ; )
+			{
+			// Find the part with the earliest current hour, the first such on ties.
+			int best = -1;
+			long bestHour = Long.MAX_VALUE;
+			for(int j = 0; j < k; ++j)
+				{
+				if(cursor[j] >= ordered.get(j).size()) { continue; }
+				final long h = ordered.get(j).epochHourUTC(cursor[j]);
+				if(h < bestHour) { best = j; bestHour = h; }
+				}
+			if(-1 == best) { break; }
+			final HourlyTemperatureSeries s = ordered.get(best);
+			a.append(bestHour, s.timezoneOffsetHours(cursor[best]), s.temperature(cursor[best]));
+			// Step every part past this hour, discarding the other samples for it.
+			for(int j = 0; j < k; ++j)
+				{
+				final HourlyTemperatureSeries p = ordered.get(j);
+				while((cursor[j] < p.size()) && (p.epochHourUTC(cursor[j]) <= bestHour)) { ++cursor[j]; }
+				}
+			}
+		return(a.build());
+		}
+	}
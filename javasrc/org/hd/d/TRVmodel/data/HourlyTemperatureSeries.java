@@ -0,0 +1,714 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.stats.PhaseTimings;
+
+/**Compact immutable hourly temperature series; thread-safe.
+ * Rather than four String date/time fields per row as in DDNTemperatureDataCSV,
+ * time is encoded as a base UTC epoch hour plus a fixed stride (1h for hourly data),
+ * with a small side table for the exceptions:
+ * <ul>
+ * <li>gaps, ie hours missing from the regular sequence</li>
+ * <li>timezone (eg summer time) changes, for local date/time decoding</li>
+ * </ul>
+ * The temperatures themselves are held in a primitive array,
+ * or off-heap (see toOffHeap() and mapBinary()) so that very large multi-station datasets
+ * add almost nothing to the heap or to GC work.
+ * <p>
+ * For a typical decade of UK data the side table has ~20 entries (for clock changes)
+ * and the whole series is a little over 8 bytes per hour,
+ * an order of magnitude smaller than the equivalent rows of Strings.
+ * <p>
+ * Decoded local year, month, day and hour-of-day accessors use integer arithmetic only.
+ * <p>
+ * The "% Estimated" column is not retained; see DDNTemperatureDataValidator to check it on load.
+ */
+public final class HourlyTemperatureSeries
+	{
+	/**UTC epoch hour of the first row. */
+	private final long baseEpochHourUTC;
+	/**Nominal hours between successive rows; strictly positive. */
+	private final int strideHours;
+	/**Number of rows; strictly positive. */
+	private final int n;
+	/**Temperatures (C) in time order on the heap, or null if off-heap; not exposed. */
+	private final double[] temperatures;
+	/**Temperatures (C) in time order off-heap (direct or mapped, read-only), or null if on the heap; not exposed. */
+	private final DoubleBuffer offHeapTemperatures;
+
+	/**Side table: first row index at which each entry applies, strictly increasing, first is 0. */
+	private final int[] exceptionRow;
+	/**Side table: cumulative hours skipped (in gaps) before rows from the corresponding index on. */
+	private final long[] exceptionSkipHours;
+	/**Side table: timezone offset (local - UTC) hours for rows from the corresponding index on. */
+	private final int[] exceptionTimezoneOffsetHours;
+
+	/**Lazily-computed SHA-256 content digest; null until first needed. */
+	private volatile byte[] contentDigest;
+
+	/**Lazily-computed heating-hour index for the most recently requested base temperature; null until first needed. */
+	private volatile HeatingHours heatingHours;
+
+	/**Construct from pre-validated arrays, which are NOT copied and must not be altered. */
+	private HourlyTemperatureSeries(final long baseEpochHourUTC, final int strideHours,
+			final double[] temperatures,
+			final int[] exceptionRow, final long[] exceptionSkipHours, final int[] exceptionTimezoneOffsetHours)
+		{
+		this(baseEpochHourUTC, strideHours, temperatures.length, temperatures, null,
+			exceptionRow, exceptionSkipHours, exceptionTimezoneOffsetHours);
+		}
+
+	/**Construct from pre-validated state, which is NOT copied and must not be altered; exactly one of the temperature stores is non-null. */
+	private HourlyTemperatureSeries(final long baseEpochHourUTC, final int strideHours,
+			final int n, final double[] temperatures, final DoubleBuffer offHeapTemperatures,
+			final int[] exceptionRow, final long[] exceptionSkipHours, final int[] exceptionTimezoneOffsetHours)
+		{
+		this.baseEpochHourUTC = baseEpochHourUTC;
+		this.strideHours = strideHours;
+		this.n = n;
+		this.temperatures = temperatures;
+		this.offHeapTemperatures = offHeapTemperatures;
+		this.exceptionRow = exceptionRow;
+		this.exceptionSkipHours = exceptionSkipHours;
+		this.exceptionTimezoneOffsetHours = exceptionTimezoneOffsetHours;
+		}
+
+	/**Number of rows (hours present); strictly positive. */
+	public int size() { return(n); }
+
+	/**UTC epoch hour of the first row. */
+	public long baseEpochHourUTC() { return(baseEpochHourUTC); }
+
+	/**Nominal hours between successive rows; strictly positive. */
+	public int strideHours() { return(strideHours); }
+
+	/**Number of entries in the exceptions side table (gaps and timezone changes); strictly positive. */
+	public int exceptionCount() { return(exceptionRow.length); }
+
+	/**Total hours missing from the regular sequence, ie in all gaps; non-negative. */
+	public long missingHours() { return(exceptionSkipHours[exceptionSkipHours.length - 1]); }
+
+	/**Temperature (C) for the given row.
+	 * @param i  row index [0,size())
+	 */
+	public double temperature(final int i)
+		{
+		final double[] t = temperatures;
+		if(null != t) { return(t[i]); }
+		return(offHeapTemperatures.get(i));
+		}
+
+	/**Copy of all temperatures (C) in time order onto the heap; never null. */
+	public double[] temperaturesCopy()
+		{
+		if(null != temperatures) { return(temperatures.clone()); }
+		final double[] t = new double[n];
+		offHeapTemperatures.get(0, t);
+		return(t);
+		}
+
+	/**True if the temperatures are held off the heap. */
+	public boolean isOffHeap() { return(null == temperatures); }
+
+	/**Get this series with its temperatures in a direct (off-heap) buffer; never null.
+	 * The result has the same content (and digest) as this,
+	 * and shares the small side table;
+	 * the off-heap memory is released when the result is garbage collected.
+	 * Returns this if already off-heap.
+	 */
+	public HourlyTemperatureSeries toOffHeap()
+		{
+		if(isOffHeap()) { return(this); }
+		final DoubleBuffer b = ByteBuffer.allocateDirect(n * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+		b.put(0, temperatures);
+		return(new HourlyTemperatureSeries(baseEpochHourUTC, strideHours, n, null, b.asReadOnlyBuffer(),
+			exceptionRow, exceptionSkipHours, exceptionTimezoneOffsetHours));
+		}
+
+	/**Rows of a series colder than a base temperature, ie needing heat, in time order; immutable and thread-safe.
+	 * This is a dense list of row indexes, so that scenario loops visit only the hours needing heat
+	 * and never touch the warm rows.
+	 * Temperatures are read through the series, so are not copied onto the heap,
+	 * and the index of an off-heap series is itself held in a direct buffer,
+	 * so an off-heap series stays off-heap.
+	 */
+	public static final class HeatingHours
+		{
+		/**Series indexed; never null. */
+		private final HourlyTemperatureSeries series;
+		/**Base temperature (C); rows strictly below this are included. */
+		private final double baseTemperatureC;
+		/**Row indexes, strictly increasing; direct iff the series is off-heap. */
+		private final IntBuffer rows;
+
+		/**Construct from a buffer which is NOT copied. */
+		private HeatingHours(final HourlyTemperatureSeries series, final double baseTemperatureC, final IntBuffer rows)
+			{
+			this.series = series;
+			this.baseTemperatureC = baseTemperatureC;
+			this.rows = rows;
+			}
+
+		/**Base temperature (C); rows strictly below this are included. */
+		public double baseTemperatureC() { return(baseTemperatureC); }
+
+		/**Number of heating hours; non-negative. */
+		public int count() { return(rows.capacity()); }
+
+		/**True if the row index is held off the heap, as for an off-heap series. */
+		public boolean isOffHeap() { return(rows.isDirect()); }
+
+		/**Row index in the series of the k-th heating hour.
+		 * @param k  heating hour index [0,count())
+		 */
+		public int row(final int k) { return(rows.get(k)); }
+
+		/**Temperature (C) of the k-th heating hour.
+		 * @param k  heating hour index [0,count())
+		 */
+		public double temperature(final int k) { return(series.temperature(rows.get(k))); }
+
+		/**Copy temperatures of heating hours [from,from+len) into dst at off. */
+		public void getTemperatures(final int from, final double[] dst, final int off, final int len)
+			{
+			Objects.checkFromIndexSize(from, len, rows.capacity());
+			Objects.checkFromIndexSize(off, len, dst.length);
+			for(int i = 0; i < len; ++i) { dst[off + i] = series.temperature(rows.get(from + i)); }
+			}
+		}
+
+	/**Get the rows colder than the given base temperature, computing and caching them on first use; never null.
+	 * Repeated scenarios on the same series at the same base temperature share one index,
+	 * and so do no work at all for warm hours.
+	 * Only the index for the most recently requested base temperature is kept,
+	 * so the cache holds at most one int per row however many base temperatures are tried,
+	 * off the heap for an off-heap series.
+	 *
+	 * @param baseTemperatureC  base temperature (C); rows strictly below this are included; finite
+	 */
+	public HeatingHours heatingHours(final double baseTemperatureC)
+		{
+		if(!Double.isFinite(baseTemperatureC)) { throw new IllegalArgumentException(); }
+		final HeatingHours cached = heatingHours;
+		if((null != cached) && (cached.baseTemperatureC == baseTemperatureC)) { return(cached); }
+		int count = 0;
+		for(int i = 0; i < n; ++i) { if(temperature(i) < baseTemperatureC) { ++count; } }
+		final IntBuffer rows = isOffHeap() ?
+			ByteBuffer.allocateDirect(count * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer() :
+			IntBuffer.allocate(count);
+		for(int i = 0, k = 0; k < count; ++i) { if(temperature(i) < baseTemperatureC) { rows.put(k++, i); } }
+		final HeatingHours hh = new HeatingHours(this, baseTemperatureC, rows);
+		// A racing thread may compute the same index; either is correct.
+		heatingHours = hh;
+		return(hh);
+		}
+
+	/**Index into side table of the entry applying to row i. */
+	private int exceptionIndex(final int i)
+		{
+		if(i >= exceptionRow[exceptionRow.length - 1]) { return(exceptionRow.length - 1); } // Common fast path.
+		final int pos = Arrays.binarySearch(exceptionRow, i);
+		return((pos >= 0) ? pos : (-pos - 2));
+		}
+
+	/**UTC epoch hour of the given row.
+	 * @param i  row index [0,size())
+	 */
+	public long epochHourUTC(final int i)
+		{
+		Objects.checkIndex(i, n);
+		return(baseEpochHourUTC + ((long) i * strideHours) + exceptionSkipHours[exceptionIndex(i)]);
+		}
+
+	/**Timezone offset (local - UTC) in hours for the given row, eg 1 for GMT+1.
+	 * @param i  row index [0,size())
+	 */
+	public int timezoneOffsetHours(final int i)
+		{
+		Objects.checkIndex(i, n);
+		return(exceptionTimezoneOffsetHours[exceptionIndex(i)]);
+		}
+
+	/**Local (wall-clock) epoch hour for the given row, as in the Datetime field.
+	 * @param i  row index [0,size())
+	 */
+	public long localEpochHour(final int i)
+		{
+		Objects.checkIndex(i, n);
+		final int e = exceptionIndex(i);
+		return(baseEpochHourUTC + ((long) i * strideHours) + exceptionSkipHours[e] + exceptionTimezoneOffsetHours[e]);
+		}
+
+	/**Local date for the given row as (year * 10000) + (month * 100) + day, eg 20180131.
+	 * Decode this once when more than one of year/month/day are needed.
+	 *
+	 * @param i  row index [0,size())
+	 */
+	public int localDate(final int i)
+		{ return(DDNTimestamps.civilFromEpochDay(Math.floorDiv(localEpochHour(i), 24))); }
+
+	/**Local calendar year for the given row, eg 2018. */
+	public int year(final int i) { return(localDate(i) / 10000); }
+
+	/**Local calendar month [1,12] for the given row. */
+	public int month(final int i) { return((localDate(i) / 100) % 100); }
+
+	/**Local day of month [1,31] for the given row. */
+	public int dayOfMonth(final int i) { return(localDate(i) % 100); }
+
+	/**Local hour of day [0,23] for the given row. */
+	public int hourOfDay(final int i) { return(Math.floorMod(localEpochHour(i), 24)); }
+
+	/**SHA-256 digest of the full content (timestamps and temperatures), eg to key cached results; never null, a fresh copy.
+	 * Series with the same rows have the same digest however they were loaded.
+	 */
+	public byte[] contentDigest()
+		{
+		byte[] d = contentDigest;
+		if(null == d)
+			{
+			final MessageDigest md;
+			try { md = MessageDigest.getInstance("SHA-256"); }
+			catch(final NoSuchAlgorithmException e) { throw new IllegalStateException(e); } // Always present.
+			final ByteBuffer bb = ByteBuffer.allocate(8192);
+			bb.putLong(baseEpochHourUTC).putInt(strideHours).putInt(n).putInt(exceptionRow.length);
+			for(int e = 0; e < exceptionRow.length; ++e)
+				{
+				if(bb.remaining() < 16) { md.update(bb.flip()); bb.clear(); }
+				bb.putInt(exceptionRow[e]).putLong(exceptionSkipHours[e]).putInt(exceptionTimezoneOffsetHours[e]);
+				}
+			for(int i = 0; i < n; ++i)
+				{
+				if(bb.remaining() < 8) { md.update(bb.flip()); bb.clear(); }
+				bb.putDouble(temperature(i));
+				}
+			md.update(bb.flip());
+			contentDigest = d = md.digest();
+			}
+		return(d.clone());
+		}
+
+	/**Short human-readable summary; not null. */
+	@Override
+	public String toString()
+		{
+		return("HourlyTemperatureSeries[" + n + " rows from UTC epoch hour " + baseEpochHourUTC +
+			", stride " + strideHours + "h, " + exceptionRow.length + " exceptions]");
+		}
+
+
+	/**Incrementally builds a series from rows in time order; not thread-safe.
+	 * Duplicate hours are dropped (the first is kept);
+	 * rows earlier than the previous row are rejected.
+	 */
+	static final class Appender
+		{
+		private double[] temps = new double[8192];
+		private int n;
+		private long base;
+		private long lastEpochHourUTC;
+		private int lastTimezoneOffsetHours;
+		private long skip;
+		private int[] exRow = new int[16];
+		private long[] exSkip = new long[16];
+		private int[] exTz = new int[16];
+		private int exN;
+
+		/**Add a new side-table entry applying from the next row. */
+		private void addException()
+			{
+			if(exN == exRow.length)
+				{
+				exRow = Arrays.copyOf(exRow, 2 * exN);
+				exSkip = Arrays.copyOf(exSkip, 2 * exN);
+				exTz = Arrays.copyOf(exTz, 2 * exN);
+				}
+			exRow[exN] = n;
+			exSkip[exN] = skip;
+			exTz[exN] = lastTimezoneOffsetHours;
+			++exN;
+			}
+
+		/**Append one row; a row for the same UTC hour as the previous one is ignored, keeping the first sample.
+		 * @param epochHourUTC  UTC epoch hour of this row
+		 * @param timezoneOffsetHours  local - UTC offset in hours
+		 * @param temperature  temperature (C); finite
+		 * @throws IllegalArgumentException  if the row is earlier than the previous one
+		 *     or the temperature is not finite
+		 */
+		void append(final long epochHourUTC, final int timezoneOffsetHours, final double temperature)
+			{
+			if(!Double.isFinite(temperature)) { throw new IllegalArgumentException("bad temperature"); }
+			if(0 == n)
+				{
+				base = epochHourUTC;
+				lastTimezoneOffsetHours = timezoneOffsetHours;
+				addException();
+				}
+			else
+				{
+				final long delta = epochHourUTC - lastEpochHourUTC;
+				if(0 == delta) { return; } // Drop duplicate.
+				if(delta < 0) { throw new IllegalArgumentException("rows out of time order"); }
+				final boolean gap = (delta > 1);
+				if(gap) { skip += delta - 1; }
+				if(gap || (timezoneOffsetHours != lastTimezoneOffsetHours))
+					{
+					lastTimezoneOffsetHours = timezoneOffsetHours;
+					addException();
+					}
+				}
+			if(n == temps.length) { temps = Arrays.copyOf(temps, 2 * n); }
+			temps[n++] = temperature;
+			lastEpochHourUTC = epochHourUTC;
+			}
+
+		/**Append one row of degreedays.net CSV fields.
+		 * @throws IllegalArgumentException  if the fields are malformed or the row is out of order
+		 */
+		void append(final String[] fields)
+			{
+			if(fields.length <= DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE) { throw new IllegalArgumentException("too few fields"); }
+			final long localEpochHour = DDNTimestamps.parseLocalEpochHour(fields[DDNTemperatureDataCSV.INDEX_OF_DATETIME]);
+			final int timezoneOffsetHours = DDNTimestamps.parseTimezoneOffsetHours(fields[DDNTemperatureDataCSV.INDEX_OF_TIMEZONE]);
+			final double temperature = Double.parseDouble(fields[DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE]);
+			append(localEpochHour - timezoneOffsetHours, timezoneOffsetHours, temperature);
+			}
+
+		/**Number of rows so far. */
+		int size() { return(n); }
+
+		/**UTC epoch hour of the last row appended; only valid if size() &gt; 0. */
+		long lastEpochHourUTC() { return(lastEpochHourUTC); }
+
+		/**Build the immutable series, trimming the working storage; never null.
+		 * @throws IllegalStateException  if no rows have been appended
+		 */
+		HourlyTemperatureSeries build()
+			{
+			if(0 == n) { throw new IllegalStateException("no rows"); }
+			return(new HourlyTemperatureSeries(base, 1,
+				Arrays.copyOf(temps, n),
+				Arrays.copyOf(exRow, exN), Arrays.copyOf(exSkip, exN), Arrays.copyOf(exTz, exN)));
+			}
+		}
+
+
+	/**Convert from parsed degreedays.net CSV rows; never null.
+	 * A row repeating the UTC hour of the previous row is dropped, keeping the first sample;
+	 * use a DDNTemperatureDataValidator to detect such rows.
+	 *
+	 * @param csv  parsed CSV rows in time order; never null nor empty
+	 * @return compact series; never null
+	 * @throws IllegalArgumentException  if any row is malformed or out of time order
+	 */
+	public static HourlyTemperatureSeries fromCSV(final DDNTemperatureDataCSV csv)
+		{
+		Objects.requireNonNull(csv);
+		final Appender a = new Appender();
+		for(final List<String> row : csv.data())
+			{ a.append(row.toArray(new String[row.size()])); }
+		return(a.build());
+		}
+
+	/**Phase name for timing file opening, reading and inflation; non-null. */
+	public static final String PHASE_LOAD = "load";
+	/**Phase name for timing parsing rows into a series; non-null. */
+	public static final String PHASE_PARSE = "parse";
+	/**Phase name for timing row validation; non-null. */
+	public static final String PHASE_VALIDATE = "validate";
+
+	/**Parse degreedays.net hourly temperature CSV directly into a compact series; never null.
+	 * This does not retain any per-row Strings,
+	 * and accepts the same format as DDNTemperatureDataCSV.parseDDNTemperatureDataCSV().
+	 * A row repeating the UTC hour of the previous row is dropped, keeping the first sample;
+	 * the validator (if any) counts such rows as duplicates.
+	 * <p>
+	 * If PhaseTimings is enabled then the time is broken down per row
+	 * into PHASE_LOAD (reading, including waiting for inflation), PHASE_PARSE and PHASE_VALIDATE.
+	 *
+	 * @param r  stream to read from, not closed by this routine; never null
+	 * @param validator  if not null, is fed each data row in order
+	 * @return compact series; never null
+	 * @throws IOException  if there is an I/O problem or the data is malformed, empty,
+	 *     or rejected by the validator
+	 */
+	public static HourlyTemperatureSeries parse(final Reader r, final DDNTemperatureDataValidator validator)
+		throws IOException
+		{
+		if(null == r) { throw new IllegalArgumentException(); }
+        final BufferedReader br = (r instanceof BufferedReader) ? (BufferedReader)r :
+        	new BufferedReader(r, 8192);
+		final Appender a = new Appender();
+		// Per-row phase timing only if enabled: 0 load (read/inflate), 1 parse, 2 validate.
+		final PhaseTimings.Laps laps = PhaseTimings.laps(PHASE_LOAD, PHASE_PARSE, PHASE_VALIDATE);
+        String row;
+        while(null != (row = br.readLine()))
+            {
+        	if(null != laps) { laps.lap(0); }
+        	// Skip anything other than data rows starting with a date.
+        	if(!row.startsWith("2")) { continue; }
+            final String fields[] = DDNTemperatureDataCSV.delimCSV.split(row);
+            if(null != validator)
+	            {
+            	if(null != laps) { laps.lap(1); }
+            	validator.acceptRow(fields);
+            	if(null != laps) { laps.lap(2); }
+	            }
+            try { a.append(fields); }
+            catch(final IllegalArgumentException e) { throw new IOException("bad row: " + row, e); }
+        	if(null != laps) { laps.lap(1); }
+            }
+        if(0 == a.size()) { throw new IOException("no data rows"); }
+        final HourlyTemperatureSeries result = a.build();
+        if(null != laps)
+	        {
+        	laps.lap(1);
+        	laps.hours(0, result.size());
+        	laps.hours(1, result.size());
+        	laps.close();
+	        }
+        return(result);
+		}
+
+	/**Load from GZIPped (or plain) degreedays.net hourly temperature data file into a compact series; never null.
+	 * The file is read via DataFileInput, so multi-member gzip files are inflated in parallel.
+	 *
+	 * @param gzippedCSV  gzipped (or plain) CSV degree-days file to read from; never null
+	 * @param validator  if not null, is fed each data row in order
+	 * @return compact series; never null
+	 * @throws IOException  if file not present or unreadable/unparseable,
+	 *     or rejected by the validator
+	 */
+	public static HourlyTemperatureSeries load(final File gzippedCSV, final DDNTemperatureDataValidator validator)
+		throws IOException
+		{
+		if(null == gzippedCSV) { throw new IllegalArgumentException(); }
+		final InputStream is;
+		final PhaseTimings.Span s = PhaseTimings.start(PHASE_LOAD);
+		try { is = DataFileInput.open(gzippedCSV.toPath()); }
+		finally { s.close(); }
+		try(final Reader r = new InputStreamReader(is, DDNTemperatureDataCSV.TEMPDATACSV_CHARSET))
+		    { return(parse(r, validator)); }
+		}
+
+	/**Load from GZIPped (or plain) degreedays.net hourly temperature data file into a compact series; never null.
+	 * @param gzippedCSV  gzipped (or plain) CSV degree-days file to read from; never null
+	 * @return compact series; never null
+	 * @throws IOException  if file not present or unreadable/unparseable
+	 */
+	public static HourlyTemperatureSeries load(final File gzippedCSV)
+		throws IOException
+		{ return(load(gzippedCSV, null)); }
+
+
+	/**Magic number at the start of the binary form: "HTS1". */
+	public static final int BINARY_MAGIC = 0x48545331;
+
+	/**Conventional file name suffix for the binary form; non-null. */
+	public static final String BINARY_FILE_SUFFIX = ".hts";
+
+	/**Write the compact binary form, which round-trips exactly via read().
+	 * The layout is simply the fields of this class, big-endian:
+	 * magic, base epoch hour, stride, row count, side-table count,
+	 * the side table as (row, skip hours, timezone offset) triples,
+	 * then the temperatures as doubles.
+	 *
+	 * @param out  destination; never null
+	 * @throws IOException  if out throws
+	 */
+	public void write(final DataOutput out) throws IOException
+		{
+		out.writeInt(BINARY_MAGIC);
+		out.writeLong(baseEpochHourUTC);
+		out.writeInt(strideHours);
+		out.writeInt(n);
+		out.writeInt(exceptionRow.length);
+		for(int e = 0; e < exceptionRow.length; ++e)
+			{
+			out.writeInt(exceptionRow[e]);
+			out.writeLong(exceptionSkipHours[e]);
+			out.writeInt(exceptionTimezoneOffsetHours[e]);
+			}
+		for(int i = 0; i < n; ++i) { out.writeDouble(temperature(i)); }
+		}
+
+	/**Read the compact binary form as written by write(); never null.
+	 * The header counts are not trusted for allocation:
+	 * arrays grow only as their content is actually read,
+	 * so a corrupt or hostile header fails on end of input rather than exhausting the heap.
+	 *
+	 * @param in  source; never null
+	 * @throws IOException  if in throws or the content is truncated or inconsistent
+	 */
+	public static HourlyTemperatureSeries read(final DataInput in) throws IOException
+		{ return(read(in, -1)); }
+
+	/**Bytes of the compact binary form before the side table. */
+	private static final int BINARY_HEADER_BYTES = 4 + 8 + 4 + 4 + 4;
+	/**Bytes of each side table entry in the compact binary form. */
+	private static final int BINARY_SIDE_TABLE_ENTRY_BYTES = 4 + 8 + 4;
+	/**Initial array capacity when reading before the content is seen. */
+	private static final int READ_INITIAL_CAPACITY = 1 << 16;
+
+	/**Read the compact binary form, checking the header against the total length if known; never null.
+	 * @param in  source; never null
+	 * @param length  total bytes of the binary form, or negative if unknown
+	 */
+	private static HourlyTemperatureSeries read(final DataInput in, final long length) throws IOException
+		{
+		if(BINARY_MAGIC != in.readInt()) { throw new IOException("bad magic"); }
+		final long base = in.readLong();
+		final int stride = in.readInt();
+		final int n = in.readInt();
+		final int exN = in.readInt();
+		if((stride < 1) || (n < 1) || (exN < 1) || (exN > n)) { throw new IOException("bad header"); }
+		if((length >= 0) &&
+				(length != BINARY_HEADER_BYTES + ((long) BINARY_SIDE_TABLE_ENTRY_BYTES * exN) + ((long) Double.BYTES * n)))
+			{ throw new IOException("bad length"); }
+		int[] exRow = new int[Math.min(exN, READ_INITIAL_CAPACITY)];
+		long[] exSkip = new long[exRow.length];
+		int[] exTz = new int[exRow.length];
+		for(int e = 0; e < exN; ++e)
+			{
+			if(e == exRow.length)
+				{
+				final int cap = (int) Math.min(exN, 2L * e);
+				exRow = Arrays.copyOf(exRow, cap);
+				exSkip = Arrays.copyOf(exSkip, cap);
+				exTz = Arrays.copyOf(exTz, cap);
+				}
+			exRow[e] = in.readInt();
+			exSkip[e] = in.readLong();
+			exTz[e] = in.readInt();
+			checkSideTableEntry(exRow, exSkip, e, n);
+			}
+		double[] temps = new double[Math.min(n, READ_INITIAL_CAPACITY)];
+		for(int i = 0; i < n; ++i)
+			{
+			if(i == temps.length) { temps = Arrays.copyOf(temps, (int) Math.min(n, 2L * i)); }
+			final double t = in.readDouble();
+			if(!Double.isFinite(t)) { throw new IOException("bad temperature"); }
+			temps[i] = t;
+			}
+		return(new HourlyTemperatureSeries(base, stride, temps, exRow, exSkip, exTz));
+		}
+
+	/**Reject side table entry e if inconsistent with those before it, for row count n. */
+	private static void checkSideTableEntry(final int[] exRow, final long[] exSkip, final int e, final int n)
+		throws IOException
+		{
+		if((0 == e) ? ((0 != exRow[0]) || (0 != exSkip[0])) :
+				((exRow[e] <= exRow[e-1]) || (exRow[e] >= n) || (exSkip[e] < exSkip[e-1])))
+			{ throw new IOException("bad side table"); }
+		}
+
+	/**Save the compact binary form to a file, replacing any existing file.
+	 * @param file  destination; never null
+	 * @throws IOException  if the file cannot be written
+	 */
+	public void saveBinary(final Path file) throws IOException
+		{
+		try(final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), 1 << 16)))
+			{ write(out); }
+		}
+
+	/**Load the compact binary form from a file as written by saveBinary(); never null.
+	 * @param file  source; never null
+	 * @throws IOException  if the file is missing, unreadable, truncated or inconsistent
+	 */
+	public static HourlyTemperatureSeries loadBinary(final Path file) throws IOException
+		{
+		try(final DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), 1 << 16)))
+			{ return(read(in, Files.size(file))); }
+		}
+	
+	/**Memory-map the compact binary form from a file as written by saveBinary(), with the temperatures left off-heap; never null.
+	 * Only the small side table is read onto the heap;
+	 * the temperatures are read in place from the (shared, read-only) mapping,
+	 * so many large series can be held with constant heap use,
+	 * the operating system paging them in and out as needed.
+	 * The mapping is released when the result is garbage collected.
+	 *
+	 * @param file  source; never null
+	 * @throws IOException  if the file is missing, unreadable, truncated, inconsistent,
+	 *     or too large to map in one piece
+	 */
+	public static HourlyTemperatureSeries mapBinary(final Path file) throws IOException
+		{
+		try(final FileChannel fc = FileChannel.open(file, StandardOpenOption.READ))
+			{
+			final long size = fc.size();
+			if(size > Integer.MAX_VALUE) { throw new IOException("too large to map"); }
+			// Mappings remain valid after the channel is closed.
+			final ByteBuffer bb = fc.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			try
+				{
+				if(BINARY_MAGIC != bb.getInt()) { throw new IOException("bad magic"); }
+				final long base = bb.getLong();
+				final int stride = bb.getInt();
+				final int n = bb.getInt();
+				final int exN = bb.getInt();
+				if((stride < 1) || (n < 1) || (exN < 1) || (exN > n)) { throw new IOException("bad header"); }
+				if(size != BINARY_HEADER_BYTES + ((long) BINARY_SIDE_TABLE_ENTRY_BYTES * exN) + ((long) Double.BYTES * n))
+					{ throw new IOException("bad length"); }
+				final int[] exRow = new int[exN];
+				final long[] exSkip = new long[exN];
+				final int[] exTz = new int[exN];
+				for(int e = 0; e < exN; ++e)
+					{
+					exRow[e] = bb.getInt();
+					exSkip[e] = bb.getLong();
+					exTz[e] = bb.getInt();
+					checkSideTableEntry(exRow, exSkip, e, n);
+					}
+				final DoubleBuffer temps = bb.slice().asDoubleBuffer();
+				for(int i = 0; i < n; ++i) { if(!Double.isFinite(temps.get(i))) { throw new IOException("bad temperature"); } }
+				return(new HourlyTemperatureSeries(base, stride, n, null, temps, exRow, exSkip, exTz));
+				}
+			catch(final BufferUnderflowException e) { throw new IOException("truncated", e); }
+			}
+		}
+	}
@@ -0,0 +1,394 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.hd.d.TRVmodel.data;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+import java.util.zip.GZIPOutputStream;
+
+/**Generates realistic synthetic hourly temperature series, eg to benchmark and stress-test loading and models at scale.
+ * Each series is an annual and a diurnal sinusoid about a mean,
+ * plus AR(1) (autocorrelated, 'weather') noise,
+ * with timestamps following UK clock changes and temperatures rounded to 0.1C as in degreedays.net data.
+ * <p>
+ * Model parameters are fitted from real series, eg the 201X files,
+ * and each synthetic station perturbs one of the fitted models,
+ * so that a dataset of any number of stations and years has a realistic spread of climates.
+ * <p>
+ * Output is reproducible for a given seed, whatever the degree of parallelism.
+ * Series can be written as degreedays.net CSV (plain or gzipped), readable by all the normal loaders,
+ * or in the compact binary form of HourlyTemperatureSeries.
+ */
+public final class SyntheticHourlyTemperatureGenerator
+	{
+	/**Prevent creation of an instance. */
+	private SyntheticHourlyTemperatureGenerator() { }
+
+	/**Mean hours in a (Gregorian) year. */
+	public static final double HOURS_PER_YEAR = 365.2425 * 24;
+
+	/**Annual cycle angular frequency (radians per hour). */
+	private static final double OMEGA_ANNUAL = 2 * Math.PI / HOURS_PER_YEAR;
+
+	/**Diurnal cycle angular frequency (radians per hour). */
+	private static final double OMEGA_DIURNAL = 2 * Math.PI / 24;
+
+	/**Maximum fractional perturbation of cycle amplitudes and noise between synthetic stations. */
+	public static final double STATION_AMPLITUDE_SPREAD = 0.15;
+
+	/**Maximum perturbation of the mean temperature between synthetic stations (K). */
+	public static final double STATION_MEAN_SPREAD_K = 1.5;
+
+	/**Statistical model of one station's hourly temperatures.
+	 * Expected temperature at UTC epoch hour h is
+	 * meanC + annualCos.cos(wA.h) + annualSin.sin(wA.h) + diurnalCos.cos(wD.h) + diurnalSin.sin(wD.h),
+	 * with wA and wD the annual and diurnal angular frequencies;
+	 * deviations from this follow an AR(1) process.
+	 *
+	 * @param meanC  mean temperature (C)
+	 * @param annualCos  cosine coefficient of the annual cycle (K)
+	 * @param annualSin  sine coefficient of the annual cycle (K)
+	 * @param diurnalCos  cosine coefficient of the diurnal cycle (K)
+	 * @param diurnalSin  sine coefficient of the diurnal cycle (K)
+	 * @param ar1  hour-to-hour autocorrelation of the deviations [0,1)
+	 * @param innovationSDK  standard deviation of the hourly AR(1) innovation (K); non-negative
+	 */
+	public record Model(double meanC, double annualCos, double annualSin,
+			double diurnalCos, double diurnalSin, double ar1, double innovationSDK)
+		{
+		/**Construct instance. */
+		public Model
+			{
+			if(!Double.isFinite(meanC) || !Double.isFinite(annualCos) || !Double.isFinite(annualSin) ||
+					!Double.isFinite(diurnalCos) || !Double.isFinite(diurnalSin))
+				{ throw new IllegalArgumentException(); }
+			if(!(ar1 >= 0) || !(ar1 < 1)) { throw new IllegalArgumentException(); }
+			if(!(innovationSDK >= 0) || !Double.isFinite(innovationSDK)) { throw new IllegalArgumentException(); }
+			}
+
+		/**Expected (noise-free) temperature at the given UTC epoch hour (C). */
+		public double expectedC(final long epochHourUTC)
+			{
+			final double a = OMEGA_ANNUAL * epochHourUTC;
+			final double d = OMEGA_DIURNAL * Math.floorMod(epochHourUTC, 24);
+			return(meanC + (annualCos * Math.cos(a)) + (annualSin * Math.sin(a)) +
+				(diurnalCos * Math.cos(d)) + (diurnalSin * Math.sin(d)));
+			}
+
+		/**Peak-to-mean amplitude of the annual cycle (K). */
+		public double annualAmplitudeK() { return(Math.hypot(annualCos, annualSin)); }
+
+		/**Peak-to-mean amplitude of the diurnal cycle (K). */
+		public double diurnalAmplitudeK() { return(Math.hypot(diurnalCos, diurnalSin)); }
+
+		/**Standard deviation of the stationary AR(1) deviations (K). */
+		public double deviationSDK() { return(innovationSDK / Math.sqrt(1 - (ar1 * ar1))); }
+
+		/**Randomly perturb this model to make a plausible distinct station; never null. */
+		public Model perturbed(final SplittableRandom rnd)
+			{
+			final double a = 1 + (STATION_AMPLITUDE_SPREAD * ((2 * rnd.nextDouble()) - 1));
+			final double d = 1 + (STATION_AMPLITUDE_SPREAD * ((2 * rnd.nextDouble()) - 1));
+			final double n = 1 + (STATION_AMPLITUDE_SPREAD * ((2 * rnd.nextDouble()) - 1));
+			return(new Model(meanC + (STATION_MEAN_SPREAD_K * ((2 * rnd.nextDouble()) - 1)),
+				a * annualCos, a * annualSin, d * diurnalCos, d * diurnalSin, ar1, n * innovationSDK));
+			}
+		}
+
+	/**Fit a model to a real series; never null.
+	 * The cycle coefficients are by projection onto the sinusoids,
+	 * which is accurate for series covering whole years,
+	 * and the AR(1) parameters are from the lag-1 autocorrelation of the residuals.
+	 *
+	 * @param series  source series, ideally of one or more whole years; never null
+	 */
+	public static Model fit(final HourlyTemperatureSeries series)
+		{
+		final int n = series.size();
+		if(n < 48) { throw new IllegalArgumentException("too short"); }
+		double sum = 0;
+		for(int i = 0; i < n; ++i) { sum += series.temperature(i); }
+		final double mean = sum / n;
+		double ac = 0, as = 0, dc = 0, ds = 0;
+		for(int i = 0; i < n; ++i)
+			{
+			final long h = series.epochHourUTC(i);
+			final double t = series.temperature(i) - mean;
+			final double a = OMEGA_ANNUAL * h;
+			final double d = OMEGA_DIURNAL * Math.floorMod(h, 24);
+			ac += t * Math.cos(a);
+			as += t * Math.sin(a);
+			dc += t * Math.cos(d);
+			ds += t * Math.sin(d);
+			}
+		final Model cycles = new Model(mean, 2 * ac / n, 2 * as / n, 2 * dc / n, 2 * ds / n, 0, 0);
+
+		double ss = 0, lag = 0, prev = 0;
+		long prevHour = Long.MIN_VALUE;
+		for(int i = 0; i < n; ++i)
+			{
+			final long h = series.epochHourUTC(i);
+			final double r = series.temperature(i) - cycles.expectedC(h);
+			ss += r * r;
+			if(h == prevHour + 1) { lag += r * prev; }
+			prev = r;
+			prevHour = h;
+			}
+		final double variance = ss / n;
+		final double phi = Math.max(0, Math.min(0.999, (ss > 0) ? (lag / ss) : 0));
+		return(new Model(cycles.meanC(), cycles.annualCos(), cycles.annualSin(), cycles.diurnalCos(), cycles.diurnalSin(),
+			phi, Math.sqrt(variance * (1 - (phi * phi)))));
+		}
+
+	/**Fit models to each of the 201X stations, in parallel; never null, in DESCRIPTORS_201X_DATASET order.
+	 * @throws IOException  in case of missing or corrupt temperature data
+	 */
+	public static List<Model> fit201X() throws IOException
+		{
+		try
+			{
+			return(DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.parallelStream().map(htdd -> {
+				try
+					{
+					return(fit(HourlyTemperatureSeries.load(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+						htdd.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE))));
+					}
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				}).toList());
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		}
+
+	/**Day since the epoch of the last Sunday of the given month. */
+	private static long lastSunday(final int year, final int month, final int lastDayOfMonth)
+		{
+		final long d = DDNTimestamps.epochDay(year, month, lastDayOfMonth);
+		// 1970-01-01 was a Thursday; Sunday is 0.
+		return(d - Math.floorMod(d + 4, 7));
+		}
+
+	/**UK timezone offset (local - UTC) in hours at the given UTC epoch hour: GMT+1 between the EU summer time changes. */
+	public static int ukTimezoneOffsetHours(final long epochHourUTC)
+		{
+		final int year = DDNTimestamps.civilFromEpochDay(Math.floorDiv(epochHourUTC, 24)) / 10000;
+		// Summer time runs from 01:00 UTC on the last Sunday of March to 01:00 UTC on the last Sunday of October.
+		final long start = (lastSunday(year, 3, 31) * 24) + 1;
+		final long end = (lastSunday(year, 10, 31) * 24) + 1;
+		return(((epochHourUTC >= start) && (epochHourUTC < end)) ? 1 : 0);
+		}
+
+	/**Generate one synthetic series covering whole calendar years (UK local time); never null.
+	 * @param model  station model; never null
+	 * @param seed  random seed; the same seed and arguments give the same series
+	 * @param firstYear  first calendar year, eg 2010
+	 * @param years  number of years; strictly positive
+	 */
+	public static HourlyTemperatureSeries generate(final Model model, final long seed, final int firstYear, final int years)
+		{
+		Objects.requireNonNull(model);
+		if(years < 1) { throw new IllegalArgumentException(); }
+		final SplittableRandom rnd = new SplittableRandom(seed);
+		// Local midnight on 1st January is also UTC midnight, as it is winter (GMT).
+		final long startUTC = DDNTimestamps.epochDay(firstYear, 1, 1) * 24;
+		final long endUTC = DDNTimestamps.epochDay(firstYear + years, 1, 1) * 24;
+		final double phi = model.ar1();
+		final double sd = model.innovationSDK();
+		final HourlyTemperatureSeries.Appender a = new HourlyTemperatureSeries.Appender();
+		// Start from the stationary distribution.
+		double r = gaussian(rnd) * model.deviationSDK();
+		for(long h = startUTC; h < endUTC; ++h)
+			{
+			// Round to 0.1C as in the source data, avoiding -0.0 which would not survive CSV.
+			final double t = (Math.rint(10 * (model.expectedC(h) + r)) / 10) + 0.0;
+			a.append(h, ukTimezoneOffsetHours(h), Math.max(DDNTemperatureDataValidator.MIN_PLAUSIBLE_TEMPERATURE_C,
+				Math.min(DDNTemperatureDataValidator.MAX_PLAUSIBLE_TEMPERATURE_C, t)));
+			r = (phi * r) + (sd * gaussian(rnd));
+			}
+		return(a.build());
+		}
+
+	/**Standard normal variate by the polar method. */
+	private static double gaussian(final SplittableRandom rnd)
+		{
+		double u, v, s;
+		do
+			{
+			u = (2 * rnd.nextDouble()) - 1;
+			v = (2 * rnd.nextDouble()) - 1;
+			s = (u * u) + (v * v);
+			}
+		while((s >= 1) || (0 == s));
+		return(u * Math.sqrt(-2 * Math.log(s) / s));
+		}
+
+	/**Append a temperature already rounded to 0.1C as degreedays.net does, eg "7", "6.3", "-0.5". */
+	private static void appendTemperature(final StringBuilder sb, final double t)
+		{
+		final long tenths = Math.round(10 * t);
+		if(tenths < 0) { sb.append('-'); }
+		final long abs = Math.abs(tenths);
+		sb.append(abs / 10);
+		if(0 != (abs % 10)) { sb.append('.').append(abs % 10); }
+		}
+
+	/**Append n as two digits. */
+	private static void append2(final StringBuilder sb, final int n)
+		{ sb.append((char) ('0' + (n / 10))).append((char) ('0' + (n % 10))); }
+
+	/**Append a packed date such as 20180131 as "2018-01-31". */
+	private static void appendDate(final StringBuilder sb, final int date)
+		{
+		sb.append(date / 10000).append('-');
+		append2(sb, (date / 100) % 100);
+		sb.append('-');
+		append2(sb, date % 100);
+		}
+
+	/**Write a series as degreedays.net hourly temperature CSV, with the standard preamble.
+	 * The "% Estimated" column is always 0.
+	 *
+	 * @param series  series to write; never null
+	 * @param station  station ID, eg "S00000"; never null
+	 * @param w  destination, not closed; never null
+	 * @throws IOException  if w throws
+	 */
+	public static void writeCSV(final HourlyTemperatureSeries series, final String station, final Writer w)
+		throws IOException
+		{
+		Objects.requireNonNull(station);
+		w.write("Description:,\"Hourly temperatures in Celsius\"\n");
+		w.write("Source:,\"synthetic\"\n");
+		w.write("Accuracy:,\"Synthetic data for testing\"\n");
+		w.write("Station:,\"Synthetic " + station + "\"\n");
+		w.write("Station ID:," + station + "\n");
+		w.write("\n");
+		w.write("Datetime,Timezone,Date,Time,Temp (\u00B0C),% Estimated\n");
+		final StringBuilder sb = new StringBuilder(64);
+		final int n = series.size();
+		for(int i = 0; i < n; ++i)
+			{
+			sb.setLength(0);
+			final int date = series.localDate(i);
+			final int hour = series.hourOfDay(i);
+			final int tz = series.timezoneOffsetHours(i);
+			appendDate(sb, date);
+			sb.append(' ');
+			append2(sb, hour);
+			sb.append(":00,GMT");
+			if(0 != tz) { sb.append((tz > 0) ? '+' : '-').append(Math.abs(tz)); }
+			sb.append(',');
+			appendDate(sb, date);
+			sb.append(',');
+			append2(sb, hour);
+			sb.append(":00,");
+			appendTemperature(sb, series.temperature(i));
+			sb.append(",0\n");
+			w.append(sb);
+			}
+		}
+
+	/**Output file formats. */
+	public enum Format
+		{
+		/**Plain degreedays.net CSV. */
+		CSV(".csv"),
+		/**Gzipped degreedays.net CSV, as the files in the repository. */
+		CSV_GZ(".csv.gz"),
+		/**Compact binary form of HourlyTemperatureSeries. */
+		BINARY(HourlyTemperatureSeries.BINARY_FILE_SUFFIX);
+
+		/**File name suffix; non-null. */
+		public final String suffix;
+		Format(final String suffix) { this.suffix = suffix; }
+		}
+
+	/**Write a series to a file in the given format, replacing any existing file.
+	 * @param series  series to write; never null
+	 * @param station  station ID; never null
+	 * @param file  destination; never null
+	 * @param format  format; never null
+	 * @throws IOException  if the file cannot be written
+	 */
+	public static void writeFile(final HourlyTemperatureSeries series, final String station,
+			final Path file, final Format format)
+		throws IOException
+		{
+		if(Format.BINARY == format) { series.saveBinary(file); return; }
+		try(final OutputStream os = (Format.CSV_GZ == format) ?
+				new GZIPOutputStream(Files.newOutputStream(file), 1 << 16) : Files.newOutputStream(file);
+			final Writer w = new BufferedWriter(new OutputStreamWriter(os, DDNTemperatureDataCSV.TEMPDATACSV_CHARSET), 1 << 16))
+			{ writeCSV(series, station, w); }
+		}
+
+	/**Name of the synthetic station with the given index, eg "S00042"; never null. */
+	public static String stationName(final int index)
+		{ return(String.format("S%05d", index)); }
+
+	/**Generate and write a dataset of synthetic stations to a directory, in parallel.
+	 * Station i is a perturbation of base model (i mod bases.size()),
+	 * and is written as stationName(i) + "_CelsiusTemps_synthetic" + format suffix,
+	 * so datasets in any format are recognised by HourlyTemperatureDatasetComposer.
+	 *
+	 * @param dir  existing destination directory; never null
+	 * @param bases  base models, eg from fit201X(); never null nor empty
+	 * @param stations  number of stations; strictly positive
+	 * @param firstYear  first calendar year
+	 * @param years  number of years; strictly positive
+	 * @param seed  random seed; the same seed and arguments give the same files
+	 * @param format  output format; never null
+	 * @return descriptors of the stations written, in index order; never null
+	 * @throws IOException  if any file cannot be written
+	 */
+	public static List<HourlyTemperatureDataDescriptor> writeDataset(final Path dir, final List<Model> bases,
+			final int stations, final int firstYear, final int years, final long seed, final Format format)
+		throws IOException
+		{
+		Objects.requireNonNull(dir);
+		Objects.requireNonNull(format);
+		if(bases.isEmpty() || (stations < 1)) { throw new IllegalArgumentException(); }
+		final int[] records = new int[stations];
+		try
+			{
+			IntStream.range(0, stations).parallel().forEach(i -> {
+				// Per-station stream, independent of scheduling order.
+				final SplittableRandom rnd = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (i + 1)));
+				final Model m = bases.get(i % bases.size()).perturbed(rnd);
+				final HourlyTemperatureSeries s = generate(m, rnd.nextLong(), firstYear, years);
+				final String name = stationName(i);
+				try { writeFile(s, name, dir.resolve(name + "_CelsiusTemps_synthetic" + format.suffix), format); }
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				records[i] = s.size();
+				});
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		final List<HourlyTemperatureDataDescriptor> result = new ArrayList<>(stations);
+		for(int i = 0; i < stations; ++i)
+			{ result.add(new HourlyTemperatureDataDescriptor(stationName(i), "Synthetic " + i, records[i])); }
+		return(List.copyOf(result));
+		}
+	}
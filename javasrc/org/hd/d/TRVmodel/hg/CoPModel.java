@@ -0,0 +1,21 @@
+package org.hd.d.TRVmodel.hg;
+
+/**Heat-pump coefficient of performance (CoP) as a function of flow and source temperature.
+ * Implementations must be thread-safe and free of side effects,
+ * since they are called once or twice per modelled hour, possibly in parallel.
+ */
+@FunctionalInterface
+public interface CoPModel
+	{
+	/**Compute the CoP; finite and positive for plausible inputs.
+	 * @param flowC  flow temperature (from heat pump to radiator) in C
+	 * @param sourceC  source temperature in C, ie external air for an air-source heat pump
+	 * @return CoP
+	 */
+	double cop(double flowC, double sourceC);
+
+	/**The original HG linear fit on flow temperature only, ignoring source temperature.
+	 * This is the default everywhere, and any other model bypasses the result cache.
+	 */
+	CoPModel HG_LINEAR = (flowC, sourceC) -> HGTRVHPMModelParameterised.computeFlowCoP(flowC);
+	}
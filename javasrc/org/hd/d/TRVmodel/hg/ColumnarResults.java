@@ -0,0 +1,129 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.data.ColumnarFile;
+import org.hd.d.TRVmodel.data.ColumnarFile.Column;
+import org.hd.d.TRVmodel.data.ColumnarFile.Type;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+
+/**Writes model results as ColumnarFile files, for fast bulk analysis without parsing.
+ * Flags are INT columns holding 0 or 1.
+ */
+public final class ColumnarResults
+	{
+	/**Prevent creation of an instance. */
+	private ColumnarResults() { }
+
+	/**Schema for scenario results, one row per scenario run, eg per ResultCube cell. */
+	public static final List<Column> SCENARIO_COLUMNS = List.of(
+		new Column("station", Type.INT),
+		new Column("doorsPerInternalWall", Type.DOUBLE),
+		new Column("correctCoPForFlowVsMW", Type.INT),
+		new Column("roomsAlternatingABAB", Type.INT),
+		new Column("detached", Type.INT),
+		new Column("soft", Type.INT),
+		new Column("hoursFractionSetbackRaisesDemand", Type.DOUBLE),
+		new Column("heatNoSetbackW", Type.DOUBLE),
+		new Column("electricityNoSetbackW", Type.DOUBLE),
+		new Column("heatWithSetbackW", Type.DOUBLE),
+		new Column("electricityWithSetbackW", Type.DOUBLE),
+		new Column("equilibriumTemperatureMinC", Type.DOUBLE));
+
+	/**Schema for per-hour demand, one row per hour needing heat. */
+	public static final List<Column> HOURLY_COLUMNS = List.of(
+		new Column("epochHourUTC", Type.LONG),
+		new Column("externalAirTemperatureC", Type.DOUBLE),
+		new Column("heatNoSetbackW", Type.DOUBLE),
+		new Column("electricityNoSetbackW", Type.DOUBLE),
+		new Column("heatWithSetbackW", Type.DOUBLE),
+		new Column("electricityWithSetbackW", Type.DOUBLE));
+
+	/**Append one scenario result to a writer with the SCENARIO_COLUMNS schema.
+	 * @param w  writer; never null
+	 * @param station  station index, or -1 if none
+	 * @param params  model parameters run; never null
+	 * @param detached  iff true detached house, else bungalow
+	 * @param soft  iff true soft regulation, else stiff
+	 * @param result  result; never null
+	 * @param equilibriumTemperatureMinC  minimum A-room equilibrium temperature (C)
+	 * @throws IOException  if the row cannot be written
+	 */
+	public static void appendScenario(final ColumnarFile.Writer w, final int station,
+			final HGTRVHPMModelParameterised.ModelParameters params,
+			final boolean detached, final boolean soft,
+			final ScenarioResult result, final double equilibriumTemperatureMinC)
+		throws IOException
+		{
+		if(!SCENARIO_COLUMNS.equals(w.columns())) { throw new IllegalArgumentException("wrong schema"); }
+		w.putInt(0, station);
+		w.putDouble(1, params.doorsPerInternalWall());
+		w.putInt(2, params.correctCoPForFlowVsMW() ? 1 : 0);
+		w.putInt(3, params.roomsAlternatingABAB() ? 1 : 0);
+		w.putInt(4, detached ? 1 : 0);
+		w.putInt(5, soft ? 1 : 0);
+		w.putDouble(6, result.hoursFractionSetbackRaisesDemand());
+		w.putDouble(7, result.demand().noSetback().heatDemand());
+		w.putDouble(8, result.demand().noSetback().heatPumpElectricity());
+		w.putDouble(9, result.demand().withSetback().heatDemand());
+		w.putDouble(10, result.demand().withSetback().heatPumpElectricity());
+		w.putDouble(11, equilibriumTemperatureMinC);
+		w.endRow();
+		}
+
+	/**Write every cell of a result cube, station-major, with station as the index into cube.stations().
+	 * @param file  file to write; never null
+	 * @param cube  results; never null
+	 * @throws IOException  if the file cannot be written
+	 */
+	public static void writeResultCube(final Path file, final ResultCube cube)
+		throws IOException
+		{
+		Objects.requireNonNull(cube);
+		try(final ColumnarFile.Writer w = new ColumnarFile.Writer(file, SCENARIO_COLUMNS))
+			{
+			for(int s = 0; s < cube.stations().size(); ++s)
+				for(final boolean detached : new boolean[]{false, true})
+					for(final boolean abab : new boolean[]{false, true})
+						for(final boolean soft : new boolean[]{false, true})
+							{
+							final ResultCube.Cell c = cube.get(s, detached, abab, soft);
+							appendScenario(w, s, cube.parameters(abab), detached, soft, c.result(), c.equilibriumTemperatureMinC());
+							}
+			}
+		}
+
+	/**Run a scenario and write its demand for each hour needing heat, in time order.
+	 * @param file  file to write; never null
+	 * @param model  model and temperature data; never null
+	 * @param detached  iff true detached house, else bungalow
+	 * @param soft  iff true soft regulation, else stiff
+	 * @throws IOException  if the file cannot be written
+	 */
+	public static void writeHourly(final Path file, final HGTRVHPMModelByHour model,
+			final boolean detached, final boolean soft)
+		throws IOException
+		{
+		Objects.requireNonNull(model);
+		final HourlyTemperatureSeries t = model.temperatures();
+		try(final ColumnarFile.Writer w = new ColumnarFile.Writer(file, HOURLY_COLUMNS))
+			{
+			model.forEachHeatingHour(detached, soft, (i, d) -> {
+				w.putLong(0, t.epochHourUTC(i));
+				w.putDouble(1, t.temperature(i));
+				w.putDouble(2, d.noSetback().heatDemand());
+				w.putDouble(3, d.noSetback().heatPumpElectricity());
+				w.putDouble(4, d.withSetback().heatDemand());
+				w.putDouble(5, d.withSetback().heatPumpElectricity());
+				try { w.endRow(); }
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				});
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		}
+	}
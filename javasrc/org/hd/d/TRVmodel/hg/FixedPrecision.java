@@ -0,0 +1,86 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**Lightweight fixed-precision decimal formatting of doubles to an Appendable.
+ * Output matches String.format("%.Nf") in the ROOT locale,
+ * which rounds the shortest decimal representation of the value (as Double.toString) HALF_UP,
+ * and keeps the sign of small negative values, eg "-0.0",
+ * but without parsing a format string or allocating much per call in the common case.
+ * <p>
+ * Values whose scaled fraction is close to a half, where the rounding direction depends
+ * on the decimal representation rather than the binary value, or that are very large,
+ * fall back to BigDecimal rounding.
+ */
+public final class FixedPrecision
+	{
+	/**Prevent creation of an instance. */
+	private FixedPrecision() { }
+
+	/**Maximum supported number of decimal places. */
+	public static final int MAX_DECIMALS = 9;
+
+	/**Largest scaled magnitude handled on the fast path; well within exact long and double integer range. */
+	private static final double FAST_PATH_LIMIT = 1e12;
+
+	/**Minimum distance of the scaled fraction from a half for the fast path to be safe. */
+	private static final double HALF_MARGIN = 1e-3;
+
+	/**Powers of ten up to MAX_DECIMALS. */
+	private static final long[] POW10 = new long[MAX_DECIMALS + 1];
+	static
+		{
+		POW10[0] = 1;
+		for(int i = 1; i < POW10.length; ++i) { POW10[i] = 10 * POW10[i-1]; }
+		}
+
+	/**Append x with the given number of decimal places, as String.format("%.Nf", x) would.
+	 * @param out  destination; never null
+	 * @param x  value
+	 * @param decimals  decimal places [0,MAX_DECIMALS]
+	 * @return out
+	 * @throws IOException  if out throws
+	 */
+	public static Appendable append(final Appendable out, final double x, final int decimals)
+		throws IOException
+		{
+		if((decimals < 0) || (decimals > MAX_DECIMALS)) { throw new IllegalArgumentException(); }
+		if(Double.isNaN(x)) { out.append("NaN"); return(out); }
+		if(Double.isInfinite(x)) { out.append((x > 0) ? "Infinity" : "-Infinity"); return(out); }
+
+		final boolean negative = Double.doubleToRawLongBits(x) < 0;
+		final double scaled = Math.abs(x) * POW10[decimals];
+		final double floor = Math.floor(scaled);
+		final double frac = scaled - floor;
+		if((scaled >= FAST_PATH_LIMIT) || (Math.abs(frac - 0.5) < HALF_MARGIN))
+			{
+			// Slow path, rounding the decimal representation.
+			if(negative) { out.append('-'); }
+			out.append(BigDecimal.valueOf(Math.abs(x)).setScale(decimals, RoundingMode.HALF_UP).toPlainString());
+			return(out);
+			}
+
+		final long r = (long) floor + ((frac > 0.5) ? 1 : 0);
+		if(negative) { out.append('-'); }
+		final long intPart = r / POW10[decimals];
+		out.append(Long.toString(intPart));
+		if(decimals > 0)
+			{
+			out.append('.');
+			final long fracPart = r - (intPart * POW10[decimals]);
+			// Leading zeros of the fractional part.
+			for(long p = POW10[decimals-1]; (p > 1) && (fracPart < p); p /= 10) { out.append('0'); }
+			out.append(Long.toString(fracPart));
+			}
+		return(out);
+		}
+
+	/**Format x with the given number of decimal places, as String.format("%.Nf", x) would; never null. */
+	public static String format(final double x, final int decimals)
+		{
+		try { return(append(new StringBuilder(24), x, decimals).toString()); }
+		catch(final IOException e) { throw new AssertionError(e); } // StringBuilder does not throw.
+		}
+	}
@@ -0,0 +1,120 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.List;
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Finds the break-even external air temperature at which B-room setback stops raising heat-pump electricity demand.
+ * The change in electricity demand from setback is scanned upwards in coarse steps
+ * from SEARCH_MIN_C to find the first bracketing sign change,
+ * then the bracket is narrowed by bisection to the requested tolerance.
+ * Bisection is used rather than a faster interpolating method
+ * since the 'soft' model steps its equilibrium temperature in 0.01K increments,
+ * so the function is not smooth at fine scales.
+ * <p>
+ * Batch variants evaluate grids of cases sequentially or in parallel;
+ * each case is independent and results are returned in input order.
+ */
+public final class HGTRVHPMModelBreakEven
+	{
+	/**Prevent creation of an instance. */
+	private HGTRVHPMModelBreakEven() { }
+
+	/**Lowest external temperature searched (C). */
+	public static final double SEARCH_MIN_C = HGTRVHPMModel.EXTERNAL_AIR_TEMPERATURE_C - 20;
+
+	/**Highest external temperature searched (C); the models do not run at or above setback temperature. */
+	public static final double SEARCH_MAX_C = HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C - 0.001;
+
+	/**Coarse scan step (K); as the 1C steps of the original sweeps. */
+	public static final double SEARCH_STEP_K = 1;
+
+	/**Default tolerance on the break-even temperature (K). */
+	public static final double DEFAULT_TOLERANCE_K = 0.001;
+
+	/**One break-even case.
+	 * @param params  model parameters (external temperature ignored); never null
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param soft  if true 'soft' A-room temperature regulation, else 'stiff'
+	 */
+	public record Case(ModelParameters params, boolean bungalow, boolean soft)
+		{
+		/**Construct instance. */
+		public Case
+			{ Objects.requireNonNull(params); }
+		}
+
+	/**Change in heat-pump electricity demand from setback at the given external temperature (W); positive if setback costs more.
+	 * @param c  case; never null
+	 * @param externalAirTemperatureC  external air temperature (C), below setback temperature
+	 */
+	public static double setbackElectricityDeltaW(final Case c, final double externalAirTemperatureC)
+		{
+		final ModelParameters p = c.params().cloneWithAdjustedExternalTemperature(externalAirTemperatureC);
+		final DemandWithoutAndWithSetback d = c.soft() ?
+			HGTRVHPMModelParameterised.computeSoftATempDemandW(p, c.bungalow(), null) :
+			HGTRVHPMModelParameterised.computeDetachedDemandW(p, c.bungalow());
+		return(d.withSetback().heatPumpElectricity() - d.noSetback().heatPumpElectricity());
+		}
+
+	/**Find the lowest external temperature at which setback changes between raising and lowering electricity demand.
+	 * @param c  case; never null
+	 * @param toleranceK  maximum error in the result (K); strictly positive
+	 * @return break-even external air temperature (C),
+	 *     or NaN if the effect of setback does not change sign between SEARCH_MIN_C and SEARCH_MAX_C
+	 */
+	public static double breakEvenExternalTemperatureC(final Case c, final double toleranceK)
+		{
+		Objects.requireNonNull(c);
+		if(!(toleranceK > 0)) { throw new IllegalArgumentException(); }
+		double lo = SEARCH_MIN_C;
+		double gLo = setbackElectricityDeltaW(c, lo);
+		if(0 == gLo) { return(lo); }
+		while(lo < SEARCH_MAX_C)
+			{
+			final double hi = Math.min(SEARCH_MAX_C, lo + SEARCH_STEP_K);
+			final double gHi = setbackElectricityDeltaW(c, hi);
+			if(0 == gHi) { return(hi); }
+			if((gLo > 0) != (gHi > 0)) { return(bisect(c, lo, gLo, hi, toleranceK)); }
+			lo = hi;
+			gLo = gHi;
+			}
+		return(Double.NaN);
+		}
+
+	/**Find the break-even temperature with the default tolerance; NaN if none. */
+	public static double breakEvenExternalTemperatureC(final ModelParameters params, final boolean bungalow, final boolean soft)
+		{ return(breakEvenExternalTemperatureC(new Case(params, bungalow, soft), DEFAULT_TOLERANCE_K)); }
+
+	/**Narrow a sign-change bracket [lo,hi] by bisection, returning the midpoint of the final bracket. */
+	private static double bisect(final Case c, double lo, final double gLo, double hi, final double toleranceK)
+		{
+		final boolean loPositive = gLo > 0;
+		while((hi - lo) > (2 * toleranceK))
+			{
+			final double mid = 0.5 * (lo + hi);
+			final double g = setbackElectricityDeltaW(c, mid);
+			if(0 == g) { return(mid); }
+			if((g > 0) == loPositive) { lo = mid; } else { hi = mid; }
+			}
+		return(0.5 * (lo + hi));
+		}
+
+	/**Find break-even temperatures for many cases sequentially; never null.
+	 * @param cases  cases; never null
+	 * @param toleranceK  maximum error in each result (K); strictly positive
+	 * @return break-even temperatures in case order, NaN where none
+	 */
+	public static double[] breakEven(final List<Case> cases, final double toleranceK)
+		{ return(cases.stream().mapToDouble(c -> breakEvenExternalTemperatureC(c, toleranceK)).toArray()); }
+
+	/**Find break-even temperatures for many cases in parallel; never null.
+	 * @param cases  cases; never null
+	 * @param toleranceK  maximum error in each result (K); strictly positive
+	 * @return break-even temperatures in case order, NaN where none
+	 */
+	public static double[] breakEvenParallel(final List<Case> cases, final double toleranceK)
+		{ return(cases.parallelStream().mapToDouble(c -> breakEvenExternalTemperatureC(c, toleranceK)).toArray()); }
+	}
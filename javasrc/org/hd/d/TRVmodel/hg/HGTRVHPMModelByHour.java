@@ -1,26 +1,76 @@
 package org.hd.d.TRVmodel.hg;
 
-import java.util.List;
+import java.io.IOException;
+import java.util.Collections;
 import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
 
 import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTimestamps;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.stats.PhaseTimings;
 
 /**Drives the parameterised HG model variant(s) with hourly external temperature data.
  * This clones the model parameters, replacing the external temperature for each hour.
+ * <p>
+ * Only hours colder than the base temperature need heat;
+ * scenario loops visit just those, via the series' cached heating-hour index.
+ * <p>
+ * The temperatures component was formerly the parsed DDNTemperatureDataCSV;
+ * that is still accepted by a constructor, which converts it to a compact series,
+ * but the temperatures() accessor now returns the HourlyTemperatureSeries.
  *
  * @param modelParameters  input parameters to the model; never null
- * @param temperatures  hourly temperature records; never null nor empty
+ * @param temperatures  hourly temperature series; never null
+ * @param copModel  heat-pump CoP model, with the external temperature as source; never null
+ * @param baseTemperatureC  temperature (C) at and above which no heat is needed; finite
+ *     and not above the setback room temperature, for the setback rooms to need heat whenever the others do
  */
-public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters modelParameters, DDNTemperatureDataCSV temperatures)
+public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters modelParameters, HourlyTemperatureSeries temperatures,
+		CoPModel copModel, double baseTemperatureC)
  	{
 	/**Construct instance. */
 	public HGTRVHPMModelByHour
 		{
 		Objects.requireNonNull(modelParameters);
 		Objects.requireNonNull(temperatures);
-		if(temperatures.data().isEmpty()) { throw new IllegalArgumentException(); }
+		Objects.requireNonNull(copModel);
+		if(!Double.isFinite(baseTemperatureC)) { throw new IllegalArgumentException(); }
+		if(baseTemperatureC > HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C) { throw new IllegalArgumentException("base above setback temperature"); }
+		}
+
+	/**Construct instance with the default base heating temperature.
+	 * @param modelParameters  input parameters to the model; never null
+	 * @param temperatures  hourly temperature series; never null
+	 * @param copModel  heat-pump CoP model, with the external temperature as source; never null
+	 */
+	public HGTRVHPMModelByHour(final HGTRVHPMModelParameterised.ModelParameters modelParameters,
+			final HourlyTemperatureSeries temperatures, final CoPModel copModel)
+		{
+		this(modelParameters, temperatures, copModel, DEFAULT_BASE_HEATING_TEMPERATURE_C);
+		}
+
+	/**Construct instance with the original HG linear CoP model.
+	 * @param modelParameters  input parameters to the model; never null
+	 * @param temperatures  hourly temperature series; never null
+	 */
+	public HGTRVHPMModelByHour(final HGTRVHPMModelParameterised.ModelParameters modelParameters,
+			final HourlyTemperatureSeries temperatures)
+		{
+		this(modelParameters, temperatures, CoPModel.HG_LINEAR);
+		}
+
+	/**Construct instance from parsed CSV rows, converting them to a compact series.
+	 * @param modelParameters  input parameters to the model; never null
+	 * @param temperatures  hourly temperature records in time order; never null nor empty
+	 */
+	public HGTRVHPMModelByHour(final HGTRVHPMModelParameterised.ModelParameters modelParameters,
+			final DDNTemperatureDataCSV temperatures)
+		{
+		this(modelParameters, HourlyTemperatureSeries.fromCSV(Objects.requireNonNull(temperatures)));
 		}
 
 	/**Temperature below which space heating is required, CIBSE typical UK threshold. */
@@ -43,6 +93,10 @@ public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters mod
 			}
 		}
 
+	/**PhaseTimings phase names for runScenario(), indexed by (detached ? 2 : 0) + (soft ? 1 : 0). */
+	private static final String[] COMPUTE_PHASES = {
+		"compute.stiff.bungalow", "compute.soft.bungalow", "compute.stiff.detached", "compute.soft.detached" };
+
 	/**Run scenario on model and temperature data; never null.
 	 * @param modelDetached  iff true, model detached house
 	 *     (else model original 4-room bungalow)
@@ -57,8 +111,66 @@ public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters mod
 			final boolean softATemp,
 			final double[] equilibriumTemperatureMin)
 		{
-		final int hourCount = temperatures.data().size();
+		final int hourCount = temperatures.size();
 //		assert(hourCount > 0);
+		final PhaseTimings.Span span = PhaseTimings.start(COMPUTE_PHASES[(modelDetached ? 2 : 0) + (softATemp ? 1 : 0)]);
+
+		// Stiff regulation has no per-hour state so can be evaluated in batch, with identical results.
+		if(!softATemp)
+			{
+			if(null != equilibriumTemperatureMin)
+			    { equilibriumTemperatureMin[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C; }
+			final ScenarioResult r = new StiffBatchKernel(modelParameters, modelDetached, copModel).run(
+				temperatures.heatingHours(baseTemperatureC), hourCount, false);
+			span.hours(hourCount).close();
+			return(r);
+			}
+
+		final ScenarioResult r = runSoftScenario(modelDetached, null, equilibriumTemperatureMin);
+		span.hours(hourCount).close();
+		return(r);
+		}
+
+	/**Run scenario on model and temperature data, with soft regulation approximated by a fitted surrogate; never null.
+	 * Stiff regulation is computed exactly, as runScenario().
+	 * Soft regulation uses the shared SoftATempSurrogate for these parameters, archetype and CoP model,
+	 * fitted up to this model's base temperature on first use, for hours within its range,
+	 * and the exact solver for any others;
+	 * so per-hour setback demand, and thus the means, are close to those from runScenario(),
+	 * typically within the surrogate's observed errors, and no-setback demand is exact.
+	 * <p>
+	 * This is much faster than runScenario() for soft regulation over long or many series.
+	 *
+	 * @param modelDetached  iff true, model detached house
+	 *     (else model original 4-room bungalow)
+	 * @param softATemp  iff true run with soft temperature regulation
+	 *     (pure weather compensation) in A rooms,
+	 *     else run with original 'still' regulation
+     * @param equilibriumTemperatureMin  if not null and not zero length,
+     *     used to return the minimum (approximate) A-room equilibrium temperature
+     * @return results of run; never null
+	 */
+	public ScenarioResult runScenarioFast(final boolean modelDetached,
+			final boolean softATemp,
+			final double[] equilibriumTemperatureMin)
+		{
+		if(!softATemp) { return(runScenario(modelDetached, false, equilibriumTemperatureMin)); }
+		final SoftATempSurrogate surrogate = SoftATempSurrogate.forParameters(modelParameters, !modelDetached, copModel, baseTemperatureC);
+		final int hourCount = temperatures.size();
+		final PhaseTimings.Span span = PhaseTimings.start(COMPUTE_PHASES[(modelDetached ? 2 : 0) + 1]);
+		final ScenarioResult r = runSoftScenario(modelDetached, surrogate, equilibriumTemperatureMin);
+		span.hours(hourCount).close();
+		return(r);
+		}
+
+	/**Run soft-regulation scenario, using the surrogate where given and covering the hour, else the exact solver; never null.
+	 * @param surrogate  surrogate fitted for these parameters, archetype and CoP model, or null
+	 */
+	private ScenarioResult runSoftScenario(final boolean modelDetached,
+			final SoftATempSurrogate surrogate,
+			final double[] equilibriumTemperatureMin)
+		{
+		final int hourCount = temperatures.size();
 
 		// Running totals.
 		int hoursSetbackRaisesDemand = 0;
@@ -72,20 +184,17 @@ public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters mod
 		    { equilibriumTemperatureMin[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C; }
 		final double equilibriumTemperature[] = new double[1];
 
-		for(final List<String> row : temperatures.data())
+		// Assume no heat required at or above the base temperature.
+		final HourlyTemperatureSeries.HeatingHours heatingHours = temperatures.heatingHours(baseTemperatureC);
+		final int heatingHourCount = heatingHours.count();
+		for(int k = 0; k < heatingHourCount; ++k)
 			{
-			final double temperature = Double.parseDouble(row.get(DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE));
-
-			// Assume no heat required above standard HDD base temperature.
-			if(temperature >= DEFAULT_BASE_HEATING_TEMPERATURE_C) { continue; }
-
-			final HGTRVHPMModelParameterised.ModelParameters updateModelParameters =
-					modelParameters.cloneWithAdjustedExternalTemperature(temperature);
+			final double temperature = heatingHours.temperature(k);
 
 		    equilibriumTemperature[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C;
-	    	final DemandWithoutAndWithSetback power = softATemp ?
-				HGTRVHPMModelParameterised.computeSoftATempDemandW(updateModelParameters, !modelDetached, equilibriumTemperature) :
-    			HGTRVHPMModelParameterised.computeDetachedDemandW(updateModelParameters, !modelDetached);
+	    	final DemandWithoutAndWithSetback power = ((null != surrogate) && surrogate.covers(temperature)) ?
+    			surrogate.demandW(temperature, equilibriumTemperature) :
+    			computeHour(temperature, modelDetached, true, equilibriumTemperature);
 			if((null != equilibriumTemperatureMin) &&
 					(equilibriumTemperature[0] < equilibriumTemperatureMin[0]))
 				{ equilibriumTemperatureMin[0] = equilibriumTemperature[0]; }
@@ -108,4 +217,252 @@ public record HGTRVHPMModelByHour(HGTRVHPMModelParameterised.ModelParameters mod
 
 		return(new ScenarioResult(hoursFractionSetbackRaisesDemand, demand));
 		}
+
+	/**Run scenario on model and temperature data, consulting a persistent result cache first; never null.
+	 * Results are identical to runScenario() but may be returned without recomputation.
+	 *
+	 * @param cache  result cache, or null to always compute
+	 * @param modelDetached  iff true, model detached house (else bungalow)
+	 * @param softATemp  iff true run with soft temperature regulation in A rooms
+	 * @return results of run; never null
+	 * @throws IOException  if the cache file cannot be written
+	 */
+	public ScenarioResult runScenarioCached(final ScenarioResultCache cache,
+			final boolean modelDetached,
+			final boolean softATemp)
+		throws IOException
+		{
+		if(null == cache) { return(runScenario(modelDetached, softATemp, null)); }
+		return(cache.computeIfAbsent(this, modelDetached, softATemp));
+		}
+
+	/**Receives per-hour demand from forEachHeatingHour(). */
+	@FunctionalInterface
+	public interface HourlyDemandConsumer
+		{
+		/**Accept the demand for one hour needing heat.
+		 * @param i  row index into the temperature series
+		 * @param demand  demand in that hour (W); never null
+		 */
+		void accept(int i, DemandWithoutAndWithSetback demand);
+		}
+
+	/**Run the model for each hour needing heat, in time order, passing each hour's demand on.
+	 * Hours at or above the base temperature have no demand and are skipped,
+	 * as in runScenario().
+	 *
+	 * @param modelDetached  iff true, model detached house (else bungalow)
+	 * @param softATemp  iff true run with soft temperature regulation in A rooms
+	 * @param consumer  receives the demand for each hour needing heat; never null
+	 */
+	public void forEachHeatingHour(final boolean modelDetached,
+			final boolean softATemp,
+			final HourlyDemandConsumer consumer)
+		{
+		Objects.requireNonNull(consumer);
+		final HourlyTemperatureSeries.HeatingHours heatingHours = temperatures.heatingHours(baseTemperatureC);
+		final int heatingHourCount = heatingHours.count();
+		final double equilibriumTemperature[] = new double[1];
+		for(int k = 0; k < heatingHourCount; ++k)
+			{
+		    equilibriumTemperature[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C;
+			consumer.accept(heatingHours.row(k), computeHour(heatingHours.temperature(k), modelDetached, softATemp, equilibriumTemperature));
+			}
+		}
+
+	/**Compute demand for one hour at the given external temperature; never null.
+	 * @param temperature  external air temperature (C), below setback temperature
+	 * @param modelDetached  iff true, model detached house (else bungalow)
+	 * @param softATemp  iff true run with soft temperature regulation in A rooms
+	 * @param equilibriumTemperature  non-null single-element array
+	 *     to return the A-room equilibrium temperature (soft mode only)
+	 * @return demand for this hour; never null
+	 */
+	private DemandWithoutAndWithSetback computeHour(final double temperature,
+			final boolean modelDetached,
+			final boolean softATemp,
+			final double[] equilibriumTemperature)
+		{
+		final HGTRVHPMModelParameterised.ModelParameters updateModelParameters =
+				modelParameters.cloneWithAdjustedExternalTemperature(temperature);
+		return(softATemp ?
+			HGTRVHPMModelParameterised.computeSoftATempDemandW(updateModelParameters, !modelDetached, equilibriumTemperature, copModel) :
+			HGTRVHPMModelParameterised.computeDetachedDemandW(updateModelParameters, !modelDetached, copModel));
+		}
+
+	/**Results of running a model against a temperature set, overall and by calendar year and month.
+	 * Each group result has the same semantics as the overall result,
+	 * ie means and fractions are over all the hours in that group
+	 * (not just those in which heating is needed).
+	 * <p>
+	 * Years and months are as given in the (local) date field of each row.
+	 *
+	 * @param overall  result over all hours, as from runScenario(); non-null
+	 * @param byYear  results by calendar year (eg 2018),
+	 *     only for years with at least one hour of data; non-null, immutable
+	 * @param byMonth  results by calendar month as (year * 100) + month (eg 201801 for January 2018),
+	 *     only for months with at least one hour of data; non-null, immutable
+	 */
+	public record GroupedScenarioResult(ScenarioResult overall,
+			SortedMap<Integer, ScenarioResult> byYear,
+			SortedMap<Integer, ScenarioResult> byMonth)
+		{
+		/**Construct instance. */
+		public GroupedScenarioResult
+			{
+			Objects.requireNonNull(overall);
+			Objects.requireNonNull(byYear);
+			Objects.requireNonNull(byMonth);
+			}
+		}
+
+	/**Run scenario on model and temperature data, also grouping results by year and month; never null.
+	 * This makes two passes, each accumulating into per-month primitive accumulators
+	 * from which the per-year results are also derived:
+	 * first over all rows, counting the hours in each month,
+	 * then, as runScenario(), over only the cached heating hours, computing each hour's demand.
+	 * In each pass the local year and month are decoded (with integer arithmetic)
+	 * only when the local day changes from the previous row visited.
+	 *
+	 * @param modelDetached  iff true, model detached house
+	 *     (else model original 4-room bungalow)
+	 * @param softATemp  iff true run with soft temperature regulation
+	 *     (pure weather compensation) in A rooms,
+	 *     else run with original 'still' regulation
+     * @param equilibriumTemperatureMin  if not null and not zero length,
+     *     used to return the minimum A-room equilibrium temperature
+	 * @return overall and grouped results of run; never null
+	 */
+	public GroupedScenarioResult runScenarioGrouped(final boolean modelDetached,
+			final boolean softATemp,
+			final double[] equilibriumTemperatureMin)
+		{
+		final int hourCount = temperatures.size();
+
+		// Size the per-month accumulators from the (time-ordered) first and last rows.
+		final int yearMin = temperatures.year(0);
+		final int groups = 12 * (1 + temperatures.year(hourCount - 1) - yearMin);
+
+		// Per-month running totals, indexed by (year - yearMin) * 12 + (month - 1).
+		final int groupHours[] = new int[groups];
+		final int groupHoursSetbackRaisesDemand[] = new int[groups];
+		// Cumulative Wh.
+		final double groupHeatDemandNSB[] = new double[groups];
+		final double groupHeatPumpElectricityNSB[] = new double[groups];
+		final double groupHeatDemandSB[] = new double[groups];
+		final double groupHeatPumpElectricitySB[] = new double[groups];
+
+		if(null != equilibriumTemperatureMin)
+		    { equilibriumTemperatureMin[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C; }
+		final double equilibriumTemperature[] = new double[1];
+
+		long lastEpochDay = Long.MIN_VALUE;
+		int g = 0;
+		for(int i = 0; i < hourCount; ++i)
+			{
+			// Only decode the calendar date when the (local) day changes.
+			final long epochDay = Math.floorDiv(temperatures.localEpochHour(i), 24);
+			if(epochDay != lastEpochDay)
+				{
+				final int date = DDNTimestamps.civilFromEpochDay(epochDay);
+				g = (((date / 10000) - yearMin) * 12) + (((date / 100) % 100) - 1);
+				lastEpochDay = epochDay;
+				}
+			++groupHours[g];
+			}
+
+		// Assume no heat required at or above the base temperature.
+		final HourlyTemperatureSeries.HeatingHours heatingHours = temperatures.heatingHours(baseTemperatureC);
+		final int heatingHourCount = heatingHours.count();
+		lastEpochDay = Long.MIN_VALUE;
+		for(int k = 0; k < heatingHourCount; ++k)
+			{
+			final long epochDay = Math.floorDiv(temperatures.localEpochHour(heatingHours.row(k)), 24);
+			if(epochDay != lastEpochDay)
+				{
+				final int date = DDNTimestamps.civilFromEpochDay(epochDay);
+				g = (((date / 10000) - yearMin) * 12) + (((date / 100) % 100) - 1);
+				lastEpochDay = epochDay;
+				}
+
+			final double temperature = heatingHours.temperature(k);
+
+		    equilibriumTemperature[0] = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C;
+	    	final DemandWithoutAndWithSetback power = computeHour(temperature, modelDetached, softATemp, equilibriumTemperature);
+			if((null != equilibriumTemperatureMin) &&
+					(equilibriumTemperature[0] < equilibriumTemperatureMin[0]))
+				{ equilibriumTemperatureMin[0] = equilibriumTemperature[0]; }
+
+	    	groupHeatDemandNSB[g] += power.noSetback().heatDemand();
+	    	groupHeatPumpElectricityNSB[g] += power.noSetback().heatPumpElectricity();
+
+	    	groupHeatDemandSB[g] += power.withSetback().heatDemand();
+	    	groupHeatPumpElectricitySB[g] += power.withSetback().heatPumpElectricity();
+
+            if(power.withSetback().heatPumpElectricity() > power.noSetback().heatPumpElectricity())
+            	{ ++groupHoursSetbackRaisesDemand[g]; }
+			}
+
+		// Roll up months into years and overall.
+		final SortedMap<Integer, ScenarioResult> byYear = new TreeMap<>();
+		final SortedMap<Integer, ScenarioResult> byMonth = new TreeMap<>();
+		int hoursSetbackRaisesDemand = 0;
+		double heatDemandNSB = 0;
+		double heatPumpElectricityNSB = 0;
+		double heatDemandSB = 0;
+		double heatPumpElectricitySB = 0;
+		for(int y = 0; y < groups / 12; ++y)
+			{
+			int yHours = 0;
+			int yHoursSetbackRaisesDemand = 0;
+			double yHeatDemandNSB = 0;
+			double yHeatPumpElectricityNSB = 0;
+			double yHeatDemandSB = 0;
+			double yHeatPumpElectricitySB = 0;
+			for(int m = 0; m < 12; ++m)
+				{
+				final int gm = (y * 12) + m;
+				final int h = groupHours[gm];
+				if(0 == h) { continue; }
+				byMonth.put(((yearMin + y) * 100) + (m + 1), makeScenarioResult(h,
+					groupHoursSetbackRaisesDemand[gm],
+					groupHeatDemandNSB[gm], groupHeatPumpElectricityNSB[gm],
+					groupHeatDemandSB[gm], groupHeatPumpElectricitySB[gm]));
+				yHours += h;
+				yHoursSetbackRaisesDemand += groupHoursSetbackRaisesDemand[gm];
+				yHeatDemandNSB += groupHeatDemandNSB[gm];
+				yHeatPumpElectricityNSB += groupHeatPumpElectricityNSB[gm];
+				yHeatDemandSB += groupHeatDemandSB[gm];
+				yHeatPumpElectricitySB += groupHeatPumpElectricitySB[gm];
+				}
+			if(0 == yHours) { continue; }
+			byYear.put(yearMin + y, makeScenarioResult(yHours, yHoursSetbackRaisesDemand,
+				yHeatDemandNSB, yHeatPumpElectricityNSB, yHeatDemandSB, yHeatPumpElectricitySB));
+			hoursSetbackRaisesDemand += yHoursSetbackRaisesDemand;
+			heatDemandNSB += yHeatDemandNSB;
+			heatPumpElectricityNSB += yHeatPumpElectricityNSB;
+			heatDemandSB += yHeatDemandSB;
+			heatPumpElectricitySB += yHeatPumpElectricitySB;
+			}
+
+		final ScenarioResult overall = makeScenarioResult(hourCount, hoursSetbackRaisesDemand,
+			heatDemandNSB, heatPumpElectricityNSB, heatDemandSB, heatPumpElectricitySB);
+		return(new GroupedScenarioResult(overall,
+			Collections.unmodifiableSortedMap(byYear),
+			Collections.unmodifiableSortedMap(byMonth)));
+		}
+
+	/**Make a result of means from running totals over a number of hours; never null.
+	 * @param hourCount  hours covered; strictly positive
+	 */
+	private static ScenarioResult makeScenarioResult(final int hourCount,
+			final int hoursSetbackRaisesDemand,
+			final double heatDemandNSB, final double heatPumpElectricityNSB,
+			final double heatDemandSB, final double heatPumpElectricitySB)
+		{
+		final DemandWithoutAndWithSetback demand = new DemandWithoutAndWithSetback(
+        		new HeatAndElectricityDemand(heatDemandNSB / hourCount, heatPumpElectricityNSB / hourCount),
+        		new HeatAndElectricityDemand(heatDemandSB / hourCount, heatPumpElectricitySB / hourCount));
+		return(new ScenarioResult(hoursSetbackRaisesDemand / (double) hourCount, demand));
+		}
  	}
@@ -0,0 +1,394 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.Arrays;
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Time-stepping dynamic thermal model of a HouseTopology driven by hourly external temperatures.
+ * Unlike the steady-state models, each room is a lumped RC node with a thermal capacitance
+ * (air, furniture and the thermally-active part of its fabric),
+ * so room temperatures lag the weather and take time to recover after setback.
+ * <p>
+ * Each room's TRV is an ideal controller:
+ * it lets through whatever radiator output brings the room to its setpoint by the end of the step,
+ * up to the radiator's maximum at the current mean water (MW) temperature.
+ * The MW temperature follows a weather-compensation curve
+ * precomputed from the steady-state 'stiff' solution at each external temperature:
+ * <ul>
+ * <li>'stiff': the setback scenario uses the curve for the house with setback while setback is active,</li>
+ * <li>'soft': both scenarios use the no-setback curve.</li>
+ * </ul>
+ * so that with constant weather the model settles to the HGTRVHPMModelTopology steady state.
+ * <p>
+ * As for HGTRVHPMModelByHour, there is no heating in hours at or above the base heating temperature,
+ * when rooms float freely; that base is set per model, by default as for HGTRVHPMModelByHour.
+ * <p>
+ * Integration is either explicit (forward Euler, with enough sub-steps to be stable)
+ * or implicit (backward Euler, unconditionally stable, solved by Gauss-Seidel sweeps).
+ * The no-setback and setback scenarios are stepped together so hours can be compared directly.
+ * All state is in primitive arrays allocated once per run;
+ * the inner step loop allocates nothing.
+ * <p>
+ * Immutable and thread-safe; runs may proceed concurrently.
+ */
+public final class HGTRVHPMModelDynamic
+	{
+	/**Integration scheme. */
+	public enum Integrator
+		{
+		/**Forward Euler; sub-steps must be short compared to every room time constant. */
+		EXPLICIT,
+		/**Backward Euler, solved by Gauss-Seidel sweeps; stable at any step length. */
+		IMPLICIT
+		}
+
+	/**Typical 'medium' thermal mass parameter per unit floor area, as in SAP (J/m^2K). */
+	public static final double MEDIUM_THERMAL_MASS_JpM2K = 250_000;
+
+	/**Default per-room thermal capacitance: medium thermal mass over an HG room's floor area (J/K). */
+	public static final double DEFAULT_ROOM_CAPACITANCE_JpK =
+		MEDIUM_THERMAL_MASS_JpM2K * HGTRVHPMModelExtensions.PER_A_FLOOR_AREA_M2;
+
+	/**Lowest external temperature in the weather-compensation table; colder is clamped (C). */
+	public static final double CURVE_MIN_C = -30;
+
+	/**Weather-compensation table step (K); the curve is smooth so is interpolated linearly between points. */
+	public static final double CURVE_STEP_K = 0.5;
+
+	/**Implicit solver convergence tolerance (K). */
+	public static final double IMPLICIT_TOLERANCE_K = 1e-6;
+
+	/**Maximum implicit solver sweeps per step. */
+	public static final int IMPLICIT_MAX_SWEEPS = 100;
+
+	/**Results of a dynamic run.
+	 * @param scenario  mean demands and fraction of hours setback raises heat-pump electricity, as for HGTRVHPMModelByHour; never null
+	 * @param degreeHoursBelowSetpointNoSetbackKh  mean over hours of room-summed shortfall below setpoint, no setback (K)
+	 * @param degreeHoursBelowSetpointWithSetbackKh  mean over hours of room-summed shortfall below setpoint, with setback (K)
+	 */
+	public record DynamicResult(ScenarioResult scenario,
+			double degreeHoursBelowSetpointNoSetbackKh,
+			double degreeHoursBelowSetpointWithSetbackKh)
+		{
+		/**Construct instance. */
+		public DynamicResult
+			{ Objects.requireNonNull(scenario); }
+		}
+
+	/**Number of rooms. */
+	private final int n;
+	/**CSR links, as in HouseTopology. */
+	private final int[] linkStart;
+	private final int[] linkTo;
+	private final double[] linkG;
+	/**Per-room external conductance (W/K). */
+	private final double[] gExt;
+	/**Per-room total conductance, external plus links (W/K). */
+	private final double[] gSum;
+	/**Per-room capacitance (J/K). */
+	private final double[] capacitance;
+	/**Per-room radiator parameters. */
+	private final double[] radRatedW;
+	private final double[] radRatedDT;
+	private final double[] radExp;
+	/**Per-room setpoints (C). */
+	private final double[] spNormal;
+	private final double[] spSetback;
+	/**Base heating temperature (C); no heating at or above this. */
+	private final double baseTemperatureC;
+	/**Weather-compensation MW curves from CURVE_MIN_C in CURVE_STEP_K steps up to the base heating temperature. */
+	private final double[] curveNoSetback;
+	private final double[] curveWithSetback;
+	/**CoP correction for flow vs MW (K). */
+	private final double coPCorrectionK;
+	/**Integration scheme. */
+	private final Integrator integrator;
+	/**Steps per hour. */
+	private final int stepsPerHour;
+
+	/**Create a dynamic model.
+	 * @param house  house topology; never null
+	 * @param roomCapacitanceJpK  thermal capacitance of each room (J/K), finite and positive; never null
+	 * @param correctCoPForFlowVsMW  if true then compute CoP at flow rather than mean water temperature
+	 * @param soft  if true 'soft' regulation, else 'stiff'
+	 * @param integrator  integration scheme; never null
+	 * @param stepsPerHour  time steps per hour, at least 1
+	 * @param baseTemperatureC  temperature (C) at and above which no heat is needed; finite and above CURVE_MIN_C
+	 * @throws IllegalArgumentException  if an explicit step would be unstable
+	 */
+	public HGTRVHPMModelDynamic(final HouseTopology house, final double[] roomCapacitanceJpK,
+			final boolean correctCoPForFlowVsMW, final boolean soft,
+			final Integrator integrator, final int stepsPerHour, final double baseTemperatureC)
+		{
+		Objects.requireNonNull(house);
+		Objects.requireNonNull(integrator);
+		n = house.size();
+		if(roomCapacitanceJpK.length != n) { throw new IllegalArgumentException("capacitance per room needed"); }
+		if(stepsPerHour < 1) { throw new IllegalArgumentException(); }
+		if(!Double.isFinite(baseTemperatureC) || !(baseTemperatureC > CURVE_MIN_C)) { throw new IllegalArgumentException(); }
+		this.integrator = integrator;
+		this.baseTemperatureC = baseTemperatureC;
+		this.stepsPerHour = stepsPerHour;
+		coPCorrectionK = correctCoPForFlowVsMW ? HGTRVHPMModelParameterised.flowMWDelta_K : 0;
+
+		linkStart = new int[n + 1];
+		for(int i = 0; i < n; ++i) { linkStart[i+1] = linkStart[i] + house.linkCount(i); }
+		linkTo = new int[linkStart[n]];
+		linkG = new double[linkStart[n]];
+		gExt = new double[n];
+		gSum = new double[n];
+		capacitance = roomCapacitanceJpK.clone();
+		radRatedW = new double[n];
+		radRatedDT = new double[n];
+		radExp = new double[n];
+		spNormal = new double[n];
+		spSetback = new double[n];
+		final double dt = 3600.0 / stepsPerHour;
+		for(int i = 0; i < n; ++i)
+			{
+			final HouseTopology.Room r = house.room(i);
+			if(!Double.isFinite(capacitance[i]) || !(capacitance[i] > 0)) { throw new IllegalArgumentException(); }
+			gExt[i] = r.externalConductanceWpK();
+			double g = gExt[i];
+			for(int k = 0; k < house.linkCount(i); ++k)
+				{
+				linkTo[linkStart[i] + k] = house.linkedRoom(i, k);
+				g += (linkG[linkStart[i] + k] = house.linkConductanceWpK(i, k));
+				}
+			gSum[i] = g;
+			radRatedW[i] = r.radiator().ratedOutputW();
+			radRatedDT[i] = r.radiator().ratedDeltaTK();
+			radExp[i] = r.radiator().exponent();
+			spNormal[i] = r.normalSetpointC();
+			spSetback[i] = r.setbackSetpointC();
+			if((Integrator.EXPLICIT == integrator) && (dt * gSum[i] >= capacitance[i]))
+				{ throw new IllegalArgumentException("explicit step too long for room " + r.name()); }
+			}
+
+		final int points = 1 + (int) Math.ceil((baseTemperatureC - CURVE_MIN_C) / CURVE_STEP_K);
+		curveNoSetback = new double[points];
+		curveWithSetback = new double[points];
+		for(int p = 0; p < points; ++p)
+			{
+			final double t = CURVE_MIN_C + (p * CURVE_STEP_K);
+			curveNoSetback[p] = HGTRVHPMModelTopology.solveStiff(house, false, t).meanWaterC();
+			curveWithSetback[p] = soft ? curveNoSetback[p] : HGTRVHPMModelTopology.solveStiff(house, true, t).meanWaterC();
+			}
+		}
+
+	/**Create a dynamic model with the default base heating temperature.
+	 * @param house  house topology; never null
+	 * @param roomCapacitanceJpK  thermal capacitance of each room (J/K), finite and positive; never null
+	 * @param correctCoPForFlowVsMW  if true then compute CoP at flow rather than mean water temperature
+	 * @param soft  if true 'soft' regulation, else 'stiff'
+	 * @param integrator  integration scheme; never null
+	 * @param stepsPerHour  time steps per hour, at least 1
+	 * @throws IllegalArgumentException  if an explicit step would be unstable
+	 */
+	public HGTRVHPMModelDynamic(final HouseTopology house, final double[] roomCapacitanceJpK,
+			final boolean correctCoPForFlowVsMW, final boolean soft,
+			final Integrator integrator, final int stepsPerHour)
+		{
+		this(house, roomCapacitanceJpK, correctCoPForFlowVsMW, soft, integrator, stepsPerHour,
+			HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C);
+		}
+
+	/**Create a dynamic model of an HG archetype with the HG radiators and the same capacitance in every room.
+	 * @param params  model parameters (external temperature ignored); never null
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param roomCapacitanceJpK  thermal capacitance of each room (J/K), eg DEFAULT_ROOM_CAPACITANCE_JpK
+	 * @param soft  if true 'soft' regulation, else 'stiff'
+	 * @param integrator  integration scheme; never null
+	 * @param stepsPerHour  time steps per hour, at least 1
+	 * @param baseTemperatureC  temperature (C) at and above which no heat is needed; finite and above CURVE_MIN_C
+	 */
+	public static HGTRVHPMModelDynamic hgArchetype(final ModelParameters params, final boolean bungalow,
+			final double roomCapacitanceJpK, final boolean soft,
+			final Integrator integrator, final int stepsPerHour, final double baseTemperatureC)
+		{
+		final HouseTopology house = HGTRVHPMModelTopology.hgArchetype(params, bungalow, HouseTopology.Radiator.HG_DEFAULT);
+		final double[] c = new double[house.size()];
+		Arrays.fill(c, roomCapacitanceJpK);
+		return(new HGTRVHPMModelDynamic(house, c, params.correctCoPForFlowVsMW(), soft, integrator, stepsPerHour, baseTemperatureC));
+		}
+
+	/**Create a dynamic model of an HG archetype with the default base heating temperature.
+	 * @param params  model parameters (external temperature ignored); never null
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param roomCapacitanceJpK  thermal capacitance of each room (J/K), eg DEFAULT_ROOM_CAPACITANCE_JpK
+	 * @param soft  if true 'soft' regulation, else 'stiff'
+	 * @param integrator  integration scheme; never null
+	 * @param stepsPerHour  time steps per hour, at least 1
+	 */
+	public static HGTRVHPMModelDynamic hgArchetype(final ModelParameters params, final boolean bungalow,
+			final double roomCapacitanceJpK, final boolean soft,
+			final Integrator integrator, final int stepsPerHour)
+		{
+		return(hgArchetype(params, bungalow, roomCapacitanceJpK, soft, integrator, stepsPerHour,
+			HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C));
+		}
+
+	/**Weather-compensated MW temperature at the given external temperature below base (C). */
+	private static double curve(final double[] table, final double externalC)
+		{
+		final double x = (externalC - CURVE_MIN_C) / CURVE_STEP_K;
+		if(x <= 0) { return(table[0]); }
+		final int i = (int) x;
+		if(i >= table.length - 1) { return(table[table.length - 1]); }
+		final double f = x - i;
+		return(table[i] + (f * (table[i+1] - table[i])));
+		}
+
+	/**Maximum radiator output (W) in room i at the given MW and room temperatures (C). */
+	private double radMaxW(final int i, final double mwC, final double roomC)
+		{
+		final double dT = mwC - roomC;
+		if(!(dT > 0)) { return(0); }
+		return(radRatedW[i] * Math.pow(dT / radRatedDT[i], radExp[i]));
+		}
+
+	/**Advance one scenario by one step, updating t in place; allocation free.
+	 * @param t  room temperatures (C), updated
+	 * @param scratch  work array of length n (explicit only)
+	 * @param sp  per-room setpoints (C)
+	 * @param extC  external temperature (C)
+	 * @param mwC  mean water temperature (C), or NaN if heating is off
+	 * @param a  capacitance-over-step per room (W/K)
+	 * @return total radiator output over the step (W)
+	 */
+	private double step(final double[] t, final double[] scratch, final double[] sp,
+			final double extC, final double mwC, final double[] a)
+		{
+		final boolean heating = !Double.isNaN(mwC);
+		double q = 0;
+		if(Integrator.EXPLICIT == integrator)
+			{
+			for(int i = 0; i < n; ++i)
+				{
+				final double ti = t[i];
+				double flow = gExt[i] * (extC - ti);
+				for(int l = linkStart[i]; l < linkStart[i+1]; ++l) { flow += linkG[l] * (t[linkTo[l]] - ti); }
+				double qi = 0;
+				if(heating)
+					{
+					qi = (a[i] * (sp[i] - ti)) - flow;
+					if(qi < 0) { qi = 0; }
+					else { final double max = radMaxW(i, mwC, ti); if(qi > max) { qi = max; } }
+					}
+				q += qi;
+				scratch[i] = ti + ((qi + flow) / a[i]);
+				}
+			System.arraycopy(scratch, 0, t, 0, n);
+			return(q);
+			}
+
+		// Implicit: Gauss-Seidel on the backward-Euler equations, with old temperatures in scratch.
+		System.arraycopy(t, 0, scratch, 0, n);
+		for(int sweep = 0; sweep < IMPLICIT_MAX_SWEEPS; ++sweep)
+			{
+			double maxChange = 0;
+			q = 0;
+			for(int i = 0; i < n; ++i)
+				{
+				double rhs = (a[i] * scratch[i]) + (gExt[i] * extC);
+				for(int l = linkStart[i]; l < linkStart[i+1]; ++l) { rhs += linkG[l] * t[linkTo[l]]; }
+				final double diag = a[i] + gSum[i];
+				double qi = 0;
+				if(heating)
+					{
+					qi = (sp[i] * diag) - rhs;
+					if(qi < 0) { qi = 0; }
+					else { final double max = radMaxW(i, mwC, t[i]); if(qi > max) { qi = max; } }
+					}
+				q += qi;
+				final double ti = (rhs + qi) / diag;
+				final double change = Math.abs(ti - t[i]);
+				if(change > maxChange) { maxChange = change; }
+				t[i] = ti;
+				}
+			if(maxChange < IMPLICIT_TOLERANCE_K) { break; }
+			}
+		return(q);
+		}
+
+	/**Run no-setback and setback scenarios over hourly external temperatures, from rooms at setpoint; never null.
+	 * @param hourlyTemperaturesC  external air temperatures for consecutive hours (C); never null nor empty
+	 * @param firstHourOfDay  local hour of day [0,23] of the first temperature
+	 * @param setbackByHourOfDay  if not null, 24 flags for when setback is active in the setback scenario,
+	 *     else setback is always active as in the HG steady-state scenarios
+	 * @return results; never null
+	 */
+	public DynamicResult run(final double[] hourlyTemperaturesC, final int firstHourOfDay,
+			final boolean[] setbackByHourOfDay)
+		{
+		final int hours = hourlyTemperaturesC.length;
+		if(0 == hours) { throw new IllegalArgumentException(); }
+		if((firstHourOfDay < 0) || (firstHourOfDay > 23)) { throw new IllegalArgumentException(); }
+		if((null != setbackByHourOfDay) && (24 != setbackByHourOfDay.length)) { throw new IllegalArgumentException(); }
+
+		// All state allocated up front.
+		final double[] tN = spNormal.clone();
+		final double[] tS = ((null == setbackByHourOfDay) || setbackByHourOfDay[firstHourOfDay]) ? spSetback.clone() : spNormal.clone();
+		final double[] scratch = new double[n];
+		final double[] a = new double[n];
+		for(int i = 0; i < n; ++i) { a[i] = capacitance[i] * stepsPerHour / 3600.0; }
+
+		int hoursSetbackRaisesDemand = 0;
+		double heatN = 0, elecN = 0, heatS = 0, elecS = 0;
+		double shortN = 0, shortS = 0;
+		int hourOfDay = firstHourOfDay;
+		for(int h = 0; h < hours; ++h)
+			{
+			final double ext = hourlyTemperaturesC[h];
+			final boolean setback = (null == setbackByHourOfDay) || setbackByHourOfDay[hourOfDay];
+			final double[] spS = setback ? spSetback : spNormal;
+			final boolean heating = ext < baseTemperatureC;
+			final double mwN = heating ? curve(curveNoSetback, ext) : Double.NaN;
+			final double mwS = heating ? curve(setback ? curveWithSetback : curveNoSetback, ext) : Double.NaN;
+
+			double qN = 0, qS = 0;
+			for(int s = 0; s < stepsPerHour; ++s)
+				{
+				qN += step(tN, scratch, spNormal, ext, mwN, a);
+				qS += step(tS, scratch, spS, ext, mwS, a);
+				}
+			if(heating)
+				{
+				qN /= stepsPerHour;
+				qS /= stepsPerHour;
+				final double eN = qN / HGTRVHPMModelParameterised.computeFlowCoP(mwN + coPCorrectionK);
+				final double eS = qS / HGTRVHPMModelParameterised.computeFlowCoP(mwS + coPCorrectionK);
+				heatN += qN; elecN += eN;
+				heatS += qS; elecS += eS;
+				if(eS > eN) { ++hoursSetbackRaisesDemand; }
+				}
+			for(int i = 0; i < n; ++i)
+				{
+				if(tN[i] < spNormal[i]) { shortN += spNormal[i] - tN[i]; }
+				if(tS[i] < spS[i]) { shortS += spS[i] - tS[i]; }
+				}
+			if(24 == ++hourOfDay) { hourOfDay = 0; }
+			}
+
+		final ScenarioResult scenario = new ScenarioResult(hoursSetbackRaisesDemand / (double) hours,
+			new DemandWithoutAndWithSetback(
+				new HeatAndElectricityDemand(heatN / hours, elecN / hours),
+				new HeatAndElectricityDemand(heatS / hours, elecS / hours)));
+		return(new DynamicResult(scenario, shortN / hours, shortS / hours));
+		}
+
+	/**Run no-setback and setback scenarios over an hourly temperature series, from rooms at setpoint; never null.
+	 * Rows are taken as consecutive hours; any gaps in the series are closed up.
+	 *
+	 * @param temperatures  hourly temperatures; never null
+	 * @param setbackByHourOfDay  if not null, 24 flags for when setback is active, else always active
+	 * @return results; never null
+	 */
+	public DynamicResult run(final HourlyTemperatureSeries temperatures, final boolean[] setbackByHourOfDay)
+		{ return(run(temperatures.temperaturesCopy(), temperatures.hourOfDay(0), setbackByHourOfDay)); }
+	}
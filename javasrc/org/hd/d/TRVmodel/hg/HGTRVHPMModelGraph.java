@@ -0,0 +1,224 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.EnumSet;
+import java.util.Objects;
+import java.util.Set;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Incremental evaluation graph of the named intermediates of the stiff-regulation parameterised model; not thread-safe.
+ * Each intermediate of HGTRVHPMModelParameterised.computeDetachedDemandW()
+ * is a node that records which other nodes, and so which model inputs, it depends on.
+ * Node values are cached; changing the parameters invalidates only the nodes
+ * depending on the inputs that actually changed, and those are recomputed lazily on next use.
+ * <p>
+ * So a sweep of only the external temperature does not recompute the internal wall/floor losses,
+ * and a sweep of only the doors per internal wall does not recompute the whole-home heat losses
+ * or the no-setback radiator temperature and CoP.
+ * <p>
+ * Values are bit-for-bit those of computeDetachedDemandW(), using the same arithmetic.
+ * The 'soft' regulation model is not covered,
+ * since it solves for an equilibrium temperature as a whole.
+ */
+public final class HGTRVHPMModelGraph
+	{
+	/**Model inputs, ie the ModelParameters components. */
+	public enum Input
+		{
+		/**doorsPerInternalWall. */
+		DOORS_PER_INTERNAL_WALL,
+		/**correctCoPForFlowVsMW. */
+		CORRECT_COP_FOR_FLOW_VS_MW,
+		/**roomsAlternatingABAB. */
+		ROOMS_ALTERNATING_ABAB,
+		/**externalAirTemperatureC. */
+		EXTERNAL_AIR_TEMPERATURE_C;
+
+		/**Bit for this input in a mask. */
+		int bit() { return(1 << ordinal()); }
+		}
+
+	/**Named intermediates, as in computeDetachedDemandW(), each after all the nodes it depends on. */
+	public enum Node
+		{
+		/**Whole home heat loss with no setback (W). */
+		HHLnsb(Input.EXTERNAL_AIR_TEMPERATURE_C.bit()),
+		/**Whole home heat loss with B rooms set back (W). */
+		HHLsb(Input.EXTERNAL_AIR_TEMPERATURE_C.bit()),
+		/**Pre-setback radiator output per room (W). */
+		radWnsb(0, HHLnsb),
+		/**All internal (wall, door and floor/ceiling) heat losses per A room (W). */
+		IFWAabHLW(Input.DOORS_PER_INTERNAL_WALL.bit() | Input.ROOMS_ALTERNATING_ABAB.bit()),
+		/**Radiator mean water temperature with no setback (C). */
+		radAMWnsb(0, radWnsb),
+		/**Radiator mean water temperature in each A room with B set back (C). */
+		radAMWsb(0, HHLsb, radWnsb, IFWAabHLW),
+		/**Correction from MW to flow temperature for the CoP (K). */
+		CoPCorrectionK(Input.CORRECT_COP_FOR_FLOW_VS_MW.bit()),
+		/**Heat-pump CoP with no setback; the external temperature is the source. */
+		CoPnsb(Input.EXTERNAL_AIR_TEMPERATURE_C.bit(), radAMWnsb, CoPCorrectionK),
+		/**Heat-pump CoP with B set back; the external temperature is the source. */
+		CoPsb(Input.EXTERNAL_AIR_TEMPERATURE_C.bit(), radAMWsb, CoPCorrectionK),
+		/**Heat-pump electricity in with no setback (W). */
+		HPinWnsb(0, HHLnsb, CoPnsb),
+		/**Heat-pump electricity in with B set back (W). */
+		HPinWsb(0, HHLsb, CoPsb);
+
+		/**Direct node dependencies; never null. */
+		private final Node[] dependsOn;
+		/**Mask of all inputs depended on, directly or via other nodes. */
+		private final int inputMask;
+
+		/**Construct with direct input mask and node dependencies, which must be declared earlier. */
+		Node(final int directInputs, final Node... dependsOn)
+			{
+			this.dependsOn = dependsOn;
+			int m = directInputs;
+			for(final Node n : dependsOn) { m |= n.inputMask; }
+			inputMask = m;
+			}
+
+		/**Nodes this directly depends on; never null, a fresh copy. */
+		public Set<Node> dependsOn()
+			{
+			final EnumSet<Node> s = EnumSet.noneOf(Node.class);
+			for(final Node n : dependsOn) { s.add(n); }
+			return(s);
+			}
+
+		/**Inputs this depends on, directly or via other nodes; never null, a fresh copy. */
+		public Set<Input> inputs()
+			{
+			final EnumSet<Input> s = EnumSet.noneOf(Input.class);
+			for(final Input i : Input.values()) { if(0 != (inputMask & i.bit())) { s.add(i); } }
+			return(s);
+			}
+		}
+
+	/**If true, 4-room bungalow, else 8-room detached. */
+	private final boolean asBungalow;
+	/**CoP model; never null. */
+	private final CoPModel copModel;
+	/**Rooms in the home. */
+	private final int numRooms;
+	/**Whole home heat loss per K between inside and out (W/K). */
+	private final double homeHeatLossPerK;
+
+	/**Current parameters; never null. */
+	private ModelParameters params;
+	/**Cached node values, by ordinal; only meaningful where valid. */
+	private final double[] values = new double[Node.values().length];
+	/**True where the cached value is current, by ordinal. */
+	private final boolean[] valid = new boolean[Node.values().length];
+	/**Count of evaluations of each node, by ordinal. */
+	private final long[] evaluations = new long[Node.values().length];
+
+	/**Construct with initial parameters, archetype and CoP model; nothing is computed until needed.
+	 * @param params  initial model parameters; never null
+	 * @param asBungalow  if true, 4-room bungalow, else 8-room detached
+	 * @param copModel  heat-pump CoP model; never null
+	 * @throws UnsupportedOperationException  if the external temperature is not below the setback temperature
+	 */
+	public HGTRVHPMModelGraph(final ModelParameters params, final boolean asBungalow, final CoPModel copModel)
+		{
+		Objects.requireNonNull(copModel);
+		this.asBungalow = asBungalow;
+		this.copModel = copModel;
+		numRooms = asBungalow ? 4 : 8;
+		homeHeatLossPerK = HourlyDemandFormulas.homeHeatLossPerK(asBungalow);
+		checkParameters(params);
+		this.params = params;
+		}
+
+	/**Construct with initial parameters and archetype, with the HG linear CoP.
+	 * @param params  initial model parameters; never null
+	 * @param asBungalow  if true, 4-room bungalow, else 8-room detached
+	 */
+	public HGTRVHPMModelGraph(final ModelParameters params, final boolean asBungalow)
+		{ this(params, asBungalow, CoPModel.HG_LINEAR); }
+
+	/**Reject null or implausible parameters, as computeDetachedDemandW(). */
+	private static void checkParameters(final ModelParameters params)
+		{
+		Objects.requireNonNull(params);
+    	if(params.externalAirTemperatureC() >= HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)
+    	    { throw new UnsupportedOperationException("model may not work when outside is warmer than setback rooms"); }
+		}
+
+	/**Current parameters; never null. */
+	public ModelParameters parameters() { return(params); }
+
+	/**Set new parameters, invalidating only the nodes depending on inputs that changed.
+	 * @param newParams  new model parameters; never null
+	 * @throws UnsupportedOperationException  if the external temperature is not below the setback temperature
+	 */
+	public void setParameters(final ModelParameters newParams)
+		{
+		checkParameters(newParams);
+		int changed = 0;
+		if(0 != Double.compare(params.doorsPerInternalWall(), newParams.doorsPerInternalWall()))
+			{ changed |= Input.DOORS_PER_INTERNAL_WALL.bit(); }
+		if(params.correctCoPForFlowVsMW() != newParams.correctCoPForFlowVsMW())
+			{ changed |= Input.CORRECT_COP_FOR_FLOW_VS_MW.bit(); }
+		if(params.roomsAlternatingABAB() != newParams.roomsAlternatingABAB())
+			{ changed |= Input.ROOMS_ALTERNATING_ABAB.bit(); }
+		if(0 != Double.compare(params.externalAirTemperatureC(), newParams.externalAirTemperatureC()))
+			{ changed |= Input.EXTERNAL_AIR_TEMPERATURE_C.bit(); }
+		params = newParams;
+		if(0 == changed) { return; }
+		for(final Node n : Node.values())
+			{ if(0 != (n.inputMask & changed)) { valid[n.ordinal()] = false; } }
+		}
+
+	/**Set a new external temperature, all else unchanged.
+	 * @param externalAirTemperatureC  external air temperature (C), below the setback temperature
+	 */
+	public void setExternalAirTemperatureC(final double externalAirTemperatureC)
+		{ setParameters(params.cloneWithAdjustedExternalTemperature(externalAirTemperatureC)); }
+
+	/**Number of times the given node has been computed, eg to check reuse. */
+	public long evaluations(final Node n) { return(evaluations[n.ordinal()]); }
+
+	/**Get the value of a node, computing it and any stale dependencies if needed. */
+	public double get(final Node n)
+		{
+		final int i = n.ordinal();
+		if(valid[i]) { return(values[i]); }
+		final double v = compute(n);
+		values[i] = v;
+		valid[i] = true;
+		++evaluations[i];
+		return(v);
+		}
+
+	/**Compute one node from its dependencies, exactly as computeDetachedDemandW(). */
+	private double compute(final Node n)
+		{
+		final double t = params.externalAirTemperatureC();
+		switch(n)
+			{
+			case HHLnsb: return(HourlyDemandFormulas.heatLossW(HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C, t, homeHeatLossPerK));
+			case HHLsb: return(HourlyDemandFormulas.heatLossW(HGTRVHPMModel.MEAN_HOME_TEMPERATURE_WITH_SETBACK_C, t, homeHeatLossPerK));
+			case radWnsb: return(get(Node.HHLnsb) / numRooms);
+			case IFWAabHLW: return(HGTRVHPMModelParameterised.stiffInternalHeatLossPerA(params, asBungalow));
+			case radAMWnsb: return(HGTRVHPMModelParameterised.nsbAMW(get(Node.radWnsb)));
+			case radAMWsb: return(HGTRVHPMModelParameterised.sbAMW(get(Node.HHLsb), get(Node.radWnsb), get(Node.IFWAabHLW)));
+			case CoPCorrectionK: return(params.correctCoPForFlowVsMW() ? HGTRVHPMModelParameterised.flowMWDelta_K : 0);
+			case CoPnsb: return(HourlyDemandFormulas.cop(get(Node.radAMWnsb), get(Node.CoPCorrectionK), t, copModel));
+			case CoPsb: return(HourlyDemandFormulas.cop(get(Node.radAMWsb), get(Node.CoPCorrectionK), t, copModel));
+			case HPinWnsb: return(get(Node.HHLnsb) / get(Node.CoPnsb));
+			case HPinWsb: return(get(Node.HHLsb) / get(Node.CoPsb));
+			default: throw new IllegalStateException();
+			}
+		}
+
+	/**Heat and heat-pump electricity demand with and without setback (W), as computeDetachedDemandW(); never null. */
+	public DemandWithoutAndWithSetback demand()
+		{
+		return(new DemandWithoutAndWithSetback(
+			new HeatAndElectricityDemand(get(Node.HHLnsb), get(Node.HPinWnsb)),
+			new HeatAndElectricityDemand(get(Node.HHLsb), get(Node.HPinWsb))));
+		}
+	}
@@ -0,0 +1,302 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.stream.IntStream;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.stats.QuantileSketch;
+import org.hd.d.TRVmodel.stats.StreamingMoments;
+
+/**Parallel Monte Carlo uncertainty analysis of the setback savings from the HG models.
+ * Uncertain inputs (eg doors per internal wall, internal U values, radiator sizing, external temperature)
+ * are sampled from distributions, the model run for each sample,
+ * and each output summarised by streaming moments and a quantile sketch,
+ * so no samples are stored and millions of trials run in constant space.
+ * <p>
+ * Samples are taken in fixed-size blocks, each with its own SplittableRandom
+ * split from the seed in block order,
+ * and block summaries are merged in block order,
+ * so results are bit-identical for a given seed and sample count
+ * whatever the number of threads or scheduling.
+ */
+public final class HGTRVHPMModelMonteCarlo
+	{
+	/**Prevent creation of an instance. */
+	private HGTRVHPMModelMonteCarlo() { }
+
+	/**Samples per block; fixed so that results do not depend on parallelism. */
+	public static final int BLOCK_SAMPLES = 4096;
+
+	/**Blocks computed (in parallel) between ordered merges, to bound memory for very large runs. */
+	private static final int BLOCKS_PER_BATCH = 256;
+
+	/**A random input distribution. */
+	@FunctionalInterface
+	public interface Distribution
+		{
+		/**Draw one value using the given generator. */
+		double sample(SplittableRandom rnd);
+
+		/**Always the given value. */
+		static Distribution fixed(final double value) { return(rnd -> value); }
+
+		/**Uniform in [lo,hi). */
+		static Distribution uniform(final double lo, final double hi)
+			{
+			if(!(lo <= hi)) { throw new IllegalArgumentException(); }
+			return(rnd -> lo + ((hi - lo) * rnd.nextDouble()));
+			}
+
+		/**Triangular over [lo,hi] with the given mode. */
+		static Distribution triangular(final double lo, final double mode, final double hi)
+			{
+			if(!(lo <= mode) || !(mode <= hi) || !(lo < hi)) { throw new IllegalArgumentException(); }
+			final double f = (mode - lo) / (hi - lo);
+			return(rnd -> {
+				final double u = rnd.nextDouble();
+				return((u < f) ? (lo + Math.sqrt(u * (hi - lo) * (mode - lo))) :
+					(hi - Math.sqrt((1 - u) * (hi - lo) * (hi - mode))));
+				});
+			}
+
+		/**Normal with the given mean and standard deviation, clipped to [lo,hi]. */
+		static Distribution normal(final double mean, final double sd, final double lo, final double hi)
+			{
+			if(!(sd >= 0) || !(lo <= hi)) { throw new IllegalArgumentException(); }
+			return(rnd -> Math.max(lo, Math.min(hi, mean + (sd * rnd.nextGaussian()))));
+			}
+		}
+
+	/**One model evaluation from randomly drawn inputs. */
+	@FunctionalInterface
+	public interface Trial
+		{
+		/**Draw inputs using the given generator and evaluate the model; never null.
+		 * @throws UnsupportedOperationException  if the model cannot handle the drawn inputs,
+		 *     in which case the sample is counted as rejected
+		 */
+		DemandWithoutAndWithSetback run(SplittableRandom rnd);
+		}
+
+	/**Model outputs summarised. */
+	public enum Output
+		{
+		/**Heat demand without setback (W). */
+		HEAT_NO_SETBACK,
+		/**Heat demand with setback (W). */
+		HEAT_WITH_SETBACK,
+		/**Heat-pump electricity without setback (W). */
+		ELECTRICITY_NO_SETBACK,
+		/**Heat-pump electricity with setback (W). */
+		ELECTRICITY_WITH_SETBACK,
+		/**Fractional heat-pump electricity saving from setback, negative if setback costs more;
+		 * zero if there is no electricity demand without setback (eg no hours needing heat).
+		 */
+		ELECTRICITY_SAVING_FRACTION;
+
+		/**Extract this output from a model result. */
+		public double value(final DemandWithoutAndWithSetback d)
+			{
+			return(switch(this)
+				{
+				case HEAT_NO_SETBACK -> d.noSetback().heatDemand();
+				case HEAT_WITH_SETBACK -> d.withSetback().heatDemand();
+				case ELECTRICITY_NO_SETBACK -> d.noSetback().heatPumpElectricity();
+				case ELECTRICITY_WITH_SETBACK -> d.withSetback().heatPumpElectricity();
+				case ELECTRICITY_SAVING_FRACTION -> (0 == d.noSetback().heatPumpElectricity()) ? 0 :
+					1 - (d.withSetback().heatPumpElectricity() / d.noSetback().heatPumpElectricity());
+				});
+			}
+		}
+
+	/**Streaming summary of one output.
+	 * @param moments  count, mean, variance, min, max; never null
+	 * @param quantiles  quantile sketch; never null
+	 */
+	public record Summary(StreamingMoments moments, QuantileSketch quantiles)
+		{
+		/**Construct instance. */
+		public Summary
+			{
+			Objects.requireNonNull(moments);
+			Objects.requireNonNull(quantiles);
+			}
+
+		/**Create an empty summary with the given quantile accuracy. */
+		Summary(final double relativeAccuracy) { this(new StreamingMoments(), new QuantileSketch(relativeAccuracy)); }
+
+		void accept(final double x) { moments.accept(x); quantiles.accept(x); }
+		void merge(final Summary other) { moments.merge(other.moments); quantiles.merge(other.quantiles); }
+
+		/**Mean. */
+		public double mean() { return(moments.mean()); }
+		/**Estimate of the given quantile. */
+		public double quantile(final double q) { return(quantiles.quantile(q)); }
+		}
+
+	/**Result of a Monte Carlo run.
+	 * @param samples  samples drawn
+	 * @param rejected  samples rejected by the model (eg external temperature too high)
+	 * @param outputs  summary of each output over accepted samples; never null, immutable
+	 */
+	public record Result(long samples, long rejected, Map<Output, Summary> outputs)
+		{
+		/**Construct instance. */
+		public Result
+			{
+			Objects.requireNonNull(outputs);
+			if((samples < 0) || (rejected < 0) || (rejected > samples)) { throw new IllegalArgumentException(); }
+			}
+
+		/**Summary for one output; never null. */
+		public Summary get(final Output o) { return(outputs.get(o)); }
+		}
+
+	/**Mutable per-block accumulator. */
+	private static final class Accumulator
+		{
+		long samples;
+		long rejected;
+		final EnumMap<Output, Summary> outputs = new EnumMap<>(Output.class);
+		Accumulator(final double relativeAccuracy)
+			{ for(final Output o : Output.values()) { outputs.put(o, new Summary(relativeAccuracy)); } }
+		void merge(final Accumulator other)
+			{
+			samples += other.samples;
+			rejected += other.rejected;
+			for(final Output o : Output.values()) { outputs.get(o).merge(other.outputs.get(o)); }
+			}
+		}
+
+	/**Run one block of samples with its own generator. */
+	private static Accumulator runBlock(final Trial trial, final SplittableRandom rnd, final int n,
+			final double relativeAccuracy)
+		{
+		final Accumulator a = new Accumulator(relativeAccuracy);
+		final Output[] outs = Output.values();
+		for(int i = 0; i < n; ++i)
+			{
+			++a.samples;
+			final DemandWithoutAndWithSetback d;
+			try { d = trial.run(rnd); }
+			catch(final UnsupportedOperationException e) { ++a.rejected; continue; }
+			for(final Output o : outs) { a.outputs.get(o).accept(o.value(d)); }
+			}
+		return(a);
+		}
+
+	/**Run a Monte Carlo analysis in parallel with the default quantile accuracy; never null.
+	 * @param seed  seed; the same seed and sample count always give the same result
+	 * @param samples  number of samples; non-negative
+	 * @param trial  draws inputs and runs the model; must be thread-safe and use only the supplied generator
+	 * @return summary of all outputs; never null
+	 */
+	public static Result run(final long seed, final long samples, final Trial trial)
+		{ return(run(seed, samples, trial, QuantileSketch.DEFAULT_RELATIVE_ACCURACY)); }
+
+	/**Run a Monte Carlo analysis in parallel; never null.
+	 * @param seed  seed; the same seed and sample count always give the same result
+	 * @param samples  number of samples; non-negative
+	 * @param trial  draws inputs and runs the model; must be thread-safe and use only the supplied generator
+	 * @param relativeAccuracy  relative accuracy of the quantile sketches
+	 * @return summary of all outputs; never null
+	 */
+	public static Result run(final long seed, final long samples, final Trial trial, final double relativeAccuracy)
+		{
+		Objects.requireNonNull(trial);
+		if(samples < 0) { throw new IllegalArgumentException(); }
+		final long blocks = (samples + BLOCK_SAMPLES - 1) / BLOCK_SAMPLES;
+		final SplittableRandom root = new SplittableRandom(seed);
+		final Accumulator total = new Accumulator(relativeAccuracy);
+		for(long batchStart = 0; batchStart < blocks; batchStart += BLOCKS_PER_BATCH)
+			{
+			final int batchBlocks = (int) Math.min(BLOCKS_PER_BATCH, blocks - batchStart);
+			// Split generators sequentially in block order so each block's stream is fixed.
+			final SplittableRandom[] rnds = new SplittableRandom[batchBlocks];
+			for(int b = 0; b < batchBlocks; ++b) { rnds[b] = root.split(); }
+			final long firstSample = batchStart * BLOCK_SAMPLES;
+			final Accumulator[] results = IntStream.range(0, batchBlocks).parallel()
+				.mapToObj(b -> runBlock(trial, rnds[b],
+					(int) Math.min(BLOCK_SAMPLES, samples - (firstSample + ((long) b * BLOCK_SAMPLES))), relativeAccuracy))
+				.toArray(Accumulator[]::new);
+			// Merge in block order for reproducibility.
+			for(final Accumulator a : results) { total.merge(a); }
+			}
+		return(new Result(total.samples, total.rejected, Collections.unmodifiableMap(total.outputs)));
+		}
+
+
+	/**Trial of HGTRVHPMModelParameterised with uncertain doors per internal wall and external temperature.
+	 * @param doorsPerInternalWall  distribution of doors per internal wall; never null
+	 * @param externalAirTemperatureC  distribution of external air temperature (C); never null
+	 * @param correctCoPForFlowVsMW  if true then correct CoP for flow vs mean water temperature
+	 * @param roomsAlternatingABAB  if true ABAB room arrangement, else AABB
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param soft  if true 'soft' A-room temperature regulation, else 'stiff'
+	 * @return trial; never null
+	 */
+	public static Trial parameterisedTrial(final Distribution doorsPerInternalWall,
+			final Distribution externalAirTemperatureC,
+			final boolean correctCoPForFlowVsMW, final boolean roomsAlternatingABAB,
+			final boolean bungalow, final boolean soft)
+		{
+		Objects.requireNonNull(doorsPerInternalWall);
+		Objects.requireNonNull(externalAirTemperatureC);
+		return(rnd -> {
+			final ModelParameters p = new ModelParameters(
+				Math.max(0, doorsPerInternalWall.sample(rnd)),
+				correctCoPForFlowVsMW, roomsAlternatingABAB,
+				externalAirTemperatureC.sample(rnd));
+			return(soft ? HGTRVHPMModelParameterised.computeSoftATempDemandW(p, bungalow, null) :
+				HGTRVHPMModelParameterised.computeDetachedDemandW(p, bungalow));
+			});
+		}
+
+	/**Trial of the HG archetypes as topologies with uncertain doors, internal U values, radiator sizing and external temperature.
+	 * Radiators are all scaled together from the HG default 500W at DT25.
+	 *
+	 * @param doorsPerInternalWall  distribution of doors per internal wall; never null
+	 * @param internalUMultiplier  distribution of multiplier for all internal U values; never null
+	 * @param radiatorSizeMultiplier  distribution of multiplier for rated radiator output; never null
+	 * @param externalAirTemperatureC  distribution of external air temperature (C); never null
+	 * @param correctCoPForFlowVsMW  if true then correct CoP for flow vs mean water temperature
+	 * @param roomsAlternatingABAB  if true ABAB room arrangement, else AABB
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param soft  if true 'soft' regulation, else 'stiff'
+	 * @return trial; never null
+	 */
+	public static Trial topologyTrial(final Distribution doorsPerInternalWall,
+			final Distribution internalUMultiplier,
+			final Distribution radiatorSizeMultiplier,
+			final Distribution externalAirTemperatureC,
+			final boolean correctCoPForFlowVsMW, final boolean roomsAlternatingABAB,
+			final boolean bungalow, final boolean soft)
+		{
+		Objects.requireNonNull(doorsPerInternalWall);
+		Objects.requireNonNull(internalUMultiplier);
+		Objects.requireNonNull(radiatorSizeMultiplier);
+		Objects.requireNonNull(externalAirTemperatureC);
+		return(rnd -> {
+			final ModelParameters p = new ModelParameters(
+				Math.max(0, doorsPerInternalWall.sample(rnd)),
+				correctCoPForFlowVsMW, roomsAlternatingABAB,
+				ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+			final double uMult = Math.max(0, internalUMultiplier.sample(rnd));
+			final double radMult = radiatorSizeMultiplier.sample(rnd);
+			final double eat = externalAirTemperatureC.sample(rnd);
+			if(!(radMult > 0)) { throw new UnsupportedOperationException("radiator size must be positive"); }
+			if(eat >= HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)
+				{ throw new UnsupportedOperationException("model may not work when outside is warmer than setback rooms"); }
+			final HouseTopology.Radiator hg = HouseTopology.Radiator.HG_DEFAULT;
+			final HouseTopology.Radiator rad = new HouseTopology.Radiator(
+				radMult * hg.ratedOutputW(), hg.ratedDeltaTK(), hg.exponent());
+			final HouseTopology house = HGTRVHPMModelTopology.hgArchetype(p, bungalow, rad, uMult);
+			return(HGTRVHPMModelTopology.computeDemandW(house, eat, correctCoPForFlowVsMW, soft));
+			});
+		}
+	}
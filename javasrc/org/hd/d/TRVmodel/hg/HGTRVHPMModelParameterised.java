@@ -437,6 +437,26 @@ public final class HGTRVHPMModelParameterised
     	return(new DemandWithoutAndWithSetback(noSetback, withSetback));
 	    }
 
+    /**All internal (wall, door and floor/ceiling) heat losses per A room with stiff regulation (W).
+     * This does not depend on the external temperature.
+     *
+     * @param params  the variable model parameters; never null
+     * @param asBungalow  if true, 4-room bungalow, else 8-room detached
+     * @return heat loss power per A room (W)
+     */
+    static double stiffInternalHeatLossPerA(final ModelParameters params, final boolean asBungalow)
+	    {
+		// Internal wall heat loss/transfer per A room (W).
+    	final double DIWAabHLW = iwHeatLossPerA(params);
+		// Internal floor/ceiling heat loss/transfer per A room (W).
+    	// None if a bungalow or if AABB arrangement on both floors,
+    	// ie no A and B share a ceiling/floor.
+    	final double DIFAabHLW =
+			(asBungalow || !params.roomsAlternatingABAB) ? 0 :
+				ifHeatLossPerA2Storey(params);
+    	return(DIWAabHLW + DIFAabHLW);
+	    }
+
     /**Compute 8-room detached 2-storey house raw heat and heat-pump electricity demand with and without B-room setback with stiff regulation (W).
      * The calculation uses constants from HGTRVHPMModel as far as possible,
      * substituting in parameters and new calculation where needed.
@@ -457,8 +477,23 @@ public final class HGTRVHPMModelParameterised
      */
     public static DemandWithoutAndWithSetback computeDetachedDemandW(final ModelParameters params,
     		final boolean asBungalow)
+    	{ return(computeDetachedDemandW(params, asBungalow, CoPModel.HG_LINEAR)); }
+
+    /**Compute 8-room detached 2-storey house raw heat and heat-pump electricity demand with and without B-room setback with stiff regulation (W).
+     * As computeDetachedDemandW(params, asBungalow) but with the given CoP model,
+     * the source temperature being the external air temperature.
+     *
+     * @param params  the variable model parameters
+     * @param asBungalow  if true, compute as 4-room bungalow to cross-check with original calculation
+     * @param copModel  heat-pump CoP model; never null
+     * @return demand in watts, finite and non-negative
+     */
+    public static DemandWithoutAndWithSetback computeDetachedDemandW(final ModelParameters params,
+    		final boolean asBungalow,
+    		final CoPModel copModel)
 	    {
     	Objects.requireNonNull(params);
+    	Objects.requireNonNull(copModel);
 
     	// Do not allow model to be run with potentially implausible parameters.
     	if(params.externalAirTemperatureC >= HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)
@@ -491,16 +526,8 @@ public final class HGTRVHPMModelParameterised
 //System.out.println(String.format("DradWnsb = %f", DradWnsb));
 
 		// HEAT LOSS 1
-		// Internal wall heat loss/transfer per A room (W).
-    	final double DIWAabHLW = iwHeatLossPerA(params);
-		// Internal floor/ceiling heat loss/transfer per A room (W).
-    	// None if a bungalow or if AABB arrangement on both floors,
-    	// ie no A and B share a ceiling/floor.
-    	final double DIFAabHLW =
-			(asBungalow || !params.roomsAlternatingABAB) ? 0 :
-				ifHeatLossPerA2Storey(params);
         // All internal heat losses per A room (W).
-    	final double DIFWAabHLW = DIWAabHLW + DIFAabHLW;
+    	final double DIFWAabHLW = stiffInternalHeatLossPerA(params, asBungalow);
 
 
         // HEAT LOSS 2
@@ -516,7 +543,7 @@ public final class HGTRVHPMModelParameterised
 		// HPinWnsb: (Heat Pump Efficiency) heat-pump electrical power in when B not setback (W).
         // (HEAT_PUMP_POWER_IN_NO_SETBACK_W)
         // Note that flow and mean temperatures seem to be being mixed here in the HG page.
-        final double DCoPnsb = computeFlowCoP(DradAMWnsb + CoPCorrectionK);
+        final double DCoPnsb = copModel.cop(DradAMWnsb + CoPCorrectionK, params.externalAirTemperatureC());
 //System.out.println(String.format("CoPnsb = %f", CoPnsb));
         final double DHPinWnsb =
     		DHHLnsb / DCoPnsb;
@@ -524,7 +551,7 @@ public final class HGTRVHPMModelParameterised
 		// HPinWsb: (Heat Pump Efficiency) heat-pump electrical power in when B is setback (W).
         // (HEAT_PUMP_POWER_IN_B_SETBACK_W)
         // Note that flow and mean temperatures seem to be being mixed here in the HG page.
-        final double DCoPsb = computeFlowCoP(DradAMWsb + CoPCorrectionK);
+        final double DCoPsb = copModel.cop(DradAMWsb + CoPCorrectionK, params.externalAirTemperatureC());
 //System.out.println(String.format("CoPsb = %f", CoPsb));
         final double DHPinWsb =
     		DHHLsb / DCoPsb;
@@ -568,8 +595,26 @@ public final class HGTRVHPMModelParameterised
     public static DemandWithoutAndWithSetback computeSoftATempDemandW(final ModelParameters params,
     		final boolean bungalow,
     		final double[] equilibriumTemperature)
+    	{ return(computeSoftATempDemandW(params, bungalow, equilibriumTemperature, CoPModel.HG_LINEAR)); }
+
+    /**Compute raw heat and heat-pump electricity demand with and without setback, for 'soft' A temperature regulation (W).
+     * As computeSoftATempDemandW(params, bungalow, equilibriumTemperature) but with the given CoP model,
+     * the source temperature being the external air temperature.
+     *
+     * @param params  the variable model parameters
+     * @param bungalow  if true, compute as 4-room bungalow, else as 2-storey 8-room detached
+     * @param equilibriumTemperature  if not null and not zero length,
+     *     used to return the A-room equilibrium temperature
+     * @param copModel  heat-pump CoP model; never null
+     * @return demand in watts, finite and non-negative
+     */
+    public static DemandWithoutAndWithSetback computeSoftATempDemandW(final ModelParameters params,
+    		final boolean bungalow,
+    		final double[] equilibriumTemperature,
+    		final CoPModel copModel)
 	    {
     	Objects.requireNonNull(params);
+    	Objects.requireNonNull(copModel);
 
     	// Do not allow model to be run with potentially implausible parameters.
     	if(params.externalAirTemperatureC >= HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)
@@ -613,7 +658,7 @@ public final class HGTRVHPMModelParameterised
 		// HPinWnsb: (Heat Pump Efficiency) heat-pump electrical power in when B not setback (W).
         // (HEAT_PUMP_POWER_IN_NO_SETBACK_W)
         // Note that flow and mean temperatures seem to be being mixed here in the HG page.
-        final double DCoPnsb = computeFlowCoP(DradAMWnsb + CoPCorrectionK);
+        final double DCoPnsb = copModel.cop(DradAMWnsb + CoPCorrectionK, params.externalAirTemperatureC());
         final double VCoPsb = DCoPnsb;
 //System.out.println(String.format("DCoPnsb = VCoPsb = %f", DCoPnsb));
         final double DHPinWnsb =
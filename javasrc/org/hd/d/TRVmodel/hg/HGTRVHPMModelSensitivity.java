@@ -0,0 +1,404 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.function.DoubleUnaryOperator;
+import java.util.function.ToDoubleFunction;
+import java.util.stream.IntStream;
+
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Global (variance-based) sensitivity analysis of the HG models: Sobol first-order and total indices.
+ * Uses the Saltelli scheme: two independent N-row sample matrices A and B,
+ * plus for each of k factors the matrix AB_i (A with column i taken from B),
+ * for N(k+2) model runs in all, evaluated in parallel.
+ * First-order indices use the Saltelli (2010) estimator
+ * and total indices the Jansen estimator;
+ * confidence intervals are from percentile bootstrap over the N rows,
+ * reusing the model outputs so costing no extra runs.
+ * <p>
+ * Samples are pseudo-random (not a low-discrepancy sequence)
+ * and generated from the seed in a fixed order,
+ * so results are identical for a given seed whatever the parallelism.
+ * <p>
+ * Each factor maps a uniform [0,1) draw to a model input,
+ * so continuous, boolean and categorical (eg climate) inputs are handled alike.
+ */
+public final class HGTRVHPMModelSensitivity
+	{
+	/**Prevent creation of an instance. */
+	private HGTRVHPMModelSensitivity() { }
+
+	/**Default number of bootstrap resamples for confidence intervals. */
+	public static final int DEFAULT_BOOTSTRAP_RESAMPLES = 1000;
+
+	/**Default confidence level for intervals. */
+	public static final double DEFAULT_CONFIDENCE = 0.95;
+
+	/**One uncertain input.
+	 * @param name  factor name; never null
+	 * @param fromUnit  maps a uniform [0,1) draw to the input value; never null
+	 */
+	public record Factor(String name, DoubleUnaryOperator fromUnit)
+		{
+		/**Construct instance. */
+		public Factor
+			{
+			Objects.requireNonNull(name);
+			Objects.requireNonNull(fromUnit);
+			}
+
+		/**Continuous factor uniform in [lo,hi). */
+		public static Factor uniform(final String name, final double lo, final double hi)
+			{
+			if(!(lo <= hi)) { throw new IllegalArgumentException(); }
+			return(new Factor(name, u -> lo + ((hi - lo) * u)));
+			}
+
+		/**Boolean factor, 1 (true) or 0 (false) with equal probability. */
+		public static Factor bool(final String name)
+			{ return(new Factor(name, u -> (u < 0.5) ? 0 : 1)); }
+
+		/**Categorical factor, choice index 0 to (choices-1) with equal probability. */
+		public static Factor choice(final String name, final int choices)
+			{
+			if(choices < 1) { throw new IllegalArgumentException(); }
+			return(new Factor(name, u -> Math.min(choices - 1, (int) (u * choices))));
+			}
+		}
+
+	/**A model and its uncertain inputs.
+	 * @param factors  model inputs in the order the model expects them; never null nor empty
+	 * @param model  computes a scalar output from input values; thread-safe, never null
+	 */
+	public record Problem(List<Factor> factors, ToDoubleFunction<double[]> model)
+		{
+		/**Construct instance. */
+		public Problem
+			{
+			factors = List.copyOf(factors);
+			if(factors.isEmpty()) { throw new IllegalArgumentException(); }
+			Objects.requireNonNull(model);
+			}
+		}
+
+	/**Sensitivity indices for one factor with confidence intervals.
+	 * @param factor  factor name; never null
+	 * @param firstOrder  first-order index S_i
+	 * @param firstOrderLow  lower bound of S_i confidence interval
+	 * @param firstOrderHigh  upper bound of S_i confidence interval
+	 * @param total  total index ST_i
+	 * @param totalLow  lower bound of ST_i confidence interval
+	 * @param totalHigh  upper bound of ST_i confidence interval
+	 */
+	public record Index(String factor,
+			double firstOrder, double firstOrderLow, double firstOrderHigh,
+			double total, double totalLow, double totalHigh)
+		{
+		/**Construct instance. */
+		public Index
+			{ Objects.requireNonNull(factor); }
+		}
+
+	/**Result of a sensitivity analysis.
+	 * @param baseSamples  rows N in each sample matrix
+	 * @param modelRuns  model evaluations performed, N(k+2)
+	 * @param mean  mean output over A and B
+	 * @param variance  output variance over A and B
+	 * @param indices  indices in factor order; never null, immutable
+	 */
+	public record Result(int baseSamples, long modelRuns, double mean, double variance, List<Index> indices)
+		{
+		/**Construct instance. */
+		public Result
+			{ indices = List.copyOf(indices); }
+		}
+
+	/**Run a sensitivity analysis with default bootstrap settings; never null.
+	 * @param problem  model and factors; never null
+	 * @param baseSamples  rows N in each sample matrix, at least 2
+	 * @param seed  random seed
+	 */
+	public static Result analyse(final Problem problem, final int baseSamples, final long seed)
+		{ return(analyse(problem, baseSamples, seed, DEFAULT_BOOTSTRAP_RESAMPLES, DEFAULT_CONFIDENCE)); }
+
+	/**Run a sensitivity analysis; never null.
+	 * @param problem  model and factors; never null
+	 * @param baseSamples  rows N in each sample matrix, at least 2
+	 * @param seed  random seed; the same seed and sizes always give the same result
+	 * @param bootstrapResamples  bootstrap resamples for confidence intervals, at least 1
+	 * @param confidence  confidence level in (0,1), eg 0.95
+	 */
+	public static Result analyse(final Problem problem, final int baseSamples, final long seed,
+			final int bootstrapResamples, final double confidence)
+		{
+		Objects.requireNonNull(problem);
+		if(baseSamples < 2) { throw new IllegalArgumentException(); }
+		if(bootstrapResamples < 1) { throw new IllegalArgumentException(); }
+		if(!(confidence > 0) || !(confidence < 1)) { throw new IllegalArgumentException(); }
+		final List<Factor> factors = problem.factors();
+		final int k = factors.size();
+		final int n = baseSamples;
+
+		// Sample matrices in unit space, generated sequentially for reproducibility.
+		final SplittableRandom rnd = new SplittableRandom(seed);
+		final double[][] a = new double[n][k];
+		final double[][] b = new double[n][k];
+		for(int r = 0; r < n; ++r)
+			{
+			for(int j = 0; j < k; ++j) { a[r][j] = rnd.nextDouble(); }
+			for(int j = 0; j < k; ++j) { b[r][j] = rnd.nextDouble(); }
+			}
+
+		// Evaluate A, B and each AB_i in parallel, in rows of (k+2) runs for locality.
+		// y[r][0] is f(A), y[r][1] is f(B), y[r][2+i] is f(AB_i).
+		final double[][] y = new double[n][];
+		IntStream.range(0, n).parallel().forEach(r -> {
+			final double[] yr = new double[k + 2];
+			final double[] u = new double[k];
+			final double[] x = new double[k];
+			yr[0] = evaluate(problem, a[r], x);
+			yr[1] = evaluate(problem, b[r], x);
+			for(int i = 0; i < k; ++i)
+				{
+				System.arraycopy(a[r], 0, u, 0, k);
+				u[i] = b[r][i];
+				yr[2 + i] = evaluate(problem, u, x);
+				}
+			y[r] = yr;
+			});
+
+		final int[] identity = IntStream.range(0, n).toArray();
+		final double[] point = estimate(y, identity, k);
+
+		// Bootstrap over rows, each resample with its own generator split in order.
+		final SplittableRandom[] rnds = new SplittableRandom[bootstrapResamples];
+		for(int s = 0; s < bootstrapResamples; ++s) { rnds[s] = rnd.split(); }
+		final double[][] boot = IntStream.range(0, bootstrapResamples).parallel().mapToObj(s -> {
+			final SplittableRandom br = rnds[s];
+			final int[] rows = new int[n];
+			for(int r = 0; r < n; ++r) { rows[r] = br.nextInt(n); }
+			return(estimate(y, rows, k));
+			}).toArray(double[][]::new);
+
+		final double alpha = (1 - confidence) / 2;
+		final List<Index> indices = new ArrayList<>(k);
+		final double[] col = new double[bootstrapResamples];
+		for(int i = 0; i < k; ++i)
+			{
+			for(int s = 0; s < bootstrapResamples; ++s) { col[s] = boot[s][2 + i]; }
+			Arrays.sort(col);
+			final double sLo = percentile(col, alpha), sHi = percentile(col, 1 - alpha);
+			for(int s = 0; s < bootstrapResamples; ++s) { col[s] = boot[s][2 + k + i]; }
+			Arrays.sort(col);
+			final double tLo = percentile(col, alpha), tHi = percentile(col, 1 - alpha);
+			indices.add(new Index(factors.get(i).name(), point[2 + i], sLo, sHi, point[2 + k + i], tLo, tHi));
+			}
+		return(new Result(n, (long) n * (k + 2), point[0], point[1], indices));
+		}
+
+	/**Map unit draws to inputs in x and evaluate the model. */
+	private static double evaluate(final Problem problem, final double[] u, final double[] x)
+		{
+		final List<Factor> factors = problem.factors();
+		for(int j = 0; j < u.length; ++j) { x[j] = factors.get(j).fromUnit().applyAsDouble(u[j]); }
+		return(problem.model().applyAsDouble(x));
+		}
+
+	/**Estimate mean, variance, then k first-order and k total indices over the given rows.
+	 * @return array of length 2+2k
+	 */
+	private static double[] estimate(final double[][] y, final int[] rows, final int k)
+		{
+		final int n = rows.length;
+		// Variance over f(A) and f(B) together, two-pass for accuracy.
+		double sum = 0;
+		for(final int r : rows) { sum += y[r][0] + y[r][1]; }
+		final double mean = sum / (2.0 * n);
+		double ss = 0;
+		for(final int r : rows)
+			{
+			final double da = y[r][0] - mean, db = y[r][1] - mean;
+			ss += (da * da) + (db * db);
+			}
+		final double v = ss / ((2.0 * n) - 1);
+		final double[] out = new double[2 + (2 * k)];
+		out[0] = mean;
+		out[1] = v;
+		for(int i = 0; i < k; ++i)
+			{
+			double s = 0, t = 0;
+			for(final int r : rows)
+				{
+				final double fa = y[r][0], fb = y[r][1], fab = y[r][2 + i];
+				s += fb * (fab - fa);
+				t += (fa - fab) * (fa - fab);
+				}
+			// With no output variance nothing is sensitive.
+			out[2 + i] = (v > 0) ? (s / n) / v : 0;
+			out[2 + k + i] = (v > 0) ? (t / (2.0 * n)) / v : 0;
+			}
+		return(out);
+		}
+
+	/**Percentile from sorted values, by nearest rank. */
+	private static double percentile(final double[] sorted, final double p)
+		{
+		final int i = (int) Math.round(p * (sorted.length - 1));
+		return(sorted[Math.max(0, Math.min(sorted.length - 1, i))]);
+		}
+
+
+	/**Factor order for parameterisedProblem(). */
+	public static final List<String> PARAMETERISED_FACTORS = List.of(
+		"doorsPerInternalWall", "correctCoPForFlowVsMW", "roomsAlternatingABAB", "detached", "softATemp", "externalAirTemperatureC");
+
+	/**Sensitivity of the fractional heat-pump electricity saving from setback to the parameterised model inputs.
+	 * The saving is negative where setback raises heat-pump demand.
+	 *
+	 * @param doorsMax  doors per internal wall range upper bound, from zero
+	 * @param externalTemperatureLoC  lowest external air temperature (C)
+	 * @param externalTemperatureHiC  highest external air temperature (C), below setback temperature
+	 * @return problem with factors as PARAMETERISED_FACTORS; never null
+	 */
+	public static Problem parameterisedProblem(final double doorsMax,
+			final double externalTemperatureLoC, final double externalTemperatureHiC)
+		{
+		if(!(externalTemperatureHiC < HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)) { throw new IllegalArgumentException(); }
+		final List<Factor> factors = List.of(
+			Factor.uniform(PARAMETERISED_FACTORS.get(0), 0, doorsMax),
+			Factor.bool(PARAMETERISED_FACTORS.get(1)),
+			Factor.bool(PARAMETERISED_FACTORS.get(2)),
+			Factor.bool(PARAMETERISED_FACTORS.get(3)),
+			Factor.bool(PARAMETERISED_FACTORS.get(4)),
+			Factor.uniform(PARAMETERISED_FACTORS.get(5), externalTemperatureLoC, externalTemperatureHiC));
+		return(new Problem(factors, x -> {
+			final ModelParameters p = new ModelParameters(x[0], 0 != x[1], 0 != x[2], x[5]);
+			final boolean bungalow = (0 == x[3]);
+			final DemandWithoutAndWithSetback d = (0 != x[4]) ?
+				HGTRVHPMModelParameterised.computeSoftATempDemandW(p, bungalow, null) :
+				HGTRVHPMModelParameterised.computeDetachedDemandW(p, bungalow);
+			return(1 - (d.withSetback().heatPumpElectricity() / d.noSetback().heatPumpElectricity()));
+			}));
+		}
+
+
+	/**Factor order for byHourProblem(). */
+	public static final List<String> BY_HOUR_FACTORS = List.of(
+		"doorsPerInternalWall", "correctCoPForFlowVsMW", "roomsAlternatingABAB", "detached", "softATemp", "climate");
+
+	/**Heating hours of a temperature series as distinct temperatures with hour counts.
+	 * Hourly data is recorded to a fixed resolution, so a year has only a few hundred distinct values,
+	 * and each model run costs that many model evaluations rather than one per hour.
+	 */
+	private record HeatingHistogram(int hourCount, double[] temperatures, int[] counts)
+		{
+		/**Histogram of the hours below the given base temperature, as HGTRVHPMModelByHour. */
+		static HeatingHistogram of(final HourlyTemperatureSeries series, final double baseTemperatureC)
+			{
+			final double[] t = series.temperaturesCopy();
+			Arrays.sort(t);
+			int end = 0;
+			while((end < t.length) && (t[end] < baseTemperatureC)) { ++end; }
+			final double[] temps = new double[end];
+			final int[] counts = new int[end];
+			int distinct = 0;
+			for(int i = 0; i < end; ++i)
+				{
+				if((0 == distinct) || (t[i] != temps[distinct-1])) { temps[distinct++] = t[i]; }
+				++counts[distinct-1];
+				}
+			return(new HeatingHistogram(t.length, Arrays.copyOf(temps, distinct), Arrays.copyOf(counts, distinct)));
+			}
+
+		/**As HGTRVHPMModelByHour.runScenario() but evaluating each distinct temperature once. */
+		ScenarioResult run(final ModelParameters params, final boolean detached, final boolean soft,
+				final CoPModel copModel)
+			{
+			int hoursSetbackRaisesDemand = 0;
+			double heatDemandNSB = 0, heatPumpElectricityNSB = 0, heatDemandSB = 0, heatPumpElectricitySB = 0;
+			// For stiff regulation only the temperature-dependent intermediates change from step to step.
+			final HGTRVHPMModelGraph graph = (soft || (0 == temperatures.length)) ? null :
+				new HGTRVHPMModelGraph(params.cloneWithAdjustedExternalTemperature(temperatures[0]), !detached, copModel);
+			for(int i = 0; i < temperatures.length; ++i)
+				{
+				final ModelParameters p = params.cloneWithAdjustedExternalTemperature(temperatures[i]);
+				final DemandWithoutAndWithSetback power;
+				if(soft) { power = HGTRVHPMModelParameterised.computeSoftATempDemandW(p, !detached, null, copModel); }
+				else
+					{
+					graph.setParameters(p);
+					power = graph.demand();
+					}
+				final int c = counts[i];
+				heatDemandNSB += c * power.noSetback().heatDemand();
+				heatPumpElectricityNSB += c * power.noSetback().heatPumpElectricity();
+				heatDemandSB += c * power.withSetback().heatDemand();
+				heatPumpElectricitySB += c * power.withSetback().heatPumpElectricity();
+				if(power.withSetback().heatPumpElectricity() > power.noSetback().heatPumpElectricity())
+					{ hoursSetbackRaisesDemand += c; }
+				}
+			return(new ScenarioResult(hoursSetbackRaisesDemand / (double) hourCount,
+				new DemandWithoutAndWithSetback(
+					new HeatAndElectricityDemand(heatDemandNSB / hourCount, heatPumpElectricityNSB / hourCount),
+					new HeatAndElectricityDemand(heatDemandSB / hourCount, heatPumpElectricitySB / hourCount))));
+			}
+		}
+
+	/**Sensitivity of an hourly-driven scenario outcome to the model inputs and climate.
+	 * Equivalent to running HGTRVHPMModelByHour.runScenario() for each sample,
+	 * with the given CoP model and base temperature,
+	 * but with the hourly temperatures pre-reduced to distinct values and counts.
+	 *
+	 * @param doorsMax  doors per internal wall range upper bound, from zero
+	 * @param climates  candidate hourly temperature series, one chosen per sample; never null nor empty
+	 * @param outcome  scalar outcome from a scenario result,
+	 *     eg ScenarioResult::hoursFractionSetbackRaisesDemand; never null
+	 * @param copModel  heat-pump CoP model, with the external temperature as source; never null
+	 * @param baseTemperatureC  temperature (C) at and above which no heat is needed;
+	 *     finite and not above the setback temperature
+	 * @return problem with factors as BY_HOUR_FACTORS; never null
+	 */
+	public static Problem byHourProblem(final double doorsMax, final List<HourlyTemperatureSeries> climates,
+			final ToDoubleFunction<ScenarioResult> outcome,
+			final CoPModel copModel, final double baseTemperatureC)
+		{
+		Objects.requireNonNull(outcome);
+		Objects.requireNonNull(copModel);
+		if(climates.isEmpty()) { throw new IllegalArgumentException(); }
+		if(!Double.isFinite(baseTemperatureC) || (baseTemperatureC > HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C))
+			{ throw new IllegalArgumentException(); }
+		final HeatingHistogram[] h = climates.stream().map(s -> HeatingHistogram.of(s, baseTemperatureC))
+			.toArray(HeatingHistogram[]::new);
+		final List<Factor> factors = List.of(
+			Factor.uniform(BY_HOUR_FACTORS.get(0), 0, doorsMax),
+			Factor.bool(BY_HOUR_FACTORS.get(1)),
+			Factor.bool(BY_HOUR_FACTORS.get(2)),
+			Factor.bool(BY_HOUR_FACTORS.get(3)),
+			Factor.bool(BY_HOUR_FACTORS.get(4)),
+			Factor.choice(BY_HOUR_FACTORS.get(5), h.length));
+		return(new Problem(factors, x -> {
+			final ModelParameters p = new ModelParameters(x[0], 0 != x[1], 0 != x[2],
+				ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+			return(outcome.applyAsDouble(h[(int) x[5]].run(p, 0 != x[3], 0 != x[4], copModel)));
+			}));
+		}
+
+	/**Sensitivity of an hourly-driven scenario outcome to the model inputs and climate,
+	 * with the HG linear CoP and default base heating temperature.
+	 * @see #byHourProblem(double, List, ToDoubleFunction, CoPModel, double)
+	 */
+	public static Problem byHourProblem(final double doorsMax, final List<HourlyTemperatureSeries> climates,
+			final ToDoubleFunction<ScenarioResult> outcome)
+		{
+		return(byHourProblem(doorsMax, climates, outcome,
+			CoPModel.HG_LINEAR, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C));
+		}
+	}
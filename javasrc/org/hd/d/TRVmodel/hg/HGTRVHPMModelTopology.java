@@ -0,0 +1,378 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Steady-state solver for a general N-room HouseTopology, plus the HG archetypes expressed as topologies.
+ * This generalises HGTRVHPMModelParameterised from the two idealised archetypes
+ * to arbitrary rooms, internal links, radiators and setpoints.
+ * <p>
+ * Each room's heat balance is:
+ * radiator output = loss to outside + net loss to linked rooms,
+ * where the TRV throttles the radiator output to whatever holds the room at its setpoint,
+ * up to the radiator's maximum output at the system mean water (MW) temperature.
+ * Thus each room is either:
+ * <ul>
+ * <li>at its setpoint (TRV throttling),</li>
+ * <li>below its setpoint (radiator flat out), or</li>
+ * <li>above its setpoint with the radiator off (heated by its neighbours).</li>
+ * </ul>
+ * <p>
+ * Given the MW temperature, the room temperatures are found by nonlinear Gauss-Seidel:
+ * each room in turn is solved exactly (a monotone scalar equation) given its neighbours' current temperatures.
+ * The system is diagonally dominant with monotone nonlinearities so this converges,
+ * and each sweep costs time proportional to rooms plus links.
+ * <p>
+ * Two regulation styles are supported, as in HGTRVHPMModelParameterised:
+ * <ul>
+ * <li>'stiff': the MW temperature is raised to keep every room at its setpoint,</li>
+ * <li>'soft': the MW temperature is held at the no-setback value (eg by weather compensation)
+ *     and rooms may droop below their setpoints.</li>
+ * </ul>
+ * Heat demand is the total loss to outside,
+ * and heat-pump electricity demand is that divided by the CoP at the MW (or corrected flow) temperature.
+ */
+public final class HGTRVHPMModelTopology
+	{
+	/**Prevent creation of an instance. */
+	private HGTRVHPMModelTopology() { }
+
+	/**Convergence tolerance: maximum room temperature change in a final sweep (K). */
+	public static final double TOLERANCE_K = 1e-9;
+
+	/**Maximum number of Gauss-Seidel sweeps before giving up. */
+	public static final int MAX_SWEEPS = 100_000;
+
+	/**Immutable steady-state solution for one house; thread-safe. */
+	public static final class SteadyState
+		{
+		private final double[] roomTemperatureC;
+		private final double[] radiatorOutputW;
+		private final double meanWaterC;
+		private final double heatDemandW;
+		private final int sweeps;
+
+		SteadyState(final double[] roomTemperatureC, final double[] radiatorOutputW,
+				final double meanWaterC, final double heatDemandW, final int sweeps)
+			{
+			this.roomTemperatureC = roomTemperatureC;
+			this.radiatorOutputW = radiatorOutputW;
+			this.meanWaterC = meanWaterC;
+			this.heatDemandW = heatDemandW;
+			this.sweeps = sweeps;
+			}
+
+		/**Number of rooms. */
+		public int size() { return(roomTemperatureC.length); }
+		/**Temperature of room i (C). */
+		public double roomTemperatureC(final int i) { return(roomTemperatureC[i]); }
+		/**Output of the radiator in room i (W). */
+		public double radiatorOutputW(final int i) { return(radiatorOutputW[i]); }
+		/**System radiator mean water temperature (C). */
+		public double meanWaterC() { return(meanWaterC); }
+		/**Total heat demand, ie loss to outside (W). */
+		public double heatDemandW() { return(heatDemandW); }
+		/**Gauss-Seidel sweeps taken to converge. */
+		public int sweeps() { return(sweeps); }
+
+		/**Lowest room temperature (C). */
+		public double minRoomTemperatureC()
+			{
+			double min = Double.POSITIVE_INFINITY;
+			for(final double t : roomTemperatureC) { min = Math.min(min, t); }
+			return(min);
+			}
+		}
+
+	/**Solve for room temperatures with a fixed radiator mean water temperature; never null.
+	 * @param house  the house; never null
+	 * @param withSetback  if true use the rooms' setback setpoints, else the 'normal' setpoints
+	 * @param externalAirTemperatureC  external air temperature (C); finite
+	 * @param meanWaterC  radiator mean water temperature (C); finite
+	 * @return the steady state; never null
+	 * @throws IllegalStateException  if the solution does not converge
+	 */
+	public static SteadyState solve(final HouseTopology house, final boolean withSetback,
+			final double externalAirTemperatureC, final double meanWaterC)
+		{
+		Objects.requireNonNull(house);
+		if(!Double.isFinite(externalAirTemperatureC)) { throw new IllegalArgumentException(); }
+		if(!Double.isFinite(meanWaterC)) { throw new IllegalArgumentException(); }
+		final int n = house.size();
+
+		// Per-room constants: setpoint and total conductance.
+		final double[] sp = new double[n];
+		final double[] gTotal = new double[n];
+		for(int i = 0; i < n; ++i)
+			{
+			sp[i] = house.room(i).setpointC(withSetback);
+			double g = house.room(i).externalConductanceWpK();
+			for(int k = house.linkCount(i); --k >= 0; ) { g += house.linkConductanceWpK(i, k); }
+			gTotal[i] = g;
+			}
+
+		// Start from the setpoints.
+		final double[] t = sp.clone();
+		int sweep = 0;
+		for( ; ; )
+			{
+			if(++sweep > MAX_SWEEPS) { throw new IllegalStateException("failed to converge"); }
+			double maxDelta = 0;
+			for(int i = 0; i < n; ++i)
+				{
+				final double tNew = solveRoom(house, i, t, sp[i], gTotal[i], externalAirTemperatureC, meanWaterC);
+				maxDelta = Math.max(maxDelta, Math.abs(tNew - t[i]));
+				t[i] = tNew;
+				}
+			if(maxDelta <= TOLERANCE_K) { break; }
+			}
+
+		// Radiator outputs from the final temperatures, and total loss to outside.
+		final double[] q = new double[n];
+		double heat = 0;
+		for(int i = 0; i < n; ++i)
+			{
+			q[i] = Math.max(0, (gTotal[i] * t[i]) - gains(house, i, t, externalAirTemperatureC));
+			heat += house.room(i).externalConductanceWpK() * (t[i] - externalAirTemperatureC);
+			}
+		return(new SteadyState(t, q, meanWaterC, Math.max(0, heat), sweep));
+		}
+
+	/**Conductance-weighted sum of neighbour and external temperatures for room i (W). */
+	private static double gains(final HouseTopology house, final int i, final double[] t, final double externalC)
+		{
+		double b = house.room(i).externalConductanceWpK() * externalC;
+		for(int k = house.linkCount(i); --k >= 0; )
+			{ b += house.linkConductanceWpK(i, k) * t[house.linkedRoom(i, k)]; }
+		return(b);
+		}
+
+	/**Solve one room's temperature given its neighbours' current temperatures.
+	 * Net loss at temperature T is (gTotal * T - b), increasing in T,
+	 * and maximum radiator output is decreasing in T.
+	 */
+	private static double solveRoom(final HouseTopology house, final int i, final double[] t,
+			final double setpointC, final double gTotal, final double externalC, final double meanWaterC)
+		{
+		if(!(gTotal > 0)) { return(setpointC); } // Isolated room.
+		final double b = gains(house, i, t, externalC);
+		final double needAtSetpoint = (gTotal * setpointC) - b;
+		// Heated above setpoint by neighbours, radiator off.
+		if(needAtSetpoint <= 0) { return(b / gTotal); }
+		final HouseTopology.Radiator rad = house.room(i).radiator();
+		// TRV throttling to hold setpoint.
+		if(rad.outputW(meanWaterC, setpointC) >= needAtSetpoint) { return(setpointC); }
+		// Radiator flat out, room below setpoint: bracket [zero net loss, setpoint] and bisect.
+		double lo = b / gTotal;
+		double hi = setpointC;
+		while(hi - lo > TOLERANCE_K * 0.01)
+			{
+			final double mid = 0.5 * (lo + hi);
+			if((mid <= lo) || (mid >= hi)) { break; }
+			if(rad.outputW(meanWaterC, mid) >= (gTotal * mid) - b) { lo = mid; } else { hi = mid; }
+			}
+		return(lo);
+		}
+
+	/**Upper bound on the mean water temperature (C) needed to hold every room at its setpoint.
+	 * This is the highest needed by any room, with all rooms at their setpoints;
+	 * rooms needing no heat are ignored.
+	 * It is exact unless some room is heated above its setpoint by its neighbours,
+	 * which reduces what those neighbours need.
+	 */
+	private static double meanWaterUpperBoundC(final HouseTopology house, final boolean withSetback,
+			final double externalAirTemperatureC)
+		{
+		final int n = house.size();
+		final double[] sp = new double[n];
+		double mw = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < n; ++i) { sp[i] = house.room(i).setpointC(withSetback); mw = Math.max(mw, sp[i]); }
+		for(int i = 0; i < n; ++i)
+			{
+			final HouseTopology.Room r = house.room(i);
+			double need = r.externalConductanceWpK() * (sp[i] - externalAirTemperatureC);
+			for(int k = house.linkCount(i); --k >= 0; )
+				{ need += house.linkConductanceWpK(i, k) * (sp[i] - sp[house.linkedRoom(i, k)]); }
+			if(need > 0) { mw = Math.max(mw, r.radiator().meanWaterForOutputC(need, sp[i])); }
+			}
+		return(mw);
+		}
+
+	/**True if no room in the solution is (significantly) below its setpoint. */
+	private static boolean allAtOrAboveSetpoint(final HouseTopology house, final boolean withSetback, final SteadyState s)
+		{
+		for(int i = s.size(); --i >= 0; )
+			{ if(s.roomTemperatureC(i) < house.room(i).setpointC(withSetback) - 1e-6) { return(false); } }
+		return(true);
+		}
+
+	/**True if every room in the solution is (very nearly) exactly at its setpoint. */
+	private static boolean allAtSetpoint(final HouseTopology house, final boolean withSetback, final SteadyState s)
+		{
+		for(int i = s.size(); --i >= 0; )
+			{ if(Math.abs(s.roomTemperatureC(i) - house.room(i).setpointC(withSetback)) > 1e-6) { return(false); } }
+		return(true);
+		}
+
+	/**Solve with 'stiff' regulation: lowest mean water temperature that holds all rooms at (or above) setpoint; never null.
+	 * If no room is heated above its setpoint by its neighbours
+	 * then the mean water temperature is computed directly,
+	 * else it is found by bisection (to about TOLERANCE_K).
+	 *
+	 * @param house  the house; never null
+	 * @param withSetback  if true use the rooms' setback setpoints, else the 'normal' setpoints
+	 * @param externalAirTemperatureC  external air temperature (C); finite
+	 * @return the steady state; never null
+	 */
+	public static SteadyState solveStiff(final HouseTopology house, final boolean withSetback,
+			final double externalAirTemperatureC)
+		{
+		Objects.requireNonNull(house);
+		double hi = meanWaterUpperBoundC(house, withSetback, externalAirTemperatureC);
+		SteadyState best = solve(house, withSetback, externalAirTemperatureC, hi);
+		if(allAtSetpoint(house, withSetback, best)) { return(best); }
+		double lo = Double.NEGATIVE_INFINITY;
+		for(int i = 0; i < house.size(); ++i) { lo = Math.max(lo, house.room(i).setpointC(withSetback)); }
+		while(hi - lo > TOLERANCE_K)
+			{
+			final double mid = 0.5 * (lo + hi);
+			if((mid <= lo) || (mid >= hi)) { break; }
+			final SteadyState s = solve(house, withSetback, externalAirTemperatureC, mid);
+			if(allAtOrAboveSetpoint(house, withSetback, s)) { hi = mid; best = s; } else { lo = mid; }
+			}
+		return(best);
+		}
+
+	/**Mean water temperature (C) needed to hold every room at its setpoint ('stiff' regulation).
+	 * @param house  the house; never null
+	 * @param withSetback  if true use the rooms' setback setpoints, else the 'normal' setpoints
+	 * @param externalAirTemperatureC  external air temperature (C); finite
+	 * @return the required mean water temperature, no lower than the highest setpoint
+	 */
+	public static double requiredMeanWaterC(final HouseTopology house, final boolean withSetback,
+			final double externalAirTemperatureC)
+		{ return(solveStiff(house, withSetback, externalAirTemperatureC).meanWaterC()); }
+
+	/**Compute raw heat and heat-pump electricity demand with and without setback (W).
+	 * Without setback the regulation style makes no difference.
+	 *
+	 * @param house  the house; never null
+	 * @param externalAirTemperatureC  external air temperature (C); finite
+	 * @param correctCoPForFlowVsMW  if true then compute CoP at flow rather than mean water temperature
+	 * @param soft  if true, 'soft' regulation holding the no-setback mean water temperature during setback,
+	 *     else 'stiff' regulation raising it as needed
+	 * @return demand in watts, finite and non-negative
+	 */
+	public static DemandWithoutAndWithSetback computeDemandW(final HouseTopology house,
+			final double externalAirTemperatureC, final boolean correctCoPForFlowVsMW, final boolean soft)
+		{
+		final double CoPCorrectionK = correctCoPForFlowVsMW ? HGTRVHPMModelParameterised.flowMWDelta_K : 0;
+		final SteadyState nsb = solveStiff(house, false, externalAirTemperatureC);
+		final SteadyState sb = soft ? solve(house, true, externalAirTemperatureC, nsb.meanWaterC()) :
+			solveStiff(house, true, externalAirTemperatureC);
+		final double CoPnsb = HGTRVHPMModelParameterised.computeFlowCoP(nsb.meanWaterC() + CoPCorrectionK);
+		final double CoPsb = HGTRVHPMModelParameterised.computeFlowCoP(sb.meanWaterC() + CoPCorrectionK);
+		return(new DemandWithoutAndWithSetback(
+			new HeatAndElectricityDemand(nsb.heatDemandW(), nsb.heatDemandW() / CoPnsb),
+			new HeatAndElectricityDemand(sb.heatDemandW(), sb.heatDemandW() / CoPsb)));
+		}
+
+
+	/**Express an HG archetype (4-room bungalow or 8-room 2-storey detached) as a topology; never null.
+	 * Rooms are in a 2x2 grid on each floor, named A1, A2, B1, B2 on the ground floor
+	 * and A3, A4, B3, B4 upstairs.
+	 * All rooms have the same external loss, as in the original calculations,
+	 * and each internal wall has the same wall and door conductance (A to A walls carry no heat
+	 * when the As are at the same temperature, so are harmless).
+	 * In the ABAB arrangement each A room shares two walls with B rooms,
+	 * and upstairs the layout is inverted so that each A has a B above or below;
+	 * in the AABB arrangement each A room shares one wall with a B, and the floors match.
+	 * A rooms are never set back; B rooms are set back to HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C.
+	 * <p>
+	 * The external air temperature in the parameters is ignored.
+	 *
+	 * @param params  model parameters, for doors per internal wall and room arrangement; never null
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param radiator  radiator for every room; never null
+	 * @return topology; never null
+	 */
+	public static HouseTopology hgArchetype(final ModelParameters params, final boolean bungalow,
+			final HouseTopology.Radiator radiator)
+		{ return(hgArchetype(params, bungalow, radiator, 1)); }
+
+	/**Express an HG archetype as a topology, with scaled internal U values; never null.
+	 * As for hgArchetype(params, bungalow, radiator) but with
+	 * all internal wall, door and floor U values scaled, eg for uncertainty analysis.
+	 *
+	 * @param params  model parameters, for doors per internal wall and room arrangement; never null
+	 * @param bungalow  if true the 4-room bungalow, else the 8-room detached
+	 * @param radiator  radiator for every room; never null
+	 * @param internalUMultiplier  multiplier for internal U values, 1 for the HG values; finite and non-negative
+	 * @return topology; never null
+	 */
+	public static HouseTopology hgArchetype(final ModelParameters params, final boolean bungalow,
+			final HouseTopology.Radiator radiator, final double internalUMultiplier)
+		{
+		Objects.requireNonNull(params);
+		Objects.requireNonNull(radiator);
+		if(!Double.isFinite(internalUMultiplier) || (internalUMultiplier < 0)) { throw new IllegalArgumentException(); }
+		final int floors = bungalow ? 1 : 2;
+		final int numRooms = 4 * floors;
+		final double homeHeatLossPerK = (HGTRVHPMModelExtensions.HOME_TOTAL_ROOF_AREA_M2 +
+				(floors * HGTRVHPMModelExtensions.HOME_TOTAL_EXTERNAL_WALL_AREA_M2)) *
+			HGTRVHPMModelExtensions.HOME_LOSSLESS_FLOOR_EXTERNAL_WALL_AND_ROOF_U_WpM2K;
+		final double roomExternalWpK = homeHeatLossPerK / numRooms;
+		// Per internal wall: wall minus doors, plus doors.
+		final double doorAreaM2 = params.doorsPerInternalWall() * HGTRVHPMModel.INTERNAL_DOOR_AREA_PER_DOOR_M2;
+		final double wallWpK = internalUMultiplier *
+			(((HGTRVHPMModel.INTERNAL_WALL_AREA_PER_WALL_M2 - doorAreaM2) * HGTRVHPMModel.INTERNAL_WALL_U_WpM2K) +
+			 (doorAreaM2 * HGTRVHPMModel.INTERNAL_DOOR_U_WpM2K));
+		final double floorWpK = internalUMultiplier *
+			HGTRVHPMModelExtensions.PER_A_FLOOR_AREA_M2 * HGTRVHPMModelExtensions.INTERNAL_FLOOR_U_WpM2K;
+
+		final HouseTopology.Builder b = new HouseTopology.Builder();
+		// Grid index [floor][row][col].
+		final int[][][] idx = new int[floors][2][2];
+		int aCount = 0, bCount = 0;
+		for(int f = 0; f < floors; ++f)
+			{
+			for(int r = 0; r < 2; ++r)
+				{
+				for(int c = 0; c < 2; ++c)
+					{
+					// ABAB: A on the diagonal, inverted upstairs; AABB: A on the top row.
+					final boolean isA = params.roomsAlternatingABAB() ? (((r + c + f) & 1) == 0) : (0 == r);
+					final String name = isA ? ("A" + ++aCount) : ("B" + ++bCount);
+					idx[f][r][c] = b.addRoom(name, roomExternalWpK, radiator,
+						HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C,
+						isA ? HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C : HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C);
+					}
+				}
+			}
+		for(int f = 0; f < floors; ++f)
+			{
+			for(int k = 0; k < 2; ++k)
+				{
+				b.link(idx[f][k][0], idx[f][k][1], wallWpK); // Horizontal neighbours.
+				b.link(idx[f][0][k], idx[f][1][k], wallWpK); // Vertical neighbours.
+				}
+			}
+		if(floors > 1)
+			{
+			for(int r = 0; r < 2; ++r)
+				{ for(int c = 0; c < 2; ++c) { b.link(idx[0][r][c], idx[1][r][c], floorWpK); } }
+			}
+		return(b.build());
+		}
+
+	/**HG 4-room bungalow as a topology, with HG default radiators; never null. */
+	public static HouseTopology hgBungalow(final ModelParameters params)
+		{ return(hgArchetype(params, true, HouseTopology.Radiator.HG_DEFAULT)); }
+
+	/**HG 8-room 2-storey detached house as a topology, with HG default radiators; never null. */
+	public static HouseTopology hgDetached(final ModelParameters params)
+		{ return(hgArchetype(params, false, HouseTopology.Radiator.HG_DEFAULT)); }
+	}
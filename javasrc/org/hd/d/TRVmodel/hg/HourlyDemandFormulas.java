@@ -0,0 +1,64 @@
+package org.hd.d.TRVmodel.hg;
+
+/**Per-hour formulas shared by the fast evaluations of the stiff and soft models.
+ * HGTRVHPMModelGraph, StiffBatchKernel and SoftATempSurrogate compute through these;
+ * the SIMD StiffBatchKernelVector evaluates the same formulas lane-wise from the same constants.
+ * <p>
+ * The reference model, HGTRVHPMModelParameterised, keeps the HG worksheet's named steps
+ * (eg Heat Loss 2.1 to 2.5 in sbAMW() and nsbAMW()) so that it can be read against the page;
+ * each formula here evaluates the same expression in the same order,
+ * and the tests check that the kernels agree with the reference model bit-for-bit.
+ */
+final class HourlyDemandFormulas
+	{
+	/**Prevent creation of an instance. */
+	private HourlyDemandFormulas() { }
+
+	/**HG linear CoP slope, as in HGTRVHPMModel.computeFlowCoP() (/K). */
+	static final double HG_LINEAR_COP_SLOPE =
+		(HGTRVHPMModel.CoPH - HGTRVHPMModel.CoPL) / (HGTRVHPMModel.CoPHt - HGTRVHPMModel.CoPLt);
+
+	/**Whole home heat loss per K between inside and out (W/K).
+	 * @param asBungalow  if true, 4-room bungalow, else 8-room detached with double the external wall
+	 */
+	static double homeHeatLossPerK(final boolean asBungalow)
+		{
+		// Roof area as for bungalow; external wall as for bungalow in bungalow mode, else double.
+		final double extWallAreaM2 = (asBungalow ? 1 : 2) * HGTRVHPMModelExtensions.HOME_TOTAL_EXTERNAL_WALL_AREA_M2;
+		return((HGTRVHPMModelExtensions.HOME_TOTAL_ROOF_AREA_M2 + extWallAreaM2) *
+			HGTRVHPMModelExtensions.HOME_LOSSLESS_FLOOR_EXTERNAL_WALL_AND_ROOF_U_WpM2K);
+		}
+
+	/**Heat loss to outside (W), eg HHLnsb with the normal room temperature.
+	 * @param insideC  inside temperature (C)
+	 * @param externalC  external air temperature (C)
+	 * @param heatLossPerK  heat loss per K of the rooms concerned (W/K)
+	 */
+	static double heatLossW(final double insideC, final double externalC, final double heatLossPerK)
+		{ return((insideC - externalC) * heatLossPerK); }
+
+	/**Radiator mean water temperature for a given radiator output with the room at normal temperature (C).
+	 * As (Heat Loss 2.1 to 2.5): the output multiplier over the nominal output,
+	 * raised to the radiator exponent to give the MW-AT delta-T multiplier,
+	 * scaling the nominal delta-T, added to the normal room temperature.
+	 *
+	 * @param radiatorW  radiator output (W), non-negative
+	 */
+	static double meanWaterC(final double radiatorW)
+		{
+		return(HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C +
+			(HGTRVHPMModel.RADIATOR_MWATDT_AT_NORMAL_ROOM_TEMPERATURE_K *
+				Math.pow(radiatorW / HGTRVHPMModel.RADIATOR_POWER_WITH_HOME_AT_NORMAL_ROOM_TEMPERATURE_W,
+					HGTRVHPMModel.RADIATOR_EXP_POWER_TO_DT)));
+		}
+
+	/**CoP given the radiator mean water temperature (C).
+	 * @param meanWaterC  radiator mean water temperature (C)
+	 * @param coPCorrectionK  correction from MW to flow temperature (K), or 0
+	 * @param externalC  external air (source) temperature (C)
+	 * @param copModel  CoP model; never null
+	 */
+	static double cop(final double meanWaterC, final double coPCorrectionK, final double externalC,
+			final CoPModel copModel)
+		{ return(copModel.cop(meanWaterC + coPCorrectionK, externalC)); }
+	}
@@ -0,0 +1,243 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**Immutable general N-room house topology for steady-state heat-flow modelling; thread-safe.
+ * Rooms are the nodes, each with:
+ * <ul>
+ * <li>a heat-loss conductance to outside (U*A for external walls, roof, floor, ventilation, in W/K)</li>
+ * <li>a radiator with a TRV</li>
+ * <li>'normal' and setback setpoint temperatures</li>
+ * </ul>
+ * Internal walls, doors and floors/ceilings between rooms are the (undirected) edges,
+ * each with a conductance (U*A, W/K);
+ * multiple links between the same pair of rooms (eg a wall and a door) are summed.
+ * <p>
+ * Links are held in compressed sparse row (CSR) form for the solver,
+ * so the cost of a solver sweep is proportional to rooms plus links,
+ * and houses of hundreds of rooms are cheap to handle.
+ * <p>
+ * Use HouseTopology.Builder to construct,
+ * and see HGTRVHPMModelTopology for the solver and the HG archetypes.
+ */
+public final class HouseTopology
+	{
+	/**Radiator with output proportional to a power of the mean-water-to-air delta-T.
+	 * Output is ratedOutputW * (deltaT / ratedDeltaTK)^exponent for deltaT &gt; 0, else 0.
+	 *
+	 * @param ratedOutputW  output at the rated delta-T (W); finite and positive
+	 * @param ratedDeltaTK  rated mean-water-to-air delta-T (K), eg 50 or HG's 25; finite and positive
+	 * @param exponent  radiator exponent, typically ~1.3; finite and positive
+	 */
+	public record Radiator(double ratedOutputW, double ratedDeltaTK, double exponent)
+		{
+		/**Construct instance. */
+		public Radiator
+			{
+			if(!Double.isFinite(ratedOutputW) || (ratedOutputW <= 0)) { throw new IllegalArgumentException(); }
+			if(!Double.isFinite(ratedDeltaTK) || (ratedDeltaTK <= 0)) { throw new IllegalArgumentException(); }
+			if(!Double.isFinite(exponent) || (exponent <= 0)) { throw new IllegalArgumentException(); }
+			}
+
+		/**Output (W) with the given mean water and room air temperatures (C); non-negative. */
+		public double outputW(final double meanWaterC, final double roomC)
+			{
+			final double dT = meanWaterC - roomC;
+			if(!(dT > 0)) { return(0); }
+			return(ratedOutputW * Math.pow(dT / ratedDeltaTK, exponent));
+			}
+
+		/**Mean water temperature (C) needed to deliver the given output (W) into a room at the given temperature (C).
+		 * @return the mean water temperature, or the room temperature if no output is needed
+		 */
+		public double meanWaterForOutputC(final double outputW, final double roomC)
+			{
+			if(!(outputW > 0)) { return(roomC); }
+			return(roomC + (ratedDeltaTK * Math.pow(outputW / ratedOutputW, 1 / exponent)));
+			}
+
+		/**HG radiator: 500W at DT25, exponent 1/0.77 matching HGTRVHPMModel.RADIATOR_EXP_POWER_TO_DT. */
+		public static final Radiator HG_DEFAULT = new Radiator(
+			HGTRVHPMModel.RADIATOR_POWER_WITH_HOME_AT_NORMAL_ROOM_TEMPERATURE_W,
+			HGTRVHPMModel.RADIATOR_MWATDT_AT_NORMAL_ROOM_TEMPERATURE_K,
+			1 / HGTRVHPMModel.RADIATOR_EXP_POWER_TO_DT);
+		}
+
+	/**One room.
+	 * @param name  room name, unique within the house; never null
+	 * @param externalConductanceWpK  heat-loss conductance to outside (W/K); finite and non-negative
+	 * @param radiator  radiator; never null
+	 * @param normalSetpointC  'normal' TRV setpoint (C); finite
+	 * @param setbackSetpointC  setback TRV setpoint (C), eg the same as normal for an unzoned room; finite
+	 */
+	public record Room(String name, double externalConductanceWpK, Radiator radiator,
+			double normalSetpointC, double setbackSetpointC)
+		{
+		/**Construct instance. */
+		public Room
+			{
+			Objects.requireNonNull(name);
+			Objects.requireNonNull(radiator);
+			if(!Double.isFinite(externalConductanceWpK) || (externalConductanceWpK < 0)) { throw new IllegalArgumentException(); }
+			if(!Double.isFinite(normalSetpointC)) { throw new IllegalArgumentException(); }
+			if(!Double.isFinite(setbackSetpointC)) { throw new IllegalArgumentException(); }
+			}
+
+		/**Setpoint (C) with or without setback. */
+		public double setpointC(final boolean withSetback)
+			{ return(withSetback ? setbackSetpointC : normalSetpointC); }
+		}
+
+	/**Rooms in index order; never null, immutable. */
+	private final List<Room> rooms;
+	/**CSR row start for each room's links, length rooms+1. */
+	private final int[] linkStart;
+	/**CSR neighbour room index for each link. */
+	private final int[] linkTo;
+	/**CSR conductance (W/K) for each link. */
+	private final double[] linkConductance;
+
+	/**Construct from the builder. */
+	private HouseTopology(final List<Room> rooms, final int[] linkStart, final int[] linkTo, final double[] linkConductance)
+		{
+		this.rooms = rooms;
+		this.linkStart = linkStart;
+		this.linkTo = linkTo;
+		this.linkConductance = linkConductance;
+		}
+
+	/**Number of rooms; strictly positive. */
+	public int size() { return(rooms.size()); }
+
+	/**Get a room by index; never null. */
+	public Room room(final int i) { return(rooms.get(i)); }
+
+	/**All rooms in index order; never null, immutable. */
+	public List<Room> rooms() { return(rooms); }
+
+	/**Number of links from the given room to other rooms. */
+	public int linkCount(final int i) { return(linkStart[i+1] - linkStart[i]); }
+
+	/**Index of the k-th room linked to room i. */
+	public int linkedRoom(final int i, final int k) { return(linkTo[linkStart[i] + k]); }
+
+	/**Conductance (W/K) of the k-th link from room i. */
+	public double linkConductanceWpK(final int i, final int k) { return(linkConductance[linkStart[i] + k]); }
+
+	/**Total conductance (W/K) between two rooms, zero if not linked. */
+	public double conductanceWpK(final int i, final int j)
+		{
+		for(int l = linkStart[i]; l < linkStart[i+1]; ++l)
+			{ if(j == linkTo[l]) { return(linkConductance[l]); } }
+		return(0);
+		}
+
+	/**Total conductance (W/K) from all rooms to outside. */
+	public double totalExternalConductanceWpK()
+		{
+		double g = 0;
+		for(final Room r : rooms) { g += r.externalConductanceWpK(); }
+		return(g);
+		}
+
+	/**Short human-readable summary; not null. */
+	@Override
+	public String toString()
+		{ return("HouseTopology[" + rooms.size() + " rooms, " + (linkTo.length / 2) + " links]"); }
+
+
+	/**Builds a HouseTopology; not thread-safe. */
+	public static final class Builder
+		{
+		private final List<Room> rooms = new ArrayList<>();
+		private final Map<String, Integer> indexByName = new HashMap<>();
+		/**Accumulated link conductances keyed by (lower index, higher index), in order. */
+		private final SortedMap<Long, Double> links = new TreeMap<>();
+
+		/**Add a room.
+		 * @return index of the new room
+		 * @throws IllegalArgumentException  if the room name is already in use
+		 */
+		public int addRoom(final Room room)
+			{
+			Objects.requireNonNull(room);
+			if(indexByName.containsKey(room.name())) { throw new IllegalArgumentException("duplicate room: " + room.name()); }
+			final int i = rooms.size();
+			rooms.add(room);
+			indexByName.put(room.name(), i);
+			return(i);
+			}
+
+		/**Add a room.
+		 * @return index of the new room
+		 */
+		public int addRoom(final String name, final double externalConductanceWpK, final Radiator radiator,
+				final double normalSetpointC, final double setbackSetpointC)
+			{ return(addRoom(new Room(name, externalConductanceWpK, radiator, normalSetpointC, setbackSetpointC))); }
+
+		/**Index of the named room.
+		 * @throws IllegalArgumentException  if there is no such room
+		 */
+		public int indexOf(final String name)
+			{
+			final Integer i = indexByName.get(name);
+			if(null == i) { throw new IllegalArgumentException("no such room: " + name); }
+			return(i);
+			}
+
+		/**Link two different rooms, adding to any existing conductance between them.
+		 * @param i  index of one room
+		 * @param j  index of the other room
+		 * @param conductanceWpK  conductance (U*A) of the wall/door/floor (W/K); finite and non-negative
+		 * @return this builder
+		 */
+		public Builder link(final int i, final int j, final double conductanceWpK)
+			{
+			if((i < 0) || (i >= rooms.size()) || (j < 0) || (j >= rooms.size()) || (i == j))
+				{ throw new IllegalArgumentException("bad link"); }
+			if(!Double.isFinite(conductanceWpK) || (conductanceWpK < 0)) { throw new IllegalArgumentException(); }
+			final long key = (((long) Math.min(i, j)) << 32) | Math.max(i, j);
+			links.merge(key, conductanceWpK, Double::sum);
+			return(this);
+			}
+
+		/**Link two named rooms, adding to any existing conductance between them; returns this builder. */
+		public Builder link(final String a, final String b, final double conductanceWpK)
+			{ return(link(indexOf(a), indexOf(b), conductanceWpK)); }
+
+		/**Build the immutable topology; never null.
+		 * @throws IllegalStateException  if there are no rooms
+		 */
+		public HouseTopology build()
+			{
+			final int n = rooms.size();
+			if(0 == n) { throw new IllegalStateException("no rooms"); }
+			// Count links per room (each undirected link appears in both rows).
+			final int[] start = new int[n+1];
+			for(final Long key : links.keySet())
+				{
+				++start[(int) (key >>> 32) + 1];
+				++start[(int) (key & 0xffffffffL) + 1];
+				}
+			for(int i = 0; i < n; ++i) { start[i+1] += start[i]; }
+			final int[] to = new int[start[n]];
+			final double[] g = new double[start[n]];
+			final int[] fill = Arrays.copyOf(start, n);
+			for(final Map.Entry<Long, Double> e : links.entrySet())
+				{
+				final int a = (int) (e.getKey() >>> 32);
+				final int b = (int) (e.getKey() & 0xffffffffL);
+				to[fill[a]] = b; g[fill[a]++] = e.getValue();
+				to[fill[b]] = a; g[fill[b]++] = e.getValue();
+				}
+			return(new HouseTopology(List.copyOf(rooms), start, to, g));
+			}
+		}
+	}
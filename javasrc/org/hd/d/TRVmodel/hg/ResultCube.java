@@ -0,0 +1,195 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.stream.IntStream;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Cube of hourly-driven scenario results by station, archetype, layout and regulation; thread-safe.
+ * The temperature data is loaded once on construction,
+ * and each half of the cube ('stiff' or 'soft' regulation) is computed once (in parallel)
+ * on the first read of any of its cells,
+ * so that all the summary tables, in whatever format, are pure formatters over the same results,
+ * and a command reading only 'stiff' cells never runs the (much slower) 'soft' solver.
+ * The data is released once both halves are computed.
+ * <p>
+ * Each cell holds the ScenarioResult and the minimum A-room equilibrium temperature,
+ * which is only meaningful for 'soft' regulation
+ * (for 'stiff' regulation it is the normal room temperature).
+ */
+public final class ResultCube
+	{
+	/**One cell of the cube.
+	 * @param result  scenario result; never null
+	 * @param equilibriumTemperatureMinC  minimum A-room equilibrium temperature (C)
+	 */
+	public record Cell(ScenarioResult result, double equilibriumTemperatureMinC)
+		{
+		/**Construct instance. */
+		public Cell
+			{ Objects.requireNonNull(result); }
+		}
+
+	/**Stations in order; never null, immutable. */
+	private final List<HourlyTemperatureDataDescriptor> stations;
+	/**Base model parameters, with layout overridden per cell; never null. */
+	private final ModelParameters baseParameters;
+	/**Result cache for stiff cells, or null. */
+	private final ScenarioResultCache cache;
+	/**Temperature data by station, until both halves are computed, then null; guarded by this. */
+	private HourlyTemperatureSeries[] data;
+	/**Stiff cells indexed by cellIndex(), or null until first needed. */
+	private volatile Cell[] stiffCells;
+	/**Soft cells indexed by cellIndex(), or null until first needed. */
+	private volatile Cell[] softCells;
+
+	/**Construct from loaded data, which is not copied. */
+	private ResultCube(final List<HourlyTemperatureDataDescriptor> stations, final ModelParameters baseParameters,
+			final ScenarioResultCache cache, final HourlyTemperatureSeries[] data)
+		{
+		this.stations = stations;
+		this.baseParameters = baseParameters;
+		this.cache = cache;
+		this.data = data;
+		}
+
+	/**Index of a cell within its half: station-major, then archetype, layout. */
+	private static int cellIndex(final int station, final boolean detached, final boolean abab)
+		{ return((((station * 2) + (detached ? 1 : 0)) * 2) + (abab ? 1 : 0)); }
+
+	/**Stations in order; never null, immutable. */
+	public List<HourlyTemperatureDataDescriptor> stations() { return(stations); }
+
+	/**Model parameters for the given layout; never null. */
+	public ModelParameters parameters(final boolean abab)
+		{
+		return(new ModelParameters(baseParameters.doorsPerInternalWall(), baseParameters.correctCoPForFlowVsMW(),
+			abab, baseParameters.externalAirTemperatureC()));
+		}
+
+	/**Get one cell; never null.
+	 * @param station  station index [0,stations().size())
+	 * @param detached  iff true detached house, else bungalow
+	 * @param abab  iff true ABAB layout, else AABB
+	 * @param soft  iff true soft regulation, else stiff
+	 * @throws UncheckedIOException  if computing the stiff half fails to write the result cache
+	 */
+	public Cell get(final int station, final boolean detached, final boolean abab, final boolean soft)
+		{
+		Objects.checkIndex(station, stations.size());
+		return(half(soft)[cellIndex(station, detached, abab)]);
+		}
+
+	/**True if the given half has been computed, eg to check that it has not been. */
+	public boolean isComputed(final boolean soft)
+		{ return(null != (soft ? softCells : stiffCells)); }
+
+	/**Get all the cells of one half, computing them (in parallel) on first use; never null. */
+	private Cell[] half(final boolean soft)
+		{
+		final Cell[] computed = soft ? softCells : stiffCells;
+		if(null != computed) { return(computed); }
+		synchronized(this)
+			{
+			final Cell[] raced = soft ? softCells : stiffCells;
+			if(null != raced) { return(raced); }
+			final HourlyTemperatureSeries[] d = data;
+			final Cell[] cells = new Cell[cellIndex(stations.size(), false, false)];
+			IntStream.range(0, cells.length).parallel().forEach(i -> {
+				final boolean abab = 0 != (i & 1);
+				final boolean detached = 0 != (i & 2);
+				final int station = i >>> 2;
+				final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(parameters(abab), d[station]);
+				final double[] equilibriumTemperatureMin = new double[]{HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C};
+				final ScenarioResult r;
+				try
+					{
+					r = soft ? scenario.runScenario(detached, true, equilibriumTemperatureMin) :
+						scenario.runScenarioCached(cache, detached, false);
+					}
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				cells[i] = new Cell(r, equilibriumTemperatureMin[0]);
+				});
+			if(soft) { softCells = cells; } else { stiffCells = cells; }
+			// Release the data once no longer needed.
+			if((null != softCells) && (null != stiffCells)) { data = null; }
+			return(cells);
+			}
+		}
+
+	/**Load the given stations' data files, in parallel, for a cube computed on demand; never null.
+	 * Stiff cells go through the cache if supplied;
+	 * soft cells are always computed since the minimum equilibrium temperature is not cached.
+	 *
+	 * @param stations  stations; never null nor empty
+	 * @param dataDir  directory holding the data files; never null
+	 * @param fileTail  data file name after the station name; never null
+	 * @param expectedRecords  expected rows per file, or 0 not to check
+	 * @param baseParameters  model parameters, with layout overridden per cell; never null
+	 * @param cache  result cache, or null
+	 * @throws IOException  in case of missing or corrupt temperature data
+	 */
+	public static ResultCube compute(final List<HourlyTemperatureDataDescriptor> stations,
+			final File dataDir, final String fileTail, final int expectedRecords,
+			final ModelParameters baseParameters, final ScenarioResultCache cache)
+		throws IOException
+		{
+		Objects.requireNonNull(dataDir);
+		Objects.requireNonNull(fileTail);
+		Objects.requireNonNull(baseParameters);
+		final List<HourlyTemperatureDataDescriptor> s = List.copyOf(stations);
+		if(s.isEmpty()) { throw new IllegalArgumentException(); }
+		try
+			{
+			// Load each station's data once.
+			final HourlyTemperatureSeries[] data = s.parallelStream().map(htdd -> {
+				try
+					{
+					final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(new File(dataDir, htdd.station() + fileTail));
+					if((0 != expectedRecords) && (expectedRecords != t.size())) { throw new IOException("bad record count"); }
+					return(t);
+					}
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				}).toArray(HourlyTemperatureSeries[]::new);
+			return(new ResultCube(s, baseParameters, cache, data));
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		}
+
+	/**Load the cube for the 201X dataset with the fixed-doors and CoP-corrected parameters; never null.
+	 * @throws IOException  in case of missing or corrupt temperature data
+	 */
+	public static ResultCube compute201X() throws IOException
+		{
+		return(compute(DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET,
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE,
+			DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA,
+			new ModelParameters(
+				ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
+				ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
+				ModelParameters.DEFAULT_ARRANGEMENT_ABAB,
+				ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C),
+			ScenarioResultCache.defaultCache()));
+		}
+
+	/**Shared 201X cube, computed on first use; guarded by the class lock. */
+	private static ResultCube shared201X;
+
+	/**Get the shared 201X cube, loading it on first use, so all tables share one computation pass; never null.
+	 * @throws IOException  in case of missing or corrupt temperature data
+	 */
+	public static synchronized ResultCube shared201X() throws IOException
+		{
+		if(null == shared201X) { shared201X = compute201X(); }
+		return(shared201X);
+		}
+	}
@@ -0,0 +1,277 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.ByteArrayInputStream;
+import java.io.Flushable;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.data.SyntheticHourlyTemperatureGenerator;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Dataset-size scaling benchmark for loading and running the hourly model.
+ * For each dataset size (stations x years) each pipeline is run over every station,
+ * both on one thread and on the common fork-join pool,
+ * and wall-clock throughput (hours of data per second), allocation rate, peak heap
+ * and the fraction of wall time spent in GC are recorded as one CSV row.
+ * <p>
+ * Station data is synthesised in degreedays.net CSV format from models fitted to the 201X files,
+ * and held uncompressed in memory so that disk and gzip costs are excluded.
+ * Only a small pool of distinct stations is synthesised per length of series;
+ * larger station counts replicate the pool, so that memory holds only the pool
+ * plus the series in flight, as in a real streaming load.
+ * <p>
+ * Allocation is measured per thread, so is a slight underestimate if worker threads retire mid-run,
+ * and is NaN on JVMs without per-thread allocation counters.
+ */
+public final class ScalingBenchmark
+	{
+	/**Prevent creation of an instance. */
+	private ScalingBenchmark() { }
+
+	/**Number of distinct synthetic stations per series length. */
+	public static final int STATION_POOL_SIZE = 8;
+
+	/**First year of synthetic series. */
+	public static final int FIRST_YEAR = 2010;
+
+	/**Default sizes, from one station-year to hundreds of station-decades. */
+	public static final String DEFAULT_SIZES = "1x1,1x10,4x10,16x10,64x10,256x10";
+
+	/**CSV header line for the results, without line terminator; non-null. */
+	public static final String CSV_HEADER =
+		"stations,years,hours,pipeline,mode,threads,wallMs,hoursPerSecond,allocMBPerSecond,allocBytesPerHour,peakHeapMB,gcFraction";
+
+	/**One dataset size.
+	 * @param stations  number of stations; strictly positive
+	 * @param years  years per station; strictly positive
+	 */
+	public record Size(int stations, int years)
+		{
+		/**Construct instance. */
+		public Size
+			{
+			if(stations < 1) { throw new IllegalArgumentException(); }
+			if(years < 1) { throw new IllegalArgumentException(); }
+			}
+
+		/**Parse a list such as "1x1,7x10"; never null nor empty. */
+		public static List<Size> parseList(final String s)
+			{
+			final List<Size> result = new ArrayList<>();
+			for(final String item : s.split(","))
+				{
+				final String[] f = item.trim().split("x");
+				if(2 != f.length) { throw new IllegalArgumentException("bad size: " + item); }
+				result.add(new Size(Integer.parseInt(f[0]), Integer.parseInt(f[1])));
+				}
+			if(result.isEmpty()) { throw new IllegalArgumentException(); }
+			return(List.copyOf(result));
+			}
+		}
+
+	/**Pipelines measured, each applied to every station's CSV data. */
+	public enum Pipeline
+		{
+		/**Parse to rows of Strings with DDNTemperatureDataCSV. */
+		PARSE_ROWS,
+		/**Parse directly to a compact HourlyTemperatureSeries. */
+		PARSE_SERIES,
+		/**Parse to a series and run the stiff bungalow scenario. */
+		STIFF,
+		/**Parse to a series and run the stiff bungalow scenario on the SIMD path of StiffBatchKernel if available. */
+		STIFF_VECTOR,
+		/**Parse to a series and run the soft bungalow scenario. */
+		SOFT,
+		/**Parse to a series and run the soft bungalow scenario with the shared SoftATempSurrogate. */
+		SOFT_FAST;
+		}
+
+	/**One measurement, as written as a CSV row.
+	 * @param size  dataset size; never null
+	 * @param hours  total hours of data processed
+	 * @param pipeline  pipeline; never null
+	 * @param parallel  true if run on the common pool, else on the calling thread
+	 * @param threads  threads available
+	 * @param wallNanos  elapsed wall-clock time (ns)
+	 * @param allocatedBytes  bytes allocated, or NaN if not available
+	 * @param peakHeapBytes  peak heap use during the run (bytes)
+	 * @param gcMillis  total GC time during the run (ms)
+	 */
+	public record Measurement(Size size, long hours, Pipeline pipeline, boolean parallel, int threads,
+			long wallNanos, double allocatedBytes, long peakHeapBytes, long gcMillis)
+		{
+		/**Construct instance. */
+		public Measurement
+			{
+			Objects.requireNonNull(size);
+			Objects.requireNonNull(pipeline);
+			}
+
+		/**Throughput in hours of data per second. */
+		public double hoursPerSecond() { return(hours / (wallNanos / 1e9)); }
+
+		/**Append as one CSV row with line terminator. */
+		public void appendCSV(final Appendable out) throws IOException
+			{
+			final double seconds = wallNanos / 1e9;
+			out.append(Integer.toString(size.stations())).append(',')
+				.append(Integer.toString(size.years())).append(',')
+				.append(Long.toString(hours)).append(',')
+				.append(pipeline.name()).append(',')
+				.append(parallel ? "parallel" : "sequential").append(',')
+				.append(Integer.toString(threads)).append(',');
+			FixedPrecision.append(out, wallNanos / 1e6, 1).append(',');
+			FixedPrecision.append(out, hoursPerSecond(), 0).append(',');
+			FixedPrecision.append(out, allocatedBytes / 1e6 / seconds, 1).append(',');
+			FixedPrecision.append(out, allocatedBytes / hours, 1).append(',');
+			FixedPrecision.append(out, peakHeapBytes / 1e6, 1).append(',');
+			FixedPrecision.append(out, Math.min(1, gcMillis / 1e3 / seconds), 3).append('\n');
+			}
+		}
+
+	/**Synthesise a pool of distinct stations' CSV data of the given length; never null. */
+	private static byte[][] synthesisePool(final List<SyntheticHourlyTemperatureGenerator.Model> bases,
+			final int years, final long seed)
+		{
+		return(IntStream.range(0, STATION_POOL_SIZE).parallel().mapToObj(i -> {
+			final SplittableRandom rnd = new SplittableRandom(seed + (31L * years) + i);
+			final HourlyTemperatureSeries s = SyntheticHourlyTemperatureGenerator.generate(
+				bases.get(i % bases.size()).perturbed(rnd), rnd.nextLong(), FIRST_YEAR, years);
+			final StringWriter w = new StringWriter(s.size() * 48);
+			try { SyntheticHourlyTemperatureGenerator.writeCSV(s, SyntheticHourlyTemperatureGenerator.stationName(i), w); }
+			catch(final IOException e) { throw new UncheckedIOException(e); }
+			return(w.toString().getBytes(DDNTemperatureDataCSV.TEMPDATACSV_CHARSET));
+			}).toArray(byte[][]::new));
+		}
+
+	/**Run one pipeline over one station's CSV data, returning a value derived from the result to defeat dead-code elimination. */
+	private static double runOne(final Pipeline pipeline, final byte[] csv)
+		{
+		try(final Reader r = new InputStreamReader(new ByteArrayInputStream(csv), DDNTemperatureDataCSV.TEMPDATACSV_CHARSET))
+			{
+			if(Pipeline.PARSE_ROWS == pipeline)
+				{ return(DDNTemperatureDataCSV.parseDDNTemperatureDataCSV(r).data().size()); }
+			final HourlyTemperatureSeries s = HourlyTemperatureSeries.parse(r, null);
+			if(Pipeline.PARSE_SERIES == pipeline) { return(s.temperature(s.size() - 1)); }
+			if(Pipeline.STIFF_VECTOR == pipeline)
+				{ return(new StiffBatchKernel(ModelParameters.FIXES_APPLIED, false).run(s, true).demand().withSetback().heatPumpElectricity()); }
+			final HGTRVHPMModelByHour m = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, s);
+			if(Pipeline.SOFT_FAST == pipeline)
+				{ return(m.runScenarioFast(false, true, null).demand().withSetback().heatPumpElectricity()); }
+			return(m.runScenario(false, Pipeline.SOFT == pipeline, null).demand().withSetback().heatPumpElectricity());
+			}
+		catch(final IOException e) { throw new UncheckedIOException(e); }
+		}
+
+	/**Total bytes allocated by all live threads, or NaN if not available. */
+	private static double allocatedBytes()
+		{
+		final ThreadMXBean t = ManagementFactory.getThreadMXBean();
+		if(!(t instanceof com.sun.management.ThreadMXBean)) { return(Double.NaN); }
+		final long[] a = ((com.sun.management.ThreadMXBean) t).getThreadAllocatedBytes(t.getAllThreadIds());
+		double sum = 0;
+		for(final long b : a) { if(b > 0) { sum += b; } }
+		return(sum);
+		}
+
+	/**Total GC time so far (ms). */
+	private static long gcMillis()
+		{
+		long sum = 0;
+		for(final GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+			{ sum += Math.max(0, gc.getCollectionTime()); }
+		return(sum);
+		}
+
+	/**Measure one pipeline over a dataset; never null.
+	 * @param size  dataset size; never null
+	 * @param pool  distinct stations' CSV data, replicated to make up the station count; never null nor empty
+	 * @param hoursPerStation  hours in each station's series
+	 * @param pipeline  pipeline to run; never null
+	 * @param parallel  if true run stations in parallel on the common pool, else on the calling thread
+	 */
+	public static Measurement measure(final Size size, final byte[][] pool, final int hoursPerStation,
+			final Pipeline pipeline, final boolean parallel)
+		{
+		final List<MemoryPoolMXBean> heap = ManagementFactory.getMemoryPoolMXBeans().stream()
+			.filter(p -> MemoryType.HEAP == p.getType()).toList();
+		System.gc();
+		heap.forEach(MemoryPoolMXBean::resetPeakUsage);
+		final long gc0 = gcMillis();
+		final double alloc0 = allocatedBytes();
+		final long t0 = System.nanoTime();
+		IntStream stations = IntStream.range(0, size.stations());
+		if(parallel) { stations = stations.parallel(); }
+		final double check = stations.mapToDouble(i -> runOne(pipeline, pool[i % pool.length])).sum();
+		final long wall = System.nanoTime() - t0;
+		final double alloc = allocatedBytes() - alloc0;
+		final long gc = gcMillis() - gc0;
+		long peak = 0;
+		for(final MemoryPoolMXBean p : heap) { peak += p.getPeakUsage().getUsed(); }
+		if(Double.isNaN(check)) { throw new IllegalStateException(); }
+		return(new Measurement(size, (long) size.stations() * hoursPerStation, pipeline, parallel,
+			parallel ? ForkJoinPool.getCommonPoolParallelism() : 1, wall, alloc, peak, gc));
+		}
+
+	/**Run the whole benchmark, streaming CSV rows (with header) to out as each measurement completes.
+	 * A small warm-up pass is run first so that the first size is not dominated by JIT compilation.
+	 *
+	 * @param sizes  dataset sizes, run in order; never null nor empty
+	 * @param out  destination for CSV; never null
+	 * @return all measurements in order; never null
+	 * @throws IOException  in case of missing or corrupt 201X data or if out throws
+	 */
+	public static List<Measurement> run(final List<Size> sizes, final Appendable out)
+		throws IOException
+		{
+		if(sizes.isEmpty()) { throw new IllegalArgumentException(); }
+		final List<SyntheticHourlyTemperatureGenerator.Model> bases = SyntheticHourlyTemperatureGenerator.fit201X();
+		final List<Measurement> result = new ArrayList<>();
+		out.append(CSV_HEADER).append('\n');
+
+		// Warm up.
+		final byte[][] warm = synthesisePool(bases, 1, 0);
+		for(final Pipeline p : Pipeline.values())
+			{ measure(new Size(STATION_POOL_SIZE, 1), warm, 0, p, false); }
+
+		int poolYears = 0;
+		byte[][] pool = null;
+		int hoursPerStation = 0;
+		for(final Size size : sizes)
+			{
+			if(size.years() != poolYears)
+				{
+				pool = null; // Release the previous pool before making the next.
+				pool = synthesisePool(bases, size.years(), 42);
+				poolYears = size.years();
+				hoursPerStation = HourlyTemperatureSeries.parse(new InputStreamReader(
+					new ByteArrayInputStream(pool[0]), DDNTemperatureDataCSV.TEMPDATACSV_CHARSET), null).size();
+				}
+			for(final Pipeline p : Pipeline.values())
+				for(final boolean parallel : new boolean[]{false, true})
+					{
+					final Measurement m = measure(size, pool, hoursPerStation, p, parallel);
+					m.appendCSV(out);
+					if(out instanceof Flushable) { ((Flushable) out).flush(); }
+					result.add(m);
+					}
+			}
+		return(result);
+		}
+	}
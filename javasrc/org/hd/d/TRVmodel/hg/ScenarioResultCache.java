@@ -0,0 +1,442 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.zip.CRC32;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Persistent memoisation of HGTRVHPMModelByHour scenario results, in an append-only local file.
+ * The model calculations are stateless, so a result depends only on
+ * the model parameters, archetype, regulation mode, the model code, and the temperature data.
+ * Each entry is keyed by a SHA-256 hash of all of those,
+ * using MODEL_CODE_VERSION for the code and HourlyTemperatureSeries.contentDigest() for the data,
+ * so a change to any of them simply misses the cache.
+ * <p>
+ * The file is a short header then fixed-length records, each with its own CRC,
+ * so a torn or corrupt record (eg from a crash mid-write) is skipped rather than trusted.
+ * Records are only ever appended, except during compaction (see below).
+ * An in-memory index holds the most-recently-used entries up to the size bound,
+ * evicting the least-recently used.
+ * When the file holds more than twice the bound in records,
+ * the live entries are written to a new file in the same directory
+ * which then atomically replaces the old one,
+ * so a crash mid-compaction leaves either the old or the new file intact.
+ * <p>
+ * Thread-safe.
+ * Other processes may share the file: appends and compaction are done under an exclusive file lock,
+ * and records appended by others are picked up before each append and on a miss.
+ * Once holding a lock, each process checks that the path still names the file it has open,
+ * and if another process has replaced it by compaction, reopens it.
+ * Use at most one instance per file in each JVM.
+ */
+public final class ScenarioResultCache implements Closeable
+	{
+	/**Version of the model calculation code; bump whenever a change might alter any ScenarioResult.
+	 * 2: heating-hour index and batch stiff kernel; base temperature added to the key.
+	 */
+	public static final int MODEL_CODE_VERSION = 2;
+
+	/**Default maximum number of entries held. */
+	public static final int DEFAULT_MAX_ENTRIES = 100_000;
+
+	/**System property naming the cache file for defaultCache(). */
+	public static final String CACHE_FILE_PROPERTY = "org.hd.d.TRVmodel.scenarioCache";
+
+	/**File magic and format version. */
+	private static final long MAGIC = 0x5452565343310001L; // "TRVSC1" + format 1.
+	/**Header length (bytes). */
+	private static final int HEADER_BYTES = 8;
+	/**Key length (bytes). */
+	private static final int KEY_BYTES = 32;
+	/**Record length (bytes): key, 5 doubles, CRC. */
+	private static final int RECORD_BYTES = KEY_BYTES + (5 * 8) + 4;
+
+	/**Key wrapper with value equality. */
+	private record Key(byte[] hash)
+		{
+		@Override public boolean equals(final Object o) { return((o instanceof Key k) && Arrays.equals(hash, k.hash)); }
+		@Override public int hashCode() { return(Arrays.hashCode(hash)); }
+		}
+
+	/**Cache file path. */
+	private final Path file;
+	/**Cache file channel; replaced when the file is. */
+	private FileChannel channel;
+	/**File key (eg inode) of the file open on channel, or null if the platform has none. */
+	private Object fileKey;
+	/**Maximum entries held. */
+	private final int maxEntries;
+	/**LRU index; guarded by this. */
+	private final LinkedHashMap<Key, ScenarioResult> index;
+	/**File length (bytes) read so far, ie position up to which records are indexed; guarded by this. */
+	private long indexedBytes;
+	/**Records in the file (including superseded and corrupt); guarded by this. */
+	private long fileRecords;
+	/**Hits and misses, for monitoring; guarded by this. */
+	private long hits, misses;
+
+	/**Open or create a cache file.
+	 * @param file  cache file path; never null
+	 * @param maxEntries  maximum entries held, strictly positive
+	 * @throws IOException  if the file cannot be opened or is not a cache file
+	 */
+	public ScenarioResultCache(final Path file, final int maxEntries) throws IOException
+		{
+		Objects.requireNonNull(file);
+		if(maxEntries < 1) { throw new IllegalArgumentException(); }
+		this.maxEntries = maxEntries;
+		index = new LinkedHashMap<>(16, 0.75f, true)
+			{
+			private static final long serialVersionUID = 1L;
+			@Override protected boolean removeEldestEntry(final Map.Entry<Key, ScenarioResult> eldest)
+				{ return(size() > ScenarioResultCache.this.maxEntries); }
+			};
+		this.file = file;
+		openChannel();
+		try
+			{
+			final FileLock lock = lockCurrent(false);
+			try
+				{
+				if(0 == channel.size())
+					{
+					channel.write(ByteBuffer.allocate(HEADER_BYTES).putLong(0, MAGIC), 0);
+					channel.force(false);
+					}
+				readNewRecords();
+				}
+			finally { lock.release(); }
+			}
+		catch(final IOException | RuntimeException e)
+			{
+			channel.close();
+			throw e;
+			}
+		}
+
+	/**(Re)open the channel on the file, creating it if need be, and forget what was indexed from any previous one. */
+	private void openChannel() throws IOException
+		{
+		channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		fileKey = currentFileKey();
+		index.clear();
+		indexedBytes = HEADER_BYTES;
+		fileRecords = 0;
+		}
+
+	/**File key of whatever the path currently names, or null if none or not supported. */
+	private Object currentFileKey()
+		{
+		try { return(Files.readAttributes(file, BasicFileAttributes.class).fileKey()); }
+		catch(final IOException e) { return(null); }
+		}
+
+	/**Lock the file, first reopening it if another process has replaced it; never null.
+	 * While the lock is held no other process can replace the file.
+	 * @param shared  if true take a shared lock, else exclusive
+	 */
+	private FileLock lockCurrent(final boolean shared) throws IOException
+		{
+		for( ; ; )
+			{
+			final FileLock lock = channel.lock(0, Long.MAX_VALUE, shared);
+			if((null == fileKey) || fileKey.equals(currentFileKey())) { return(lock); }
+			lock.release();
+			channel.close();
+			openChannel();
+			}
+		}
+
+	/**Compute the cache key for a scenario; never null.
+	 * @param params  model parameters; never null
+	 * @param modelDetached  iff true, detached house (else bungalow)
+	 * @param softATemp  iff true soft regulation
+	 * @param datasetDigest  digest of the temperature data, eg from HourlyTemperatureSeries.contentDigest(); never null
+	 */
+	public static byte[] key(final ModelParameters params, final boolean modelDetached, final boolean softATemp,
+			final byte[] datasetDigest)
+		{ return(key(params, modelDetached, softATemp, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C, datasetDigest)); }
+
+	/**Compute the cache key for a scenario with the given base heating temperature; never null.
+	 * @param params  model parameters; never null
+	 * @param modelDetached  iff true, detached house (else bungalow)
+	 * @param softATemp  iff true soft regulation
+	 * @param baseTemperatureC  temperature (C) at and above which no heat is needed
+	 * @param datasetDigest  digest of the temperature data, eg from HourlyTemperatureSeries.contentDigest(); never null
+	 */
+	public static byte[] key(final ModelParameters params, final boolean modelDetached, final boolean softATemp,
+			final double baseTemperatureC, final byte[] datasetDigest)
+		{
+		Objects.requireNonNull(params);
+		Objects.requireNonNull(datasetDigest);
+		final MessageDigest md;
+		try { md = MessageDigest.getInstance("SHA-256"); }
+		catch(final NoSuchAlgorithmException e) { throw new IllegalStateException(e); } // Always present.
+		final ByteBuffer bb = ByteBuffer.allocate(32)
+			.putInt(MODEL_CODE_VERSION)
+			.putDouble(params.doorsPerInternalWall())
+			.put((byte) (params.correctCoPForFlowVsMW() ? 1 : 0))
+			.put((byte) (params.roomsAlternatingABAB() ? 1 : 0))
+			.putDouble(params.externalAirTemperatureC())
+			.put((byte) (modelDetached ? 1 : 0))
+			.put((byte) (softATemp ? 1 : 0))
+			.putDouble(baseTemperatureC);
+		md.update(bb.flip());
+		md.update(datasetDigest);
+		return(md.digest());
+		}
+
+	/**Get a cached result; null if absent.
+	 * @param key  key from key(); never null
+	 */
+	public synchronized ScenarioResult get(final byte[] key)
+		{
+		final Key k = new Key(key.clone());
+		ScenarioResult r = index.get(k);
+		if(null == r)
+			{
+			// Another process may have added it.
+			try { refresh(); }
+			catch(final IOException e) { throw new UncheckedIOException(e); }
+			r = index.get(k);
+			}
+		if(null == r) { ++misses; } else { ++hits; }
+		return(r);
+		}
+
+	/**Add a result, appending it to the file.
+	 * @param key  key from key(); never null
+	 * @param result  result; never null
+	 * @throws IOException  if the file cannot be written
+	 */
+	public synchronized void put(final byte[] key, final ScenarioResult result) throws IOException
+		{
+		if(KEY_BYTES != key.length) { throw new IllegalArgumentException(); }
+		Objects.requireNonNull(result);
+		final FileLock lock = lockCurrent(false);
+		try
+			{
+			readNewRecords();
+			// Drop any torn tail before appending.
+			final long end = HEADER_BYTES + (fileRecords * RECORD_BYTES);
+			if(channel.size() > end) { channel.truncate(end); }
+			channel.write(encode(key, result), end);
+			indexedBytes = end + RECORD_BYTES;
+			++fileRecords;
+			index.put(new Key(key.clone()), result);
+			if(fileRecords > 2L * maxEntries) { compact(); }
+			}
+		finally
+			{
+			// Compaction closes the old channel, releasing its lock.
+			if(lock.isValid()) { lock.release(); }
+			}
+		}
+
+	/**Get the result for a scenario from the cache, else compute and cache it; never null.
+	 * Scenarios with other than the default HG linear CoP model
+	 * are always computed and not cached, since the key cannot capture an arbitrary CoP model.
+	 *
+	 * @param scenario  model and temperature data; never null
+	 * @param modelDetached  iff true, detached house (else bungalow)
+	 * @param softATemp  iff true soft regulation
+	 */
+	public ScenarioResult computeIfAbsent(final HGTRVHPMModelByHour scenario,
+			final boolean modelDetached, final boolean softATemp)
+		throws IOException
+		{
+		if(CoPModel.HG_LINEAR != scenario.copModel())
+			{ return(scenario.runScenario(modelDetached, softATemp, null)); }
+		final byte[] key = key(scenario.modelParameters(), modelDetached, softATemp,
+			scenario.baseTemperatureC(), scenario.temperatures().contentDigest());
+		final ScenarioResult cached = get(key);
+		if(null != cached) { return(cached); }
+		final ScenarioResult r = scenario.runScenario(modelDetached, softATemp, null);
+		put(key, r);
+		return(r);
+		}
+
+	/**Number of entries held in memory. */
+	public synchronized int size() { return(index.size()); }
+
+	/**Number of cache hits so far. */
+	public synchronized long hits() { return(hits); }
+
+	/**Number of cache misses so far. */
+	public synchronized long misses() { return(misses); }
+
+	/**Close the cache file. */
+	@Override
+	public synchronized void close() throws IOException { channel.close(); }
+
+	/**Pick up records appended by other processes, under a shared lock. */
+	private void refresh() throws IOException
+		{
+		if((channel.size() == indexedBytes) && ((null == fileKey) || fileKey.equals(currentFileKey()))) { return; }
+		final FileLock lock = lockCurrent(true);
+		try { readNewRecords(); }
+		finally { lock.release(); }
+		}
+
+	/**Check the header and index records beyond indexedBytes; caller holds a file lock.
+	 * If the file has shrunk (compacted by another process) it is re-read from the start.
+	 */
+	private void readNewRecords() throws IOException
+		{
+		final ByteBuffer h = ByteBuffer.allocate(HEADER_BYTES);
+		if((HEADER_BYTES != channel.read(h, 0)) || (MAGIC != h.getLong(0)))
+			{ throw new IOException("not a scenario cache file: " + file); }
+		final long size = channel.size();
+		if(size < indexedBytes)
+			{
+			index.clear();
+			indexedBytes = HEADER_BYTES;
+			fileRecords = 0;
+			}
+		final long whole = (size - HEADER_BYTES) / RECORD_BYTES;
+		if(whole <= fileRecords) { return; }
+		final ByteBuffer buf = ByteBuffer.allocate((int) Math.min(1 << 20, (whole - fileRecords) * RECORD_BYTES));
+		long pos = HEADER_BYTES + (fileRecords * RECORD_BYTES);
+		final long end = HEADER_BYTES + (whole * RECORD_BYTES);
+		while(pos < end)
+			{
+			buf.clear();
+			buf.limit((int) Math.min(buf.capacity(), end - pos));
+			while(buf.hasRemaining()) { if(channel.read(buf, pos + buf.position()) < 0) { throw new IOException("truncated"); } }
+			buf.flip();
+			while(buf.remaining() >= RECORD_BYTES)
+				{
+				decodeInto(buf);
+				++fileRecords;
+				}
+			pos += buf.limit();
+			}
+		indexedBytes = end;
+		}
+
+	/**Replace the file with one holding just the live entries (in LRU order); caller holds the exclusive lock.
+	 * The new file is written and synced alongside, then atomically moved over the old one,
+	 * and the channel reopened on it (which releases the lock on the old file).
+	 */
+	private void compact() throws IOException
+		{
+		final Path dir = file.toAbsolutePath().getParent();
+		final Path tmp = Files.createTempFile(dir, file.getFileName().toString() + ".", ".tmp");
+		long pos = 0;
+		try
+			{
+			try(final FileChannel out = FileChannel.open(tmp, StandardOpenOption.WRITE))
+				{
+				final ByteBuffer buf = ByteBuffer.allocate(RECORD_BYTES * 1024);
+				buf.putLong(MAGIC);
+				for(final Map.Entry<Key, ScenarioResult> e : index.entrySet())
+					{
+					if(buf.remaining() < RECORD_BYTES) { pos += writeFully(out, buf.flip(), pos); buf.clear(); }
+					buf.put(encode(e.getKey().hash(), e.getValue()));
+					}
+				pos += writeFully(out, buf.flip(), pos);
+				out.force(true);
+				}
+			Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE);
+			}
+		catch(final IOException | RuntimeException e)
+			{
+			Files.deleteIfExists(tmp);
+			throw e;
+			}
+		// Keep the in-memory entries across the reopen.
+		final Map<Key, ScenarioResult> live = new LinkedHashMap<>(index);
+		channel.close();
+		openChannel();
+		index.putAll(live);
+		fileRecords = live.size();
+		indexedBytes = pos;
+		}
+
+	/**Write all of buf at pos; returns bytes written. */
+	private static int writeFully(final FileChannel ch, final ByteBuffer buf, final long pos) throws IOException
+		{
+		final int n = buf.remaining();
+		while(buf.hasRemaining()) { ch.write(buf, pos + buf.position()); }
+		return(n);
+		}
+
+	/**Encode one record. */
+	private static ByteBuffer encode(final byte[] key, final ScenarioResult r)
+		{
+		final ByteBuffer b = ByteBuffer.allocate(RECORD_BYTES);
+		b.put(key)
+			.putDouble(r.hoursFractionSetbackRaisesDemand())
+			.putDouble(r.demand().noSetback().heatDemand())
+			.putDouble(r.demand().noSetback().heatPumpElectricity())
+			.putDouble(r.demand().withSetback().heatDemand())
+			.putDouble(r.demand().withSetback().heatPumpElectricity());
+		final CRC32 crc = new CRC32();
+		crc.update(b.array(), 0, RECORD_BYTES - 4);
+		b.putInt((int) crc.getValue());
+		return(b.flip());
+		}
+
+	/**Decode one record from buf into the index, skipping it if corrupt. */
+	private void decodeInto(final ByteBuffer buf)
+		{
+		final int start = buf.position();
+		final CRC32 crc = new CRC32();
+		crc.update(buf.array(), start, RECORD_BYTES - 4);
+		if((int) crc.getValue() != buf.getInt(start + RECORD_BYTES - 4)) { buf.position(start + RECORD_BYTES); return; }
+		final byte[] key = new byte[KEY_BYTES];
+		buf.get(key);
+		final double f = buf.getDouble();
+		final double hN = buf.getDouble(), eN = buf.getDouble(), hS = buf.getDouble(), eS = buf.getDouble();
+		buf.getInt();
+		try
+			{
+			index.put(new Key(key), new ScenarioResult(f, new DemandWithoutAndWithSetback(
+				new HeatAndElectricityDemand(hN, eN), new HeatAndElectricityDemand(hS, eS))));
+			}
+		catch(final IllegalArgumentException e) { /* Implausible values: skip. */ }
+		}
+
+
+	/**Lazily-opened default cache, or null. */
+	private static ScenarioResultCache defaultCache;
+	/**True once opening the default cache has been attempted. */
+	private static boolean defaultCacheTried;
+
+	/**Get the default cache from the file named by the CACHE_FILE_PROPERTY system property.
+	 * @return the cache, or null if the property is not set or the file cannot be opened
+	 */
+	public static synchronized ScenarioResultCache defaultCache()
+		{
+		if(!defaultCacheTried)
+			{
+			defaultCacheTried = true;
+			final String name = System.getProperty(CACHE_FILE_PROPERTY);
+			if((null != name) && !name.isEmpty())
+				{
+				try { defaultCache = new ScenarioResultCache(Path.of(name), DEFAULT_MAX_ENTRIES); }
+				catch(final IOException e) { System.err.println("WARNING: cannot open scenario cache " + name + ": " + e); }
+				}
+			}
+		return(defaultCache);
+		}
+	}
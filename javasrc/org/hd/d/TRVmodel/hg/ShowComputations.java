@@ -1,11 +1,11 @@
 package org.hd.d.TRVmodel.hg;
 
-import java.io.File;
 import java.io.IOException;
 import java.util.Date;
 
 import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
 import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
@@ -66,11 +66,11 @@ public final class ShowComputations
         System.out.println("");
         System.out.println("Parameterised model, fixes applied for doors and CoP temperature, external air temperature varied...");
         System.out.println("London (EGLL) 2018 hourly temperatures");
-    	final DDNTemperatureDataCSV temperaturesLondon2018 =
-    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HourlyTemperatureSeries temperaturesLondon2018 =
+    			HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
     	final HGTRVHPMModelByHour scenarioLondon2018 = new HGTRVHPMModelByHour(
     			HGTRVHPMModelParameterised.ModelParameters.FIXES_APPLIED, temperaturesLondon2018);
-    	final ScenarioResult resultLondon2018 = scenarioLondon2018.runScenario(false, false, null);
+    	final ScenarioResult resultLondon2018 = scenarioLondon2018.runScenarioCached(ScenarioResultCache.defaultCache(), false, false);
         System.out.println(String.format("Percentage of hours that room setback raises heat pump demand: %.0f%%",
         		100 * resultLondon2018.hoursFractionSetbackRaisesDemand()));
     	final double heatNoSetbackLondon2018 = resultLondon2018.demand().noSetback().heatDemand();
@@ -85,11 +85,11 @@ public final class ShowComputations
         System.out.println("");
         System.out.println("Parameterised model, fixes applied for doors and CoP temperature, external air temperature varied...");
         System.out.println("Glasgow (EGPF) 2018 hourly temperatures");
-    	final DDNTemperatureDataCSV temperaturesGlasgow2018 =
-    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(DDNTemperatureDataCSV.DATA_EGPF_2018);
+    	final HourlyTemperatureSeries temperaturesGlasgow2018 =
+    			HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGPF_2018);
     	final HGTRVHPMModelByHour scenarioGlasgow2018 = new HGTRVHPMModelByHour(
     			HGTRVHPMModelParameterised.ModelParameters.FIXES_APPLIED, temperaturesGlasgow2018);
-    	final ScenarioResult resultGlasgow2018 = scenarioGlasgow2018.runScenario(false, false, null);
+    	final ScenarioResult resultGlasgow2018 = scenarioGlasgow2018.runScenarioCached(ScenarioResultCache.defaultCache(), false, false);
         System.out.println(String.format("Percentage of hours that room setback raises heat pump demand: %.0f%%",
         		100 * resultGlasgow2018.hoursFractionSetbackRaisesDemand()));
     	final double heatNoSetbackGlasgow2018 = resultGlasgow2018.demand().noSetback().heatDemand();
@@ -118,15 +118,11 @@ public final class ShowComputations
 		// 7 major towns/cities x 10Y, bungalow and detached (ABAB and AABB as sensitivity measure).
         System.out.println("");
         System.out.println(String.format("7 towns/cites, 10Y hourly data (201x, %d hours), bungalow and detached, two room heating patterns:", DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA));
-		for(final HourlyTemperatureDataDescriptor htdd : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET)
+		final ResultCube cube = ResultCube.shared201X();
+		for(int station = 0; station < cube.stations().size(); ++station)
 			{
+			final HourlyTemperatureDataDescriptor htdd = cube.stations().get(station);
 			System.out.println(String.format("%s (weather station at %s):", htdd.conurbation(), htdd.station()));
-	    	// Load temperature data for this station.
-			final DDNTemperatureDataCSV temperatures201X =
-    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
-					htdd.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
-            if(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA != temperatures201X.data().size())
-            	{ throw new IOException("bad record count"); }
 			for(final boolean detached : new boolean[]{false, true})
 				{
 		        final String archetype = detached ? "detached" : "bungalow";
@@ -135,16 +131,9 @@ public final class ShowComputations
 					{
 			        final String layout = abab ? "ABAB" : "AABB";
 					System.out.println("    Layout " + layout);
-			    	final HGTRVHPMModelParameterised.ModelParameters modelParameters = new HGTRVHPMModelParameterised.ModelParameters(
-							ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
-							ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
-							abab,
-							ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
-					final HGTRVHPMModelByHour scenario201X = new HGTRVHPMModelByHour(
-		    			modelParameters,
-		    			temperatures201X);
+			    	final HGTRVHPMModelParameterised.ModelParameters modelParameters = cube.parameters(abab);
 			    	System.out.println("      Scenario base model parameters: " + modelParameters);
-			    	final ScenarioResult result201X = scenario201X.runScenario(detached, false, null);
+			    	final ScenarioResult result201X = cube.get(station, detached, abab, false).result();
 			    	final double heatNoSetback201X = result201X.demand().noSetback().heatDemand();
 			    	final double heatWithSetback201X = result201X.demand().withSetback().heatDemand();
 			    	System.out.println(String.format("      Heat mean demand: with no setback %.0fW, with setback %.0fW; %.0f%% change with setback",
@@ -204,8 +193,8 @@ public final class ShowComputations
 					abab,
 					ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
 	    	final double equilibriumTemperatureMinLondon2018Soft[] = new double[1];
-	    	final DDNTemperatureDataCSV temperaturesLondon2018Soft =
-	    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(DDNTemperatureDataCSV.DATA_EGLL_2018);
+	    	final HourlyTemperatureSeries temperaturesLondon2018Soft =
+	    			HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
 	    	final HGTRVHPMModelByHour scenarioLondon2018Soft = new HGTRVHPMModelByHour(
 	    			modelParameters, temperaturesLondon2018Soft);
 	    	final ScenarioResult resultLondon2018Soft = scenarioLondon2018Soft.runScenario(false, true, equilibriumTemperatureMinLondon2018Soft);
@@ -255,12 +244,34 @@ public final class ShowComputations
 	 * @throws IOException in case of missing or corrupt temperature data
 	 */
 	public static String generateHTMLMainSummaryTable(final boolean stiff) throws IOException
+		{ return(generateHTMLMainSummaryTable(ResultCube.shared201X(), stiff)); }
+
+	/**Format the main summary table from precomputed results; non-null.
+	 * @param cube  results; never null
+	 * @param stiff  if true then in stiff (load comp) regulation mode, else soft (weather comp)
+	 * @return HTML table summary; non-empty, non-null
+	 */
+	public static String generateHTMLMainSummaryTable(final ResultCube cube, final boolean stiff)
+		{
+		final StringBuilder result = new StringBuilder(8192);
+		try { writeHTMLMainSummaryTable(result, cube, stiff); }
+		catch(final IOException e) { throw new AssertionError(e); } // StringBuilder does not throw.
+		return(result.toString());
+		}
+
+	/**Stream the main summary table from precomputed results, row by row.
+	 * @param out  destination; never null
+	 * @param cube  results; never null
+	 * @param stiff  if true then in stiff (load comp) regulation mode, else soft (weather comp)
+	 * @throws IOException  if out throws
+	 */
+	public static void writeHTMLMainSummaryTable(final Appendable out, final ResultCube cube, final boolean stiff)
+		throws IOException
 		{
 		// Vertically split as location, heat demand delta on setback, ABAB hp demand change, AABB demand change.
 		// Each by bungalow/detached.
-		final StringBuilder result = new StringBuilder();
-		result.append("<table style=\"border:1px solid\" class=\"yourTableStyle\">\n");
-		result.append(String.format("""
+		out.append("<table style=\"border:1px solid\" class=\"yourTableStyle\">\n");
+		out.append(String.format("""
 			<caption>\
 			%s mode: summary of mean power change with selected-room setback of\s\
 			(1) %s temperature regulation in A rooms\s\
@@ -277,8 +288,8 @@ public final class ShowComputations
 			""",
 			    stiff ? "Stiff" : "Soft",
 			    stiff ? "stiff" : "soft",
-				DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.size()));
-		result.append("""
+				cube.stations().size()));
+		out.append("""
 			<thead><tr>\
 			<th>Location (Weather Station)</th>\
 			<th>Archetype</th>\
@@ -288,52 +299,38 @@ public final class ShowComputations
 			</tr></thead>
 			""");
 
-		result.append("<tbody>\n");
-		for(final HourlyTemperatureDataDescriptor htdd : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET)
+		out.append("<tbody>\n");
+		for(int station = 0; station < cube.stations().size(); ++station)
 			{
-	    	// Load temperature data for this station.
-			final DDNTemperatureDataCSV temperatures201X =
-				DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
-					htdd.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
-	        if(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA != temperatures201X.data().size())
-	        	{ throw new IOException("bad record count"); }
+			final HourlyTemperatureDataDescriptor htdd = cube.stations().get(station);
 			for(final boolean detached : new boolean[]{false, true})
 				{
-				result.append("<tr>");
+				out.append("<tr>");
 				if(!detached)
-				    { result.append(String.format("<td rowspan=\"2\">%s (%s)</td>", htdd.conurbation(), htdd.station())); }
+				    { out.append("<td rowspan=\"2\">").append(htdd.conurbation()).append(" (").append(htdd.station()).append(")</td>"); }
 
 		        final String archetype = detached ? "detached" : "bungalow";
-		        result.append(String.format("<td>%s</td>", archetype));
+		        out.append("<td>").append(archetype).append("</td>");
 				for(final boolean abab : new boolean[]{true, false})
 					{
-			    	final HGTRVHPMModelParameterised.ModelParameters modelParameters = new HGTRVHPMModelParameterised.ModelParameters(
-							ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
-							ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
-							abab,
-							ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
-					final HGTRVHPMModelByHour scenario201X = new HGTRVHPMModelByHour(
-		    			modelParameters,
-		    			temperatures201X);
-			    	final ScenarioResult result201X = scenario201X.runScenario(detached, !stiff, null);
+			    	final ScenarioResult result201X = cube.get(station, detached, abab, !stiff).result();
 			    	final double heatNoSetback201X = result201X.demand().noSetback().heatDemand();
 			    	final double heatWithSetback201X = result201X.demand().withSetback().heatDemand();
 			    	// Overall home heat demand is not affected by archetype or room setback layout, so only show once.
 			    	final double heatDelta201X = 100*((heatWithSetback201X/heatNoSetback201X)-1);
 			    	if(!detached && abab)
-			            { result.append(String.format("<td rowspan=\"2\" style=\"text-align:right\">%.1f%%</td>", heatDelta201X)); }
+			            { FixedPrecision.append(out.append("<td rowspan=\"2\" style=\"text-align:right\">"), heatDelta201X, 1).append("%</td>"); }
 			    	// Heat-pump power demand delta.
 			    	final double powerNoSetback201X = result201X.demand().noSetback().heatPumpElectricity();
 			    	final double powerWithSetback201X = result201X.demand().withSetback().heatPumpElectricity();
 			    	final double powerDelta201X = 100*((powerWithSetback201X/powerNoSetback201X)-1);
-			    	result.append(String.format("<td style=\"text-align:right\">%.1f%%</td>", powerDelta201X));
+			    	FixedPrecision.append(out.append("<td style=\"text-align:right\">"), powerDelta201X, 1).append("%</td>");
 					}
-				result.append("</tr>\n");
+				out.append("</tr>\n");
 				}
 			}
-		result.append("</tbody>\n");
-		result.append("</table>");
-		return(result.toString());
+		out.append("</tbody>\n");
+		out.append("</table>");
 		}
 
 	/**Generate the main summary model results table for 7 places, 10 years, in LaTeX; non-null.
@@ -346,10 +343,32 @@ public final class ShowComputations
 	 * @throws IOException in case of missing or corrupt temperature data
 	 */
 	public static String generateLaTeXMainSummaryTable(final boolean stiff) throws IOException
+		{ return(generateLaTeXMainSummaryTable(ResultCube.shared201X(), stiff)); }
+
+	/**Format the main summary table from precomputed results; non-null.
+	 * @param cube  results; never null
+	 * @param stiff  if true then in stiff (load comp) regulation mode, else soft (weather comp)
+	 * @return LaTeX table summary; non-null, non-empty
+	 */
+	public static String generateLaTeXMainSummaryTable(final ResultCube cube, final boolean stiff)
 		{
-		final StringBuilder result = new StringBuilder();
-		result.append("\\begin{table}[H]\n");
-	    result.append(String.format("""
+		final StringBuilder result = new StringBuilder(8192);
+		try { writeLaTeXMainSummaryTable(result, cube, stiff); }
+		catch(final IOException e) { throw new AssertionError(e); } // StringBuilder does not throw.
+		return(result.toString());
+		}
+
+	/**Stream the main summary table from precomputed results, row by row.
+	 * @param out  destination; never null
+	 * @param cube  results; never null
+	 * @param stiff  if true then in stiff (load comp) regulation mode, else soft (weather comp)
+	 * @throws IOException  if out throws
+	 */
+	public static void writeLaTeXMainSummaryTable(final Appendable out, final ResultCube cube, final boolean stiff)
+		throws IOException
+		{
+		out.append("\\begin{table}[H]\n");
+	    out.append(String.format("""
 	        \\caption{\
 			%s mode: summary of mean power change with selected-room setback of\s\
 			(1) %s temperature regulation in A rooms\s\
@@ -366,13 +385,13 @@ public final class ShowComputations
 			""",
 			    stiff ? "Stiff" : "Soft",
 			    stiff ? "stiff" : "soft",
-				DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.size()));
-        result.append("\\begin{adjustwidth}{-\\extralength}{0cm}\n"
+				cube.stations().size()));
+        out.append("\\begin{adjustwidth}{-\\extralength}{0cm}\n"
         		+ "                \\newcolumntype{C}{>{\\centering\\arraybackslash}X}\n"
         		+ "                \\begin{tabularx}{\\fulllength}{CCCCC}\n"
         		+ "                        \\toprule\n"
         		+ "");
-        result.append(""
+        out.append(""
         		+ "\\textbf{Location (Weather Station)} & "
         		+ "\\textbf{Archetype} & "
         		+ "\\textbf{Home heat demand delta} & "
@@ -381,56 +400,42 @@ public final class ShowComputations
         		+ "\\\\\n"
         		+ "");
 
-		for(final HourlyTemperatureDataDescriptor htdd : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET)
+		for(int station = 0; station < cube.stations().size(); ++station)
 			{
-	    	// Load temperature data for this station.
-			final DDNTemperatureDataCSV temperatures201X =
-				DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
-					htdd.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
-	        if(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA != temperatures201X.data().size())
-	        	{ throw new IOException("bad record count"); }
+			final HourlyTemperatureDataDescriptor htdd = cube.stations().get(station);
 			for(final boolean detached : new boolean[]{false, true})
 				{
 				if(!detached)
-				    { result.append(String.format("\\midrule\\multirow[m]{2}{*}{%s (%s)}", htdd.conurbation(), htdd.station())); }
-				result.append(" & ");
+				    { out.append("\\midrule\\multirow[m]{2}{*}{").append(htdd.conurbation()).append(" (").append(htdd.station()).append(")}"); }
+				out.append(" & ");
 
 		        final String archetype = detached ? "detached" : "bungalow";
-		        result.append(String.format("%s & ", archetype));
+		        out.append(archetype).append(" & ");
 				for(final boolean abab : new boolean[]{true, false})
 					{
-			    	final HGTRVHPMModelParameterised.ModelParameters modelParameters = new HGTRVHPMModelParameterised.ModelParameters(
-							ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
-							ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
-							abab,
-							ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
-					final HGTRVHPMModelByHour scenario201X = new HGTRVHPMModelByHour(
-		    			modelParameters,
-		    			temperatures201X);
-			    	final ScenarioResult result201X = scenario201X.runScenario(detached, !stiff, null);
+			    	final ScenarioResult result201X = cube.get(station, detached, abab, !stiff).result();
 			    	final double heatNoSetback201X = result201X.demand().noSetback().heatDemand();
 			    	final double heatWithSetback201X = result201X.demand().withSetback().heatDemand();
 			    	// Overall home heat demand is not affected by archetype or room setback layout, so only show once.
 			    	final double heatDelta201X = 100*((heatWithSetback201X/heatNoSetback201X)-1);
 			    	if(!detached && abab)
-			            { result.append(String.format("\\multirow[m]{2}{*}{%.1f\\%%}", heatDelta201X)); }
-					result.append(" & ");
+			            { FixedPrecision.append(out.append("\\multirow[m]{2}{*}{"), heatDelta201X, 1).append("\\%}"); }
+					out.append(" & ");
 			    	// Heat-pump power demand delta.
 			    	final double powerNoSetback201X = result201X.demand().noSetback().heatPumpElectricity();
 			    	final double powerWithSetback201X = result201X.demand().withSetback().heatPumpElectricity();
 			    	final double powerDelta201X = 100*((powerWithSetback201X/powerNoSetback201X)-1);
-			    	result.append(String.format("%.1f\\%% ", powerDelta201X));
+			    	FixedPrecision.append(out, powerDelta201X, 1).append("\\% ");
 					}
-				result.append("\\\\\n");
+				out.append("\\\\\n");
 				}
 			}
 
-        result.append("                        \\bottomrule\n"
+        out.append("                        \\bottomrule\n"
         		+ "                \\end{tabularx}\n"
         		+ "        \\end{adjustwidth}\n"
         		+ "");
-		result.append("\\end{table}");
-		return(result.toString());
+		out.append("\\end{table}");
 		}
 
 
@@ -443,12 +448,32 @@ public final class ShowComputations
 	 * @throws IOException in case of missing or corrupt temperature data
 	 */
 	public static String generateHTMLSagTable() throws IOException
+		{ return(generateHTMLSagTable(ResultCube.shared201X())); }
+
+	/**Format the temperature sag table from precomputed results; non-null.
+	 * @param cube  results; never null
+	 * @return HTML table for sag data; non-null, non-empty
+	 */
+	public static String generateHTMLSagTable(final ResultCube cube)
+		{
+		final StringBuilder result = new StringBuilder(8192);
+		try { writeHTMLSagTable(result, cube); }
+		catch(final IOException e) { throw new AssertionError(e); } // StringBuilder does not throw.
+		return(result.toString());
+		}
+
+	/**Stream the temperature sag table from precomputed results, row by row.
+	 * @param out  destination; never null
+	 * @param cube  results; never null
+	 * @throws IOException  if out throws
+	 */
+	public static void writeHTMLSagTable(final Appendable out, final ResultCube cube)
+		throws IOException
 		{
 		// Vertically split as location, ABAB sag, AABB sag.
 		// Each by bungalow/detached.
-		final StringBuilder result = new StringBuilder();
-		result.append("<table style=\"border:1px solid\" class=\"yourTableStyle\">\n");
-		result.append(String.format("""
+		out.append("<table style=\"border:1px solid\" class=\"yourTableStyle\">\n");
+		out.append(String.format("""
 			<caption>\
 			Soft mode: summary of maximum A-room temperature sag with selected-room setback of\s\
 			(1) soft temperature regulation in A rooms\s\
@@ -460,8 +485,8 @@ public final class ShowComputations
 			and the maximum temperature sag in A rooms is shown.\
 			</caption>
 			""",
-				DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.size()));
-		result.append("""
+				cube.stations().size()));
+		out.append("""
 			<thead><tr>\
 			<th>Location (Weather Station)</th><th>Archetype</th>\
 			<th>ABAB worst-case sag</th>\
@@ -469,44 +494,28 @@ public final class ShowComputations
 			</tr></thead>
 			""");
 
-		result.append("<tbody>\n");
-		for(final HourlyTemperatureDataDescriptor htdd : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET)
+		out.append("<tbody>\n");
+		for(int station = 0; station < cube.stations().size(); ++station)
 			{
-	    	// Load temperature data for this station.
-			final DDNTemperatureDataCSV temperatures201X =
-				DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
-					htdd.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
-	        if(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA != temperatures201X.data().size())
-	        	{ throw new IOException("bad record count"); }
+			final HourlyTemperatureDataDescriptor htdd = cube.stations().get(station);
 			for(final boolean detached : new boolean[]{false, true})
 				{
-				result.append("<tr>");
+				out.append("<tr>");
 				if(!detached)
-			    	{ result.append(String.format("<td rowspan=\"2\">%s (%s)</td>", htdd.conurbation(), htdd.station())); }
+			    	{ out.append("<td rowspan=\"2\">").append(htdd.conurbation()).append(" (").append(htdd.station()).append(")</td>"); }
 
 		        final String archetype = detached ? "detached" : "bungalow";
-		        result.append(String.format("<td>%s</td>", archetype));
+		        out.append("<td>").append(archetype).append("</td>");
 				for(final boolean abab : new boolean[]{true, false})
 					{
 			        final String layout = abab ? "ABAB" : "AABB";
-			    	final HGTRVHPMModelParameterised.ModelParameters modelParameters = new HGTRVHPMModelParameterised.ModelParameters(
-							ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
-							ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
-							abab,
-							ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
-					final HGTRVHPMModelByHour scenario201X = new HGTRVHPMModelByHour(
-		    			modelParameters,
-		    			temperatures201X);
-					final double equilibriumTemperatureMin[] = new double[1];
-			    	final ScenarioResult result201X = scenario201X.runScenario(detached, true, equilibriumTemperatureMin);
-			    	final double sag = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C - equilibriumTemperatureMin[0];
-			    	result.append(String.format("<td style=\"text-align:right\">%.1fK</td>", sag));
+			    	final double sag = HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C - cube.get(station, detached, abab, true).equilibriumTemperatureMinC();
+			    	FixedPrecision.append(out.append("<td style=\"text-align:right\">"), sag, 1).append("K</td>");
 					}
-				result.append("</tr>\n");
+				out.append("</tr>\n");
 				}
 			}
-		result.append("</tbody>\n");
-		result.append("</table>");
-		return(result.toString());
+		out.append("</tbody>\n");
+		out.append("</table>");
 		}
 	}
@@ -0,0 +1,328 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Fitted surrogate for the 'soft' regulation model over a range of external temperatures; immutable and thread-safe.
+ * computeSoftATempDemandW() searches for the A-room equilibrium temperature
+ * in small steps, each with a pow(), which makes soft mode far slower than stiff.
+ * For fixed other parameters, archetype and CoP model, that equilibrium temperature
+ * is a smooth function of the external temperature,
+ * so this fits it with piecewise Chebyshev polynomials on uniform segments.
+ * All the demand values are then computed from it in closed form,
+ * with the same arithmetic as the exact solver,
+ * so that the no-setback values are exact.
+ * <p>
+ * On construction the fit is checked against the exact solver on a dense grid
+ * (every CHECK_STEP_K across the range, plus every segment edge),
+ * the segments being halved until the equilibrium temperature error is within tolerance;
+ * the largest errors observed there for the equilibrium temperature and the setback demands are recorded.
+ * These are observations, not bounds: between check points the error may be slightly larger,
+ * not least because the exact solver's equilibrium temperature moves in steps of 0.01K,
+ * which also sets a floor of about half that on the achievable error.
+ */
+public final class SoftATempSurrogate
+	{
+	/**Default lowest external temperature covered (C). */
+	public static final double DEFAULT_LO_C = -25;
+
+	/**Default highest external temperature covered (C); the default base heating temperature. */
+	public static final double DEFAULT_HI_C = HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C;
+
+	/**Default maximum equilibrium temperature error (K). */
+	public static final double DEFAULT_TOLERANCE_K = 0.02;
+
+	/**Polynomial degree in each segment. */
+	public static final int DEGREE = 4;
+
+	/**Initial number of segments. */
+	public static final int INITIAL_SEGMENTS = 8;
+
+	/**Minimum segment width (K); the fit is not refined beyond this. */
+	public static final double MIN_SEGMENT_K = 0.25;
+
+	/**Spacing of the dense check grid (K). */
+	public static final double CHECK_STEP_K = 0.05;
+
+	/**Highest external temperature that forParameters() covers (C), one check step below the setback temperature,
+	 * at and above which the exact solver does not run.
+	 */
+	public static final double MAX_HI_C = HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C - CHECK_STEP_K;
+
+	/**Model parameters, with the external temperature fixed at its default; never null. */
+	private final ModelParameters params;
+	/**If true, 4-room bungalow, else 8-room detached. */
+	private final boolean bungalow;
+	/**CoP model; never null. */
+	private final CoPModel copModel;
+	/**Lowest external temperature covered (C). */
+	private final double loC;
+	/**Highest external temperature covered (C). */
+	private final double hiC;
+	/**Number of (equal-width) segments. */
+	private final int segments;
+	/**Segments per K. */
+	private final double segmentScale;
+	/**Chebyshev coefficients, DEGREE+1 per segment, segment-major. */
+	private final double[] coeffs;
+	/**Largest equilibrium temperature error observed (K). */
+	private final double observedErrorEquilibriumK;
+	/**Largest setback heat demand error observed (W). */
+	private final double observedErrorHeatW;
+	/**Largest setback heat-pump electricity error observed (W). */
+	private final double observedErrorElectricityW;
+
+	/**Whole home heat loss per K (W/K). */
+	private final double homeHeatLossPerK;
+	/**Number of rooms. */
+	private final int numRooms;
+	/**CoP correction from MW to flow (K). */
+	private final double coPCorrectionK;
+
+	/**Fit and check a surrogate for the given parameters, archetype and CoP model over a range of external temperatures.
+	 * @param params  model parameters, the external temperature being ignored; never null
+	 * @param bungalow  if true, 4-room bungalow, else 8-room detached
+	 * @param copModel  heat-pump CoP model; never null
+	 * @param loC  lowest external temperature covered (C); finite
+	 * @param hiC  highest external temperature covered (C), above loC and below the setback temperature
+	 * @param toleranceK  maximum equilibrium temperature error (K); strictly positive
+	 * @throws IllegalStateException  if the tolerance cannot be met with segments of MIN_SEGMENT_K
+	 */
+	public SoftATempSurrogate(final ModelParameters params, final boolean bungalow, final CoPModel copModel,
+			final double loC, final double hiC, final double toleranceK)
+		{
+		Objects.requireNonNull(params);
+		Objects.requireNonNull(copModel);
+		if(!Double.isFinite(loC) || !(hiC > loC) || !(hiC < HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C))
+			{ throw new IllegalArgumentException(); }
+		if(!(toleranceK > 0)) { throw new IllegalArgumentException(); }
+		this.params = params.cloneWithAdjustedExternalTemperature(ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+		this.bungalow = bungalow;
+		this.copModel = copModel;
+		this.loC = loC;
+		this.hiC = hiC;
+		// As computeSoftATempDemandW().
+		numRooms = bungalow ? 4 : 8;
+		homeHeatLossPerK = HourlyDemandFormulas.homeHeatLossPerK(bungalow);
+		coPCorrectionK = params.correctCoPForFlowVsMW() ? HGTRVHPMModelParameterised.flowMWDelta_K : 0;
+
+		// Exact results on the check grid, computed once.
+		final int checks = 1 + (int) Math.ceil((hiC - loC) / CHECK_STEP_K);
+		final double[] checkT = new double[checks];
+		final double[] checkEq = new double[checks];
+		final DemandWithoutAndWithSetback[] checkDemand = new DemandWithoutAndWithSetback[checks];
+		for(int i = 0; i < checks; ++i)
+			{
+			checkT[i] = Math.min(hiC, loC + (i * CHECK_STEP_K));
+			final double[] eq = new double[1];
+			checkDemand[i] = exact(checkT[i], eq);
+			checkEq[i] = eq[0];
+			}
+
+		final int maxSegments = Math.max(INITIAL_SEGMENTS, (int) Math.ceil((hiC - loC) / MIN_SEGMENT_K));
+		for(int n = INITIAL_SEGMENTS; ; n = Math.min(2 * n, maxSegments))
+			{
+			final double scale = n / (hiC - loC);
+			final double[] c = new double[n * (DEGREE + 1)];
+			final double[] f = new double[DEGREE + 1];
+			double errEq = 0;
+			for(int s = 0; s < n; ++s)
+				{
+				final double a = loC + (s / scale);
+				final double b = (s == n - 1) ? hiC : loC + ((s + 1) / scale);
+				// Sample at Chebyshev nodes and convert to coefficients.
+				for(int j = 0; j <= DEGREE; ++j)
+					{
+					final double u = Math.cos(Math.PI * (j + 0.5) / (DEGREE + 1));
+					final double[] eq = new double[1];
+					exact(0.5 * ((a + b) + (u * (b - a))), eq);
+					f[j] = eq[0];
+					}
+				for(int k = 0; k <= DEGREE; ++k)
+					{
+					double sum = 0;
+					for(int j = 0; j <= DEGREE; ++j) { sum += f[j] * Math.cos(Math.PI * k * (j + 0.5) / (DEGREE + 1)); }
+					c[(s * (DEGREE + 1)) + k] = (2.0 / (DEGREE + 1)) * sum;
+					}
+				// Check both segment edges, where the neighbouring fits meet.
+				final double[] eqA = new double[1], eqB = new double[1];
+				exact(a, eqA);
+				exact(b, eqB);
+				errEq = Math.max(errEq, Math.abs(eval(c, s, -1) - eqA[0]));
+				errEq = Math.max(errEq, Math.abs(eval(c, s, 1) - eqB[0]));
+				}
+			double errHeat = 0, errElectricity = 0;
+			for(int i = 0; i < checks; ++i)
+				{
+				final double[] eq = new double[1];
+				final DemandWithoutAndWithSetback d = demandW(checkT[i], eq, n, scale, c);
+				errEq = Math.max(errEq, Math.abs(eq[0] - checkEq[i]));
+				errHeat = Math.max(errHeat, Math.abs(d.withSetback().heatDemand() - checkDemand[i].withSetback().heatDemand()));
+				errElectricity = Math.max(errElectricity,
+					Math.abs(d.withSetback().heatPumpElectricity() - checkDemand[i].withSetback().heatPumpElectricity()));
+				}
+			if(errEq <= toleranceK)
+				{
+				segments = n;
+				segmentScale = scale;
+				coeffs = c;
+				observedErrorEquilibriumK = errEq;
+				observedErrorHeatW = errHeat;
+				observedErrorElectricityW = errElectricity;
+				return;
+				}
+			if(n == maxSegments) { throw new IllegalStateException("cannot meet tolerance: " + errEq + "K"); }
+			}
+		}
+
+	/**Exact soft-mode demand at the given external temperature, also returning the equilibrium temperature. */
+	private DemandWithoutAndWithSetback exact(final double externalC, final double[] eq)
+		{
+		return(HGTRVHPMModelParameterised.computeSoftATempDemandW(
+			params.cloneWithAdjustedExternalTemperature(externalC), bungalow, eq, copModel));
+		}
+
+	/**Evaluate segment s of the given coefficients at u in [-1,1] by Clenshaw's recurrence. */
+	private static double eval(final double[] c, final int s, final double u)
+		{
+		final int base = s * (DEGREE + 1);
+		double b1 = 0, b2 = 0;
+		for(int k = DEGREE; k > 0; --k)
+			{
+			final double b0 = (2 * u * b1) - b2 + c[base + k];
+			b2 = b1;
+			b1 = b0;
+			}
+		return((u * b1) - b2 + (0.5 * c[base]));
+		}
+
+	/**Fitted equilibrium temperature, then demand as computeSoftATempDemandW() given it. */
+	private DemandWithoutAndWithSetback demandW(final double externalC, final double[] equilibriumTemperature,
+			final int n, final double scale, final double[] c)
+		{
+		final double x = (externalC - loC) * scale;
+		final int s = Math.max(0, Math.min(n - 1, (int) x));
+		final double u = (2 * (x - s)) - 1;
+		// Keep the A room no colder than the B rooms, as the exact search.
+		final double eq = Math.max(HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C, eval(c, s, u));
+		if((null != equilibriumTemperature) && (0 != equilibriumTemperature.length))
+			{ equilibriumTemperature[0] = eq; }
+
+		// As computeSoftATempDemandW().
+		final double DHHLnsb = HourlyDemandFormulas.heatLossW(HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C, externalC, homeHeatLossPerK);
+		final double DradWnsb = DHHLnsb / numRooms;
+		final double DradAMWnsb = HourlyDemandFormulas.meanWaterC(DradWnsb);
+		final double DCoPnsb = HourlyDemandFormulas.cop(DradAMWnsb, coPCorrectionK, externalC, copModel);
+		final double DHPinWnsb = DHHLnsb / DCoPnsb;
+		final double VBHLsb = HourlyDemandFormulas.heatLossW(HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C, externalC, homeHeatLossPerK / 2);
+		final double VAHLsb = HourlyDemandFormulas.heatLossW(eq, externalC, homeHeatLossPerK / 2);
+		final double VHHLsb = VAHLsb + VBHLsb;
+		final double VHPinWsb = VHHLsb / DCoPnsb;
+		return(new DemandWithoutAndWithSetback(
+			new HeatAndElectricityDemand(DHHLnsb, DHPinWnsb),
+			new HeatAndElectricityDemand(VHHLsb, VHPinWsb)));
+		}
+
+	/**True if the given external temperature is within the fitted range. */
+	public boolean covers(final double externalC) { return((externalC >= loC) && (externalC <= hiC)); }
+
+	/**Approximate soft-mode demand at the given external temperature, as computeSoftATempDemandW(); never null.
+	 * The no-setback values are exact; the setback values are close to the exact ones,
+	 * with errors on the check grid no larger than the observed errors.
+	 *
+	 * @param externalC  external air temperature (C), within the fitted range
+	 * @param equilibriumTemperature  if not null and not zero length,
+	 *     used to return the (approximate) A-room equilibrium temperature
+	 */
+	public DemandWithoutAndWithSetback demandW(final double externalC, final double[] equilibriumTemperature)
+		{
+		if(!covers(externalC)) { throw new IllegalArgumentException("outside fitted range"); }
+		return(demandW(externalC, equilibriumTemperature, segments, segmentScale, coeffs));
+		}
+
+	/**Model parameters fitted, with the external temperature at its default; never null. */
+	public ModelParameters parameters() { return(params); }
+
+	/**True if fitted for the 4-room bungalow, else the 8-room detached. */
+	public boolean bungalow() { return(bungalow); }
+
+	/**CoP model fitted; never null. */
+	public CoPModel copModel() { return(copModel); }
+
+	/**Lowest external temperature covered (C). */
+	public double loC() { return(loC); }
+
+	/**Highest external temperature covered (C). */
+	public double hiC() { return(hiC); }
+
+	/**Number of polynomial segments. */
+	public int segments() { return(segments); }
+
+	/**Largest A-room equilibrium temperature error observed against the exact solver on the check grid (K); not a bound. */
+	public double observedErrorEquilibriumK() { return(observedErrorEquilibriumK); }
+
+	/**Largest setback heat demand error observed against the exact solver on the check grid (W); not a bound. */
+	public double observedErrorHeatW() { return(observedErrorHeatW); }
+
+	/**Largest setback heat-pump electricity error observed against the exact solver on the check grid (W); not a bound. */
+	public double observedErrorElectricityW() { return(observedErrorElectricityW); }
+
+	/**Cache key: parameters (external temperature normalised), archetype, CoP model and highest temperature covered. */
+	private record Key(ModelParameters params, boolean bungalow, CoPModel copModel, double hiC) { }
+
+	/**Maximum shared surrogates held; each is a few kB, but a sweep over parameters could otherwise hold one per point. */
+	public static final int MAX_SHARED = 64;
+
+	/**Surrogates with the default lowest temperature and tolerance, built on first use, least-recently used dropped first;
+	 * guarded by itself.
+	 */
+	private static final Map<Key, SoftATempSurrogate> DEFAULTS = new LinkedHashMap<>(16, 0.75f, true)
+		{
+		private static final long serialVersionUID = 1L;
+		@Override protected boolean removeEldestEntry(final Map.Entry<Key, SoftATempSurrogate> eldest)
+			{ return(size() > MAX_SHARED); }
+		};
+
+	/**Get the surrogate covering up to a base heating temperature, with the default lowest temperature and tolerance,
+	 * building it on first use; never null.
+	 * The range stops at MAX_HI_C for a base temperature above that.
+	 * @param params  model parameters, the external temperature being ignored; never null
+	 * @param bungalow  if true, 4-room bungalow, else 8-room detached
+	 * @param copModel  heat-pump CoP model; never null
+	 * @param baseTemperatureC  highest external temperature covered (C),
+	 *     eg HGTRVHPMModelByHour.baseTemperatureC(); above DEFAULT_LO_C
+	 */
+	public static SoftATempSurrogate forParameters(final ModelParameters params, final boolean bungalow,
+			final CoPModel copModel, final double baseTemperatureC)
+		{
+		final Key k = new Key(params.cloneWithAdjustedExternalTemperature(ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C),
+			bungalow, Objects.requireNonNull(copModel), Math.min(baseTemperatureC, MAX_HI_C));
+		synchronized(DEFAULTS)
+			{
+			final SoftATempSurrogate cached = DEFAULTS.get(k);
+			if(null != cached) { return(cached); }
+			}
+		// Fit outside the lock so that other keys are not held up; a racing duplicate fit is discarded.
+		final SoftATempSurrogate fitted = new SoftATempSurrogate(k.params(), k.bungalow(), k.copModel(),
+			DEFAULT_LO_C, k.hiC(), DEFAULT_TOLERANCE_K);
+		synchronized(DEFAULTS)
+			{
+			final SoftATempSurrogate raced = DEFAULTS.putIfAbsent(k, fitted);
+			return((null != raced) ? raced : fitted);
+			}
+		}
+
+	/**Get the surrogate with the default range and tolerance, building it on first use; never null.
+	 * @param params  model parameters, the external temperature being ignored; never null
+	 * @param bungalow  if true, 4-room bungalow, else 8-room detached
+	 * @param copModel  heat-pump CoP model; never null
+	 */
+	public static SoftATempSurrogate forParameters(final ModelParameters params, final boolean bungalow,
+			final CoPModel copModel)
+		{ return(forParameters(params, bungalow, copModel, DEFAULT_HI_C)); }
+	}
@@ -0,0 +1,342 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingDeque;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataValidator;
+import org.hd.d.TRVmodel.data.DataFileInput;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.stats.PhaseTimings;
+
+/**Pipelined load and compute of hourly scenarios over many stations' degreedays.net data files.
+ * Rather than loading each station fully, then running its scenarios, then moving on,
+ * work flows through three stages connected by queues,
+ * so that I/O and computation overlap and a many-station run
+ * takes roughly the larger of the I/O and CPU time rather than their sum:
+ * <ol>
+ * <li>read: open and inflate each station's file into memory as raw bytes,
+ *     on I/O threads, a few stations at once;</li>
+ * <li>compute: on a fixed pool of CPU threads,
+ *     parse each station's bytes with HourlyTemperatureSeries.parse(),
+ *     checking each row with a (non-rejecting) DDNTemperatureDataValidator,
+ *     then run each scenario for the station with HGTRVHPMModelByHour.runScenario(),
+ *     scenarios in parallel;</li>
+ * <li>collect: on the calling thread, put each result in its place by station and scenario.</li>
+ * </ol>
+ * A station holds one of a fixed number of open slots from the start of its read
+ * until its last scenario is computed,
+ * so at most that many stations' data is held in memory, however many stations there are.
+ * <p>
+ * The unit of work is the whole station, not a chunk of its file.
+ * Parsing is sequential within a file (each row is checked against the one before,
+ * and repeated hours are dropped), and each scenario is a pass over the station's complete series,
+ * so splitting a file would only push the same sequential work into a merge step
+ * and give up running the model code unchanged.
+ * The overlap is therefore between stations:
+ * while the CPU threads parse and compute some stations the I/O threads read the next,
+ * so a single station alone takes its I/O time plus its CPU time.
+ * <p>
+ * Results are bit-for-bit the same as loading each station's series
+ * and calling runScenario() on it, since that is exactly what is done.
+ * <p>
+ * The read stage uses a virtual thread per station where the JVM supports them (JDK 21 onwards),
+ * otherwise ordinary daemon threads; either way mostly blocked in I/O and inflation.
+ */
+public final class StationPipeline
+	{
+	/**Prevent creation of an instance. */
+	private StationPipeline() { }
+
+	/**Default number of stations open (being read, parsed or computed) at once. */
+	public static final int DEFAULT_STATIONS_OPEN = 4;
+
+	/**One scenario to run against each station.
+	 * @param detached  iff true detached house, else bungalow
+	 * @param soft  iff true soft regulation, else stiff
+	 */
+	public record Scenario(boolean detached, boolean soft) { }
+
+	/**All four archetype and regulation scenarios; never null, immutable. */
+	public static final List<Scenario> ALL_SCENARIOS = List.of(
+		new Scenario(false, false), new Scenario(false, true),
+		new Scenario(true, false), new Scenario(true, true));
+
+	/**Results for one station.
+	 * @param station  station; never null
+	 * @param hours  number of hours of data
+	 * @param validation  problems found in the station's data file; never null
+	 * @param cells  result and minimum A-room equilibrium temperature for each scenario, in order; never null, immutable
+	 */
+	public record StationResult(HourlyTemperatureDataDescriptor station, int hours,
+			DDNTemperatureDataValidator.ValidationReport validation, List<ResultCube.Cell> cells)
+		{
+		/**Construct instance. */
+		public StationResult
+			{
+			Objects.requireNonNull(station);
+			Objects.requireNonNull(validation);
+			cells = List.copyOf(cells);
+			}
+		}
+
+	/**Work for the compute stage. */
+	private interface Work { }
+
+	/**One station's raw (inflated) data file, to parse. */
+	private record Raw(int station, HourlyTemperatureDataDescriptor d, byte[] data) implements Work { }
+
+	/**One scenario to compute for one parsed station.
+	 * @param remaining  scenarios of this station not yet computed, shared by its tasks
+	 */
+	private record Task(int station, int scenario, HGTRVHPMModelByHour model,
+			DDNTemperatureDataValidator.ValidationReport validation, AtomicInteger remaining) implements Work { }
+
+	/**Computed result for one scenario of one station. */
+	private record Done(int station, int scenario, int hours,
+			DDNTemperatureDataValidator.ValidationReport validation, ResultCube.Cell cell) { }
+
+	/**Marker in the done queue that some stage has failed. */
+	private static final Done FAILED = new Done(-1, -1, 0, null, null);
+
+	/**Executor for the read stage: a virtual thread per task where supported, else a cached pool of daemon threads; never null.
+	 * Virtual threads are found by reflection so that this still builds and runs on JDK 17.
+	 */
+	static ExecutorService newIOExecutor()
+		{
+		try { return((ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null)); }
+		catch(final ReflectiveOperationException | RuntimeException e) { /* Not available: fall back. */ }
+		return(Executors.newCachedThreadPool(
+			r -> { final Thread t = new Thread(r, "StationPipeline-read"); t.setDaemon(true); return(t); }));
+		}
+
+	/**Run the given scenarios over each station's data file, pipelined; never null, in station order.
+	 *
+	 * @param stations  stations; never null nor empty
+	 * @param dataDir  directory holding the data files; never null
+	 * @param fileTail  data file name after the station name; never null
+	 * @param params  model parameters (the external temperature is replaced hourly); never null
+	 * @param copModel  heat-pump CoP model; never null
+	 * @param baseTemperatureC  temperature (C) at and above which no heat is needed
+	 * @param scenarios  scenarios to run for each station; never null nor empty
+	 * @param cpuThreads  threads in the compute stage, strictly positive
+	 * @param stationsOpen  maximum stations open (being read, parsed or computed) at once, strictly positive
+	 * @throws IOException  in case of missing or corrupt temperature data
+	 */
+	public static List<StationResult> run(final List<HourlyTemperatureDataDescriptor> stations,
+			final File dataDir, final String fileTail,
+			final ModelParameters params, final CoPModel copModel, final double baseTemperatureC,
+			final List<Scenario> scenarios,
+			final int cpuThreads, final int stationsOpen)
+		throws IOException
+		{
+		Objects.requireNonNull(dataDir);
+		Objects.requireNonNull(fileTail);
+		Objects.requireNonNull(params);
+		Objects.requireNonNull(copModel);
+		final List<HourlyTemperatureDataDescriptor> st = List.copyOf(stations);
+		final List<Scenario> sc = List.copyOf(scenarios);
+		if(st.isEmpty() || sc.isEmpty()) { throw new IllegalArgumentException(); }
+		if((cpuThreads < 1) || (stationsOpen < 1)) { throw new IllegalArgumentException(); }
+		if(!Double.isFinite(baseTemperatureC)) { throw new IllegalArgumentException(); }
+
+		// Work is bounded by the open slots, so never blocks the stage feeding it.
+		final BlockingDeque<Work> work = new LinkedBlockingDeque<>();
+		final BlockingQueue<Done> done = new ArrayBlockingQueue<>(2 * cpuThreads);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		final Semaphore open = new Semaphore(stationsOpen);
+
+		final ExecutorService io = newIOExecutor();
+		final ExecutorService cpu = Executors.newFixedThreadPool(cpuThreads,
+			r -> { final Thread t = new Thread(r, "StationPipeline-compute"); t.setDaemon(true); return(t); });
+		try
+			{
+			// Read stage.
+			for(int s = 0; s < st.size(); ++s)
+				{
+				final int station = s;
+				final HourlyTemperatureDataDescriptor d = st.get(s);
+				final File file = new File(dataDir, d.station() + fileTail);
+				io.execute(() -> {
+					try
+						{
+						// Released when the station's last scenario is computed.
+						open.acquire();
+						work.put(new Raw(station, d, read(file)));
+						}
+					catch(final InterruptedException e) { /* Shut down. */ }
+					catch(final Throwable t) { fail(failure, done, t); }
+					});
+				}
+
+			// Compute stage.
+			for(int w = 0; w < cpuThreads; ++w)
+				{
+				cpu.execute(() -> {
+					try
+						{
+						for( ; ; )
+							{
+							final Work item = work.take();
+							if(item instanceof Raw r) { parse(r, params, copModel, baseTemperatureC, sc.size(), work); }
+							else
+								{
+								final Task t = (Task) item;
+								done.put(compute(t, sc));
+								if(0 == t.remaining().decrementAndGet()) { open.release(); }
+								}
+							}
+						}
+					catch(final InterruptedException e) { /* Shut down. */ }
+					catch(final Throwable t) { fail(failure, done, t); }
+					});
+				}
+
+			// Collect stage.
+			return(collect(st, sc, done, failure));
+			}
+		catch(final InterruptedException e)
+			{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted", e);
+			}
+		finally
+			{
+			io.shutdownNow();
+			cpu.shutdownNow();
+			}
+		}
+
+	/**Run the given scenarios over each station's data file, pipelined, with the default base temperature; never null.
+	 * @see #run(List, File, String, ModelParameters, CoPModel, double, List, int, int)
+	 */
+	public static List<StationResult> run(final List<HourlyTemperatureDataDescriptor> stations,
+			final File dataDir, final String fileTail,
+			final ModelParameters params, final CoPModel copModel,
+			final List<Scenario> scenarios,
+			final int cpuThreads, final int stationsOpen)
+		throws IOException
+		{
+		return(run(stations, dataDir, fileTail, params, copModel, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C,
+			scenarios, cpuThreads, stationsOpen));
+		}
+
+	/**Run the given scenarios over each station's data file, pipelined, with default concurrency; never null.
+	 * @see #run(List, File, String, ModelParameters, CoPModel, double, List, int, int)
+	 */
+	public static List<StationResult> run(final List<HourlyTemperatureDataDescriptor> stations,
+			final File dataDir, final String fileTail,
+			final ModelParameters params, final List<Scenario> scenarios)
+		throws IOException
+		{
+		return(run(stations, dataDir, fileTail, params, CoPModel.HG_LINEAR, scenarios,
+			Math.max(1, Runtime.getRuntime().availableProcessors()), DEFAULT_STATIONS_OPEN));
+		}
+
+	/**Record the first failure and wake the collect stage. */
+	private static void fail(final AtomicReference<Throwable> failure, final BlockingQueue<Done> done,
+			final Throwable t)
+		{
+		if(!failure.compareAndSet(null, t)) { return; }
+		// The collect stage keeps draining until it sees this, so the put cannot block forever;
+		// if it has already returned then this stage is interrupted.
+		try { done.put(FAILED); }
+		catch(final InterruptedException e) { Thread.currentThread().interrupt(); }
+		}
+
+	/**Read stage: read (and inflate) one station's whole file; never null.
+	 * @throws IOException  if the file is missing or unreadable
+	 */
+	private static byte[] read(final File file)
+		throws IOException
+		{
+		final PhaseTimings.Span s = PhaseTimings.start(HourlyTemperatureSeries.PHASE_LOAD);
+		try(final InputStream is = DataFileInput.open(file.toPath())) { return(is.readAllBytes()); }
+		finally { s.close(); }
+		}
+
+	/**Parse and validate one station's data and queue a task for each of its scenarios.
+	 * The tasks go on the front of the queue, so that open stations are finished,
+	 * and their slots freed, ahead of parsing more.
+	 *
+	 * @throws IOException  if the data is unparseable or has other than the expected number of records
+	 */
+	private static void parse(final Raw raw,
+			final ModelParameters params, final CoPModel copModel, final double baseTemperatureC,
+			final int scenarios, final BlockingDeque<Work> work)
+		throws IOException
+		{
+		final DDNTemperatureDataValidator validator = new DDNTemperatureDataValidator(false);
+		final HourlyTemperatureSeries t;
+		try(final Reader r = new InputStreamReader(new ByteArrayInputStream(raw.data()), DDNTemperatureDataCSV.TEMPDATACSV_CHARSET))
+			{ t = HourlyTemperatureSeries.parse(r, validator); }
+		if((0 != raw.d().records()) && (raw.d().records() != t.size()))
+			{ throw new IOException("bad record count: " + raw.d().station()); }
+		final HGTRVHPMModelByHour model = new HGTRVHPMModelByHour(params, t, copModel, baseTemperatureC);
+		final DDNTemperatureDataValidator.ValidationReport report = validator.report();
+		final AtomicInteger remaining = new AtomicInteger(scenarios);
+		for(int i = scenarios; --i >= 0; ) { work.addFirst(new Task(raw.station(), i, model, report, remaining)); }
+		}
+
+	/**Run one scenario for one station; never null. */
+	private static Done compute(final Task t, final List<Scenario> scenarios)
+		{
+		final Scenario sc = scenarios.get(t.scenario());
+		final double[] equilibriumTemperatureMin = new double[]{HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C};
+		final ScenarioResult r = t.model().runScenario(sc.detached(), sc.soft(), equilibriumTemperatureMin);
+		return(new Done(t.station(), t.scenario(), t.model().temperatures().size(), t.validation(),
+			new ResultCube.Cell(r, equilibriumTemperatureMin[0])));
+		}
+
+	/**Collect stage: place each result by station and scenario until all are done. */
+	private static List<StationResult> collect(final List<HourlyTemperatureDataDescriptor> stations,
+			final List<Scenario> scenarios, final BlockingQueue<Done> done,
+			final AtomicReference<Throwable> failure)
+		throws IOException, InterruptedException
+		{
+		final ResultCube.Cell[][] cells = new ResultCube.Cell[stations.size()][scenarios.size()];
+		final int[] hours = new int[stations.size()];
+		final DDNTemperatureDataValidator.ValidationReport[] validation =
+			new DDNTemperatureDataValidator.ValidationReport[stations.size()];
+		for(int remaining = stations.size() * scenarios.size(); remaining > 0; --remaining)
+			{
+			final Done d = done.take();
+			if(FAILED == d)
+				{
+				final Throwable t = failure.get();
+				if(t instanceof IOException) { throw (IOException) t; }
+				if(t instanceof RuntimeException) { throw (RuntimeException) t; }
+				if(t instanceof Error) { throw (Error) t; }
+				throw new IOException(t);
+				}
+			cells[d.station()][d.scenario()] = d.cell();
+			hours[d.station()] = d.hours();
+			validation[d.station()] = d.validation();
+			}
+
+		final List<StationResult> results = new ArrayList<>(stations.size());
+		for(int s = 0; s < stations.size(); ++s)
+			{ results.add(new StationResult(stations.get(s), hours[s], validation[s], Arrays.asList(cells[s]))); }
+		return(results);
+		}
+	}
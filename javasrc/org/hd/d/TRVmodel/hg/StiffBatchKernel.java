@@ -0,0 +1,206 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.util.Objects;
+
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Batch evaluation of the stiff-regulation hourly model over arrays of external temperatures; immutable and thread-safe.
+ * Everything that does not depend on the external temperature is computed once on construction,
+ * leaving a short run of arithmetic and two pow() calls per hour, with no per-hour allocation.
+ * <p>
+ * The scalar path gives bit-for-bit the same results as the per-hour model
+ * (computeDetachedDemandW() for each hour below the base temperature),
+ * doing the same arithmetic in the same order,
+ * so HGTRVHPMModelByHour.runScenario() uses it for stiff regulation.
+ * <p>
+ * Optionally, when the JVM is run with <code>--add-modules jdk.incubator.vector</code>
+ * and the optional vector source root (javasrc-vector) has been compiled alongside,
+ * hours can be processed in SIMD lanes with the Vector API,
+ * with a vectorised pow() and the base-temperature cutoff as a lane mask.
+ * That is several times faster per core for long runs and parameter sweeps,
+ * but not bit-for-bit the same as the scalar path:
+ * the vector pow() may differ in the last place and lane sums are added in a different order.
+ * The vector path is only used with the HG linear CoP model;
+ * other CoP models and JVMs without the module fall back to the scalar path.
+ */
+public final class StiffBatchKernel
+	{
+	/**Hours per block for the vector path over a series. */
+	static final int BLOCK_HOURS = 1024;
+
+	/**Vector API path, implemented by StiffBatchKernelVector in the optional vector source root. */
+	interface VectorPath
+		{
+		/**Number of double lanes. */
+		int lanes();
+
+		/**Accumulate hours [start,start+len) of temperatures below the base temperature;
+		 * any tail shorter than a vector goes via the scalar path.
+		 */
+		void accumulate(StiffBatchKernel k, Accumulator a, double[] temperatures, int start, int len, double base);
+		}
+
+	/**Name of the optional vector path class, loaded only by reflection. */
+	private static final String VECTOR_PATH_CLASS = "org.hd.d.TRVmodel.hg.StiffBatchKernelVector";
+
+	/**Vector path if usable, else null. */
+	private static final VectorPath VECTOR_PATH = loadVectorPath();
+
+	/**True if the Vector API is usable, so that run(..., true) may vectorise. */
+	public static final boolean VECTOR_AVAILABLE = (null != VECTOR_PATH);
+
+	/**Load the vector path, or return null if the incubating module or the class is absent or unusable.
+	 * Nothing links to the module unless it is present.
+	 */
+	private static VectorPath loadVectorPath()
+		{
+		if(ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) { return(null); }
+		try
+			{
+			final VectorPath v = (VectorPath) Class.forName(VECTOR_PATH_CLASS).getDeclaredConstructor().newInstance();
+			return((v.lanes() > 1) ? v : null);
+			}
+		catch(final ReflectiveOperationException | LinkageError | ClassCastException e) { return(null); }
+		}
+
+	/**Rooms in the home. */
+	final int numRooms;
+	/**Whole home heat loss per K between inside and out (W/K). */
+	final double homeHeatLossPerK;
+	/**All internal heat losses per A room when B set back (W). */
+	final double internalHeatLossPerA;
+	/**Correction from MW to flow temperature for the CoP (K). */
+	final double coPCorrectionK;
+	/**CoP model; never null. */
+	final CoPModel copModel;
+
+	/**Construct for the given parameters (the external temperature is ignored), archetype and CoP model.
+	 * @param params  model parameters; never null
+	 * @param detached  iff true, 8-room detached house, else 4-room bungalow
+	 * @param copModel  heat-pump CoP model; never null
+	 */
+	public StiffBatchKernel(final ModelParameters params, final boolean detached, final CoPModel copModel)
+		{
+		Objects.requireNonNull(params);
+		Objects.requireNonNull(copModel);
+		numRooms = detached ? 8 : 4;
+		homeHeatLossPerK = HourlyDemandFormulas.homeHeatLossPerK(!detached);
+		internalHeatLossPerA = HGTRVHPMModelParameterised.stiffInternalHeatLossPerA(params, !detached);
+		coPCorrectionK = params.correctCoPForFlowVsMW() ? HGTRVHPMModelParameterised.flowMWDelta_K : 0;
+		this.copModel = copModel;
+		}
+
+	/**Construct for the given parameters (the external temperature is ignored) and archetype with the HG linear CoP.
+	 * @param params  model parameters; never null
+	 * @param detached  iff true, 8-room detached house, else 4-room bungalow
+	 */
+	public StiffBatchKernel(final ModelParameters params, final boolean detached)
+		{ this(params, detached, CoPModel.HG_LINEAR); }
+
+	/**True if run(..., true) will use the vector path. */
+	public boolean isVectorised() { return(VECTOR_AVAILABLE && (CoPModel.HG_LINEAR == copModel)); }
+
+	/**Running totals; not thread-safe. */
+	static final class Accumulator
+		{
+		int hoursSetbackRaisesDemand;
+		double heatDemandNSB;
+		double heatPumpElectricityNSB;
+		double heatDemandSB;
+		double heatPumpElectricitySB;
+
+		/**Means over all hours, including those not needing heat. */
+		ScenarioResult result(final int hourCount)
+			{
+			return(new ScenarioResult(hoursSetbackRaisesDemand / (double) hourCount,
+				new DemandWithoutAndWithSetback(
+	        		new HeatAndElectricityDemand(heatDemandNSB / hourCount, heatPumpElectricityNSB / hourCount),
+	        		new HeatAndElectricityDemand(heatDemandSB / hourCount, heatPumpElectricitySB / hourCount))));
+			}
+		}
+
+	/**Run over an hourly series, as HGTRVHPMModelByHour.runScenario() in stiff mode; never null.
+	 * @param temperatures  hourly temperatures; never null
+	 * @param vector  if true use the vector path where available
+	 */
+	public ScenarioResult run(final HourlyTemperatureSeries temperatures, final boolean vector)
+		{
+		return(run(temperatures.heatingHours(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C),
+			temperatures.size(), vector));
+		}
+
+	/**Run over the heating hours of a series, with means over all its hours; never null.
+	 * Only the heating hours are visited, in time order,
+	 * so the scalar path sums exactly as the per-hour model does.
+	 *
+	 * @param heatingHours  hours needing heat; never null
+	 * @param hourCount  total hours in the series, strictly positive
+	 * @param vector  if true use the vector path where available
+	 */
+	public ScenarioResult run(final HourlyTemperatureSeries.HeatingHours heatingHours, final int hourCount,
+			final boolean vector)
+		{
+		if(hourCount < 1) { throw new IllegalArgumentException(); }
+		final int n = heatingHours.count();
+		final Accumulator a = new Accumulator();
+		if(vector && isVectorised())
+			{
+			final double[] t = new double[Math.min(n, BLOCK_HOURS)];
+			for(int start = 0; start < n; start += BLOCK_HOURS)
+				{
+				final int len = Math.min(BLOCK_HOURS, n - start);
+				heatingHours.getTemperatures(start, t, 0, len);
+				VECTOR_PATH.accumulate(this, a, t, 0, len, heatingHours.baseTemperatureC());
+				}
+			}
+		else
+			{ for(int k = 0; k < n; ++k) { accumulateHeatingHour(a, heatingHours.temperature(k)); } }
+		return(a.result(hourCount));
+		}
+
+	/**Run over an array of hourly temperatures, as HGTRVHPMModelByHour.runScenario() in stiff mode; never null.
+	 * @param temperatures  hourly external temperatures (C); never null nor empty
+	 * @param vector  if true use the vector path where available
+	 */
+	public ScenarioResult run(final double[] temperatures, final boolean vector)
+		{
+		final int n = temperatures.length;
+		if(0 == n) { throw new IllegalArgumentException(); }
+		final Accumulator a = new Accumulator();
+		if(vector && isVectorised())
+			{ VECTOR_PATH.accumulate(this, a, temperatures, 0, n, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C); }
+		else
+			{
+			for(int i = 0; i < n; ++i)
+				{
+				// Assume no heat required above standard HDD base temperature.
+				final double t = temperatures[i];
+				if(t < HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C) { accumulateHeatingHour(a, t); }
+				}
+			}
+		return(a.result(n));
+		}
+
+	/**Accumulate one hour needing heat on the scalar path, exactly as the per-hour model. */
+	void accumulateHeatingHour(final Accumulator a, final double t)
+		{
+		// As computeDetachedDemandW(), sbAMW() and nsbAMW().
+		final double hhlNSB = HourlyDemandFormulas.heatLossW(HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C, t, homeHeatLossPerK);
+		final double hhlSB = HourlyDemandFormulas.heatLossW(HGTRVHPMModel.MEAN_HOME_TEMPERATURE_WITH_SETBACK_C, t, homeHeatLossPerK);
+		final double radWnsb = hhlNSB / numRooms;
+		final double mwSB = HourlyDemandFormulas.meanWaterC(radWnsb + internalHeatLossPerA);
+		final double mwNSB = HourlyDemandFormulas.meanWaterC(radWnsb);
+		final double elNSB = hhlNSB / HourlyDemandFormulas.cop(mwNSB, coPCorrectionK, t, copModel);
+		final double elSB = hhlSB / HourlyDemandFormulas.cop(mwSB, coPCorrectionK, t, copModel);
+
+		a.heatDemandNSB += hhlNSB;
+		a.heatPumpElectricityNSB += elNSB;
+		a.heatDemandSB += hhlSB;
+		a.heatPumpElectricitySB += elSB;
+		if(elSB > elNSB) { ++a.hoursSetbackRaisesDemand; }
+		}
+	}
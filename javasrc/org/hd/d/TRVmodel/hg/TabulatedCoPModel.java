@@ -0,0 +1,224 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.DataFileInput;
+
+/**CoP model from a manufacturer-style table of CoP by flow and source temperature; immutable and thread-safe.
+ * The table may have arbitrary (increasing) flow and source temperature axes;
+ * on construction it is resampled once (bilinearly) onto a uniform grid
+ * spanning the same ranges, so that each lookup is index arithmetic
+ * plus a bilinear interpolation on a flat array, with no searching and few branches.
+ * <p>
+ * Inputs outside the table are clamped to its edges, ie the CoP is not extrapolated.
+ * <p>
+ * The text form is CSV, with blank lines and lines starting with '#' ignored.
+ * The first row has a label then the source temperatures (C);
+ * each following row has a flow temperature (C) then the CoP at each source temperature.
+ * The file may be gzipped.
+ */
+public final class TabulatedCoPModel implements CoPModel
+	{
+	/**Path to the sample air-source heat-pump CoP table, relative to the project root; never null. */
+	public static final File PATH_TO_SAMPLE_COP_TABLE = new File("data/CoP/sample-ASHP-CoP.csv");
+
+	/**Default maximum uniform grid step along the flow temperature axis (K). */
+	public static final double DEFAULT_FLOW_STEP_K = 0.5;
+
+	/**Default maximum uniform grid step along the source temperature axis (K). */
+	public static final double DEFAULT_SOURCE_STEP_K = 0.5;
+
+	/**Maximum number of points in the resampled grid, to bound memory. */
+	public static final int MAX_GRID_POINTS = 1 << 20;
+
+	/**Lowest flow temperature in the grid (C). */
+	private final double flowMinC;
+	/**Lowest source temperature in the grid (C). */
+	private final double sourceMinC;
+	/**Reciprocal of the flow grid step (/K). */
+	private final double flowScale;
+	/**Reciprocal of the source grid step (/K). */
+	private final double sourceScale;
+	/**Number of flow grid points; at least 2. */
+	private final int flowPoints;
+	/**Number of source grid points; at least 2. */
+	private final int sourcePoints;
+	/**CoP at each grid point, flow-major: [(flowIndex * sourcePoints) + sourceIndex]. */
+	private final double[] grid;
+
+	/**Construct from a table, resampling it onto a uniform grid.
+	 * Each axis is divided into equal steps no larger than requested;
+	 * table points fall exactly on the grid where the step divides the spacing.
+	 *
+	 * @param flowC  flow temperatures (C), strictly increasing, at least 2; never null
+	 * @param sourceC  source temperatures (C), strictly increasing, at least 2; never null
+	 * @param cop  CoP by [flow][source], finite and positive; never null
+	 * @param flowStepK  maximum flow grid step (K), finite and positive
+	 * @param sourceStepK  maximum source grid step (K), finite and positive
+	 */
+	public TabulatedCoPModel(final double[] flowC, final double[] sourceC, final double[][] cop,
+			final double flowStepK, final double sourceStepK)
+		{
+		checkAxis(flowC);
+		checkAxis(sourceC);
+		if(cop.length != flowC.length) { throw new IllegalArgumentException("wrong number of flow rows"); }
+		for(final double[] row : cop)
+			{
+			if(row.length != sourceC.length) { throw new IllegalArgumentException("wrong number of source columns"); }
+			for(final double v : row) { if(!(v > 0) || !Double.isFinite(v)) { throw new IllegalArgumentException("bad CoP"); } }
+			}
+		if(!(flowStepK > 0) || !Double.isFinite(flowStepK)) { throw new IllegalArgumentException(); }
+		if(!(sourceStepK > 0) || !Double.isFinite(sourceStepK)) { throw new IllegalArgumentException(); }
+
+		final double flowRangeK = flowC[flowC.length - 1] - flowC[0];
+		final double sourceRangeK = sourceC[sourceC.length - 1] - sourceC[0];
+		// Allow for rounding where the step divides the range exactly.
+		final double fp = 1 + Math.ceil((flowRangeK / flowStepK) - 1e-9);
+		final double sp = 1 + Math.ceil((sourceRangeK / sourceStepK) - 1e-9);
+		if((fp * sp) > MAX_GRID_POINTS) { throw new IllegalArgumentException("grid too large"); }
+		flowPoints = (int) fp;
+		sourcePoints = (int) sp;
+		flowMinC = flowC[0];
+		sourceMinC = sourceC[0];
+		flowScale = (flowPoints - 1) / flowRangeK;
+		sourceScale = (sourcePoints - 1) / sourceRangeK;
+
+		grid = new double[flowPoints * sourcePoints];
+		for(int i = 0; i < flowPoints; ++i)
+			{
+			final double f = (i == flowPoints - 1) ? flowC[flowC.length - 1] : flowMinC + (i / flowScale);
+			final int p = bracket(flowC, f);
+			final double tf = (f - flowC[p]) / (flowC[p+1] - flowC[p]);
+			for(int j = 0; j < sourcePoints; ++j)
+				{
+				final double s = (j == sourcePoints - 1) ? sourceC[sourceC.length - 1] : sourceMinC + (j / sourceScale);
+				final int q = bracket(sourceC, s);
+				final double ts = (s - sourceC[q]) / (sourceC[q+1] - sourceC[q]);
+				final double lo = cop[p][q] + (ts * (cop[p][q+1] - cop[p][q]));
+				final double hi = cop[p+1][q] + (ts * (cop[p+1][q+1] - cop[p+1][q]));
+				grid[(i * sourcePoints) + j] = lo + (tf * (hi - lo));
+				}
+			}
+		}
+
+	/**Construct from a table with the default grid steps.
+	 * @param flowC  flow temperatures (C), strictly increasing, at least 2; never null
+	 * @param sourceC  source temperatures (C), strictly increasing, at least 2; never null
+	 * @param cop  CoP by [flow][source], finite and positive; never null
+	 */
+	public TabulatedCoPModel(final double[] flowC, final double[] sourceC, final double[][] cop)
+		{ this(flowC, sourceC, cop, DEFAULT_FLOW_STEP_K, DEFAULT_SOURCE_STEP_K); }
+
+	/**Reject a null, short, non-finite or non-increasing axis. */
+	private static void checkAxis(final double[] axis)
+		{
+		if(axis.length < 2) { throw new IllegalArgumentException("axis too short"); }
+		for(int i = 0; i < axis.length; ++i)
+			{
+			if(!Double.isFinite(axis[i])) { throw new IllegalArgumentException("bad axis value"); }
+			if((i > 0) && !(axis[i] > axis[i-1])) { throw new IllegalArgumentException("axis not increasing"); }
+			}
+		}
+
+	/**Index p of the table interval [axis[p],axis[p+1]] containing v, which is within the axis range. */
+	private static int bracket(final double[] axis, final double v)
+		{
+		final int i = Arrays.binarySearch(axis, v);
+		final int p = (i >= 0) ? i : (-i - 2);
+		return(Math.max(0, Math.min(axis.length - 2, p)));
+		}
+
+	/**Number of points in the resampled grid along the flow axis. */
+	public int flowPoints() { return(flowPoints); }
+
+	/**Number of points in the resampled grid along the source axis. */
+	public int sourcePoints() { return(sourcePoints); }
+
+	/**Compute the CoP by bilinear interpolation on the uniform grid, clamped to its edges. */
+	@Override
+	public double cop(final double flowC, final double sourceC)
+		{
+		final double x = Math.max(0, Math.min(flowPoints - 1, (flowC - flowMinC) * flowScale));
+		final double y = Math.max(0, Math.min(sourcePoints - 1, (sourceC - sourceMinC) * sourceScale));
+		final int i = Math.min((int) x, flowPoints - 2);
+		final int j = Math.min((int) y, sourcePoints - 2);
+		final double tx = x - i;
+		final double ty = y - j;
+		final int k = (i * sourcePoints) + j;
+		final double lo = grid[k] + (ty * (grid[k+1] - grid[k]));
+		final double hi = grid[k+sourcePoints] + (ty * (grid[k+sourcePoints+1] - grid[k+sourcePoints]));
+		return(lo + (tx * (hi - lo)));
+		}
+
+	/**Parse the text form with the default grid steps; never null.
+	 * @param r  source of the text, not closed by this routine; never null
+	 * @throws IOException  if there is an I/O problem or the table is malformed
+	 */
+	public static TabulatedCoPModel parse(final Reader r)
+		throws IOException
+		{
+		if(null == r) { throw new IllegalArgumentException(); }
+		final BufferedReader br = (r instanceof BufferedReader) ? (BufferedReader)r : new BufferedReader(r);
+		double[] sourceC = null;
+		final List<double[]> rows = new ArrayList<>();
+		String line;
+		while(null != (line = br.readLine()))
+			{
+			final String s = line.trim();
+			if(s.isEmpty() || s.startsWith("#")) { continue; }
+			final String fields[] = s.split(",");
+			try
+				{
+				if(null == sourceC)
+					{
+					sourceC = new double[fields.length - 1];
+					for(int j = 1; j < fields.length; ++j) { sourceC[j-1] = Double.parseDouble(fields[j].trim()); }
+					continue;
+					}
+				if(fields.length != 1 + sourceC.length) { throw new IOException("wrong number of fields: " + line); }
+				final double row[] = new double[fields.length];
+				for(int j = 0; j < fields.length; ++j) { row[j] = Double.parseDouble(fields[j].trim()); }
+				rows.add(row);
+				}
+			catch(final NumberFormatException e) { throw new IOException("bad number: " + line, e); }
+			}
+		if((null == sourceC) || rows.isEmpty()) { throw new IOException("no table"); }
+
+		final double flowC[] = new double[rows.size()];
+		final double cop[][] = new double[rows.size()][];
+		for(int i = 0; i < flowC.length; ++i)
+			{
+			flowC[i] = rows.get(i)[0];
+			cop[i] = Arrays.copyOfRange(rows.get(i), 1, 1 + sourceC.length);
+			}
+		try { return(new TabulatedCoPModel(flowC, sourceC, cop)); }
+		catch(final IllegalArgumentException e) { throw new IOException("bad table: " + e.getMessage(), e); }
+		}
+
+	/**Load the text form from a (possibly gzipped) file with the default grid steps; never null.
+	 * @param file  file to read; never null
+	 * @throws IOException  if the file is not present or unreadable, or the table is malformed
+	 */
+	public static TabulatedCoPModel load(final File file)
+		throws IOException
+		{
+		if(null == file) { throw new IllegalArgumentException(); }
+		try(final Reader r = new InputStreamReader(DataFileInput.open(file.toPath()), StandardCharsets.US_ASCII))
+			{ return(parse(r)); }
+		}
+
+	/**Load the sample air-source heat-pump table; never null.
+	 * @throws IOException  if the sample table is missing or malformed
+	 */
+	public static TabulatedCoPModel loadSample()
+		throws IOException
+		{ return(load(PATH_TO_SAMPLE_COP_TABLE)); }
+	}
@@ -0,0 +1,262 @@
+package org.hd.d.TRVmodel.hg;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.ToDoubleFunction;
+
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+/**Weighted aggregation of hourly model demand across many stations, aligned on UTC hour.
+ * Each station's scenario is run against its own temperature data,
+ * and its hourly demand, multiplied by the station's weight
+ * (eg households in the conurbation), is added into national (or regional) hourly sums.
+ * <p>
+ * Stations are loaded and run in parallel as a streaming reduction:
+ * each worker adds stations one at a time into its own hourly accumulators,
+ * which are merged at the end,
+ * so memory depends on the time span and the parallelism but not on the number of stations,
+ * and each station's data can be discarded as soon as it has been added.
+ * <p>
+ * For regional totals, aggregate the subset of stations in each region.
+ */
+public final class WeightedStationAggregator
+	{
+	/**Prevent creation of an instance. */
+	private WeightedStationAggregator() { }
+
+	/**Maximum span of hours aggregated, about 240 years. */
+	public static final int MAX_HOURS = 1 << 21;
+
+	/**Quantities aggregated, as mean power (W) in each hour. */
+	public enum Quantity
+		{
+		/**Heat demand without setback (W). */
+		HEAT_NO_SETBACK,
+		/**Heat-pump electricity demand without setback (W). */
+		ELECTRICITY_NO_SETBACK,
+		/**Heat demand with B rooms set back (W). */
+		HEAT_WITH_SETBACK,
+		/**Heat-pump electricity demand with B rooms set back (W). */
+		ELECTRICITY_WITH_SETBACK;
+		}
+
+	/**Loads the temperature series for a station. */
+	@FunctionalInterface
+	public interface SeriesLoader
+		{
+		/**Load the series for the given station; never null.
+		 * @throws IOException  if the data is missing or corrupt
+		 */
+		HourlyTemperatureSeries load(HourlyTemperatureDataDescriptor station) throws IOException;
+		}
+
+	/**Loader for (possibly gzipped) CSV files named station + fileTail in the given directory,
+	 * checking the record count where the descriptor gives one; never null.
+	 */
+	public static SeriesLoader fromDirectory(final File dir, final String fileTail)
+		{
+		Objects.requireNonNull(dir);
+		Objects.requireNonNull(fileTail);
+		return(htdd -> {
+			final HourlyTemperatureSeries s = HourlyTemperatureSeries.load(new File(dir, htdd.station() + fileTail));
+			if((0 != htdd.records()) && (htdd.records() != s.size())) { throw new IOException("bad record count"); }
+			return(s);
+			});
+		}
+
+	/**Weighted hourly sums over a span of UTC hours; immutable and thread-safe.
+	 * Hours with no data from any station have zero weight.
+	 */
+	public static final class Result
+		{
+		/**UTC epoch hour of index 0. */
+		private final long firstEpochHourUTC;
+		/**Number of stations with non-zero weight aggregated. */
+		private final int stations;
+		/**Sum of station weights. */
+		private final double totalWeight;
+		/**Sum of weights of stations with data, by hour. */
+		private final double[] weight;
+		/**Weighted sums by quantity then hour. */
+		private final double[][] sums;
+
+		/**Construct from arrays which are not copied. */
+		private Result(final long firstEpochHourUTC, final int stations, final double totalWeight,
+				final double[] weight, final double[][] sums)
+			{
+			this.firstEpochHourUTC = firstEpochHourUTC;
+			this.stations = stations;
+			this.totalWeight = totalWeight;
+			this.weight = weight;
+			this.sums = sums;
+			}
+
+		/**UTC epoch hour of hour index 0. */
+		public long firstEpochHourUTC() { return(firstEpochHourUTC); }
+
+		/**Number of hours spanned; strictly positive. */
+		public int hours() { return(weight.length); }
+
+		/**Number of stations (with non-zero weight) aggregated; strictly positive. */
+		public int stations() { return(stations); }
+
+		/**Sum of the weights of all stations aggregated; strictly positive. */
+		public double totalWeight() { return(totalWeight); }
+
+		/**Sum of the weights of stations with data in the given hour.
+		 * @param h  hour index [0,hours())
+		 */
+		public double weight(final int h) { return(weight[h]); }
+
+		/**Weighted sum of the quantity in the given hour, eg total W across all households.
+		 * @param h  hour index [0,hours())
+		 */
+		public double sum(final Quantity q, final int h) { return(sums[q.ordinal()][h]); }
+
+		/**Weighted mean of the quantity across stations with data in the given hour, eg W per household; NaN if none.
+		 * @param h  hour index [0,hours())
+		 */
+		public double mean(final Quantity q, final int h) { return(sums[q.ordinal()][h] / weight[h]); }
+
+		/**Weighted mean of the quantity over all station-hours with data, eg mean W per household. */
+		public double overallMean(final Quantity q)
+			{
+			double s = 0, w = 0;
+			final double[] qs = sums[q.ordinal()];
+			for(int h = 0; h < qs.length; ++h) { s += qs[h]; w += weight[h]; }
+			return(s / w);
+			}
+		}
+
+	/**Partial weighted sums over a growable span of hours; not thread-safe. */
+	private static final class Partial
+		{
+		/**UTC epoch hour of index 0; only valid if length > 0. */
+		long base;
+		/**Hours currently spanned. */
+		int length;
+		double[] weight = new double[0];
+		final double[][] sums = new double[Quantity.values().length][0];
+		int stations;
+		double totalWeight;
+
+		/**Copy into a larger zeroed array at the given offset. */
+		private static double[] grow(final double[] a, final int offset, final int length)
+			{
+			final double[] b = new double[length];
+			System.arraycopy(a, 0, b, offset, a.length);
+			return(b);
+			}
+
+		/**Grow to cover UTC hours [first,last]. */
+		void cover(final long first, final long last)
+			{
+			final long newBase = (0 == length) ? first : Math.min(base, first);
+			final long newEnd = (0 == length) ? (last + 1) : Math.max(base + length, last + 1);
+			if((0 != length) && (newBase == base) && (newEnd == base + length)) { return; }
+			if(newEnd - newBase > MAX_HOURS) { throw new IllegalArgumentException("span too long"); }
+			final int offset = (0 == length) ? 0 : (int) (base - newBase);
+			final int newLength = (int) (newEnd - newBase);
+			weight = grow(weight, offset, newLength);
+			for(int q = 0; q < sums.length; ++q) { sums[q] = grow(sums[q], offset, newLength); }
+			base = newBase;
+			length = newLength;
+			}
+
+		/**Run one station's scenario and add its weighted hourly demand. */
+		void add(final HourlyTemperatureSeries s, final double w, final ModelParameters params,
+				final boolean detached, final boolean soft)
+			{
+			cover(s.epochHourUTC(0), s.epochHourUTC(s.size() - 1));
+			final int n = s.size();
+			for(int i = 0; i < n; ++i) { weight[(int) (s.epochHourUTC(i) - base)] += w; }
+			final double[] hNSB = sums[Quantity.HEAT_NO_SETBACK.ordinal()];
+			final double[] eNSB = sums[Quantity.ELECTRICITY_NO_SETBACK.ordinal()];
+			final double[] hSB = sums[Quantity.HEAT_WITH_SETBACK.ordinal()];
+			final double[] eSB = sums[Quantity.ELECTRICITY_WITH_SETBACK.ordinal()];
+			new HGTRVHPMModelByHour(params, s).forEachHeatingHour(detached, soft, (i, d) -> {
+				final int h = (int) (s.epochHourUTC(i) - base);
+				hNSB[h] += w * d.noSetback().heatDemand();
+				eNSB[h] += w * d.noSetback().heatPumpElectricity();
+				hSB[h] += w * d.withSetback().heatDemand();
+				eSB[h] += w * d.withSetback().heatPumpElectricity();
+				});
+			++stations;
+			totalWeight += w;
+			}
+
+		/**Add another partial into this one. */
+		void merge(final Partial other)
+			{
+			if(0 == other.length) { return; }
+			cover(other.base, other.base + other.length - 1);
+			final int offset = (int) (other.base - base);
+			for(int h = 0; h < other.length; ++h) { weight[offset + h] += other.weight[h]; }
+			for(int q = 0; q < sums.length; ++q)
+				{ for(int h = 0; h < other.length; ++h) { sums[q][offset + h] += other.sums[q][h]; } }
+			stations += other.stations;
+			totalWeight += other.totalWeight;
+			}
+		}
+
+	/**Run a scenario over many stations in parallel and aggregate weighted hourly demand; never null.
+	 * Stations with zero weight are skipped without being loaded.
+	 *
+	 * @param stations  stations to aggregate; never null
+	 * @param loader  loads each station's temperature series; never null
+	 * @param weights  weight of each station, finite and non-negative, eg households; never null
+	 * @param params  model parameters (the external temperature is replaced hourly); never null
+	 * @param detached  iff true model detached house, else bungalow
+	 * @param soft  iff true soft regulation, else stiff
+	 * @throws IOException  if any station's data is missing or corrupt
+	 * @throws IllegalArgumentException  if a weight is bad, no station has non-zero weight,
+	 *     or the stations together span too many hours
+	 */
+	public static Result aggregate(final List<HourlyTemperatureDataDescriptor> stations,
+			final SeriesLoader loader,
+			final ToDoubleFunction<HourlyTemperatureDataDescriptor> weights,
+			final ModelParameters params,
+			final boolean detached,
+			final boolean soft)
+		throws IOException
+		{
+		Objects.requireNonNull(loader);
+		Objects.requireNonNull(weights);
+		Objects.requireNonNull(params);
+		final Partial p;
+		try
+			{
+			p = stations.parallelStream().collect(Partial::new, (acc, htdd) -> {
+				final double w = weights.applyAsDouble(htdd);
+				if(!Double.isFinite(w) || (w < 0)) { throw new IllegalArgumentException("bad weight for " + htdd.station()); }
+				if(0 == w) { return; }
+				try { acc.add(loader.load(htdd), w, params, detached, soft); }
+				catch(final IOException e) { throw new UncheckedIOException(e); }
+				}, Partial::merge);
+			}
+		catch(final UncheckedIOException e) { throw e.getCause(); }
+		if(0 == p.stations) { throw new IllegalArgumentException("no weighted stations"); }
+		return(new Result(p.base, p.stations, p.totalWeight, p.weight, p.sums));
+		}
+
+	/**Run a scenario over many stations in parallel and aggregate demand weighted by households; never null.
+	 * Each descriptor's households must be set by the caller:
+	 * stations with households unknown (0) are skipped,
+	 * so this rejects eg the shipped DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET,
+	 * for which weights must be supplied explicitly.
+	 *
+	 * @see #aggregate(List, SeriesLoader, ToDoubleFunction, ModelParameters, boolean, boolean)
+	 */
+	public static Result aggregate(final List<HourlyTemperatureDataDescriptor> stations,
+			final SeriesLoader loader,
+			final ModelParameters params,
+			final boolean detached,
+			final boolean soft)
+		throws IOException
+		{ return(aggregate(stations, loader, HourlyTemperatureDataDescriptor::households, params, detached, soft)); }
+	}
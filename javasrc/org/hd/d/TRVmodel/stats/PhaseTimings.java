@@ -0,0 +1,281 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package org.hd.d.TRVmodel.stats;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**Process-wide per-phase timing, for a breakdown of where a run's time and allocation go.
+ * Disabled by default, when spans cost only a check of a volatile flag.
+ * <p>
+ * Each phase, eg "parse" or "compute.stiff.bungalow", accumulates
+ * the count of spans, their total elapsed (nanoTime) time,
+ * the bytes allocated by the thread running each span (where the JVM supports it),
+ * and any hours of temperature data processed.
+ * <p>
+ * Spans may run concurrently on several threads, so totals may exceed wall-clock time,
+ * and may nest (eg a whole command around its phases), so totals are not additive across phases.
+ * Allocation by helper threads, eg gzip inflation, is not attributed to the span waiting for them.
+ * <p>
+ * Thread-safe.
+ */
+public final class PhaseTimings
+	{
+	/**Prevent creation of an instance. */
+	private PhaseTimings() { }
+
+	/**True once enabled. */
+	private static volatile boolean enabled;
+
+	/**Thread bean if per-thread allocation counts are supported and enabled, else null. */
+	private static volatile com.sun.management.ThreadMXBean allocationBean;
+
+	/**Order in which phases were first seen. */
+	private static final AtomicInteger nextOrder = new AtomicInteger();
+
+	/**Running totals for one phase. */
+	private static final class Totals
+		{
+		final int order = nextOrder.getAndIncrement();
+		final LongAdder count = new LongAdder();
+		final LongAdder nanos = new LongAdder();
+		final LongAdder bytes = new LongAdder();
+		final LongAdder hours = new LongAdder();
+		}
+
+	/**Totals by phase name. */
+	private static final Map<String, Totals> totals = new ConcurrentHashMap<>();
+
+	/**Enable timing (and per-thread allocation counting if available) from now on. */
+	public static void enable()
+		{
+		final ThreadMXBean t = ManagementFactory.getThreadMXBean();
+		if((t instanceof com.sun.management.ThreadMXBean) &&
+				((com.sun.management.ThreadMXBean) t).isThreadAllocatedMemorySupported())
+			{
+			final com.sun.management.ThreadMXBean st = (com.sun.management.ThreadMXBean) t;
+			st.setThreadAllocatedMemoryEnabled(true);
+			allocationBean = st;
+			}
+		enabled = true;
+		}
+
+	/**True if timing is enabled. */
+	public static boolean isEnabled() { return(enabled); }
+
+	/**True if allocated bytes are being counted. */
+	public static boolean isAllocationCounted() { return(null != allocationBean); }
+
+	/**Discard all totals so far. */
+	public static void reset() { totals.clear(); }
+
+	/**Bytes allocated so far by the current thread, or 0 if not counted. */
+	public static long currentThreadAllocatedBytes()
+		{
+		final com.sun.management.ThreadMXBean b = allocationBean;
+		return((null == b) ? 0 : b.getCurrentThreadAllocatedBytes());
+		}
+
+	/**Add to the totals for a phase directly, eg from a local accumulation over many rows; ignored if disabled.
+	 * @param phase  phase name; never null
+	 * @param count  number of spans
+	 * @param nanos  elapsed time (ns)
+	 * @param bytes  bytes allocated
+	 * @param hours  hours of data processed
+	 */
+	public static void add(final String phase, final long count, final long nanos, final long bytes, final long hours)
+		{
+		if(!enabled) { return; }
+		final Totals t = totals.computeIfAbsent(phase, k -> new Totals());
+		t.count.add(count);
+		t.nanos.add(nanos);
+		t.bytes.add(bytes);
+		t.hours.add(hours);
+		}
+
+	/**A timed span of one phase on one thread; use with try-with-resources. */
+	public static class Span implements AutoCloseable
+		{
+		private final String phase;
+		private final long startNanos;
+		private final long startBytes;
+		private long hours;
+
+		/**Start a span. */
+		Span(final String phase, final long startNanos, final long startBytes)
+			{
+			this.phase = phase;
+			this.startNanos = startNanos;
+			this.startBytes = startBytes;
+			}
+
+		/**Record hours of data processed in this span; returns this. */
+		public Span hours(final long h) { hours += h; return(this); }
+
+		/**End the span, adding it to its phase's totals. */
+		@Override public void close()
+			{ add(phase, 1, System.nanoTime() - startNanos, currentThreadAllocatedBytes() - startBytes, hours); }
+		}
+
+	/**Span returned when disabled: does nothing. */
+	private static final Span NOOP = new Span("", 0, 0)
+		{
+		@Override public Span hours(final long h) { return(this); }
+		@Override public void close() { }
+		};
+
+	/**Start a span of the given phase on the current thread; never null.
+	 * @param phase  phase name; never null
+	 */
+	public static Span start(final String phase)
+		{
+		if(!enabled) { return(NOOP); }
+		return(new Span(phase, System.nanoTime(), currentThreadAllocatedBytes()));
+		}
+
+	/**Attributes successive intervals on one thread to a small set of phases, eg within a per-row loop; not thread-safe.
+	 * Each call of lap() charges the time and allocation since the previous lap (or creation) to the given phase,
+	 * and close() adds one span per phase to the totals.
+	 */
+	public static final class Laps implements AutoCloseable
+		{
+		private final String[] phases;
+		private final long[] nanos;
+		private final long[] bytes;
+		private final long[] hours;
+		private long lastNanos;
+		private long lastBytes;
+
+		/**Start laps for the given phases. */
+		Laps(final String[] phases)
+			{
+			this.phases = phases;
+			nanos = new long[phases.length];
+			bytes = new long[phases.length];
+			hours = new long[phases.length];
+			lastNanos = System.nanoTime();
+			lastBytes = currentThreadAllocatedBytes();
+			}
+
+		/**Charge the interval since the previous lap to phase i. */
+		public void lap(final int i)
+			{
+			final long n = System.nanoTime();
+			final long b = currentThreadAllocatedBytes();
+			nanos[i] += n - lastNanos;
+			bytes[i] += b - lastBytes;
+			lastNanos = n;
+			lastBytes = b;
+			}
+
+		/**Record hours of data processed in phase i. */
+		public void hours(final int i, final long h) { hours[i] += h; }
+
+		/**Add each phase's accumulated interval to the totals, omitting phases never charged. */
+		@Override public void close()
+			{
+			for(int i = 0; i < phases.length; ++i)
+				{
+				if((0 == nanos[i]) && (0 == hours[i])) { continue; }
+				add(phases[i], 1, nanos[i], bytes[i], hours[i]);
+				}
+			}
+		}
+
+	/**Start laps over the given phases on the current thread, or return null if disabled.
+	 * A null return lets per-row instrumentation be skipped with a single test.
+	 *
+	 * @param phases  phase names, indexed by lap(); never null
+	 */
+	public static Laps laps(final String... phases)
+		{ return(enabled ? new Laps(phases.clone()) : null); }
+
+	/**Totals for one phase.
+	 * @param phase  phase name; never null
+	 * @param count  number of spans
+	 * @param nanos  total elapsed time (ns)
+	 * @param allocatedBytes  total bytes allocated, or 0 if not counted
+	 * @param hours  total hours of data processed
+	 */
+	public record PhaseTotal(String phase, long count, long nanos, long allocatedBytes, long hours)
+		{
+		/**Hours of data processed per second of elapsed time, or 0 if none. */
+		public double hoursPerSecond() { return(((0 == hours) || (0 == nanos)) ? 0 : (hours / (nanos / 1e9))); }
+		}
+
+	/**Snapshot of totals in the order phases were first seen; never null. */
+	public static List<PhaseTotal> snapshot()
+		{
+		final List<Map.Entry<String, Totals>> l = new ArrayList<>(totals.entrySet());
+		l.sort(Comparator.comparingInt(e -> e.getValue().order));
+		final List<PhaseTotal> result = new ArrayList<>(l.size());
+		for(final Map.Entry<String, Totals> e : l)
+			{
+			final Totals t = e.getValue();
+			result.add(new PhaseTotal(e.getKey(), t.count.sum(), t.nanos.sum(), t.bytes.sum(), t.hours.sum()));
+			}
+		return(result);
+		}
+
+	/**Write a human-readable breakdown, one line per phase.
+	 * @param out  destination; never null
+	 * @throws IOException  if out throws
+	 */
+	public static void writeReport(final Appendable out) throws IOException
+		{
+		out.append(String.format("%-28s %8s %12s %12s %12s %14s%n", "phase", "count", "ms", "allocMB", "hours", "hours/s"));
+		for(final PhaseTotal p : snapshot())
+			{
+			out.append(String.format("%-28s %8d %12.1f %12s %12d %14.0f%n",
+				p.phase(), p.count(), p.nanos() / 1e6,
+				isAllocationCounted() ? String.format("%.1f", p.allocatedBytes() / 1e6) : "-",
+				p.hours(), p.hoursPerSecond()));
+			}
+		}
+
+	/**Write the breakdown as a single JSON object, eg for comparison between CI runs.
+	 * Phase names are expected to be simple ASCII identifiers and are not escaped.
+	 *
+	 * @param out  destination; never null
+	 * @throws IOException  if out throws
+	 */
+	public static void writeJSON(final Appendable out) throws IOException
+		{
+		out.append("{\"allocationCounted\":").append(Boolean.toString(isAllocationCounted())).append(",\"phases\":[");
+		boolean first = true;
+		for(final PhaseTotal p : snapshot())
+			{
+			if(!first) { out.append(','); }
+			first = false;
+			out.append("\n {\"phase\":\"").append(p.phase())
+				.append("\",\"count\":").append(Long.toString(p.count()))
+				.append(",\"nanos\":").append(Long.toString(p.nanos()))
+				.append(",\"allocatedBytes\":").append(Long.toString(p.allocatedBytes()))
+				.append(",\"hours\":").append(Long.toString(p.hours()))
+				.append(",\"hoursPerSecond\":").append(Long.toString(Math.round(p.hoursPerSecond())))
+				.append('}');
+			}
+		out.append("\n]}\n");
+		}
+	}
@@ -0,0 +1,215 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.stats;
+
+import java.util.Arrays;
+
+/**Mergeable streaming quantile sketch with guaranteed relative accuracy, in the style of DDSketch.
+ * Each value is counted in a logarithmically-sized bucket, so that any quantile returned
+ * is within the given relative accuracy of a value actually at that rank.
+ * Space depends only on the range of magnitudes seen, not on the number of values,
+ * eg about 2300 buckets for values spanning 1e-6 to 1e4 at 0.5% accuracy.
+ * <p>
+ * Bucket counts are integers so merging is exact and order-independent.
+ * Values with magnitude below MIN_MAGNITUDE are counted as zero.
+ * <p>
+ * Not thread-safe: use one instance per task and merge.
+ */
+public final class QuantileSketch
+	{
+	/**Smallest non-zero magnitude distinguished from zero. */
+	public static final double MIN_MAGNITUDE = 1e-12;
+
+	/**Default relative accuracy. */
+	public static final double DEFAULT_RELATIVE_ACCURACY = 0.005;
+
+	private final double relativeAccuracy;
+	private final double gamma;
+	private final double logGamma;
+
+	/**Dense run of bucket counts starting at some (possibly negative) bucket index. */
+	private static final class Store
+		{
+		long[] counts = new long[0];
+		int offset;
+		long total;
+
+		void add(final int index, final long n)
+			{
+			if(0 == counts.length)
+				{
+				counts = new long[16];
+				offset = index - 8;
+				}
+			else if((index < offset) || (index >= offset + counts.length))
+				{
+				final int lo = Math.min(offset, index);
+				final int hi = Math.max(offset + counts.length, index + 1);
+				final int newLength = Math.max(hi - lo, 2 * counts.length);
+				final int newOffset = (index < offset) ? (hi - newLength) : lo;
+				final long[] c = new long[newLength];
+				System.arraycopy(counts, 0, c, offset - newOffset, counts.length);
+				counts = c;
+				offset = newOffset;
+				}
+			counts[index - offset] += n;
+			total += n;
+			}
+
+		void merge(final Store other)
+			{
+			for(int i = 0; i < other.counts.length; ++i)
+				{ if(0 != other.counts[i]) { add(other.offset + i, other.counts[i]); } }
+			}
+		}
+
+	private final Store positive = new Store();
+	private final Store negative = new Store();
+	private long zeroCount;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**Create a sketch with the default relative accuracy. */
+	public QuantileSketch() { this(DEFAULT_RELATIVE_ACCURACY); }
+
+	/**Create a sketch.
+	 * @param relativeAccuracy  relative accuracy of quantiles, in range (0,1), eg 0.01 for 1%
+	 */
+	public QuantileSketch(final double relativeAccuracy)
+		{
+		if(!(relativeAccuracy > 0) || !(relativeAccuracy < 1)) { throw new IllegalArgumentException(); }
+		this.relativeAccuracy = relativeAccuracy;
+		gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+		logGamma = Math.log(gamma);
+		}
+
+	/**Relative accuracy of quantiles. */
+	public double relativeAccuracy() { return(relativeAccuracy); }
+
+	/**Bucket index for a magnitude at least MIN_MAGNITUDE. */
+	private int index(final double magnitude) { return((int) Math.ceil(Math.log(magnitude) / logGamma)); }
+
+	/**Representative magnitude for a bucket index, within relativeAccuracy of all values in the bucket. */
+	private double value(final int index) { return(2 * Math.pow(gamma, index) / (gamma + 1)); }
+
+	/**Add one value.
+	 * @param x  value; finite
+	 */
+	public void accept(final double x)
+		{
+		if(!Double.isFinite(x)) { throw new IllegalArgumentException(); }
+		if(x >= MIN_MAGNITUDE) { positive.add(index(x), 1); }
+		else if(x <= -MIN_MAGNITUDE) { negative.add(index(-x), 1); }
+		else { ++zeroCount; }
+		if(x < min) { min = x; }
+		if(x > max) { max = x; }
+		}
+
+	/**Merge in all the values from another sketch, which is not altered.
+	 * @param other  other sketch with the same relative accuracy; never null
+	 */
+	public void merge(final QuantileSketch other)
+		{
+		if(other.relativeAccuracy != relativeAccuracy) { throw new IllegalArgumentException("mismatched accuracy"); }
+		positive.merge(other.positive);
+		negative.merge(other.negative);
+		zeroCount += other.zeroCount;
+		if(other.min < min) { min = other.min; }
+		if(other.max > max) { max = other.max; }
+		}
+
+	/**Number of values. */
+	public long count() { return(positive.total + negative.total + zeroCount); }
+
+	/**Smallest value (exact), or +infinity if no values. */
+	public double min() { return(min); }
+
+	/**Largest value (exact), or -infinity if no values. */
+	public double max() { return(max); }
+
+	/**Estimate a quantile.
+	 * @param q  quantile in range [0,1], eg 0.5 for the median
+	 * @return value within the relative accuracy of a value at that rank,
+	 *     exact for 0 and 1, or NaN if no values
+	 */
+	public double quantile(final double q)
+		{
+		if(!(q >= 0) || !(q <= 1)) { throw new IllegalArgumentException(); }
+		final long n = count();
+		if(0 == n) { return(Double.NaN); }
+		// The extremes are held exactly.
+		if(0 == q) { return(min); }
+		if(1 == q) { return(max); }
+		final double rank = q * (n - 1);
+		long seen = 0;
+		double result = Double.NaN;
+		// Most negative (largest magnitude) first.
+		for(int i = negative.counts.length; --i >= 0; )
+			{
+			seen += negative.counts[i];
+			if(seen > rank) { result = -value(negative.offset + i); break; }
+			}
+		if(Double.isNaN(result))
+			{
+			seen += zeroCount;
+			if(seen > rank) { result = 0; }
+			}
+		if(Double.isNaN(result))
+			{
+			for(int i = 0; i < positive.counts.length; ++i)
+				{
+				seen += positive.counts[i];
+				if(seen > rank) { result = value(positive.offset + i); break; }
+				}
+			}
+		if(Double.isNaN(result)) { result = max; } // Guard against rounding in rank.
+		return(Math.max(min, Math.min(max, result)));
+		}
+
+	/**Number of buckets allocated; for monitoring space use. */
+	public int bucketCount() { return(positive.counts.length + negative.counts.length); }
+
+	/**Short human-readable summary; not null. */
+	@Override
+	public String toString()
+		{
+		return("QuantileSketch[n=" + count() + ", p5=" + quantile(0.05) + ", p50=" + quantile(0.5) + ", p95=" + quantile(0.95) +
+			", buckets=" + bucketCount() + "]");
+		}
+
+	/**Equality of content (for checking reproducibility). */
+	public boolean sameContentAs(final QuantileSketch other)
+		{
+		if(this == other) { return(true); }
+		if((null == other) || (relativeAccuracy != other.relativeAccuracy) || (zeroCount != other.zeroCount)) { return(false); }
+		return(sameStoreContent(positive, other.positive) && sameStoreContent(negative, other.negative) &&
+			(Double.compare(min, other.min) == 0) && (Double.compare(max, other.max) == 0));
+		}
+
+	/**True if two stores have the same non-zero buckets. */
+	private static boolean sameStoreContent(final Store a, final Store b)
+		{
+		if(a.total != b.total) { return(false); }
+		if(0 == a.total) { return(true); }
+		int aLo = 0; while(0 == a.counts[aLo]) { ++aLo; }
+		int bLo = 0; while(0 == b.counts[bLo]) { ++bLo; }
+		int aHi = a.counts.length; while(0 == a.counts[aHi-1]) { --aHi; }
+		int bHi = b.counts.length; while(0 == b.counts[bHi-1]) { --bHi; }
+		return(((a.offset + aLo) == (b.offset + bLo)) &&
+			Arrays.equals(a.counts, aLo, aHi, b.counts, bLo, bHi));
+		}
+	}
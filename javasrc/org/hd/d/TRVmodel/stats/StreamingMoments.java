@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package org.hd.d.TRVmodel.stats;
+
+/**Streaming count, mean, variance, minimum and maximum of a series of values, in constant space.
+ * Uses Welford's update for each value, and Chan et al's pairwise combination to merge,
+ * both numerically stable.
+ * <p>
+ * Merging in a fixed order gives bit-identical results however the values were partitioned for computation,
+ * so long as each partition is fed the same values in the same order.
+ * <p>
+ * Not thread-safe: use one instance per task and merge.
+ */
+public final class StreamingMoments
+	{
+	private long count;
+	private double mean;
+	/**Sum of squared differences from the mean. */
+	private double m2;
+	private double min = Double.POSITIVE_INFINITY;
+	private double max = Double.NEGATIVE_INFINITY;
+
+	/**Add one value.
+	 * @param x  value; finite
+	 */
+	public void accept(final double x)
+		{
+		if(!Double.isFinite(x)) { throw new IllegalArgumentException(); }
+		++count;
+		final double delta = x - mean;
+		mean += delta / count;
+		m2 += delta * (x - mean);
+		if(x < min) { min = x; }
+		if(x > max) { max = x; }
+		}
+
+	/**Merge in all the values from another instance, which is not altered.
+	 * @param other  other instance; never null
+	 */
+	public void merge(final StreamingMoments other)
+		{
+		if(0 == other.count) { return; }
+		if(0 == count)
+			{
+			count = other.count; mean = other.mean; m2 = other.m2; min = other.min; max = other.max;
+			return;
+			}
+		final long n = count + other.count;
+		final double delta = other.mean - mean;
+		mean += delta * ((double) other.count / n);
+		m2 += other.m2 + (delta * delta * ((double) count * other.count / n));
+		count = n;
+		if(other.min < min) { min = other.min; }
+		if(other.max > max) { max = other.max; }
+		}
+
+	/**Number of values. */
+	public long count() { return(count); }
+
+	/**Mean, or NaN if no values. */
+	public double mean() { return((0 == count) ? Double.NaN : mean); }
+
+	/**Sample (n-1) variance, or NaN if fewer than two values. */
+	public double variance() { return((count < 2) ? Double.NaN : (m2 / (count - 1))); }
+
+	/**Sample standard deviation, or NaN if fewer than two values. */
+	public double standardDeviation() { return(Math.sqrt(variance())); }
+
+	/**Standard error of the mean, or NaN if fewer than two values. */
+	public double standardError() { return(Math.sqrt(variance() / count)); }
+
+	/**Smallest value, or +infinity if no values. */
+	public double min() { return(min); }
+
+	/**Largest value, or -infinity if no values. */
+	public double max() { return(max); }
+
+	/**Short human-readable summary; not null. */
+	@Override
+	public String toString()
+		{ return("StreamingMoments[n=" + count + ", mean=" + mean() + ", sd=" + standardDeviation() + ", min=" + min + ", max=" + max + "]"); }
+	}
@@ -0,0 +1,177 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.ColumnarFile;
+import org.hd.d.TRVmodel.data.ColumnarFile.Column;
+import org.hd.d.TRVmodel.data.ColumnarFile.Type;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.ColumnarResults;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+import junit.framework.TestCase;
+
+/**Test the columnar binary result file format. */
+public final class TestColumnarFile extends TestCase
+    {
+    private static final List<Column> SCHEMA = List.of(
+		new Column("hour", Type.LONG), new Column("t", Type.DOUBLE), new Column("flag", Type.INT));
+
+    /**Write rows across several blocks. */
+    private static void writeSample(final Path f, final int n) throws IOException
+	    {
+    	try(final ColumnarFile.Writer w = new ColumnarFile.Writer(f, SCHEMA, 7))
+	    	{
+    		for(int i = 0; i < n; ++i)
+	    		{
+    			w.putLong(0, 1_000_000L + i);
+    			w.putDouble(1, (3 == i) ? Double.NaN : i * 0.5);
+    			if(0 == (i % 3)) { w.putInt(2, 1); }
+    			w.endRow();
+	    		}
+    		assertEquals(n, w.rows());
+	    	}
+	    }
+
+    /**Values, block structure and min/max survive a round trip. */
+    public static void testRoundTrip() throws IOException
+	    {
+    	final Path f = Files.createTempFile("TestColumnarFile", ".col");
+    	try
+	    	{
+    		final int n = 23;
+    		writeSample(f, n);
+    		final ColumnarFile.Reader r = new ColumnarFile.Reader(f);
+    		assertEquals(SCHEMA, r.columns());
+    		assertEquals(1, r.columnIndex("t"));
+    		assertEquals(-1, r.columnIndex("nope"));
+    		assertEquals(n, r.rows());
+    		assertEquals(4, r.blocks());
+    		assertEquals(2, r.blockRows(3));
+    		int i = 0;
+    		for(int b = 0; b < r.blocks(); ++b)
+	    		{
+    			final LongBuffer h = r.longs(b, 0);
+    			final DoubleBuffer t = r.doubles(b, 1);
+    			final IntBuffer flag = r.ints(b, 2);
+    			assertEquals(r.blockRows(b), h.remaining());
+    			// Each column is a slice of its shared mapping, bounded to just that column.
+    			assertEquals(r.blockRows(b), t.capacity());
+    			assertEquals(r.blockRows(b), flag.capacity());
+    			assertTrue(t.isReadOnly());
+    			for(int k = 0; k < r.blockRows(b); ++k, ++i)
+	    			{
+    				assertEquals(1_000_000L + i, h.get(k));
+    				if(3 == i) { assertTrue(Double.isNaN(t.get(k))); } else { assertEquals(i * 0.5, t.get(k)); }
+    				assertEquals((0 == (i % 3)) ? 1 : 0, flag.get(k));
+	    			}
+	    		}
+    		assertEquals(n, i);
+    		assertEquals(1_000_000.0, r.min(0));
+    		assertEquals(1_000_000.0 + n - 1, r.max(0));
+    		assertEquals(0.0, r.min(1));
+    		assertEquals((n - 1) * 0.5, r.max(1));
+    		// Block 0 holds rows 0..6, one NaN ignored.
+    		assertEquals(3.0, r.max(0, 1));
+    		assertEquals(1_000_014.0, r.min(2, 0));
+
+    		try { r.doubles(0, 0); fail("should reject wrong type"); }
+    		catch(final IllegalArgumentException e) { /* expected */ }
+	    	}
+    	finally { Files.delete(f); }
+	    }
+
+    /**Empty files, bad schemas and incomplete or corrupt files are handled. */
+    public static void testBadFiles() throws IOException
+	    {
+    	final Path f = Files.createTempFile("TestColumnarFile", ".col");
+    	try
+	    	{
+    		writeSample(f, 0);
+    		final ColumnarFile.Reader r = new ColumnarFile.Reader(f);
+    		assertEquals(0, r.rows());
+    		assertTrue(Double.isNaN(r.min(1)));
+
+    		try { new ColumnarFile.Writer(f, List.of(new Column("a", Type.INT), new Column("a", Type.LONG))); fail("should reject duplicate"); }
+    		catch(final IllegalArgumentException e) { /* expected */ }
+
+    		writeSample(f, 20);
+    		try(final FileChannel fc = FileChannel.open(f, StandardOpenOption.WRITE))
+	    		{
+    			// Truncate, as if the writer had not completed.
+    			fc.truncate(fc.size() - 1);
+	    		}
+    		try { new ColumnarFile.Reader(f); fail("should reject truncated file"); }
+    		catch(final IOException e) { /* expected */ }
+
+    		writeSample(f, 20);
+    		final byte[] b = Files.readAllBytes(f);
+    		// Corrupt a min/max in the footer.
+    		b[b.length - 30] ^= 1;
+    		Files.write(f, b);
+    		try { new ColumnarFile.Reader(f); fail("should reject corrupt file"); }
+    		catch(final IOException e) { /* expected */ }
+	    	}
+    	finally { Files.delete(f); }
+	    }
+
+    /**Per-hour output matches the scenario run, and scenario rows round trip. */
+    public static void testResults() throws IOException
+	    {
+    	final Path f = Files.createTempFile("TestColumnarFile", ".col");
+    	try
+	    	{
+    		final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    		final HGTRVHPMModelByHour m = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t);
+    		ColumnarResults.writeHourly(f, m, true, false);
+    		final ColumnarFile.Reader r = new ColumnarFile.Reader(f);
+    		assertEquals(ColumnarResults.HOURLY_COLUMNS, r.columns());
+    		assertEquals(t.heatingHours(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C).count(), r.rows());
+    		assertTrue(r.max(1) < HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C);
+    		double heatSB = 0;
+    		final int c = r.columnIndex("heatWithSetbackW");
+    		for(int b = 0; b < r.blocks(); ++b)
+	    		{
+    			final DoubleBuffer d = r.doubles(b, c);
+    			while(d.hasRemaining()) { heatSB += d.get(); }
+	    		}
+    		final ScenarioResult sr = m.runScenario(true, false, null);
+    		assertEquals(sr.demand().withSetback().heatDemand(), heatSB / t.size(), 1e-9);
+
+    		try(final ColumnarFile.Writer w = new ColumnarFile.Writer(f, ColumnarResults.SCENARIO_COLUMNS))
+	    		{ ColumnarResults.appendScenario(w, 3, ModelParameters.FIXES_APPLIED, true, false, sr, 21); }
+    		final ColumnarFile.Reader rs = new ColumnarFile.Reader(f);
+    		assertEquals(1, rs.rows());
+    		assertEquals(3, rs.ints(0, rs.columnIndex("station")).get(0));
+    		assertEquals(sr.demand().withSetback().heatPumpElectricity(),
+				rs.doubles(0, rs.columnIndex("electricityWithSetbackW")).get(0));
+	    	}
+    	finally { Files.delete(f); }
+	    }
+    }
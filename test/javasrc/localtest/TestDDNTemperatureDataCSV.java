@@ -21,6 +21,9 @@ import java.io.IOException;
 import java.io.StringReader;
 
 import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataValidator;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataValidator.ValidationReport;
+import org.hd.d.TRVmodel.data.DDNTimestamps;
 
 import junit.framework.TestCase;
 
@@ -66,4 +69,74 @@ Datetime,Timezone,Date,Time,Temp (?C),% Estimated
     	assertEquals("should be 8760 data rows (1 non-leap year, hourly)", 8760, result.data().size());
     	assertEquals("6.3", result.data().get(2).get(DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE));
     	}
+    
+    /**Test decoding of timestamps to epoch hours. */
+    public static void testTimestamps()
+	    {
+    	assertEquals(0, DDNTimestamps.epochDay(1970, 1, 1));
+    	assertEquals(17532, DDNTimestamps.epochDay(2018, 1, 1));
+    	assertEquals(17532 * 24 + 23, DDNTimestamps.parseLocalEpochHour("2018-01-01 23:00"));
+    	assertEquals(0, DDNTimestamps.parseTimezoneOffsetHours("GMT"));
+    	assertEquals(1, DDNTimestamps.parseTimezoneOffsetHours("GMT+1"));
+    	assertEquals(-5, DDNTimestamps.parseTimezoneOffsetHours("UTC-5"));
+    	try { DDNTimestamps.parseLocalEpochHour("2018-01-01 23:30"); fail("should reject non-zero minutes"); }
+    	catch(final IllegalArgumentException e) { /* Expected. */ }
+	    }
+
+    /**Test that a complete decade of real data validates as clean in the same pass as the load. */
+    public static void testValidateClean201X() throws IOException
+	    {
+    	final DDNTemperatureDataValidator validator = new DDNTemperatureDataValidator(true);
+    	final DDNTemperatureDataCSV result = DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(
+    			new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+    				"EGLL" + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE),
+    			validator);
+    	final ValidationReport report = validator.report();
+    	assertTrue(report.toString(), report.isClean());
+    	assertEquals(result.data().size(), report.rows());
+    	assertEquals(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA, report.rows());
+    	assertEquals("contiguous in UTC", report.rows(), report.spanHours());
+    	assertEquals("two clock changes per year", 20, report.timezoneChanges());
+    	assertTrue(report.estimatedRows() > 0);
+    	assertTrue(report.maxEstimatedPercent() <= 100);
+	    }
+
+    /**Test detection and reporting of structural problems. */
+    public static void testValidateProblems() throws IOException
+	    {
+    	final String fragment = """
+Datetime,Timezone,Date,Time,Temp (?C),% Estimated
+2018-03-25 00:00,GMT,2018-03-25,00:00,7,0
+2018-03-25 02:00,GMT+1,2018-03-25,02:00,7,0
+2018-03-25 04:00,GMT+1,2018-03-25,04:00,6.3,10
+2018-03-25 04:00,GMT+1,2018-03-25,04:00,6.3,0
+2018-03-25 03:00,GMT+1,2018-03-25,03:00,99,0
+2018-03-25 05:00,GMT+1,2018-03-25,05:00,6,0
+2018-03-25 06:00,GMT+1,2018-03-25,06:00,x,0
+""";
+    	final DDNTemperatureDataValidator validator = new DDNTemperatureDataValidator(false);
+    	final DDNTemperatureDataCSV result = DDNTemperatureDataCSV.parseDDNTemperatureDataCSV(
+    			new StringReader(fragment), validator);
+    	assertEquals(7, result.data().size());
+    	final ValidationReport report = validator.report();
+    	assertFalse(report.isClean());
+    	assertEquals(7, report.rows());
+    	assertEquals(1, report.malformedRows());
+    	assertEquals(1, report.gaps());
+    	assertEquals(1, report.missingHours());
+    	assertEquals(1, report.duplicateHours());
+    	assertEquals(1, report.outOfOrderHours());
+    	assertEquals(1, report.timezoneChanges());
+    	assertEquals(1, report.implausibleTemperatures());
+    	assertEquals(1, report.estimatedRows());
+    	assertEquals(10, report.maxEstimatedPercent());
+
+    	// Rejecting bad data should stop at the first problem.
+    	try
+    		{
+    		DDNTemperatureDataCSV.parseDDNTemperatureDataCSV(new StringReader(fragment), new DDNTemperatureDataValidator(true));
+    		fail("should reject bad data");
+    		}
+    	catch(final IOException e) { /* Expected. */ }
+	    }
     }
@@ -0,0 +1,156 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DataFileInput;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+
+import junit.framework.TestCase;
+
+/**Test the fast (parallel gzip / mapped) data file input.
+ */
+public final class TestDataFileInput extends TestCase
+    {
+    /**Read all of a stream, closing it. */
+    private static byte[] readAll(final InputStream is) throws IOException
+	    {
+    	try(is) { return(is.readAllBytes()); }
+	    }
+
+    /**Gzip some bytes as one member. */
+    private static byte[] gzip(final byte[] b) throws IOException
+	    {
+    	final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    	try(final OutputStream os = new GZIPOutputStream(baos)) { os.write(b); }
+    	return(baos.toByteArray());
+	    }
+
+    /**Write bytes to a temporary file that will be deleted on exit. */
+    private static Path tempFile(final byte[] b) throws IOException
+	    {
+    	final Path p = Files.createTempFile("TestDataFileInput", ".tmp");
+    	p.toFile().deleteOnExit();
+    	Files.write(p, b);
+    	return(p);
+	    }
+
+    /**Test that a single-member gzip file inflates identically to GZIPInputStream. */
+    public static void testSingleMember() throws IOException
+	    {
+    	final File f = DDNTemperatureDataCSV.DATA_EGLL_2018;
+    	final byte[] expected = readAll(new GZIPInputStream(new BufferedInputStream(new FileInputStream(f))));
+    	assertTrue(Arrays.equals(expected, readAll(DataFileInput.open(f.toPath()))));
+	    }
+
+    /**Test multi-member gzip, including members spanning several output chunks, and plain files. */
+    public static void testMultiMemberAndPlain() throws IOException
+	    {
+    	final Random rnd = new Random(42);
+    	final ByteArrayOutputStream all = new ByteArrayOutputStream();
+    	final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+    	for(int m = 0; m < 7; ++m)
+	    	{
+    		// Compressible but not trivial content, sometimes larger than one output chunk.
+    		final byte[] b = new byte[(m == 3) ? (DataFileInput.CHUNK_BYTES * 2 + 17) : rnd.nextInt(100_000)];
+    		for(int i = 0; i < b.length; ++i) { b[i] = (byte) ('0' + rnd.nextInt(10)); }
+    		all.write(b);
+    		gz.write(gzip(b));
+	    	}
+    	final byte[] expected = all.toByteArray();
+    	assertTrue(Arrays.equals(expected, readAll(DataFileInput.open(tempFile(gz.toByteArray())))));
+    	assertTrue(Arrays.equals(expected, readAll(DataFileInput.open(tempFile(expected)))));
+    	assertEquals(0, readAll(DataFileInput.open(tempFile(new byte[0]))).length);
+	    }
+
+    /**Test several members each much larger than the chunks buffered, so that inflation pauses for the reader,
+     * and that closing early with members paused neither hangs nor fails.
+     */
+    public static void testLargeMembersPause() throws IOException
+	    {
+    	final Random rnd = new Random(7);
+    	final ByteArrayOutputStream all = new ByteArrayOutputStream();
+    	final ByteArrayOutputStream gz = new ByteArrayOutputStream();
+    	for(int m = 0; m < 3; ++m)
+	    	{
+    		final byte[] b = new byte[(DataFileInput.CHUNK_BYTES * 4) + m];
+    		for(int i = 0; i < b.length; ++i) { b[i] = (byte) ('0' + rnd.nextInt(10)); }
+    		all.write(b);
+    		gz.write(gzip(b));
+	    	}
+    	final Path p = tempFile(gz.toByteArray());
+    	final byte[] expected = all.toByteArray();
+    	try(final InputStream is = DataFileInput.open(p))
+	    	{
+    		// Read slowly at first so that later members get ahead.
+    		final byte[] buf = new byte[1000];
+    		assertEquals(buf.length, is.readNBytes(buf, 0, buf.length));
+    		try { Thread.sleep(200); } catch(final InterruptedException e) { Thread.currentThread().interrupt(); }
+    		final byte[] rest = is.readAllBytes();
+    		assertEquals(expected.length, buf.length + rest.length);
+    		assertTrue(Arrays.equals(expected, 0, buf.length, buf, 0, buf.length));
+    		assertTrue(Arrays.equals(expected, buf.length, expected.length, rest, 0, rest.length));
+	    	}
+    	try(final InputStream is = DataFileInput.open(p))
+	    	{
+    		assertEquals(expected[0], (byte) is.read());
+    		try { Thread.sleep(200); } catch(final InterruptedException e) { Thread.currentThread().interrupt(); }
+	    	}
+    	// The pool is still usable after abandoning paused members.
+    	assertTrue(Arrays.equals(expected, readAll(DataFileInput.open(p))));
+	    }
+
+    /**Test that corruption is detected as for GZIPInputStream. */
+    public static void testCorruption() throws IOException
+	    {
+    	final byte[] good = gzip("2018-01-01 00:00,GMT,2018-01-01,00:00,7,0\n".getBytes());
+    	final byte[] bad = good.clone();
+    	bad[bad.length - 8] ^= 1; // Break CRC.
+    	try { readAll(DataFileInput.open(tempFile(bad))); fail("should reject bad CRC"); }
+    	catch(final IOException e) { /* Expected. */ }
+    	final byte[] truncated = Arrays.copyOf(good, good.length - 4);
+    	try { readAll(DataFileInput.open(tempFile(truncated))); fail("should reject truncation"); }
+    	catch(final IOException e) { /* Expected. */ }
+	    }
+
+    /**Test that a concatenated gzip of two data files, and its plain equivalent, load as expected. */
+    public static void testLoadConcatenated() throws IOException
+	    {
+    	final File f = DDNTemperatureDataCSV.DATA_EGLL_2018;
+    	final byte[] gz = Files.readAllBytes(f.toPath());
+    	final byte[] twice = Arrays.copyOf(gz, 2 * gz.length);
+    	System.arraycopy(gz, 0, twice, gz.length, gz.length);
+    	assertEquals(2 * 8760, DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(tempFile(twice).toFile()).data().size());
+    	final byte[] plain = readAll(new GZIPInputStream(new FileInputStream(f)));
+    	assertEquals(8760, HourlyTemperatureSeries.load(tempFile(plain).toFile()).size());
+    	assertEquals(8760, DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(tempFile(plain).toFile()).data().size());
+	    }
+    }
@@ -0,0 +1,76 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelBreakEven;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelBreakEven.Case;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+import junit.framework.TestCase;
+
+/**Test the break-even external temperature solver. */
+public final class TestHGTRVHPMModelBreakEven extends TestCase
+    {
+    /**Test that the bungalow threshold agrees with TestHGTRVHPModelParameterised.testForEATThresholdForSetbackSavingsBehaviour(). */
+    public static void testBungalowThreshold()
+	    {
+    	final ModelParameters p = new ModelParameters(
+			ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
+			ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE,
+			ModelParameters.DEFAULT_ARRANGEMENT_ABAB,
+			ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+    	final double t = HGTRVHPMModelBreakEven.breakEvenExternalTemperatureC(p, true, false);
+    	assertTrue(t > 9);
+    	assertTrue(t < 11);
+    	final Case c = new Case(p, true, false);
+    	assertTrue(HGTRVHPMModelBreakEven.setbackElectricityDeltaW(c, t - HGTRVHPMModelBreakEven.DEFAULT_TOLERANCE_K) > 0);
+    	assertTrue(HGTRVHPMModelBreakEven.setbackElectricityDeltaW(c, t + HGTRVHPMModelBreakEven.DEFAULT_TOLERANCE_K) < 0);
+	    }
+
+    /**Test a grid of cases: parallel matches sequential, and each result brackets a sign change. */
+    public static void testGrid()
+	    {
+    	final List<Case> cases = new ArrayList<>();
+    	for(int doors = 0; doors <= 10; ++doors)
+    		for(final boolean cop : new boolean[]{false, true})
+    			for(final boolean abab : new boolean[]{false, true})
+    				for(final boolean bungalow : new boolean[]{false, true})
+    					for(final boolean soft : new boolean[]{false, true})
+    						{
+    						cases.add(new Case(new ModelParameters(doors / 10.0, cop, abab,
+								ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C), bungalow, soft));
+    						}
+    	final double tol = 0.01;
+    	final double[] seq = HGTRVHPMModelBreakEven.breakEven(cases, tol);
+    	final double[] par = HGTRVHPMModelBreakEven.breakEvenParallel(cases, tol);
+    	assertTrue(Arrays.equals(seq, par));
+    	int found = 0;
+    	for(int i = 0; i < seq.length; ++i)
+	    	{
+    		if(Double.isNaN(seq[i])) { continue; }
+    		++found;
+    		final double below = HGTRVHPMModelBreakEven.setbackElectricityDeltaW(cases.get(i), Math.max(HGTRVHPMModelBreakEven.SEARCH_MIN_C, seq[i] - tol));
+    		final double above = HGTRVHPMModelBreakEven.setbackElectricityDeltaW(cases.get(i), Math.min(HGTRVHPMModelBreakEven.SEARCH_MAX_C, seq[i] + tol));
+    		assertTrue((below > 0) != (above > 0) || (0 == below) || (0 == above));
+	    	}
+    	assertTrue(found > 0);
+	    }
+    }
@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelDynamic;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelDynamic.DynamicResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelDynamic.Integrator;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelTopology;
+import org.hd.d.TRVmodel.hg.HouseTopology;
+
+import junit.framework.TestCase;
+
+/**Test the dynamic (time-stepping) thermal model. */
+public final class TestHGTRVHPMModelDynamic extends TestCase
+    {
+    /**Test that with constant weather both integrators stay at the steady-state solution. */
+    public static void testSteadyWeatherMatchesSteadyState()
+	    {
+    	final double eat = -3;
+    	final double[] temps = new double[200];
+    	Arrays.fill(temps, eat);
+    	for(final boolean bungalow : new boolean[]{true, false})
+	    	{
+    		final HouseTopology house = HGTRVHPMModelTopology.hgArchetype(ModelParameters.FIXES_APPLIED, bungalow,
+				HouseTopology.Radiator.HG_DEFAULT);
+    		final DemandWithoutAndWithSetback expected =
+				HGTRVHPMModelTopology.computeDemandW(house, eat, ModelParameters.FIXES_APPLIED.correctCoPForFlowVsMW(), false);
+    		for(final Integrator integrator : Integrator.values())
+	    		{
+    			final HGTRVHPMModelDynamic model = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, bungalow,
+					HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, integrator, 4);
+    			final DynamicResult r = model.run(temps, 0, null);
+    			final DemandWithoutAndWithSetback d = r.scenario().demand();
+    			assertEquals(expected.noSetback().heatDemand(), d.noSetback().heatDemand(), 0.01);
+    			assertEquals(expected.withSetback().heatDemand(), d.withSetback().heatDemand(), 0.01);
+    			assertEquals(expected.noSetback().heatPumpElectricity(), d.noSetback().heatPumpElectricity(), 0.01);
+    			assertEquals(expected.withSetback().heatPumpElectricity(), d.withSetback().heatPumpElectricity(), 0.01);
+    			assertEquals(0, r.degreeHoursBelowSetpointNoSetbackKh(), 0.001);
+	    		}
+	    	}
+	    }
+
+    /**Test that with night setback the B rooms take time to recover each morning. */
+    public static void testNightSetbackRecovery()
+	    {
+    	final double[] temps = new double[24 * 7];
+    	Arrays.fill(temps, 0);
+    	final boolean[] schedule = new boolean[24];
+    	for(int h = 0; h < 6; ++h) { schedule[h] = true; }
+    	schedule[22] = schedule[23] = true;
+    	final HGTRVHPMModelDynamic light = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, false,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK / 10, false, Integrator.IMPLICIT, 1);
+    	final HGTRVHPMModelDynamic heavy = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, false,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, Integrator.IMPLICIT, 1);
+    	final DynamicResult rl = light.run(temps, 12, schedule);
+    	final DynamicResult rh = heavy.run(temps, 12, schedule);
+    	assertEquals(0, rh.degreeHoursBelowSetpointNoSetbackKh(), 0.001);
+    	assertTrue("recovery shortfall expected", rh.degreeHoursBelowSetpointWithSetbackKh() > 0.01);
+    	// Rooms cooler on average for part of the day use less heat.
+    	for(final DynamicResult r : new DynamicResult[]{rl, rh})
+    		{ assertTrue(r.scenario().demand().withSetback().heatDemand() < r.scenario().demand().noSetback().heatDemand()); }
+    	// A lighter house cools further at night but recovers sooner.
+    	assertTrue(rl.degreeHoursBelowSetpointWithSetbackKh() < rh.degreeHoursBelowSetpointWithSetbackKh());
+	    }
+
+    /**Test that the base heating temperature switches heating off as for the steady-state hourly model. */
+    public static void testBaseTemperature()
+	    {
+    	final double[] mild = new double[48];
+    	Arrays.fill(mild, 14);
+    	final HGTRVHPMModelDynamic byDefault = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, true,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, Integrator.IMPLICIT, 1);
+    	final HGTRVHPMModelDynamic lowBase = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, true,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, Integrator.IMPLICIT, 1, 12);
+    	assertTrue(byDefault.run(mild, 0, null).scenario().demand().noSetback().heatDemand() > 0);
+    	assertEquals(0.0, lowBase.run(mild, 0, null).scenario().demand().noSetback().heatDemand());
+    	try { HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, true,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, Integrator.IMPLICIT, 1, Double.NaN); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Run a decade for all 201X stations, comparing with the steady-state hourly model. */
+    public static void testDecadeAllStations() throws IOException
+	    {
+    	final HGTRVHPMModelDynamic model = HGTRVHPMModelDynamic.hgArchetype(ModelParameters.FIXES_APPLIED, false,
+			HGTRVHPMModelDynamic.DEFAULT_ROOM_CAPACITANCE_JpK, false, Integrator.IMPLICIT, 1);
+    	for(final HourlyTemperatureDataDescriptor d : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET)
+	    	{
+    		final HourlyTemperatureSeries series = HourlyTemperatureSeries.load(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+				d.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    		final DynamicResult r = model.run(series, null);
+    		final DemandWithoutAndWithSetback steady =
+				new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, series).runScenario(true, false, null).demand();
+    		// Thermal mass smooths but does not much change the long-term mean heat demand.
+    		assertEquals(d.station(), steady.noSetback().heatDemand(), r.scenario().demand().noSetback().heatDemand(),
+				0.1 * steady.noSetback().heatDemand());
+    		assertEquals(d.station(), steady.withSetback().heatDemand(), r.scenario().demand().withSetback().heatDemand(),
+				0.1 * steady.withSetback().heatDemand());
+	    	}
+	    }
+    }
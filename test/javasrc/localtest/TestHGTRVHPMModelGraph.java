@@ -0,0 +1,96 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.util.EnumSet;
+
+import org.hd.d.TRVmodel.hg.CoPModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelGraph;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelGraph.Input;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelGraph.Node;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+import junit.framework.TestCase;
+
+/**Test the incremental evaluation graph of the stiff-regulation model. */
+public final class TestHGTRVHPMModelGraph extends TestCase
+    {
+    /**Values match the direct computation exactly across a sweep of every input, in any order of change. */
+    public static void testMatchesDirect()
+	    {
+    	for(final boolean bungalow : new boolean[]{false, true})
+	    	{
+    		final HGTRVHPMModelGraph g = new HGTRVHPMModelGraph(ModelParameters.FIXES_APPLIED, bungalow);
+    		for(final boolean abab : new boolean[]{true, false})
+    			for(final boolean correct : new boolean[]{false, true})
+    				for(final double doors : new double[]{0, 0.5, 1})
+    					for(double t = -10; t < 15; t += 2.5)
+	    					{
+    						final ModelParameters p = new ModelParameters(doors, correct, abab, t);
+    						g.setParameters(p);
+    						assertEquals(HGTRVHPMModelParameterised.computeDetachedDemandW(p, bungalow), g.demand());
+	    					}
+	    	}
+	    }
+
+    /**Changing one input recomputes only the nodes that depend on it. */
+    public static void testIncremental()
+	    {
+    	assertEquals(EnumSet.of(Input.EXTERNAL_AIR_TEMPERATURE_C), Node.radAMWnsb.inputs());
+    	assertEquals(EnumSet.of(Input.DOORS_PER_INTERNAL_WALL, Input.ROOMS_ALTERNATING_ABAB), Node.IFWAabHLW.inputs());
+    	assertEquals(EnumSet.allOf(Input.class), Node.HPinWsb.inputs());
+    	assertEquals(EnumSet.of(Node.HHLsb, Node.CoPsb), Node.HPinWsb.dependsOn());
+
+    	final HGTRVHPMModelGraph g = new HGTRVHPMModelGraph(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR);
+    	g.demand();
+    	for(final Node n : Node.values()) { assertEquals(1, g.evaluations(n)); }
+
+    	// Same parameters: nothing recomputed.
+    	g.setParameters(new ModelParameters(ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL, ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE));
+    	g.demand();
+    	for(final Node n : Node.values()) { assertEquals(1, g.evaluations(n)); }
+
+    	// External temperature only: internal losses and CoP correction reused.
+    	for(int t = -5; t < 10; ++t) { g.setExternalAirTemperatureC(t); g.demand(); }
+    	assertEquals(1, g.evaluations(Node.IFWAabHLW));
+    	assertEquals(1, g.evaluations(Node.CoPCorrectionK));
+    	assertEquals(16, g.evaluations(Node.HHLnsb));
+    	assertEquals(16, g.evaluations(Node.HPinWsb));
+
+    	// Doors only: whole-home losses and the no-setback branch reused.
+    	final ModelParameters p = g.parameters();
+    	g.setParameters(new ModelParameters(0.25, p.correctCoPForFlowVsMW(), p.roomsAlternatingABAB(), p.externalAirTemperatureC()));
+    	g.demand();
+    	assertEquals(16, g.evaluations(Node.HHLnsb));
+    	assertEquals(16, g.evaluations(Node.HHLsb));
+    	assertEquals(16, g.evaluations(Node.radAMWnsb));
+    	assertEquals(16, g.evaluations(Node.HPinWnsb));
+    	assertEquals(2, g.evaluations(Node.IFWAabHLW));
+    	assertEquals(17, g.evaluations(Node.radAMWsb));
+    	assertEquals(17, g.evaluations(Node.HPinWsb));
+    	assertEquals(HGTRVHPMModelParameterised.computeDetachedDemandW(g.parameters(), false), g.demand());
+	    }
+
+    /**Implausible parameters are rejected as by the direct computation. */
+    public static void testRejectsWarmOutside()
+	    {
+    	final HGTRVHPMModelGraph g = new HGTRVHPMModelGraph(ModelParameters.FIXES_APPLIED, true);
+    	try { g.setExternalAirTemperatureC(25); fail(); }
+    	catch(final UnsupportedOperationException e) { /* expected */ }
+    	assertEquals(ModelParameters.FIXES_APPLIED, g.parameters());
+	    }
+    }
@@ -0,0 +1,153 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelMonteCarlo;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelMonteCarlo.Distribution;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelMonteCarlo.Output;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelMonteCarlo.Result;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelMonteCarlo.Trial;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.stats.QuantileSketch;
+import org.hd.d.TRVmodel.stats.StreamingMoments;
+
+import junit.framework.TestCase;
+
+/**Test the Monte Carlo uncertainty engine and its streaming statistics. */
+public final class TestHGTRVHPMModelMonteCarlo extends TestCase
+    {
+    /**Test streaming moments against a direct two-pass calculation, including merging. */
+    public static void testStreamingMoments()
+	    {
+    	final SplittableRandom rnd = new SplittableRandom(1);
+    	final double[] x = new double[10_001];
+    	for(int i = 0; i < x.length; ++i) { x[i] = 1e6 + rnd.nextGaussian(); }
+    	double sum = 0;
+    	for(final double v : x) { sum += v; }
+    	final double mean = sum / x.length;
+    	double ss = 0;
+    	for(final double v : x) { ss += (v - mean) * (v - mean); }
+    	final double var = ss / (x.length - 1);
+
+    	final StreamingMoments all = new StreamingMoments();
+    	final StreamingMoments a = new StreamingMoments();
+    	final StreamingMoments b = new StreamingMoments();
+    	for(int i = 0; i < x.length; ++i)
+	    	{
+    		all.accept(x[i]);
+    		((i < 3000) ? a : b).accept(x[i]);
+	    	}
+    	a.merge(b);
+    	assertEquals(x.length, all.count());
+    	assertEquals(mean, all.mean(), 1e-6);
+    	assertEquals(var, all.variance(), 1e-6);
+    	assertEquals(mean, a.mean(), 1e-6);
+    	assertEquals(var, a.variance(), 1e-6);
+    	assertEquals(all.min(), a.min());
+    	assertEquals(all.max(), a.max());
+    	try { all.accept(Double.NaN); fail("should reject NaN"); } catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Test quantile sketch relative accuracy against exact quantiles, with mixed signs and merging. */
+    public static void testQuantileSketch()
+	    {
+    	final SplittableRandom rnd = new SplittableRandom(2);
+    	final int n = 20_000;
+    	final double[] x = new double[n];
+    	final QuantileSketch a = new QuantileSketch();
+    	final QuantileSketch b = new QuantileSketch();
+    	for(int i = 0; i < n; ++i)
+	    	{
+    		x[i] = (rnd.nextDouble() - 0.2) * 1000;
+    		((0 == (i & 1)) ? a : b).accept(x[i]);
+	    	}
+    	a.merge(b);
+    	assertEquals(n, a.count());
+    	java.util.Arrays.sort(x);
+    	for(final double q : new double[]{0, 0.01, 0.1, 0.5, 0.9, 0.99, 1})
+	    	{
+    		final double exact = x[(int) Math.round(q * (n - 1))];
+    		final double est = a.quantile(q);
+    		// Allow for rank rounding between neighbouring samples as well as bucket accuracy.
+    		final double neighbour = Math.abs(x[Math.min(n - 1, (int) Math.round(q * (n - 1)) + 1)] - exact);
+    		assertEquals("q=" + q, exact, est, (2 * QuantileSketch.DEFAULT_RELATIVE_ACCURACY * Math.abs(exact)) + neighbour + 1e-9);
+	    	}
+    	assertEquals(x[0], a.quantile(0));
+    	assertEquals(x[n-1], a.quantile(1));
+	    }
+
+    /**Test that results are identical for a given seed regardless of the thread pool used. */
+    public static void testReproducibleAcrossThreads() throws Exception
+	    {
+    	final Trial trial = HGTRVHPMModelMonteCarlo.parameterisedTrial(
+			Distribution.triangular(0, 0.5, 2), Distribution.uniform(-10, 10),
+			true, true, true, false);
+    	final long samples = (3 * HGTRVHPMModelMonteCarlo.BLOCK_SAMPLES) + 17;
+    	final Result r1 = HGTRVHPMModelMonteCarlo.run(42, samples, trial);
+    	final ForkJoinPool single = new ForkJoinPool(1);
+    	final Result r2;
+    	try { r2 = single.submit(() -> HGTRVHPMModelMonteCarlo.run(42, samples, trial)).get(); }
+    	finally { single.shutdown(); }
+    	assertEquals(samples, r1.samples());
+    	assertEquals(0, r1.rejected());
+    	assertEquals(r1.samples(), r2.samples());
+    	for(final Output o : Output.values())
+	    	{
+    		final StreamingMoments m1 = r1.get(o).moments(), m2 = r2.get(o).moments();
+    		assertEquals(m1.count(), m2.count());
+    		assertEquals(m1.mean(), m2.mean());
+    		assertEquals(m1.variance(), m2.variance());
+    		assertTrue(r1.get(o).quantiles().sameContentAs(r2.get(o).quantiles()));
+	    	}
+    	// A different seed gives different results.
+    	final Result r3 = HGTRVHPMModelMonteCarlo.run(43, samples, trial);
+    	assertFalse(r1.get(Output.HEAT_WITH_SETBACK).mean() == r3.get(Output.HEAT_WITH_SETBACK).mean());
+	    }
+
+    /**Test that fixed inputs reproduce the deterministic model, and that too-warm samples are rejected. */
+    public static void testFixedInputsAndRejection()
+	    {
+    	final Trial fixed = HGTRVHPMModelMonteCarlo.parameterisedTrial(
+			Distribution.fixed(0.5), Distribution.fixed(-3), false, true, false, false);
+    	final Result r = HGTRVHPMModelMonteCarlo.run(1, 1000, fixed);
+    	final DemandWithoutAndWithSetback d = HGTRVHPMModelParameterised.computeDetachedDemandW(new ModelParameters(), false);
+    	assertEquals(d.withSetback().heatPumpElectricity(), r.get(Output.ELECTRICITY_WITH_SETBACK).mean(), 1e-9);
+    	assertEquals(0, r.get(Output.ELECTRICITY_WITH_SETBACK).moments().variance(), 1e-12);
+    	assertEquals(d.noSetback().heatDemand(), r.get(Output.HEAT_NO_SETBACK).quantile(0.5), 1e-9);
+
+    	// Half the samples above 18C are rejected.
+    	final Trial warm = HGTRVHPMModelMonteCarlo.topologyTrial(
+			Distribution.fixed(0.5), Distribution.normal(1, 0.1, 0.5, 1.5), Distribution.uniform(0.8, 1.2),
+			Distribution.uniform(-2, 38), false, true, true, true);
+    	final Result rw = HGTRVHPMModelMonteCarlo.run(7, 2000, warm);
+    	assertEquals(2000, rw.samples());
+    	assertTrue(rw.rejected() > 800);
+    	assertTrue(rw.rejected() < 1200);
+    	assertEquals(rw.samples() - rw.rejected(), rw.get(Output.HEAT_NO_SETBACK).moments().count());
+
+    	// No demand at all (eg no heating hours) is no saving, not NaN.
+    	final DemandWithoutAndWithSetback none = new DemandWithoutAndWithSetback(
+			new HeatAndElectricityDemand(0, 0), new HeatAndElectricityDemand(0, 0));
+    	assertEquals(0.0, Output.ELECTRICITY_SAVING_FRACTION.value(none));
+	    }
+    }
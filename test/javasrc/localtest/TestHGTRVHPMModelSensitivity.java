@@ -0,0 +1,125 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.CoPModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelSensitivity;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelSensitivity.Factor;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelSensitivity.Index;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelSensitivity.Problem;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelSensitivity.Result;
+
+import junit.framework.TestCase;
+
+/**Test the Sobol sensitivity analysis. */
+public final class TestHGTRVHPMModelSensitivity extends TestCase
+    {
+    /**Ishigami test function, a=7 b=0.1, with known analytic indices. */
+    private static final Problem ISHIGAMI = new Problem(List.of(
+		Factor.uniform("x1", -Math.PI, Math.PI),
+		Factor.uniform("x2", -Math.PI, Math.PI),
+		Factor.uniform("x3", -Math.PI, Math.PI)),
+		x -> Math.sin(x[0]) + (7 * Math.sin(x[1]) * Math.sin(x[1])) + (0.1 * Math.pow(x[2], 4) * Math.sin(x[0])));
+
+    /**Test against the analytic Ishigami indices, and that intervals bracket the estimates. */
+    public static void testIshigami()
+	    {
+    	final Result r = HGTRVHPMModelSensitivity.analyse(ISHIGAMI, 20_000, 1, 200, 0.95);
+    	assertEquals(20_000L * 5, r.modelRuns());
+    	final double[] s = {0.3139, 0.4424, 0};
+    	final double[] st = {0.5576, 0.4424, 0.2437};
+    	for(int i = 0; i < 3; ++i)
+	    	{
+    		final Index ix = r.indices().get(i);
+    		assertEquals(ix.factor(), s[i], ix.firstOrder(), 0.05);
+    		assertEquals(ix.factor(), st[i], ix.total(), 0.05);
+    		assertTrue(ix.firstOrderLow() <= ix.firstOrder() && ix.firstOrder() <= ix.firstOrderHigh());
+    		assertTrue(ix.totalLow() <= ix.total() && ix.total() <= ix.totalHigh());
+	    	}
+    	assertEquals(3.5, r.mean(), 0.1); // a/2
+	    }
+
+    /**Test that results are identical for a given seed regardless of the thread pool used. */
+    public static void testReproducible() throws Exception
+	    {
+    	final Result r1 = HGTRVHPMModelSensitivity.analyse(ISHIGAMI, 1000, 7, 50, 0.9);
+    	final ForkJoinPool single = new ForkJoinPool(1);
+    	final Result r2;
+    	try { r2 = single.submit(() -> HGTRVHPMModelSensitivity.analyse(ISHIGAMI, 1000, 7, 50, 0.9)).get(); }
+    	finally { single.shutdown(); }
+    	assertEquals(r1, r2);
+	    }
+
+    /**Test the parameterised model problem: external temperature and regulation should matter. */
+    public static void testParameterised()
+	    {
+    	final Result r = HGTRVHPMModelSensitivity.analyse(
+			HGTRVHPMModelSensitivity.parameterisedProblem(1, -5, 15), 256, 3, 100, 0.95);
+    	assertEquals(HGTRVHPMModelSensitivity.PARAMETERISED_FACTORS.size(), r.indices().size());
+    	assertTrue(r.variance() > 0);
+    	double maxTotal = 0;
+    	for(final Index ix : r.indices())
+	    	{
+    		assertTrue(Double.isFinite(ix.firstOrder()));
+    		assertTrue(ix.total() >= 0);
+    		maxTotal = Math.max(maxTotal, ix.total());
+	    	}
+    	assertTrue(maxTotal > 0.1);
+	    }
+
+    /**Test that the hourly problem matches HGTRVHPMModelByHour.runScenario(). */
+    public static void testByHourMatchesRunScenario() throws IOException
+	    {
+    	final HourlyTemperatureSeries series = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final Problem hf = HGTRVHPMModelSensitivity.byHourProblem(1, List.of(series), ScenarioResult::hoursFractionSetbackRaisesDemand);
+    	final Problem el = HGTRVHPMModelSensitivity.byHourProblem(1, List.of(series),
+			sr -> sr.demand().withSetback().heatPumpElectricity());
+    	final HGTRVHPMModelByHour byHour = new HGTRVHPMModelByHour(new ModelParameters(0.5, true, true,
+			ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C), series);
+    	for(final boolean soft : new boolean[]{false, true})
+	    	{
+    		final ScenarioResult expected = byHour.runScenario(true, soft, null);
+    		final double[] x = {0.5, 1, 1, 1, soft ? 1 : 0, 0};
+    		assertEquals(expected.hoursFractionSetbackRaisesDemand(), hf.model().applyAsDouble(x.clone()), 1e-12);
+    		assertEquals(expected.demand().withSetback().heatPumpElectricity(), el.model().applyAsDouble(x.clone()), 1e-9);
+	    	}
+
+    	// A non-default CoP model and base temperature are honoured as by runScenario().
+    	final CoPModel cop = (flowC, sourceC) -> 2 + (0.05 * (sourceC + 20)) - (0.02 * (flowC - 35));
+    	final double baseC = 12;
+    	final Problem elCop = HGTRVHPMModelSensitivity.byHourProblem(1, List.of(series),
+			sr -> sr.demand().withSetback().heatPumpElectricity(), cop, baseC);
+    	final HGTRVHPMModelByHour byHourCop = new HGTRVHPMModelByHour(byHour.modelParameters(), series, cop, baseC);
+    	for(final boolean soft : new boolean[]{false, true})
+	    	{
+    		final double[] x = {0.5, 1, 1, 1, soft ? 1 : 0, 0};
+    		assertEquals(byHourCop.runScenario(true, soft, null).demand().withSetback().heatPumpElectricity(),
+				elCop.model().applyAsDouble(x), 1e-9);
+	    	}
+    	try { HGTRVHPMModelSensitivity.byHourProblem(1, List.of(series), sr -> 0, cop, 25); fail("should reject base above setback"); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+    }
@@ -19,10 +19,14 @@ package localtest;
 import java.io.File;
 import java.io.IOException;
 import java.io.StringReader;
+import java.util.List;
 
 import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.CoPModel;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModel;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.GroupedScenarioResult;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
 import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
 
@@ -85,4 +89,96 @@ Datetime,Timezone,Date,Time,Temp (?C),% Estimated
 	    // The overall point of the Heat Geek example!
 	    assertTrue("electrical power goes UP with B rooms set back", powerNoSetback < powerWithSetback);
 	    }
+    
+    /**Test that grouped results are consistent with the ungrouped run, for a London temperature year. */
+    public static void testGroupedForLondon2018() throws IOException
+	    {
+    	final DDNTemperatureDataCSV temperatures =
+    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(
+    			HGTRVHPMModelParameterised.ModelParameters.FIXES_APPLIED, temperatures);
+
+    	final ScenarioResult result = scenario.runScenario(false, false, null);
+    	final GroupedScenarioResult grouped = scenario.runScenarioGrouped(false, false, null);
+    	assertNotNull(grouped);
+    	assertEquals(result.hoursFractionSetbackRaisesDemand(), grouped.overall().hoursFractionSetbackRaisesDemand(), 1e-9);
+    	assertEquals(result.demand().noSetback().heatDemand(), grouped.overall().demand().noSetback().heatDemand(), 1e-6);
+    	assertEquals(result.demand().withSetback().heatPumpElectricity(), grouped.overall().demand().withSetback().heatPumpElectricity(), 1e-6);
+
+    	assertEquals(1, grouped.byYear().size());
+    	assertEquals(2018, grouped.byYear().firstKey().intValue());
+    	assertEquals(12, grouped.byMonth().size());
+    	assertEquals(201801, grouped.byMonth().firstKey().intValue());
+    	assertEquals(201812, grouped.byMonth().lastKey().intValue());
+    	assertEquals(grouped.overall().demand().noSetback().heatPumpElectricity(),
+    			grouped.byYear().get(2018).demand().noSetback().heatPumpElectricity(), 1e-6);
+
+    	// Winter should need more heat than summer.
+    	assertTrue(grouped.byMonth().get(201801).demand().noSetback().heatDemand() >
+    			grouped.byMonth().get(201807).demand().noSetback().heatDemand());
+
+    	// Hour-weighted monthly means should recombine to the overall mean.
+    	// Note that months are local time, so are an hour shorter/longer at clock changes.
+    	final int hoursInMonth[] = new int[12];
+    	for(final List<String> row : temperatures.data())
+    		{ ++hoursInMonth[Integer.parseInt(row.get(DDNTemperatureDataCSV.INDEX_OF_DATE).substring(5, 7)) - 1]; }
+    	double heat = 0;
+    	for(int m = 0; m < 12; ++m)
+    		{ heat += hoursInMonth[m] * grouped.byMonth().get(201801 + m).demand().withSetback().heatDemand(); }
+    	assertEquals(grouped.overall().demand().withSetback().heatDemand(), heat / 8760, 1e-6);
+	    }
+
+    /**Test grouping over a decade of hourly data. */
+    public static void testGroupedFor201X() throws IOException
+	    {
+    	final DDNTemperatureDataCSV temperatures =
+    			DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+    				"EGLL" + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(
+    			HGTRVHPMModelParameterised.ModelParameters.FIXES_APPLIED, temperatures);
+    	final GroupedScenarioResult grouped = scenario.runScenarioGrouped(true, false, null);
+    	assertEquals(10, grouped.byYear().size());
+    	assertEquals(2010, grouped.byYear().firstKey().intValue());
+    	assertEquals(2019, grouped.byYear().lastKey().intValue());
+    	assertEquals(120, grouped.byMonth().size());
+    	final ScenarioResult result = scenario.runScenario(true, false, null);
+    	assertEquals(result.demand().withSetback().heatPumpElectricity(), grouped.overall().demand().withSetback().heatPumpElectricity(), 1e-6);
+	    }
+
+    /**Test a per-scenario base heating temperature against a simple loop over every hour. */
+    public static void testBaseTemperature() throws IOException
+	    {
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HGTRVHPMModelParameterised.ModelParameters params = HGTRVHPMModelParameterised.ModelParameters.FIXES_APPLIED;
+    	final HGTRVHPMModelByHour byDefault = new HGTRVHPMModelByHour(params, t);
+    	assertEquals(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C, byDefault.baseTemperatureC());
+    	for(final double base : new double[]{12, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C, 18})
+	    	{
+    		final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(params, t, CoPModel.HG_LINEAR, base);
+    		for(final boolean soft : new boolean[]{false, true})
+	    		{
+    			double heat = 0;
+    			for(int i = 0; i < t.size(); ++i)
+	    			{
+    				if(t.temperature(i) >= base) { continue; }
+    				final double[] eq = new double[1];
+    				heat += (soft ?
+						HGTRVHPMModelParameterised.computeSoftATempDemandW(params.cloneWithAdjustedExternalTemperature(t.temperature(i)), true, eq) :
+						HGTRVHPMModelParameterised.computeDetachedDemandW(params.cloneWithAdjustedExternalTemperature(t.temperature(i)), true)).withSetback().heatDemand();
+	    			}
+    			final ScenarioResult result = scenario.runScenario(false, soft, null);
+    			assertEquals(heat / t.size(), result.demand().withSetback().heatDemand(), 1e-9);
+    			assertEquals(result.demand().noSetback().heatPumpElectricity(),
+					scenario.runScenarioGrouped(false, soft, null).overall().demand().noSetback().heatPumpElectricity(), 1e-6);
+	    		}
+	    	}
+    	// A higher base temperature means more hours needing heat, so more heat overall.
+    	assertTrue(new HGTRVHPMModelByHour(params, t, CoPModel.HG_LINEAR, 18).runScenario(true, false, null).demand().noSetback().heatDemand() >
+			byDefault.runScenario(true, false, null).demand().noSetback().heatDemand());
+    	try { new HGTRVHPMModelByHour(params, t, CoPModel.HG_LINEAR, Double.NaN); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	// Above the setback temperature the B rooms would sit unheated in hours counted as needing heat.
+    	try { new HGTRVHPMModelByHour(params, t, CoPModel.HG_LINEAR, Math.nextUp(HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C)); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
     }
@@ -0,0 +1,170 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.util.List;
+import java.util.Random;
+
+import org.hd.d.TRVmodel.hg.HGTRVHPMModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelExtensions;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelTopology;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelTopology.SteadyState;
+import org.hd.d.TRVmodel.hg.HouseTopology;
+
+import junit.framework.TestCase;
+
+/**Test the general N-room topology model, including against the original HG archetypes. */
+public final class TestHGTRVHPModelTopology extends TestCase
+    {
+    /**Parameter sets to cross-check. */
+    private static final List<ModelParameters> PARAMS = List.of(
+		new ModelParameters(), ModelParameters.FIXES_APPLIED, ModelParameters.FIXES_AND_AABB);
+
+    /**True if every room in the solution is at its (setback) setpoint, ie no room is heated above it by neighbours. */
+    private static boolean allAtSetpoint(final HouseTopology house, final SteadyState s)
+	    {
+    	for(int i = 0; i < house.size(); ++i)
+	    	{ if(Math.abs(s.roomTemperatureC(i) - house.room(i).setbackSetpointC()) > 1e-6) { return(false); } }
+    	return(true);
+	    }
+
+    /**Test archetype structure. */
+    public static void testArchetypeStructure()
+	    {
+    	final HouseTopology bungalow = HGTRVHPMModelTopology.hgBungalow(new ModelParameters());
+    	assertEquals(4, bungalow.size());
+    	assertEquals(HGTRVHPMModel.HOME_HEAT_LOSS_PER_KELVIN_WpK, bungalow.totalExternalConductanceWpK(), 0.001);
+    	final HouseTopology detached = HGTRVHPMModelTopology.hgDetached(ModelParameters.FIXES_AND_AABB);
+    	assertEquals(8, detached.size());
+    	// Each room has two wall neighbours on its floor and one room above or below.
+    	for(int i = 0; i < detached.size(); ++i) { assertEquals(3, detached.linkCount(i)); }
+	    }
+
+    /**Cross-check 'stiff' results against the original bungalow and detached calculations. */
+    public static void testStiffMatchesParameterised()
+	    {
+    	int checked = 0;
+    	for(final ModelParameters p : PARAMS)
+	    	{
+    		for(final boolean bungalow : new boolean[]{true, false})
+	    		{
+    			final HouseTopology house = HGTRVHPMModelTopology.hgArchetype(p, bungalow, HouseTopology.Radiator.HG_DEFAULT);
+    			for(double eat = -13; eat < HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C; eat += 1)
+	    			{
+    				// The original calculation assumes B rooms stay at setback temperature,
+    				// which stops being true in mild weather when the A rooms alone can keep them warmer.
+    				if(!allAtSetpoint(house, HGTRVHPMModelTopology.solveStiff(house, true, eat))) { continue; }
+    				final ModelParameters pe = p.cloneWithAdjustedExternalTemperature(eat);
+    				final DemandWithoutAndWithSetback expected = HGTRVHPMModelParameterised.computeDetachedDemandW(pe, bungalow);
+    				final DemandWithoutAndWithSetback actual =
+						HGTRVHPMModelTopology.computeDemandW(house, eat, p.correctCoPForFlowVsMW(), false);
+    				assertEquals(expected.noSetback().heatDemand(), actual.noSetback().heatDemand(), 1e-6);
+    				assertEquals(expected.withSetback().heatDemand(), actual.withSetback().heatDemand(), 1e-6);
+    				assertEquals(expected.noSetback().heatPumpElectricity(), actual.noSetback().heatPumpElectricity(), 1e-6);
+    				assertEquals(expected.withSetback().heatPumpElectricity(), actual.withSetback().heatPumpElectricity(), 1e-6);
+    				++checked;
+	    			}
+	    		}
+	    	}
+    	assertTrue(checked > 50);
+	    }
+
+    /**Cross-check 'soft' equilibrium against the original step-search calculation.
+     * computeSoftATempDemandW() scales A radiator output relative to the no-setback point
+     * as (delta-T ratio)^(1 + 1/0.77), so radiators rated at that point with that exponent reproduce it.
+     * The original searches in 0.01K steps, returning the last temperature with heat gains &gt;= losses.
+     */
+    public static void testSoftMatchesParameterised()
+	    {
+    	int checked = 0;
+    	for(final ModelParameters p : PARAMS)
+	    	{
+    		for(final boolean bungalow : new boolean[]{true, false})
+	    		{
+    			final int numRooms = bungalow ? 4 : 8;
+    			final double homeHeatLossPerK = (HGTRVHPMModelExtensions.HOME_TOTAL_ROOF_AREA_M2 +
+					((bungalow ? 1 : 2) * HGTRVHPMModelExtensions.HOME_TOTAL_EXTERNAL_WALL_AREA_M2)) *
+    				HGTRVHPMModelExtensions.HOME_LOSSLESS_FLOOR_EXTERNAL_WALL_AND_ROOF_U_WpM2K;
+    			for(double eat = -13; eat < HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C; eat += 1)
+	    			{
+    				final double radWnsb = (HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C - eat) * homeHeatLossPerK / numRooms;
+    				final double mwNsb = HGTRVHPMModelParameterised.nsbAMW(radWnsb);
+    				final HouseTopology house = HGTRVHPMModelTopology.hgArchetype(p, bungalow,
+						new HouseTopology.Radiator(radWnsb, mwNsb - HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C,
+							1 + (1 / HGTRVHPMModel.RADIATOR_EXP_POWER_TO_DT)));
+    				final SteadyState s = HGTRVHPMModelTopology.solve(house, true, eat, mwNsb);
+    				// Original assumes B rooms stay at setback temperature.
+    				if(Math.abs(s.minRoomTemperatureC() - HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C) > 1e-6) { continue; }
+    				final double tempA = s.roomTemperatureC(0); // Room 0 is an A room.
+    				final double[] eq = new double[1];
+    				final DemandWithoutAndWithSetback expected = HGTRVHPMModelParameterised.computeSoftATempDemandW(
+						p.cloneWithAdjustedExternalTemperature(eat), bungalow, eq);
+    				assertTrue(tempA >= eq[0] - 1e-6);
+    				assertTrue(tempA < eq[0] + 0.0101);
+    				assertEquals(expected.withSetback().heatDemand(), s.heatDemandW(), 0.0101 * homeHeatLossPerK / 2);
+    				++checked;
+	    			}
+	    		}
+	    	}
+    	assertTrue(checked > 50);
+	    }
+
+    /**Test that a large irregular house converges, conserves energy, and respects the TRVs. */
+    public static void testLargeHouse()
+	    {
+    	final Random rnd = new Random(42);
+    	final int floors = 3, rows = 10, cols = 10;
+    	final HouseTopology.Builder b = new HouseTopology.Builder();
+    	final HouseTopology.Radiator rad = new HouseTopology.Radiator(1000, 50, 1.3);
+    	for(int f = 0; f < floors; ++f)
+    		for(int r = 0; r < rows; ++r)
+    			for(int c = 0; c < cols; ++c)
+	    			{
+    				final boolean edge = (0 == r) || (0 == c) || (rows-1 == r) || (cols-1 == c) || (floors-1 == f);
+    				final double sp = 16 + rnd.nextInt(6);
+    				b.addRoom(f + "-" + r + "-" + c, edge ? 10 + rnd.nextDouble()*20 : 0, rad, sp, rnd.nextBoolean() ? sp : 14);
+    				final int i = (((f * rows) + r) * cols) + c;
+    				if(c > 0) { b.link(i, i - 1, 20 + rnd.nextDouble()*20); }
+    				if(r > 0) { b.link(i, i - cols, 20 + rnd.nextDouble()*20); }
+    				if(f > 0) { b.link(i, i - (rows * cols), 30); }
+	    			}
+    	final HouseTopology house = b.build();
+    	assertEquals(300, house.size());
+
+    	for(final boolean withSetback : new boolean[]{false, true})
+	    	{
+    		final SteadyState stiff = HGTRVHPMModelTopology.solveStiff(house, withSetback, -5);
+    		double radSum = 0;
+    		for(int i = 0; i < house.size(); ++i)
+	    		{
+    			radSum += stiff.radiatorOutputW(i);
+    			// Stiff regulation holds every room at or above setpoint.
+    			assertTrue(stiff.roomTemperatureC(i) >= house.room(i).setpointC(withSetback) - 1e-6);
+	    		}
+    		assertEquals("energy balance", stiff.heatDemandW(), radSum, 1e-3);
+
+    		// Lower flow temperature: some rooms droop but none goes above setpoint unless heated by neighbours.
+    		final SteadyState soft = HGTRVHPMModelTopology.solve(house, withSetback, -5, stiff.meanWaterC() - 5);
+    		assertTrue(soft.heatDemandW() < stiff.heatDemandW());
+    		for(int i = 0; i < house.size(); ++i)
+    			{ assertTrue(soft.roomTemperatureC(i) <= stiff.roomTemperatureC(i) + 1e-6); }
+	    	}
+	    }
+    }
@@ -0,0 +1,270 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTimestamps;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDatasetComposer;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+
+import junit.framework.TestCase;
+
+/**Test the compact hourly temperature series.
+ */
+public final class TestHourlyTemperatureSeries extends TestCase
+    {
+    /**Test civil date round trip over a wide range of days. */
+    public static void testCivilDates()
+	    {
+    	for(long d = -1000; d < 100_000; d += 7)
+	    	{
+    		final int date = DDNTimestamps.civilFromEpochDay(d);
+    		assertEquals(d, DDNTimestamps.epochDay(date / 10000, (date / 100) % 100, date % 100));
+	    	}
+    	assertEquals(20180131, DDNTimestamps.civilFromEpochDay(DDNTimestamps.epochDay(2018, 1, 31)));
+    	assertEquals(20200229, DDNTimestamps.civilFromEpochDay(DDNTimestamps.epochDay(2020, 2, 29)));
+	    }
+
+    /**Test that the compact series decodes to the same values as the original CSV fields. */
+    public static void testMatchesCSV() throws IOException
+	    {
+    	final DDNTemperatureDataCSV csv = DDNTemperatureDataCSV.loadDDNTemperatureDataCSV(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HourlyTemperatureSeries series = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	assertEquals(8760, series.size());
+    	assertEquals(6.3, series.temperature(2));
+    	assertEquals("start, two clock changes", 3, series.exceptionCount());
+    	assertEquals(0, series.missingHours());
+    	for(int i = 0; i < series.size(); ++i)
+	    	{
+    		final List<String> row = csv.data().get(i);
+    		assertEquals(Double.parseDouble(row.get(DDNTemperatureDataCSV.INDEX_OF_TEMPERATURE)), series.temperature(i));
+    		assertEquals(series.epochHourUTC(0) + i, series.epochHourUTC(i));
+    		assertEquals(DDNTimestamps.parseLocalEpochHour(row.get(DDNTemperatureDataCSV.INDEX_OF_DATETIME)), series.localEpochHour(i));
+    		final String date = row.get(DDNTemperatureDataCSV.INDEX_OF_DATE);
+    		assertEquals(Integer.parseInt(date.substring(0, 4)), series.year(i));
+    		assertEquals(Integer.parseInt(date.substring(5, 7)), series.month(i));
+    		assertEquals(Integer.parseInt(date.substring(8, 10)), series.dayOfMonth(i));
+    		assertEquals(Integer.parseInt(row.get(3).substring(0, 2)), series.hourOfDay(i));
+	    	}
+
+    	final HourlyTemperatureSeries converted = HourlyTemperatureSeries.fromCSV(csv);
+    	assertEquals(series.size(), converted.size());
+    	assertEquals(series.epochHourUTC(series.size() - 1), converted.epochHourUTC(converted.size() - 1));
+	    }
+
+    /**Test handling of gaps, duplicates and out-of-order rows. */
+    public static void testExceptions() throws IOException
+	    {
+    	final String fragment = """
+Datetime,Timezone,Date,Time,Temp (?C),% Estimated
+2018-01-01 00:00,GMT,2018-01-01,00:00,7,0
+2018-01-01 01:00,GMT,2018-01-01,01:00,7,0
+2018-01-01 01:00,GMT,2018-01-01,01:00,8,0
+2018-01-01 04:00,GMT,2018-01-01,04:00,6.3,0
+2018-01-01 05:00,GMT,2018-01-01,05:00,6,0
+""";
+    	final HourlyTemperatureSeries series = HourlyTemperatureSeries.parse(new StringReader(fragment), null);
+    	assertEquals("duplicate dropped", 4, series.size());
+    	assertEquals("first of duplicates kept", 7.0, series.temperature(1));
+    	assertEquals(2, series.missingHours());
+    	assertEquals(2, series.exceptionCount());
+    	assertEquals(4, series.hourOfDay(2));
+    	assertEquals(series.epochHourUTC(0) + 5, series.epochHourUTC(3));
+
+    	final String outOfOrder = """
+2018-01-01 01:00,GMT,2018-01-01,01:00,7,0
+2018-01-01 00:00,GMT,2018-01-01,00:00,7,0
+""";
+    	try { HourlyTemperatureSeries.parse(new StringReader(outOfOrder), null); fail("should reject"); }
+    	catch(final IOException e) { /* Expected. */ }
+	    }
+    
+    /**Test composition of overlapping series and of a whole station from the data directory tree. */
+    public static void testComposer() throws IOException
+	    {
+    	final String first = """
+2018-01-01 00:00,GMT,2018-01-01,00:00,1,0
+2018-01-01 01:00,GMT,2018-01-01,01:00,2,0
+2018-01-01 02:00,GMT,2018-01-01,02:00,3,0
+""";
+    	final String second = """
+2018-01-01 02:00,GMT,2018-01-01,02:00,99,0
+2018-01-01 03:00,GMT,2018-01-01,03:00,4,0
+""";
+    	final HourlyTemperatureSeries s1 = HourlyTemperatureSeries.parse(new StringReader(first), null);
+    	final HourlyTemperatureSeries s2 = HourlyTemperatureSeries.parse(new StringReader(second), null);
+    	final HourlyTemperatureSeries c = HourlyTemperatureDatasetComposer.concatenate(List.of(s2, s1));
+    	assertEquals("overlapping hour dropped", 4, c.size());
+    	assertEquals("earliest-starting part wins", 3.0, c.temperature(2));
+    	assertEquals(4.0, c.temperature(3));
+    	assertEquals(0, c.missingHours());
+
+    	// A part starting later may fill gaps within an earlier one.
+    	final String gappy = """
+2018-01-01 00:00,GMT,2018-01-01,00:00,0,0
+2018-01-01 01:00,GMT,2018-01-01,01:00,1,0
+2018-01-01 03:00,GMT,2018-01-01,03:00,3,0
+2018-01-01 05:00,GMT,2018-01-01,05:00,5,0
+""";
+    	final String filler = """
+2018-01-01 02:00,GMT,2018-01-01,02:00,2,0
+2018-01-01 03:00,GMT,2018-01-01,03:00,99,0
+2018-01-01 04:00,GMT,2018-01-01,04:00,4,0
+""";
+    	final HourlyTemperatureSeries f = HourlyTemperatureDatasetComposer.concatenate(List.of(
+			HourlyTemperatureSeries.parse(new StringReader(filler), null),
+			HourlyTemperatureSeries.parse(new StringReader(gappy), null)));
+    	assertEquals("gaps filled", 6, f.size());
+    	assertEquals(0, f.missingHours());
+    	for(int i = 0; i < 6; ++i) { assertEquals("hour " + i, (double) i, f.temperature(i)); }
+    	assertEquals(f.epochHourUTC(0) + 5, f.epochHourUTC(5));
+
+    	final HourlyTemperatureDatasetComposer composer =
+			new HourlyTemperatureDatasetComposer(DDNTemperatureDataCSV.DEFAULT_PATH_TO_TEMPERATURE_DATA.toPath());
+    	assertTrue(composer.stations().containsAll(List.of("EGLL", "EGPF", "EGAA", "EGPH")));
+    	assertEquals("201X plus 2018 extract", 2, composer.files("EGLL").size());
+    	assertEquals(1, composer.files("EGAA").size());
+    	assertTrue(composer.files("XXXX").isEmpty());
+    	// The 2018 extract lies entirely within the 201X data so adds nothing.
+    	final HourlyTemperatureSeries egll = composer.compose("EGLL");
+    	assertEquals(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA, egll.size());
+    	assertEquals(0, egll.missingHours());
+    	assertEquals(2010, egll.year(0));
+    	assertEquals(2019, egll.year(egll.size() - 1));
+
+    	// A symbolic link back up the tree is not followed.
+    	final Path dir = Files.createTempDirectory("TestComposer");
+    	final Path sub = Files.createDirectory(dir.resolve("sub"));
+    	final Path data = sub.resolve("EGLL_CelsiusTemps_2018" + HourlyTemperatureSeries.BINARY_FILE_SUFFIX);
+    	final Path link = sub.resolve("loop");
+    	try
+	    	{
+    		HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018).saveBinary(data);
+    		try { Files.createSymbolicLink(link, dir); }
+    		catch(final UnsupportedOperationException | IOException e) { /* Scan without the loop. */ }
+    		final HourlyTemperatureDatasetComposer looped = new HourlyTemperatureDatasetComposer(dir);
+    		assertEquals(List.of(data), looped.files("EGLL"));
+    		assertEquals(8760, looped.compose("EGLL").size());
+	    	}
+    	finally
+	    	{
+    		Files.deleteIfExists(link);
+    		Files.deleteIfExists(data);
+    		Files.delete(sub);
+    		Files.delete(dir);
+	    	}
+	    }
+    
+    /**Test that off-heap (direct and mapped) series behave exactly as on-heap ones. */
+    public static void testOffHeap() throws IOException
+	    {
+    	final HourlyTemperatureSeries heap = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	assertFalse(heap.isOffHeap());
+    	final Path p = Files.createTempFile("TestHourlyTemperatureSeries", HourlyTemperatureSeries.BINARY_FILE_SUFFIX);
+    	p.toFile().deleteOnExit();
+    	heap.saveBinary(p);
+    	final HourlyTemperatureSeries direct = heap.toOffHeap();
+    	final HourlyTemperatureSeries mapped = HourlyTemperatureSeries.mapBinary(p);
+    	for(final HourlyTemperatureSeries s : List.of(direct, mapped))
+	    	{
+    		assertTrue(s.isOffHeap());
+    		assertSame(s, s.toOffHeap());
+    		assertEquals(heap.toString(), s.toString());
+    		assertTrue(Arrays.equals(heap.contentDigest(), s.contentDigest()));
+    		assertTrue(Arrays.equals(heap.temperaturesCopy(), s.temperaturesCopy()));
+    		for(int i = 0; i < heap.size(); i += 97)
+	    		{
+    			assertEquals(heap.temperature(i), s.temperature(i));
+    			assertEquals(heap.localEpochHour(i), s.localEpochHour(i));
+	    		}
+    		try { s.temperature(s.size()); fail(); } catch(final IndexOutOfBoundsException e) { /* expected */ }
+    		// Models run identically from off-heap data.
+    		for(final boolean soft : new boolean[]{false, true})
+	    		{
+    			assertEquals(new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, heap).runScenario(true, soft, null),
+					new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, s).runScenario(true, soft, null));
+	    		}
+	    	}
+
+    	// Truncated or padded files are rejected.
+    	final byte[] b = Files.readAllBytes(p);
+    	Files.write(p, Arrays.copyOf(b, b.length - 1));
+    	try { HourlyTemperatureSeries.mapBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	Files.write(p, Arrays.copyOf(b, b.length + 8));
+    	try { HourlyTemperatureSeries.mapBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	try { HourlyTemperatureSeries.loadBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	Files.write(p, Arrays.copyOf(b, 10));
+    	try { HourlyTemperatureSeries.mapBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	try { HourlyTemperatureSeries.loadBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	Files.delete(p);
+
+    	// A header claiming far more rows than present fails on the length or at end of input,
+    	// without first allocating for the claimed count.
+    	final ByteBuffer huge = ByteBuffer.wrap(Arrays.copyOf(b, 24 + 16 + 16));
+    	huge.putInt(16, Integer.MAX_VALUE).putInt(20, 1);
+    	try { HourlyTemperatureSeries.read(new DataInputStream(new ByteArrayInputStream(huge.array()))); fail(); }
+    	catch(final EOFException e) { /* expected */ }
+    	Files.write(p, huge.array());
+    	try { HourlyTemperatureSeries.loadBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	try { HourlyTemperatureSeries.mapBinary(p); fail(); } catch(final IOException e) { /* expected */ }
+    	Files.delete(p);
+	    }
+    
+    /**Test the cached heating-hour index. */
+    public static void testHeatingHours() throws IOException
+	    {
+    	final HourlyTemperatureSeries s = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HourlyTemperatureSeries.HeatingHours hh = s.heatingHours(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C);
+    	assertSame(hh, s.heatingHours(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C));
+    	assertEquals(HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C, hh.baseTemperatureC());
+    	int k = 0;
+    	for(int i = 0; i < s.size(); ++i)
+	    	{
+    		if(s.temperature(i) >= hh.baseTemperatureC()) { continue; }
+    		assertEquals(i, hh.row(k));
+    		assertEquals(s.temperature(i), hh.temperature(k));
+    		++k;
+	    	}
+    	assertEquals(k, hh.count());
+    	assertTrue("some but not all hours need heat", (k > 0) && (k < s.size()));
+    	final double[] t = new double[3];
+    	hh.getTemperatures(1, t, 0, 3);
+    	assertEquals(hh.temperature(2), t[1]);
+    	// Same index whether on or off heap, held off heap for an off-heap series.
+    	final HourlyTemperatureSeries.HeatingHours off = s.toOffHeap().heatingHours(hh.baseTemperatureC());
+    	assertFalse(hh.isOffHeap());
+    	assertTrue(off.isOffHeap());
+    	assertEquals(hh.count(), off.count());
+    	for(int j = 0; j < hh.count(); ++j) { assertEquals(hh.row(j), off.row(j)); }
+    	assertEquals(0, s.heatingHours(-100).count());
+    	assertEquals(s.size(), s.heatingHours(100).count());
+    	try { s.heatingHours(Double.NaN); fail(); } catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+}
@@ -18,11 +18,16 @@ package localtest;
 
 import java.io.IOException;
 import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.SplittableRandom;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.hd.d.TRVmodel.hg.FixedPrecision;
+import org.hd.d.TRVmodel.hg.ResultCube;
 import org.hd.d.TRVmodel.hg.ShowComputations;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
@@ -87,4 +92,55 @@ public final class TestMisc extends TestCase
 	    final Document doc1 = builder1.parse(new InputSource(new StringReader(table1)));
 	    assertTrue(doc1.hasChildNodes());
 	    }
+
+    /**Test that the fixed-precision formatter matches String.format() exactly. */
+    public static void testFixedPrecision()
+	    {
+    	final double[] edge = {0, -0.0, 0.05, 0.15, 0.25, 0.35, -0.04, -0.05, 1.005, 2.675, 9.95, 99.95, -99.95,
+			123456789.25, 1e20, -1e20, Double.MIN_VALUE, Double.MAX_VALUE, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY};
+    	for(final double x : edge)
+	    	for(int d = 0; d <= FixedPrecision.MAX_DECIMALS; ++d)
+		    	{ assertEquals(x + " " + d, String.format(Locale.ROOT, "%." + d + "f", x), FixedPrecision.format(x, d)); }
+    	final SplittableRandom r = new SplittableRandom(42);
+    	for(int i = 0; i < 100_000; ++i)
+	    	{
+    		final double x = (r.nextDouble() - 0.5) * Math.pow(10, r.nextInt(-3, 8));
+    		final int d = r.nextInt(4);
+    		assertEquals(x + " " + d, String.format(Locale.ROOT, "%." + d + "f", x), FixedPrecision.format(x, d));
+	    	}
+    	try { FixedPrecision.format(1, FixedPrecision.MAX_DECIMALS + 1); fail(); } catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Test that the streamed tables reproduce London's rows exactly as rendered with String.format before streaming. */
+    public static void testStreamedTablesMatch() throws IOException
+	    {
+    	final ResultCube cube = ResultCube.shared201X();
+    	final StringWriter h = new StringWriter();
+    	ShowComputations.writeHTMLMainSummaryTable(h, cube, true);
+    	assertTrue(h.toString().contains(
+			"<tr><td rowspan=\"2\">London (EGLL)</td><td>bungalow</td><td rowspan=\"2\" style=\"text-align:right\">-12.3%</td>" +
+				"<td style=\"text-align:right\">2.5%</td><td style=\"text-align:right\">-5.1%</td></tr>\n" +
+			"<tr><td>detached</td><td style=\"text-align:right\">10.8%</td><td style=\"text-align:right\">-5.2%</td></tr>\n"));
+    	final StringWriter hs = new StringWriter();
+    	ShowComputations.writeHTMLMainSummaryTable(hs, cube, false);
+    	assertTrue(hs.toString().contains(
+			"<tr><td rowspan=\"2\">London (EGLL)</td><td>bungalow</td><td rowspan=\"2\" style=\"text-align:right\">-18.3%</td>" +
+				"<td style=\"text-align:right\">-17.9%</td><td style=\"text-align:right\">-15.9%</td></tr>\n" +
+			"<tr><td>detached</td><td style=\"text-align:right\">-19.5%</td><td style=\"text-align:right\">-16.3%</td></tr>\n"));
+    	final StringWriter l = new StringWriter();
+    	ShowComputations.writeLaTeXMainSummaryTable(l, cube, true);
+    	assertTrue(l.toString().contains(
+			"\\midrule\\multirow[m]{2}{*}{London (EGLL)} & bungalow & \\multirow[m]{2}{*}{-12.3\\%} & 2.5\\%  & -5.1\\% \\\\\n" +
+			" & detached &  & 10.8\\%  & -5.2\\% \\\\\n"));
+    	final StringWriter ls = new StringWriter();
+    	ShowComputations.writeLaTeXMainSummaryTable(ls, cube, false);
+    	assertTrue(ls.toString().contains(
+			"\\midrule\\multirow[m]{2}{*}{London (EGLL)} & bungalow & \\multirow[m]{2}{*}{-18.3\\%} & -17.9\\%  & -15.9\\% \\\\\n" +
+			" & detached &  & -19.5\\%  & -16.3\\% \\\\\n"));
+		final StringWriter s = new StringWriter();
+		ShowComputations.writeHTMLSagTable(s, cube);
+    	assertTrue(s.toString().contains(
+			"<tr><td rowspan=\"2\">London (EGLL)</td><td>bungalow</td><td style=\"text-align:right\">1.5K</td><td style=\"text-align:right\">1.0K</td></tr>\n" +
+			"<tr><td>detached</td><td style=\"text-align:right\">1.9K</td><td style=\"text-align:right\">1.1K</td></tr>\n"));
+	    }
     }
@@ -0,0 +1,74 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataValidator;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.stats.PhaseTimings;
+import org.hd.d.TRVmodel.stats.PhaseTimings.PhaseTotal;
+
+import junit.framework.TestCase;
+
+/**Test phase timings of loading and model runs.
+ * Timings are process-wide, and the tests run in their own JVM.
+ */
+public final class TestPhaseTimings extends TestCase
+    {
+    /**Test that load, parse, validate and compute phases are recorded with their hours. */
+    public static void testPhases() throws IOException
+	    {
+    	// Nothing is recorded while disabled.
+    	try(PhaseTimings.Span s = PhaseTimings.start("x")) { s.hours(1); }
+    	assertTrue(PhaseTimings.snapshot().isEmpty());
+
+    	PhaseTimings.enable();
+    	PhaseTimings.reset();
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018,
+			new DDNTemperatureDataValidator(true));
+    	new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t).runScenario(false, false, null);
+    	new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t).runScenario(true, true, null);
+    	final Map<String, PhaseTotal> m = PhaseTimings.snapshot().stream()
+			.collect(Collectors.toMap(PhaseTotal::phase, Function.identity()));
+    	assertEquals(List.of("load", "parse", "validate", "compute.stiff.bungalow", "compute.soft.detached"),
+			PhaseTimings.snapshot().stream().map(PhaseTotal::phase).toList());
+    	assertEquals(2, m.get("load").count()); // Open, and reading.
+    	assertEquals(t.size(), m.get("parse").hours());
+    	assertEquals(t.size(), m.get("compute.soft.detached").hours());
+    	for(final PhaseTotal p : m.values())
+	    	{
+    		assertTrue(p.nanos() > 0);
+    		if(PhaseTimings.isAllocationCounted() && !"validate".equals(p.phase())) { assertTrue(p.phase(), p.allocatedBytes() > 0); }
+	    	}
+    	assertTrue(m.get("parse").hoursPerSecond() > 0);
+
+    	final StringBuilder json = new StringBuilder();
+    	PhaseTimings.writeJSON(json);
+    	assertTrue(json.toString().startsWith("{\"allocationCounted\":"));
+    	assertTrue(json.toString().contains("{\"phase\":\"compute.stiff.bungalow\",\"count\":1,"));
+    	final StringBuilder report = new StringBuilder();
+    	PhaseTimings.writeReport(report);
+    	assertEquals(1 + m.size(), report.toString().split("\\R").length);
+	    }
+    }
@@ -0,0 +1,71 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.ResultCube;
+import org.hd.d.TRVmodel.hg.ShowComputations;
+
+import junit.framework.TestCase;
+
+/**Test the compute-once result cube. */
+public final class TestResultCube extends TestCase
+    {
+    /**Test that every cell for one station matches a direct scenario run, and tables render from it. */
+    public static void testCellsMatchDirectRuns() throws IOException
+	    {
+    	final List<HourlyTemperatureDataDescriptor> stations = DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.subList(0, 1);
+    	final ResultCube cube = ResultCube.compute(stations,
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE,
+			DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA,
+			ModelParameters.FIXES_APPLIED, null);
+    	assertEquals(stations, cube.stations());
+    	assertFalse(cube.isComputed(false));
+    	assertFalse(cube.isComputed(true));
+    	// A stiff table does not run the soft solver.
+    	ShowComputations.generateHTMLMainSummaryTable(cube, true);
+    	assertTrue(cube.isComputed(false));
+    	assertFalse(cube.isComputed(true));
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(new File(
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			stations.get(0).station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	for(final boolean detached : new boolean[]{false, true})
+	    	for(final boolean abab : new boolean[]{false, true})
+		    	for(final boolean soft : new boolean[]{false, true})
+			    	{
+		    		assertEquals(abab, cube.parameters(abab).roomsAlternatingABAB());
+		    		final double[] eq = new double[]{Double.NaN};
+		    		final HGTRVHPMModelByHour s = new HGTRVHPMModelByHour(cube.parameters(abab), t);
+		    		assertEquals(s.runScenario(detached, soft, eq), cube.get(0, detached, abab, soft).result());
+		    		if(soft) { assertEquals(eq[0], cube.get(0, detached, abab, soft).equilibriumTemperatureMinC()); }
+			    	}
+    	try { cube.get(1, false, false, false); fail(); } catch(final IndexOutOfBoundsException e) { /* expected */ }
+
+    	final String html = ShowComputations.generateHTMLMainSummaryTable(cube, true);
+    	assertTrue(html.contains(stations.get(0).station()));
+    	assertEquals(html, ShowComputations.generateHTMLMainSummaryTable(cube, true));
+    	assertTrue(ShowComputations.generateLaTeXMainSummaryTable(cube, false).contains(stations.get(0).station()));
+	    }
+    }
@@ -0,0 +1,57 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.hd.d.TRVmodel.hg.ScalingBenchmark;
+import org.hd.d.TRVmodel.hg.ScalingBenchmark.Measurement;
+import org.hd.d.TRVmodel.hg.ScalingBenchmark.Size;
+
+import junit.framework.TestCase;
+
+/**Test the dataset-size scaling benchmark driver on a tiny size. */
+public final class TestScalingBenchmark extends TestCase
+    {
+    /**Test size list parsing. */
+    public static void testSizes()
+	    {
+    	assertEquals(List.of(new Size(1, 1), new Size(7, 10)), Size.parseList("1x1, 7x10"));
+    	assertEquals(6, Size.parseList(ScalingBenchmark.DEFAULT_SIZES).size());
+    	try { Size.parseList("7"); fail(); } catch(final IllegalArgumentException e) { /* expected */ }
+    	try { Size.parseList("0x10"); fail(); } catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Test that a tiny run emits a plausible CSV row for each pipeline and mode. */
+    public static void testTinyRun() throws IOException
+	    {
+    	final StringBuilder sb = new StringBuilder();
+    	final List<Measurement> m = ScalingBenchmark.run(Size.parseList("2x1"), sb);
+    	assertEquals(2 * ScalingBenchmark.Pipeline.values().length, m.size());
+    	final String[] lines = sb.toString().split("\n");
+    	assertEquals(ScalingBenchmark.CSV_HEADER, lines[0]);
+    	assertEquals(1 + m.size(), lines.length);
+    	final int columns = ScalingBenchmark.CSV_HEADER.split(",").length;
+    	for(int i = 1; i < lines.length; ++i) { assertEquals(columns, lines[i].split(",").length); }
+    	for(final Measurement x : m)
+	    	{
+    		assertEquals(2 * 8760, x.hours());
+    		assertTrue(x.hoursPerSecond() > 0);
+    		assertTrue(x.peakHeapBytes() > 0);
+	    	}
+	    }
+    }
@@ -0,0 +1,158 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+
+package localtest;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.HeatAndElectricityDemand;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.ScenarioResultCache;
+
+import junit.framework.TestCase;
+
+/**Test the persistent scenario result cache. */
+public final class TestScenarioResultCache extends TestCase
+    {
+    /**Create an empty temporary file that will be deleted on exit. */
+    private static Path tempFile() throws IOException
+	    {
+    	final Path p = Files.createTempFile("TestScenarioResultCache", ".tmp");
+    	p.toFile().deleteOnExit();
+    	Files.delete(p);
+    	return(p);
+	    }
+
+    /**Make a distinct plausible result. */
+    private static ScenarioResult result(final int i)
+	    {
+    	return(new ScenarioResult(0.5, new DemandWithoutAndWithSetback(
+			new HeatAndElectricityDemand(1000 + i, 300 + i), new HeatAndElectricityDemand(900 + i, 310 + i))));
+	    }
+
+    /**Make a distinct key. */
+    private static byte[] key(final int i)
+	    { return(ScenarioResultCache.key(new ModelParameters(i), false, false, new byte[32])); }
+
+    /**Test keys differ for every input and are stable. */
+    public static void testKeys() throws IOException
+	    {
+    	final byte[] d = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018).contentDigest();
+    	assertTrue(Arrays.equals(d, HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018).contentDigest()));
+    	assertFalse(Arrays.equals(d, HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGPF_2018).contentDigest()));
+    	final ModelParameters p = ModelParameters.FIXES_APPLIED;
+    	final byte[] k = ScenarioResultCache.key(p, false, false, d);
+    	assertTrue(Arrays.equals(k, ScenarioResultCache.key(p, false, false, d)));
+    	assertFalse(Arrays.equals(k, ScenarioResultCache.key(p, true, false, d)));
+    	assertFalse(Arrays.equals(k, ScenarioResultCache.key(p, false, true, d)));
+    	assertFalse(Arrays.equals(k, ScenarioResultCache.key(ModelParameters.FIXES_AND_AABB, false, false, d)));
+    	assertTrue(Arrays.equals(k, ScenarioResultCache.key(p, false, false, HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C, d)));
+    	assertFalse(Arrays.equals(k, ScenarioResultCache.key(p, false, false, 14.5, d)));
+	    }
+
+    /**Test results persist across instances, and a torn tail is ignored. */
+    public static void testPersistence() throws IOException
+	    {
+    	final Path f = tempFile();
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, 100))
+	    	{
+    		for(int i = 0; i < 10; ++i) { c.put(key(i), result(i)); }
+    		assertEquals(result(3), c.get(key(3)));
+	    	}
+    	// Simulate a crash part-way through appending a record.
+    	Files.write(f, new byte[]{1, 2, 3}, StandardOpenOption.APPEND);
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, 100))
+	    	{
+    		assertEquals(10, c.size());
+    		for(int i = 0; i < 10; ++i) { assertEquals(result(i), c.get(key(i))); }
+    		assertNull(c.get(key(99)));
+    		c.put(key(10), result(10));
+	    	}
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, 100))
+    		{ assertEquals(result(10), c.get(key(10))); }
+	    }
+
+    /**Test the size bound: LRU eviction in memory and compaction on disk. */
+    public static void testBounded() throws IOException
+	    {
+    	final Path f = tempFile();
+    	final int max = 16;
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, max))
+	    	{
+    		c.put(key(0), result(0));
+    		for(int i = 1; i < 200; ++i)
+	    		{
+    			c.put(key(i), result(i));
+    			assertNotNull(c.get(key(0))); // Keep entry 0 recently used.
+	    		}
+    		assertEquals(max, c.size());
+    		assertEquals(result(0), c.get(key(0)));
+    		assertEquals(result(199), c.get(key(199)));
+	    	}
+    	assertTrue(Files.size(f) < 3 * max * 100);
+    	// Compaction leaves no temporary files behind.
+    	try(var s = Files.list(f.toAbsolutePath().getParent()))
+    		{ assertEquals(0, s.filter(p -> p.getFileName().toString().startsWith(f.getFileName().toString() + ".")).count()); }
+	    }
+
+    /**Test that an instance sharing the file follows it when another compacts (replaces) it. */
+    public static void testSharedAcrossCompaction() throws IOException
+	    {
+    	final Path f = tempFile();
+    	final int max = 8;
+    	try(ScenarioResultCache a = new ScenarioResultCache(f, max);
+    		ScenarioResultCache b = new ScenarioResultCache(f, max))
+	    	{
+    		for(int i = 0; i < 5 * max; ++i) { a.put(key(i), result(i)); }
+    		// b reopens the replaced file and sees the live entries.
+    		assertEquals(result(5 * max - 1), b.get(key(5 * max - 1)));
+    		b.put(key(1000), result(1000));
+    		assertEquals(result(1000), a.get(key(1000)));
+	    	}
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, max))
+    		{ assertEquals(result(1000), c.get(key(1000))); }
+	    }
+
+    /**Test that cached scenario runs match computed ones. */
+    public static void testRunScenarioCached() throws IOException
+	    {
+    	final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED,
+			HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018));
+    	final ScenarioResult expected = scenario.runScenario(false, false, null);
+    	final Path f = tempFile();
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, 100))
+	    	{
+    		assertEquals(expected, scenario.runScenarioCached(c, false, false));
+    		assertEquals(expected, scenario.runScenarioCached(c, false, false));
+    		assertEquals(1, c.hits());
+	    	}
+    	try(ScenarioResultCache c = new ScenarioResultCache(f, 100))
+	    	{
+    		assertEquals(expected, scenario.runScenarioCached(c, false, false));
+    		assertEquals(1, c.hits());
+	    	}
+    	assertEquals(expected, scenario.runScenarioCached(null, false, false));
+	    }
+    }
@@ -0,0 +1,122 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.IOException;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.CoPModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.SoftATempSurrogate;
+
+import junit.framework.TestCase;
+
+/**Test the fitted surrogate for soft-regulation demand. */
+public final class TestSoftATempSurrogate extends TestCase
+    {
+    /**Surrogate errors stay near those observed on the check grid, including between check points, and no-setback demand is exact. */
+    public static void testWithinObservedError()
+	    {
+    	for(final boolean bungalow : new boolean[]{false, true})
+    		for(final boolean abab : new boolean[]{true, false})
+	    		{
+    			final ModelParameters mp = new ModelParameters(ModelParameters.FIXED_DOORS_PER_INTERNAL_WALL,
+					ModelParameters.FIXED_CORRECT_COP_FOR_FLOW_TEMPERATURE, abab, ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+    			final SoftATempSurrogate s = SoftATempSurrogate.forParameters(mp, bungalow, CoPModel.HG_LINEAR);
+    			assertSame(s, SoftATempSurrogate.forParameters(mp.cloneWithAdjustedExternalTemperature(3), bungalow, CoPModel.HG_LINEAR));
+    			assertTrue(s.observedErrorEquilibriumK() <= SoftATempSurrogate.DEFAULT_TOLERANCE_K);
+    			// Allow a step of the exact solver beyond the observed error between check points.
+    			final double slackK = 0.01;
+    			for(double t = s.loC(); t <= s.hiC(); t += 0.0137)
+	    			{
+    				final double[] eqExact = new double[1], eqFit = new double[1];
+    				final DemandWithoutAndWithSetback exact = HGTRVHPMModelParameterised.computeSoftATempDemandW(
+						mp.cloneWithAdjustedExternalTemperature(t), bungalow, eqExact);
+    				final DemandWithoutAndWithSetback fit = s.demandW(t, eqFit);
+    				assertEquals(exact.noSetback(), fit.noSetback());
+    				assertEquals(eqExact[0], eqFit[0], s.observedErrorEquilibriumK() + slackK);
+    				assertEquals(exact.withSetback().heatDemand(), fit.withSetback().heatDemand(),
+						s.observedErrorHeatW() * (1 + (slackK / s.observedErrorEquilibriumK())));
+	    			}
+	    		}
+	    }
+
+    /**Shared surrogates are bounded, the least recently used being fitted afresh. */
+    public static void testSharedBounded()
+	    {
+    	final SoftATempSurrogate first = SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, true, CoPModel.HG_LINEAR, 0);
+    	for(int i = 1; i <= SoftATempSurrogate.MAX_SHARED; ++i)
+    		{ SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, true, CoPModel.HG_LINEAR, i / 8.0); }
+    	assertNotSame(first, SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, true, CoPModel.HG_LINEAR, 0));
+	    }
+
+    /**Out-of-range and implausible arguments are rejected. */
+    public static void testBadArguments()
+	    {
+    	final SoftATempSurrogate s = SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR);
+    	assertFalse(s.covers(s.hiC() + 1));
+    	try { s.demandW(s.hiC() + 1, null); fail("should reject out-of-range temperature"); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try { new SoftATempSurrogate(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR, 0, 20, 0.02); fail("should reject range above setback"); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try { new SoftATempSurrogate(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR, -5, 5, 0); fail("should reject zero tolerance"); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Fast scenario run matches the exact one: stiff identically, soft within the surrogate's observed errors. */
+    public static void testRunScenarioFast() throws IOException
+	    {
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HGTRVHPMModelByHour m = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t);
+    	for(final boolean detached : new boolean[]{false, true})
+	    	{
+	    	assertEquals(m.runScenario(detached, false, null), m.runScenarioFast(detached, false, null));
+
+	    	final SoftATempSurrogate s = SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, !detached, CoPModel.HG_LINEAR);
+	    	final double[] eqMinExact = new double[1], eqMinFast = new double[1];
+	    	final ScenarioResult exact = m.runScenario(detached, true, eqMinExact);
+	    	final ScenarioResult fast = m.runScenarioFast(detached, true, eqMinFast);
+	    	assertEquals(exact.demand().noSetback().heatDemand(), fast.demand().noSetback().heatDemand(), 1e-9);
+	    	assertEquals(exact.demand().noSetback().heatPumpElectricity(), fast.demand().noSetback().heatPumpElectricity(), 1e-9);
+	    	assertEquals(exact.demand().withSetback().heatDemand(), fast.demand().withSetback().heatDemand(), s.observedErrorHeatW());
+	    	assertEquals(exact.demand().withSetback().heatPumpElectricity(), fast.demand().withSetback().heatPumpElectricity(), s.observedErrorElectricityW());
+	    	assertEquals(eqMinExact[0], eqMinFast[0], 2 * SoftATempSurrogate.DEFAULT_TOLERANCE_K);
+	    	assertEquals(exact.hoursFractionSetbackRaisesDemand(), fast.hoursFractionSetbackRaisesDemand(), 0.01);
+	    	}
+	    }
+
+    /**The surrogate used by a fast run covers up to the model's base temperature, short of the setback temperature. */
+    public static void testFollowsBaseTemperature() throws IOException
+	    {
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final double base = HGTRVHPMModel.SETBACK_ROOM_TEMPERATURE_C;
+    	final HGTRVHPMModelByHour m = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t, CoPModel.HG_LINEAR, base);
+    	final SoftATempSurrogate s = SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR, base);
+    	assertEquals(SoftATempSurrogate.MAX_HI_C, s.hiC());
+    	assertTrue(s.covers(17));
+    	assertNotSame(s, SoftATempSurrogate.forParameters(ModelParameters.FIXES_APPLIED, false, CoPModel.HG_LINEAR));
+    	final ScenarioResult exact = m.runScenario(true, true, null);
+    	final ScenarioResult fast = m.runScenarioFast(true, true, null);
+    	assertEquals(exact.demand().noSetback().heatDemand(), fast.demand().noSetback().heatDemand(), 1e-9);
+    	assertEquals(exact.demand().withSetback().heatDemand(), fast.demand().withSetback().heatDemand(), s.observedErrorHeatW());
+	    }
+    }
@@ -0,0 +1,105 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.CoPModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.ResultCube;
+import org.hd.d.TRVmodel.hg.StationPipeline;
+
+import junit.framework.TestCase;
+
+/**Test the pipelined load-compute-aggregate run over stations. */
+public final class TestStationPipeline extends TestCase
+    {
+    /**Pipelined results are exactly those of loading each series and running each scenario in turn. */
+    public static void testMatchesRunScenario() throws IOException
+	    {
+    	final List<HourlyTemperatureDataDescriptor> stations = DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.subList(2, 4);
+    	final List<StationPipeline.StationResult> results = StationPipeline.run(stations,
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA, DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE,
+			ModelParameters.FIXES_APPLIED, CoPModel.HG_LINEAR, StationPipeline.ALL_SCENARIOS, 3, 1);
+    	assertEquals(stations.size(), results.size());
+    	for(int s = 0; s < stations.size(); ++s)
+	    	{
+    		final StationPipeline.StationResult sr = results.get(s);
+    		assertSame(stations.get(s), sr.station());
+    		assertEquals(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA, sr.hours());
+    		assertTrue(sr.validation().toString(), sr.validation().isClean());
+    		final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+				stations.get(s).station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    		final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t);
+    		for(int i = 0; i < StationPipeline.ALL_SCENARIOS.size(); ++i)
+	    		{
+    			final StationPipeline.Scenario sc = StationPipeline.ALL_SCENARIOS.get(i);
+    			final double[] eqMin = new double[]{HGTRVHPMModel.NORMAL_ROOM_TEMPERATURE_C};
+    			final ScenarioResult expected = scenario.runScenario(sc.detached(), sc.soft(), eqMin);
+    			final ResultCube.Cell cell = sr.cells().get(i);
+    			assertEquals(expected, cell.result());
+    			assertEquals(eqMin[0], cell.equilibriumTemperatureMinC());
+	    		}
+	    	}
+	    }
+
+    /**The CoP model and base temperature given are honoured, as by HGTRVHPMModelByHour. */
+    public static void testBaseTemperatureAndCoPModel() throws IOException
+	    {
+    	final HourlyTemperatureDataDescriptor station = DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.get(0);
+    	final double base = 12.0;
+    	final CoPModel copModel = (flowC, sourceC) -> 3.0;
+    	final List<StationPipeline.StationResult> results = StationPipeline.run(List.of(station),
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA, DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE,
+			ModelParameters.FIXES_APPLIED, copModel, base, StationPipeline.ALL_SCENARIOS, 2, 1);
+    	final HourlyTemperatureSeries t = HourlyTemperatureSeries.load(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			station.station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	final HGTRVHPMModelByHour scenario = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t, copModel, base);
+    	for(int i = 0; i < StationPipeline.ALL_SCENARIOS.size(); ++i)
+	    	{
+    		final StationPipeline.Scenario sc = StationPipeline.ALL_SCENARIOS.get(i);
+    		assertEquals(scenario.runScenario(sc.detached(), sc.soft(), null), results.get(0).cells().get(i).result());
+	    	}
+    	// A lower base temperature means fewer heating hours and so lower mean demand.
+    	assertTrue(results.get(0).cells().get(0).result().demand().noSetback().heatDemand() <
+			new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, t, copModel).runScenario(false, false, null)
+				.demand().noSetback().heatDemand());
+	    }
+
+    /**A missing data file is reported as an IOException, not left hanging. */
+    public static void testMissingFile()
+	    {
+    	final List<HourlyTemperatureDataDescriptor> stations = List.of(
+			DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.get(0),
+			new HourlyTemperatureDataDescriptor("XXXX", "Nowhere", 0));
+    	try
+	    	{
+    		StationPipeline.run(stations,
+				DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA, DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE,
+				ModelParameters.FIXES_APPLIED, List.of(new StationPipeline.Scenario(true, false)));
+    		fail("expected IOException");
+	    	}
+    	catch(final IOException e) { /* expected */ }
+	    }
+    }
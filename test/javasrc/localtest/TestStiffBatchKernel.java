@@ -0,0 +1,135 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SplittableRandom;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.DemandWithoutAndWithSetback;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.StiffBatchKernel;
+import org.hd.d.TRVmodel.hg.TabulatedCoPModel;
+
+import junit.framework.TestCase;
+
+/**Test the batch stiff-regulation kernel against the per-hour scalar model. */
+public final class TestStiffBatchKernel extends TestCase
+    {
+    /**Scalar reference: one model evaluation per hour needing heat, as the original by-hour loop. */
+    private static ScenarioResult reference(final ModelParameters params, final boolean detached, final double[] temperatures)
+	    {
+    	int hoursSetbackRaisesDemand = 0;
+    	double hNSB = 0, eNSB = 0, hSB = 0, eSB = 0;
+    	for(final double t : temperatures)
+	    	{
+    		if(t >= HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C) { continue; }
+    		final DemandWithoutAndWithSetback d = HGTRVHPMModelParameterised.computeDetachedDemandW(
+				params.cloneWithAdjustedExternalTemperature(t), !detached);
+    		hNSB += d.noSetback().heatDemand();
+    		eNSB += d.noSetback().heatPumpElectricity();
+    		hSB += d.withSetback().heatDemand();
+    		eSB += d.withSetback().heatPumpElectricity();
+    		if(d.withSetback().heatPumpElectricity() > d.noSetback().heatPumpElectricity()) { ++hoursSetbackRaisesDemand; }
+	    	}
+    	final int n = temperatures.length;
+    	return(new ScenarioResult(hoursSetbackRaisesDemand / (double) n,
+			new DemandWithoutAndWithSetback(
+				new HGTRVHPMModelParameterised.HeatAndElectricityDemand(hNSB / n, eNSB / n),
+				new HGTRVHPMModelParameterised.HeatAndElectricityDemand(hSB / n, eSB / n))));
+	    }
+
+    /**Assert results equal to a relative tolerance, allowing for different summation order and pow() rounding. */
+    private static void assertClose(final ScenarioResult expected, final ScenarioResult actual, final double rel)
+	    {
+    	assertEquals(expected.hoursFractionSetbackRaisesDemand(), actual.hoursFractionSetbackRaisesDemand(), 1e-9);
+    	final double[] e = {expected.demand().noSetback().heatDemand(), expected.demand().noSetback().heatPumpElectricity(),
+			expected.demand().withSetback().heatDemand(), expected.demand().withSetback().heatPumpElectricity()};
+    	final double[] a = {actual.demand().noSetback().heatDemand(), actual.demand().noSetback().heatPumpElectricity(),
+			actual.demand().withSetback().heatDemand(), actual.demand().withSetback().heatPumpElectricity()};
+    	for(int i = 0; i < e.length; ++i) { assertEquals(e[i], a[i], rel * Math.abs(e[i])); }
+	    }
+
+    /**Test that the vector path is available when the module is added, as in the build's test runs. */
+    public static void testVectorAvailability()
+	    {
+    	final boolean moduleAdded = ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent();
+    	assertEquals(moduleAdded, StiffBatchKernel.VECTOR_AVAILABLE);
+    	assertEquals(moduleAdded, new StiffBatchKernel(ModelParameters.FIXES_APPLIED, true).isVectorised());
+    	// Only the HG linear CoP is vectorised.
+    	assertFalse(new StiffBatchKernel(ModelParameters.FIXES_APPLIED, true, (f, s) -> 3).isVectorised());
+	    }
+
+    /**Test the scalar kernel is bit-for-bit the per-hour model, and the vector path very close, for all stiff variants.
+     * The kernel computes through the shared per-hour formulas
+     * while the model works through the HG worksheet's named steps,
+     * so this also checks that the two agree exactly.
+     */
+    public static void testMatchesScalar()
+	    {
+    	// Random temperatures spanning the base-temperature cutoff, with a ragged tail.
+    	final SplittableRandom rnd = new SplittableRandom(1);
+    	final double[] temperatures = new double[3000 + 17];
+    	for(int i = 0; i < temperatures.length; ++i) { temperatures[i] = Math.rint((rnd.nextDouble() * 400) - 150) / 10; }
+    	temperatures[0] = HGTRVHPMModelByHour.DEFAULT_BASE_HEATING_TEMPERATURE_C;
+
+    	for(final double doors : new double[]{0, 0.5, 1})
+	    	for(final boolean correctCoP : new boolean[]{false, true})
+		    	for(final boolean abab : new boolean[]{false, true})
+			    	for(final boolean detached : new boolean[]{false, true})
+				    	{
+			    		final ModelParameters p = new ModelParameters(doors, correctCoP, abab, ModelParameters.DEFAULT_EXTERNAL_AIR_TEMPERATURE_C);
+			    		final StiffBatchKernel k = new StiffBatchKernel(p, detached);
+			    		final ScenarioResult expected = reference(p, detached, temperatures);
+			    		assertEquals(expected, k.run(temperatures, false));
+			    		assertClose(expected, k.run(temperatures, true), 1e-10);
+				    	}
+
+    	// Short input.
+    	final ModelParameters p = ModelParameters.FIXES_APPLIED;
+    	assertEquals(reference(p, true, new double[]{-3}), new StiffBatchKernel(p, true).run(new double[]{-3}, false));
+    	assertEquals(reference(p, true, new double[]{-3}), new StiffBatchKernel(p, true).run(new double[]{-3}, true));
+    	try { new StiffBatchKernel(p, true).run(new double[0], false); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Test that the kernel over real hourly data matches the scalar model and runScenario(). */
+    public static void testHourlySeries() throws IOException
+	    {
+    	final HourlyTemperatureSeries temperatures = HourlyTemperatureSeries.load(new File(
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.get(0).station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	final ModelParameters p = ModelParameters.FIXES_APPLIED;
+    	for(final boolean detached : new boolean[]{false, true})
+	    	{
+    		final StiffBatchKernel k = new StiffBatchKernel(p, detached);
+    		final ScenarioResult expected = reference(p, detached, temperatures.temperaturesCopy());
+    		assertEquals(expected, k.run(temperatures, false));
+    		assertEquals(expected, new HGTRVHPMModelByHour(p, temperatures).runScenario(detached, false, null));
+    		assertClose(expected, k.run(temperatures, true), 1e-10);
+    		assertEquals(expected.hoursFractionSetbackRaisesDemand(), k.run(temperatures, true).hoursFractionSetbackRaisesDemand());
+    		// Other CoP models are honoured.
+    		final TabulatedCoPModel sample = TabulatedCoPModel.loadSample();
+    		assertEquals(new StiffBatchKernel(p, detached, sample).run(temperatures, false),
+				new HGTRVHPMModelByHour(p, temperatures, sample).runScenario(detached, false, null));
+	    	}
+	    }
+    }
@@ -0,0 +1,133 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.DDNTemperatureDataValidator;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDatasetComposer;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.data.SyntheticHourlyTemperatureGenerator;
+import org.hd.d.TRVmodel.data.SyntheticHourlyTemperatureGenerator.Format;
+import org.hd.d.TRVmodel.data.SyntheticHourlyTemperatureGenerator.Model;
+
+import junit.framework.TestCase;
+
+/**Test the synthetic hourly temperature generator and the binary series form. */
+public final class TestSyntheticHourlyTemperatureGenerator extends TestCase
+    {
+    /**Test that the fitted model of real data is plausible, and that regenerated data fits back to it. */
+    public static void testFit() throws IOException
+	    {
+    	final HourlyTemperatureSeries real = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final Model m = SyntheticHourlyTemperatureGenerator.fit(real);
+    	assertTrue(m.meanC() > 8 && m.meanC() < 15);
+    	assertTrue(m.annualAmplitudeK() > 4 && m.annualAmplitudeK() < 10);
+    	assertTrue(m.diurnalAmplitudeK() > 1 && m.diurnalAmplitudeK() < 5);
+    	assertTrue(m.ar1() > 0.8);
+
+    	final Model f = SyntheticHourlyTemperatureGenerator.fit(SyntheticHourlyTemperatureGenerator.generate(m, 1, 2010, 10));
+    	assertEquals(m.meanC(), f.meanC(), 0.5);
+    	assertEquals(m.annualAmplitudeK(), f.annualAmplitudeK(), 0.1 * m.annualAmplitudeK());
+    	assertEquals(m.diurnalAmplitudeK(), f.diurnalAmplitudeK(), 0.1 * m.diurnalAmplitudeK());
+    	assertEquals(m.ar1(), f.ar1(), 0.02);
+    	assertEquals(m.deviationSDK(), f.deviationSDK(), 0.2 * m.deviationSDK());
+	    }
+
+    /**Test that the generated clock changes match those in the real data. */
+    public static void testTimezones() throws IOException
+	    {
+    	final HourlyTemperatureSeries real = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	for(int i = 0; i < real.size(); ++i)
+	    	{ assertEquals(real.timezoneOffsetHours(i), SyntheticHourlyTemperatureGenerator.ukTimezoneOffsetHours(real.epochHourUTC(i))); }
+	    }
+
+    /**Test reproducibility, and exact round trips via CSV and the binary form. */
+    public static void testRoundTrips() throws IOException
+	    {
+    	final Model m = SyntheticHourlyTemperatureGenerator.fit(HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGPF_2018));
+    	final HourlyTemperatureSeries s = SyntheticHourlyTemperatureGenerator.generate(m, 42, 2019, 2);
+    	assertEquals(365 * 24 + 366 * 24, s.size());
+    	assertEquals(20190101, s.localDate(0));
+    	assertEquals(0, s.missingHours());
+    	assertTrue(Arrays.equals(s.contentDigest(), SyntheticHourlyTemperatureGenerator.generate(m, 42, 2019, 2).contentDigest()));
+    	assertFalse(Arrays.equals(s.contentDigest(), SyntheticHourlyTemperatureGenerator.generate(m, 43, 2019, 2).contentDigest()));
+
+    	final StringWriter w = new StringWriter();
+    	SyntheticHourlyTemperatureGenerator.writeCSV(s, "S00000", w);
+    	final DDNTemperatureDataValidator v = new DDNTemperatureDataValidator(true);
+    	final HourlyTemperatureSeries c = HourlyTemperatureSeries.parse(new StringReader(w.toString()), v);
+    	assertTrue(v.report().isClean());
+    	assertTrue(Arrays.equals(s.contentDigest(), c.contentDigest()));
+    	assertEquals(s.size(), DDNTemperatureDataCSV.parseDDNTemperatureDataCSV(new StringReader(w.toString())).data().size());
+
+    	final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    	s.write(new DataOutputStream(baos));
+    	final byte[] b = baos.toByteArray();
+    	final HourlyTemperatureSeries r = HourlyTemperatureSeries.read(new DataInputStream(new ByteArrayInputStream(b)));
+    	assertTrue(Arrays.equals(s.contentDigest(), r.contentDigest()));
+    	assertEquals(s.toString(), r.toString());
+    	try { HourlyTemperatureSeries.read(new DataInputStream(new ByteArrayInputStream(Arrays.copyOf(b, b.length - 1)))); fail(); }
+    	catch(final IOException e) { /* expected */ }
+	    }
+
+    /**Test writing a multi-station dataset in each format and loading it back. */
+    public static void testDataset() throws IOException
+	    {
+    	final List<Model> bases = List.of(SyntheticHourlyTemperatureGenerator.fit(HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018)));
+    	for(final Format format : Format.values())
+	    	{
+    		final Path dir = Files.createTempDirectory("TestSynthetic");
+    		try
+	    		{
+	    		final List<HourlyTemperatureDataDescriptor> d =
+    				SyntheticHourlyTemperatureGenerator.writeDataset(dir, bases, 3, 2018, 1, 7, format);
+	    		assertEquals(3, d.size());
+	    		final HourlyTemperatureSeries[] loaded = new HourlyTemperatureSeries[3];
+	    		for(int i = 0; i < 3; ++i)
+		    		{
+	    			assertEquals(8760, d.get(i).records());
+	    			final File f = new File(dir.toFile(), d.get(i).station() + "_CelsiusTemps_synthetic" + format.suffix);
+	    			loaded[i] = (Format.BINARY == format) ? HourlyTemperatureSeries.loadBinary(f.toPath()) : HourlyTemperatureSeries.load(f);
+	    			assertEquals(8760, loaded[i].size());
+		    		}
+	    		// Stations differ.
+	    		assertFalse(Arrays.equals(loaded[0].contentDigest(), loaded[1].contentDigest()));
+	    		final HourlyTemperatureDatasetComposer composer = new HourlyTemperatureDatasetComposer(dir);
+	    		assertEquals(3, composer.stations().size());
+	    		assertTrue(Arrays.equals(loaded[0].contentDigest(), composer.compose(d.get(0).station()).contentDigest()));
+	    		}
+    		finally
+	    		{
+    			try(var l = Files.list(dir)) { for(final Path p : l.toList()) { Files.delete(p); } }
+    			Files.delete(dir);
+	    		}
+	    	}
+	    }
+    }
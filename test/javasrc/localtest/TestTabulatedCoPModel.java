@@ -0,0 +1,146 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.CoPModel;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.TabulatedCoPModel;
+
+import junit.framework.TestCase;
+
+/**Test the tabulated (flow x source temperature) CoP model. */
+public final class TestTabulatedCoPModel extends TestCase
+    {
+    /**Build a table from the HG linear model on the given flow axis, flat across source temperatures. */
+    private static TabulatedCoPModel tabulateHGLinear(final double[] flowC, final double[] sourceC)
+	    {
+    	final double[][] cop = new double[flowC.length][sourceC.length];
+    	for(int i = 0; i < flowC.length; ++i)
+    		for(int j = 0; j < sourceC.length; ++j)
+    			{ cop[i][j] = CoPModel.HG_LINEAR.cop(flowC[i], sourceC[j]); }
+    	return(new TabulatedCoPModel(flowC, sourceC, cop));
+	    }
+
+    /**Test that the default model is the original HG linear fit, ignoring source temperature. */
+    public static void testHGLinear()
+	    {
+    	for(double f = 20; f <= 70; f += 0.7)
+	    	{
+    		assertEquals(HGTRVHPMModelParameterised.computeFlowCoP(f), CoPModel.HG_LINEAR.cop(f, -10));
+    		assertEquals(HGTRVHPMModelParameterised.computeFlowCoP(f), CoPModel.HG_LINEAR.cop(f, 10));
+	    	}
+	    }
+
+    /**Test that a table of a linear model reproduces it (within rounding) inside the table, and clamps outside. */
+    public static void testReproducesLinear()
+	    {
+    	// Non-uniform axes, which are resampled.
+    	final double[] flowC = {25, 30, 41.5, 55, 65};
+    	final double[] sourceC = {-15, -7, 2, 7, 12};
+    	final TabulatedCoPModel t = tabulateHGLinear(flowC, sourceC);
+    	assertEquals(81, t.flowPoints());
+    	assertEquals(55, t.sourcePoints());
+    	for(double f = 25; f <= 65; f += 0.37)
+    		for(double s = -15; s <= 12; s += 1.3)
+    			{ assertEquals(CoPModel.HG_LINEAR.cop(f, s), t.cop(f, s), 1e-9); }
+    	// Clamped at the edges.
+    	assertEquals(CoPModel.HG_LINEAR.cop(25, 0), t.cop(10, 0), 1e-9);
+    	assertEquals(CoPModel.HG_LINEAR.cop(65, 0), t.cop(80, 40), 1e-9);
+    	assertEquals(CoPModel.HG_LINEAR.cop(40, 0), t.cop(40, -30), 1e-9);
+	    }
+
+    /**Test that lookup is exact at table points and bilinear between them. */
+    public static void testBilinear()
+	    {
+    	final double[] flowC = {35, 45, 55};
+    	final double[] sourceC = {-7, 2, 7};
+    	final double[][] cop = {{2.8, 3.5, 4.3}, {2.3, 2.9, 3.5}, {1.9, 2.4, 2.9}};
+    	// Steps that divide the table spacing exactly.
+    	final TabulatedCoPModel t = new TabulatedCoPModel(flowC, sourceC, cop, 5, 0.5);
+    	assertEquals(5, t.flowPoints());
+    	assertEquals(29, t.sourcePoints());
+    	for(int i = 0; i < flowC.length; ++i)
+    		for(int j = 0; j < sourceC.length; ++j)
+    			{ assertEquals(cop[i][j], t.cop(flowC[i], sourceC[j]), 1e-12); }
+    	// Centre of the first cell.
+    	assertEquals((2.8 + 3.5 + 2.3 + 2.9) / 4, t.cop(40, -2.5), 1e-12);
+    	// Part way along an edge.
+    	assertEquals(2.3 + (0.25 * (2.9 - 2.3)), t.cop(45, -4.75), 1e-12);
+
+    	try { new TabulatedCoPModel(new double[]{35, 35}, sourceC, new double[][]{cop[0], cop[1]}); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try { new TabulatedCoPModel(flowC, sourceC, new double[][]{cop[0], cop[1], {1, 0, 1}}); fail(); }
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+
+    /**Test parsing of the text form and loading the sample table. */
+    public static void testParseAndSample() throws IOException
+	    {
+    	final TabulatedCoPModel t = TabulatedCoPModel.parse(new StringReader(
+			"# comment\n\nflowC\\sourceC,-7,7\n35,2.8,4.3\n55,1.9,2.9\n"));
+    	assertEquals(2.8, t.cop(35, -7), 1e-12);
+    	assertEquals(2.9, t.cop(55, 7), 1e-12);
+    	try { TabulatedCoPModel.parse(new StringReader("x,-7,7\n35,2.8\n")); fail(); }
+    	catch(final IOException e) { /* expected */ }
+    	try { TabulatedCoPModel.parse(new StringReader("x,-7,7\n35,2.8,x\n")); fail(); }
+    	catch(final IOException e) { /* expected */ }
+    	try { TabulatedCoPModel.parse(new StringReader("# nothing\n")); fail(); }
+    	catch(final IOException e) { /* expected */ }
+
+    	final TabulatedCoPModel sample = TabulatedCoPModel.loadSample();
+    	// CoP falls with flow temperature and rises with source temperature.
+    	assertTrue(sample.cop(35, 0) > sample.cop(45, 0));
+    	assertTrue(sample.cop(45, 5) > sample.cop(45, -5));
+    	// Broadly consistent with the HG fit around the original design conditions.
+    	assertEquals(CoPModel.HG_LINEAR.cop(46, -3), sample.cop(46, -3), 0.2);
+	    }
+
+    /**Test that hourly scenarios run with the tabulated model, and match the default with a table of the default. */
+    public static void testByHour() throws IOException
+	    {
+    	final HourlyTemperatureSeries temperatures = HourlyTemperatureSeries.load(new File(
+			DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.get(0).station() + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	final HGTRVHPMModelByHour linear = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, temperatures);
+    	assertSame(CoPModel.HG_LINEAR, linear.copModel());
+    	final HGTRVHPMModelByHour tabulatedLinear = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, temperatures,
+			tabulateHGLinear(new double[]{20, 40, 70}, new double[]{-30, 20}));
+    	final HGTRVHPMModelByHour sample = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, temperatures,
+			TabulatedCoPModel.loadSample());
+    	for(final boolean detached : new boolean[]{false, true})
+	    	for(final boolean soft : new boolean[]{false, true})
+		    	{
+	    		final HGTRVHPMModelByHour.ScenarioResult l = linear.runScenario(detached, soft, null);
+	    		final HGTRVHPMModelByHour.ScenarioResult tl = tabulatedLinear.runScenario(detached, soft, null);
+	    		assertEquals(l.demand().noSetback().heatPumpElectricity(), tl.demand().noSetback().heatPumpElectricity(), 1e-6);
+	    		assertEquals(l.demand().withSetback().heatPumpElectricity(), tl.demand().withSetback().heatPumpElectricity(), 1e-6);
+	    		final HGTRVHPMModelByHour.ScenarioResult s = sample.runScenario(detached, soft, null);
+	    		// Heat demand does not depend on CoP; electricity does.
+	    		assertEquals(l.demand().noSetback().heatDemand(), s.demand().noSetback().heatDemand(), 1e-9);
+	    		assertTrue(s.demand().noSetback().heatPumpElectricity() > 0);
+	    		// Not cached, so the same as computed.
+	    		assertEquals(s, sample.runScenarioCached(null, detached, soft));
+		    	}
+	    }
+    }
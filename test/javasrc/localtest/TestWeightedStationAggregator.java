@@ -0,0 +1,139 @@
+/*
+Copyright (c) 2023, Damon Hart-Davis
+
+Licensed under the Apache License, Version 2.0 (the "License");
+   you may not use this file except in compliance with the License.
+   You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+*/
+package localtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.ToDoubleFunction;
+
+import org.hd.d.TRVmodel.data.DDNTemperatureDataCSV;
+import org.hd.d.TRVmodel.data.HourlyTemperatureDataDescriptor;
+import org.hd.d.TRVmodel.data.HourlyTemperatureSeries;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelByHour.ScenarioResult;
+import org.hd.d.TRVmodel.hg.HGTRVHPMModelParameterised.ModelParameters;
+import org.hd.d.TRVmodel.hg.WeightedStationAggregator;
+import org.hd.d.TRVmodel.hg.WeightedStationAggregator.Quantity;
+import org.hd.d.TRVmodel.hg.WeightedStationAggregator.Result;
+
+import junit.framework.TestCase;
+
+/**Test weighted aggregation of hourly demand across stations. */
+public final class TestWeightedStationAggregator extends TestCase
+    {
+    /**Loader for the 201X dataset. */
+    private static final WeightedStationAggregator.SeriesLoader LOADER_201X =
+		WeightedStationAggregator.fromDirectory(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE);
+
+    /**Overall weighted mean matches weighting the per-station means, for stations with aligned data. */
+    public static void testOverallMeanMatchesStationMeans() throws IOException
+	    {
+    	final List<HourlyTemperatureDataDescriptor> stations = DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.subList(0, 3);
+    	final ToDoubleFunction<HourlyTemperatureDataDescriptor> weights = htdd -> 1 + stations.indexOf(htdd);
+    	final Result r = WeightedStationAggregator.aggregate(stations, LOADER_201X, weights, ModelParameters.FIXES_APPLIED, true, false);
+    	assertEquals(3, r.stations());
+    	assertEquals(DDNTemperatureDataCSV.RECORD_COUNT_201X_TEMPERATURE_DATA, r.hours());
+
+    	double sumW = 0, sumHeat = 0, sumEl = 0;
+    	for(final HourlyTemperatureDataDescriptor htdd : stations)
+	    	{
+    		final ScenarioResult sr = new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, LOADER_201X.load(htdd)).runScenario(true, false, null);
+    		final double w = weights.applyAsDouble(htdd);
+    		sumW += w;
+    		sumHeat += w * sr.demand().noSetback().heatDemand();
+    		sumEl += w * sr.demand().withSetback().heatPumpElectricity();
+	    	}
+    	assertEquals(sumW, r.totalWeight());
+    	assertEquals(sumHeat / sumW, r.overallMean(Quantity.HEAT_NO_SETBACK), 1e-9 * (sumHeat / sumW));
+    	assertEquals(sumEl / sumW, r.overallMean(Quantity.ELECTRICITY_WITH_SETBACK), 1e-9 * (sumEl / sumW));
+    	for(int h = 0; h < r.hours(); h += 997) { assertEquals(sumW, r.weight(h)); }
+	    }
+
+    /**Series covering different spans are aligned on UTC hour, and each hour matches the single-station model. */
+    public static void testAlignment() throws IOException
+	    {
+    	final HourlyTemperatureSeries s2018 = HourlyTemperatureSeries.load(DDNTemperatureDataCSV.DATA_EGLL_2018);
+    	final HourlyTemperatureSeries s201X = HourlyTemperatureSeries.load(new File(DDNTemperatureDataCSV.PATH_TO_201X_TEMPERATURE_DATA,
+			"EGLL" + DDNTemperatureDataCSV.FILE_TAIL_FOR_201X_TEMPERATURE_FILE));
+    	final HourlyTemperatureDataDescriptor d2018 = new HourlyTemperatureDataDescriptor("EGLL", "London 2018", 0, 2);
+    	final HourlyTemperatureDataDescriptor d201X = new HourlyTemperatureDataDescriptor("EGLL", "London 201X", 0, 3);
+    	final Result r = WeightedStationAggregator.aggregate(Arrays.asList(d2018, d201X),
+			htdd -> (htdd == d2018) ? s2018 : s201X,
+			ModelParameters.FIXES_APPLIED, false, true);
+    	assertEquals(s201X.epochHourUTC(0), r.firstEpochHourUTC());
+    	assertEquals(s201X.epochHourUTC(s201X.size() - 1) - s201X.epochHourUTC(0) + 1, r.hours());
+
+    	final double[] heat2018 = new double[s2018.size()];
+    	new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, s2018).forEachHeatingHour(false, true,
+			(i, d) -> heat2018[i] = d.noSetback().heatDemand());
+    	final double[] heat201X = new double[s201X.size()];
+    	new HGTRVHPMModelByHour(ModelParameters.FIXES_APPLIED, s201X).forEachHeatingHour(false, true,
+			(i, d) -> heat201X[i] = d.noSetback().heatDemand());
+
+    	// Hours outside 2018 have only the 201X series.
+    	assertEquals(3.0, r.weight(0));
+    	assertEquals(3 * heat201X[0], r.sum(Quantity.HEAT_NO_SETBACK, 0), 1e-9);
+    	for(int i = 0; i < s201X.size(); i += 101)
+	    	{
+    		final int h = (int) (s201X.epochHourUTC(i) - r.firstEpochHourUTC());
+    		final long e = s201X.epochHourUTC(i);
+    		final boolean in2018 = (e >= s2018.epochHourUTC(0)) && (e <= s2018.epochHourUTC(s2018.size() - 1));
+    		assertEquals(in2018 ? 5.0 : 3.0, r.weight(h));
+    		if(!in2018) { assertEquals(heat201X[i], r.mean(Quantity.HEAT_NO_SETBACK, h), 1e-9); }
+	    	}
+    	for(int i = 0; i < s2018.size(); i += 37)
+	    	{
+    		final int h = (int) (s2018.epochHourUTC(i) - r.firstEpochHourUTC());
+    		final int j = (int) (s2018.epochHourUTC(i) - s201X.epochHourUTC(0));
+    		if((j >= s201X.size()) || (s201X.epochHourUTC(j) != s2018.epochHourUTC(i))) { continue; } // Gaps in 201X.
+    		assertEquals((2 * heat2018[i]) + (3 * heat201X[j]), r.sum(Quantity.HEAT_NO_SETBACK, h), 1e-6);
+	    	}
+	    }
+
+    /**Bad and all-zero weights are rejected, as are the shipped descriptors' unknown households. */
+    public static void testBadWeights() throws IOException
+	    {
+    	final List<HourlyTemperatureDataDescriptor> stations = DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET.subList(0, 2);
+    	for(final HourlyTemperatureDataDescriptor htdd : DDNTemperatureDataCSV.DESCRIPTORS_201X_DATASET) { assertEquals(0.0, htdd.households()); }
+    	try
+	    	{
+    		WeightedStationAggregator.aggregate(stations, LOADER_201X, ModelParameters.FIXES_APPLIED, true, false);
+    		fail("expected IllegalArgumentException");
+	    	}
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try
+	    	{
+    		WeightedStationAggregator.aggregate(stations, LOADER_201X, htdd -> 0, ModelParameters.FIXES_APPLIED, true, false);
+    		fail("expected IllegalArgumentException");
+	    	}
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try
+	    	{
+    		WeightedStationAggregator.aggregate(stations, LOADER_201X, htdd -> -1, ModelParameters.FIXES_APPLIED, true, false);
+    		fail("expected IllegalArgumentException");
+	    	}
+    	catch(final IllegalArgumentException e) { /* expected */ }
+    	try
+	    	{
+    		new HourlyTemperatureDataDescriptor("EGLL", "London", 0, Double.NaN);
+    		fail("expected IllegalArgumentException");
+	    	}
+    	catch(final IllegalArgumentException e) { /* expected */ }
+	    }
+    }